@@ -36,6 +36,24 @@ public class BrokerStatusView {
     private long errorTasks;
     private long finishedTasks;
     private long runningTasks;
+    private long followerLagEntries;
+    private long followerLagMillis;
+
+    public long getFollowerLagEntries() {
+        return followerLagEntries;
+    }
+
+    public void setFollowerLagEntries(long followerLagEntries) {
+        this.followerLagEntries = followerLagEntries;
+    }
+
+    public long getFollowerLagMillis() {
+        return followerLagMillis;
+    }
+
+    public void setFollowerLagMillis(long followerLagMillis) {
+        this.followerLagMillis = followerLagMillis;
+    }
 
     public long getDelayedTasks() {
         return delayedTasks;
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import majordodo.task.AddTaskResult;
 import majordodo.task.Broker;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Client API
@@ -50,6 +51,16 @@ public class ClientFacade {
         return new SubmitTaskResult(res.taskId, res.error);
     }
 
+    /**
+     * Submits a task without waiting for the log
+     *
+     * @param task
+     * @return
+     */
+    public CompletableFuture<SubmitTaskResult> submitTaskAsync(AddTaskRequest task) {
+        return broker.addTaskAsync(task).thenApply(res -> new SubmitTaskResult(res.taskId, res.error));
+    }
+
     public TransactionStatus getTransaction(long transactionId) throws Exception {
         return broker.getTransactionStatus(transactionId);
     }
@@ -30,6 +30,10 @@ import java.util.List;
 public class DelayedTasksQueueView {
 
     private List<TaskStatus> tasks = new ArrayList<>();
+    private long resumedTasks;
+    private long averageResumeLag;
+    private long maxResumeLag;
+    private long lastResumeLag;
 
     public List<TaskStatus> getTasks() {
         return tasks;
@@ -39,6 +43,44 @@ public class DelayedTasksQueueView {
         this.tasks = tasks;
     }
 
+    /**
+     * Number of delayed tasks resumed since the broker became leader
+     */
+    public long getResumedTasks() {
+        return resumedTasks;
+    }
+
+    public void setResumedTasks(long resumedTasks) {
+        this.resumedTasks = resumedTasks;
+    }
+
+    /**
+     * Average time (ms) elapsed between the requested start time of a task and its actual resume
+     */
+    public long getAverageResumeLag() {
+        return averageResumeLag;
+    }
+
+    public void setAverageResumeLag(long averageResumeLag) {
+        this.averageResumeLag = averageResumeLag;
+    }
+
+    public long getMaxResumeLag() {
+        return maxResumeLag;
+    }
+
+    public void setMaxResumeLag(long maxResumeLag) {
+        this.maxResumeLag = maxResumeLag;
+    }
+
+    public long getLastResumeLag() {
+        return lastResumeLag;
+    }
+
+    public void setLastResumeLag(long lastResumeLag) {
+        this.lastResumeLag = lastResumeLag;
+    }
+
     public static class TaskStatus {
 
         private long taskId;
@@ -111,6 +111,8 @@ public class HttpAPIImplementation {
                     resultMap.put("status", status.getClusterMode());
                     resultMap.put("currentLedgerId", status.getCurrentLedgerId() + "");
                     resultMap.put("currentSequenceNumber", status.getCurrentSequenceNumber() + "");
+                    resultMap.put("followerLagEntries", status.getFollowerLagEntries());
+                    resultMap.put("followerLagMillis", status.getFollowerLagMillis());
                     resultMap.put("version", Broker.VERSION());
                     resultMap.put("tasks", status.getTasks());
                     resultMap.put("pendingtasks", status.getPendingTasks());
@@ -22,33 +22,45 @@ package majordodo.replication;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import majordodo.task.BrokerStatusSnapshot;
 import majordodo.task.LogNotAvailableException;
 import majordodo.task.LogSequenceNumber;
 import majordodo.task.StatusChangesLog;
 import majordodo.task.StatusEdit;
+import majordodo.task.StatusEditEncoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -56,8 +68,6 @@ import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 import majordodo.network.BrokerHostData;
 import majordodo.network.BrokerNotAvailableException;
 import majordodo.network.BrokerRejectedConnectionException;
@@ -76,6 +86,7 @@ import org.apache.bookkeeper.client.BKException.BKNotEnoughBookiesException;
 import org.apache.bookkeeper.client.BookKeeper;
 import org.apache.bookkeeper.client.LedgerEntry;
 import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.client.api.LastConfirmedAndEntry;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 
 /**
@@ -89,15 +100,31 @@ public class ReplicatedCommitLog extends StatusChangesLog {
 
     private static final Logger LOGGER = Logger.getLogger(ReplicatedCommitLog.class.getName());
     private static final long DOWNLOAD_FROM_MASTER_TIMEOUT = Long.parseLong(System.getProperty("majordodo.downloadfrommaster.timeout", "240000"));
+    private static final int SNAPSHOT_CHUNK_SIZE = Integer.parseInt(System.getProperty("majordodo.snapshot.chunksize", "1048576"));
+    private static final int RECOVERY_BATCH_SIZE = 10000;
+    private static final int RECOVERY_READ_AHEAD = Integer.parseInt(System.getProperty("majordodo.recovery.readahead", "4"));
+    private static final int RECOVERY_DECODER_THREADS = Integer.parseInt(System.getProperty("majordodo.recovery.decoderthreads",
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2) + ""));
+    private static final int SNAPSHOT_DOWNLOAD_MAX_ATTEMPTS = Integer.parseInt(System.getProperty("majordodo.snapshot.downloadattempts", "5"));
+    private static final long FOLLOWER_LONG_POLL_TIMEOUT = Long.parseLong(System.getProperty("majordodo.follower.longpolltimeout", "1000"));
+    private static final int FOLLOWER_READ_BATCH_SIZE = 1000;
 
     private String sharedSecret = "dodo";
     private BookKeeper bookKeeper;
     private ZKClusterManager zKClusterManager;
     private final ReentrantLock writeLock = new ReentrantLock();
+    // first error reported by an asynchronous write, after it the log does not accept edits any more
+    private final AtomicReference<Throwable> writeFailure = new AtomicReference<>();
+    // handles the failures of asynchronous writes, out of the callback threads of BookKeeper
+    private final ExecutorService writeFailureHandler = Executors.newSingleThreadExecutor((Runnable r) -> {
+        Thread t = new Thread(r, "dodo-commitlog-write-failure");
+        t.setDaemon(true);
+        return t;
+    });
     private final ReentrantLock snapshotLock = new ReentrantLock();
     private volatile CommitFileWriter writer;
     private long currentLedgerId = 0;
-    private long lastSequenceNumber = -1;
+    private volatile long lastSequenceNumber = -1;
     private Path snapshotsDirectory;
     private LedgersInfo actualLedgersList;
     // these are expected to be configurable at runtime from the EmbeddedBroker
@@ -109,6 +136,14 @@ public class ReplicatedCommitLog extends StatusChangesLog {
     private long writtenBytes = 0;
     private boolean sslUnsecure = true;
     private final String brokerId;
+    // ledger of the leader which is being tailed while this broker is a follower
+    private volatile LedgerHandle followerHandle;
+    private volatile long followerLagEntries;
+    private volatile long followerBehindSince;
+    // active ledgers seen by the follower, in order not to read them from ZooKeeper at every long-poll
+    private volatile List<Long> followerLedgers;
+    private long followerLedgersRefreshTime;
+    private final AtomicLong followerLedgersReads = new AtomicLong();
 
     @Override
     public boolean isSslUnsecure() {
@@ -142,7 +177,13 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         return actualLedgersList;
     }
 
-    private byte[] downloadSnapshotFromMaster(BrokerHostData broker) throws Exception {
+    /**
+     * Downloads the actual snapshot from the leader, chunk by chunk, on a temporary file. Interrupted transfers are
+     * resumed from the last received chunk
+     *
+     * @return the file which contains the serialized snapshot
+     */
+    private Path downloadSnapshotFromMaster(BrokerHostData broker) throws Exception {
 
         InetSocketAddress addre = broker.getSocketAddress();
         boolean ssl = broker.isSsl();
@@ -150,36 +191,81 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         if (host == null) {
             host = addre.getAddress().getHostAddress();
         }
-        LOGGER.log(Level.SEVERE, "Downloading snapshot from " + addre + " ssl=" + ssl
-            + ", using hostname " + host + ", sslUnsecure:" + sslUnsecure);
-        try (NettyBrokerLocator connector = new NettyBrokerLocator(host, addre.getPort(), broker.isSsl())) {
-            connector.setSslUnsecure(sslUnsecure);
-            try (Channel channel = connector.connect(new ChannelEventListener() {
-                @Override
-                public void messageReceived(Message message) {
+        ensureDirectories();
+        Path file = snapshotsDirectory.resolve("download" + SNAPSHOTFILEXTENSION + ".tmp");
+        String snapshotId = null;
+        long size = 0;
+        long offset = 0;
+        Exception lastError = null;
+        for (int attempt = 1; attempt <= SNAPSHOT_DOWNLOAD_MAX_ATTEMPTS; attempt++) {
+            LOGGER.log(Level.SEVERE, "Downloading snapshot from " + addre + " ssl=" + ssl
+                + ", using hostname " + host + ", sslUnsecure:" + sslUnsecure + ", attempt " + attempt + ", offset " + offset);
+            try (NettyBrokerLocator connector = new NettyBrokerLocator(host, addre.getPort(), broker.isSsl())) {
+                connector.setSslUnsecure(sslUnsecure);
+                try (Channel channel = connector.connect(new ChannelEventListener() {
+                    @Override
+                    public void messageReceived(Message message) {
 
-                }
+                    }
 
-                @Override
-                public void channelClosed() {
+                    @Override
+                    public void channelClosed() {
 
-                }
-            }, brokerConnectionRequestInfo);) {
+                    }
+                }, brokerConnectionRequestInfo);
+                    FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);) {
 
-                Message acceptMessage = Message.SNAPSHOT_DOWNLOAD_REQUEST();
-                try {
-                    Message connectionResponse = channel.sendMessageWithReply(acceptMessage, DOWNLOAD_FROM_MASTER_TIMEOUT);
-                    if (connectionResponse.type == Message.TYPE_SNAPSHOT_DOWNLOAD_RESPONSE) {
-                        byte[] data = (byte[]) connectionResponse.parameters.get("data");
-                        return data;
-                    } else {
-                        throw new BrokerRejectedConnectionException("Broker rejected snapshot request, response message:" + connectionResponse);
+                    if (snapshotId == null) {
+                        Message response = channel.sendMessageWithReply(Message.SNAPSHOT_DOWNLOAD_REQUEST(SNAPSHOT_CHUNK_SIZE), DOWNLOAD_FROM_MASTER_TIMEOUT);
+                        if (response.type != Message.TYPE_SNAPSHOT_DOWNLOAD_RESPONSE) {
+                            throw new BrokerRejectedConnectionException("Broker rejected snapshot request, response message:" + response);
+                        }
+                        out.truncate(0);
+                        byte[] data = (byte[]) response.parameters.get("data");
+                        if (data != null) {
+                            // leader of a previous version
+                            writeFully(out, data, 0);
+                            return file;
+                        }
+                        snapshotId = (String) response.parameters.get("snapshotId");
+                        size = ((Number) response.parameters.get("size")).longValue();
+                        offset = 0;
+                        LOGGER.log(Level.SEVERE, "Snapshot " + snapshotId + " is " + size + " bytes");
                     }
-                } catch (TimeoutException err) {
-                    throw new BrokerNotAvailableException(err);
+                    while (offset < size) {
+                        Message response = channel.sendMessageWithReply(Message.SNAPSHOT_CHUNK_REQUEST(snapshotId, offset, SNAPSHOT_CHUNK_SIZE), DOWNLOAD_FROM_MASTER_TIMEOUT);
+                        byte[] data = response.type == Message.TYPE_SNAPSHOT_CHUNK_RESPONSE ? (byte[]) response.parameters.get("data") : null;
+                        if (data == null || data.length == 0) {
+                            // the leader cannot serve this snapshot anymore, we have to start again
+                            snapshotId = null;
+                            offset = 0;
+                            throw new IOException("bad response to snapshot chunk request:" + response);
+                        }
+                        writeFully(out, data, offset);
+                        offset += data.length;
+                        LOGGER.log(Level.FINE, "downloaded {0}/{1} bytes of snapshot", new Object[]{offset, size});
+                    }
+                    try {
+                        // let the leader drop the snapshot, otherwise it expires after a while
+                        channel.sendMessageWithReply(Message.SNAPSHOT_DOWNLOAD_DONE(snapshotId), DOWNLOAD_FROM_MASTER_TIMEOUT);
+                    } catch (TimeoutException err) {
+                        LOGGER.log(Level.INFO, "leader did not acknowledge the download of snapshot " + snapshotId + ": " + err);
+                    }
+                    return file;
                 }
+            } catch (BrokerNotAvailableException | TimeoutException | IOException err) {
+                LOGGER.log(Level.SEVERE, "snapshot download stopped at " + offset + "/" + size + " bytes: " + err, err);
+                lastError = err;
             }
         }
+        throw lastError;
+    }
+
+    private static void writeFully(FileChannel out, byte[] data, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            out.write(buffer, position + buffer.position());
+        }
     }
 
     protected long getCurrentLedgerId() {
@@ -189,6 +275,7 @@ public class ReplicatedCommitLog extends StatusChangesLog {
     private class CommitFileWriter implements AutoCloseable {
 
         private LedgerHandle out;
+        private CompletableFuture<Long> lastAsyncWrite = CompletableFuture.completedFuture(null);
 
         private CommitFileWriter() throws LogNotAvailableException {
             try {
@@ -212,9 +299,9 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         public long writeEntry(StatusEdit edit) throws LogNotAvailableException, BKException.BKLedgerClosedException, BKException.BKLedgerFencedException, BKNotEnoughBookiesException {
             long _start = System.currentTimeMillis();
             try {
-                byte[] serialize = edit.serialize();
-                writtenBytes += serialize.length;
-                long res = this.out.addEntry(serialize);
+                ByteBuf serialize = StatusEditEncoder.get().encode(edit, PooledByteBufAllocator.DEFAULT);
+                writtenBytes += serialize.readableBytes();
+                long res = addEntry(serialize);
                 if (writtenBytes > maxLogicalLogFileSize) {
                     LOGGER.log(Level.SEVERE, "{0} bytes written to ledger. need to open a new one", writtenBytes);
                     openNewLedger();
@@ -238,11 +325,65 @@ public class ReplicatedCommitLog extends StatusChangesLog {
             }
         }
 
+        /**
+         * Writes an entry and waits for the acknowledge. The ledger takes the ownership of the buffer and releases it
+         */
+        private long addEntry(ByteBuf serialize) throws BKException, InterruptedException {
+            CompletableFuture<Long> res = new CompletableFuture<>();
+            this.out.asyncAddEntry(serialize, new AsyncCallback.AddCallback() {
+                @Override
+                public void addComplete(int rc, LedgerHandle lh, long entryId, Object ctx) {
+                    if (rc != BKException.Code.OK) {
+                        res.completeExceptionally(BKException.create(rc));
+                    } else {
+                        res.complete(entryId);
+                    }
+                }
+            }, null);
+            try {
+                return res.get();
+            } catch (ExecutionException err) {
+                throw (BKException) err.getCause();
+            }
+        }
+
+        /**
+         * Writes an entry without waiting for the acknowledge of the bookies. Entries are acknowledged in the same order
+         * they are written
+         */
+        public CompletableFuture<Long> writeEntryAsync(StatusEdit edit) {
+            CompletableFuture<Long> res = new CompletableFuture<>();
+            ByteBuf serialize = StatusEditEncoder.get().encode(edit, PooledByteBufAllocator.DEFAULT);
+            writtenBytes += serialize.readableBytes();
+            this.out.asyncAddEntry(serialize, new AsyncCallback.AddCallback() {
+                @Override
+                public void addComplete(int rc, LedgerHandle lh, long entryId, Object ctx) {
+                    if (rc != BKException.Code.OK) {
+                        res.completeExceptionally(BKException.create(rc));
+                    } else {
+                        res.complete(entryId);
+                    }
+                }
+            }, null);
+            lastAsyncWrite = res;
+            return res;
+        }
+
+        /**
+         * Waits for the acknowledge of the entries written with {@link #writeEntryAsync(majordodo.task.StatusEdit) }.
+         * Callers do not hold the writeLock, so that no write completion can ever wait for it
+         */
+        private void awaitPendingWrites() {
+            lastAsyncWrite.handle((entryId, error) -> null).join();
+        }
+
         public void close() throws LogNotAvailableException {
             if (out == null) {
                 return;
             }
             try {
+                // closing the ledger would make pending writes fail, usually they have already been awaited
+                awaitPendingWrites();
                 out.close();
             } catch (Exception err) {
                 throw new LogNotAvailableException(err);
@@ -268,8 +409,8 @@ public class ReplicatedCommitLog extends StatusChangesLog {
                 }
                 for (int i = 0; i < size; i++) {
                     StatusEdit edit = edits.get(i);
-                    byte[] serialize = edit.serialize();
-                    writtenBytes += serialize.length;
+                    ByteBuf serialize = StatusEditEncoder.get().encode(edit, PooledByteBufAllocator.DEFAULT);
+                    writtenBytes += serialize.readableBytes();
                     this.out.asyncAddEntry(serialize, new AsyncCallback.AddCallback() {
                         @Override
                         public void addComplete(int rc, LedgerHandle lh, long entryId, Object i) {
@@ -475,6 +616,7 @@ public class ReplicatedCommitLog extends StatusChangesLog {
             if (closed) {
                 throw new LogNotAvailableException(new Exception("closed"));
             }
+            checkWriteFailure();
             writeLock.lock();
             try {
                 if (writer == null) {
@@ -519,6 +661,7 @@ public class ReplicatedCommitLog extends StatusChangesLog {
             if (closed) {
                 throw new LogNotAvailableException(new Exception("closed"));
             }
+            checkWriteFailure();
             writeLock.lock();
             try {
                 if (writer == null) {
@@ -554,6 +697,111 @@ public class ReplicatedCommitLog extends StatusChangesLog {
 
     }
 
+    @Override
+    public CompletableFuture<LogSequenceNumber> logStatusEditAsync(StatusEdit edit) {
+        CompletableFuture<LogSequenceNumber> result = new CompletableFuture<>();
+        writeAsync(edit, result);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<List<LogSequenceNumber>> logStatusEditBatchAsync(List<StatusEdit> edits) {
+        int size = edits.size();
+        List<CompletableFuture<LogSequenceNumber>> futures = new ArrayList<>(size);
+        writeLock.lock();
+        try {
+            // keep the entries of the batch contiguous on the ledger
+            for (StatusEdit edit : edits) {
+                CompletableFuture<LogSequenceNumber> result = new CompletableFuture<>();
+                writeAsync(edit, result);
+                futures.add(result);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[size]))
+            .thenApply(v -> {
+                List<LogSequenceNumber> res = new ArrayList<>(size);
+                for (CompletableFuture<LogSequenceNumber> future : futures) {
+                    res.add(future.join());
+                }
+                return res;
+            });
+    }
+
+    private void checkWriteFailure() throws LogNotAvailableException {
+        Throwable failure = writeFailure.get();
+        if (failure != null) {
+            throw new LogNotAvailableException(failure);
+        }
+    }
+
+    private void writeAsync(StatusEdit edit, CompletableFuture<LogSequenceNumber> result) {
+        if (closing) {
+            result.completeExceptionally(new LogNotAvailableException(new Exception("closed")));
+            return;
+        }
+        CommitFileWriter rolledWriter = null;
+        writeLock.lock();
+        try {
+            checkWriteFailure();
+            if (writer == null) {
+                throw new LogNotAvailableException(new Exception("no ledger opened for writing"));
+            }
+            long ledgerId = currentLedgerId;
+            writer.writeEntryAsync(edit).whenComplete((entryId, error) -> {
+                if (error == null) {
+                    if (ledgerId == currentLedgerId) {
+                        lastSequenceNumber = entryId;
+                    }
+                    result.complete(new LogSequenceNumber(ledgerId, entryId));
+                } else {
+                    handleAsyncWriteError(ledgerId, error, result);
+                }
+            });
+            if (writtenBytes > maxLogicalLogFileSize) {
+                LOGGER.log(Level.SEVERE, "{0} bytes written to ledger. need to open a new one", writtenBytes);
+                // the previous ledger is closed out of the lock, once its pending writes are acknowledged
+                rolledWriter = writer;
+                writer = null;
+                openNewLedger();
+            }
+        } catch (LogNotAvailableException | RuntimeException err) {
+            result.completeExceptionally(err);
+        } finally {
+            writeLock.unlock();
+        }
+        if (rolledWriter != null) {
+            rolledWriter.awaitPendingWrites();
+            closeWriter(rolledWriter);
+        }
+    }
+
+    /**
+     * The first failed write stops the write pipeline. The edits which follow it may have already been acknowledged,
+     * on the same ledger or on a new one, so writing the failed edit again would break the order of the log: the log is
+     * closed and the broker fails, the new leader will recover from the ledgers
+     */
+    private void handleAsyncWriteError(long ledgerId, Throwable error, CompletableFuture<LogSequenceNumber> result) {
+        boolean first = writeFailure.compareAndSet(null, error);
+        result.completeExceptionally(new LogNotAvailableException(error));
+        if (!first) {
+            return;
+        }
+        LOGGER.log(Level.SEVERE, "error while writing to ledger " + ledgerId + ", the log does not accept edits any more", error);
+        try {
+            // this code runs inside a BookKeeper callback, closing a ledger from here would block the client
+            writeFailureHandler.execute(() -> {
+                if (!closed) {
+                    close();
+                    signalBrokerFailed(error);
+                }
+            });
+        } catch (RejectedExecutionException alreadyClosed) {
+            LOGGER.log(Level.FINE, "log already closed", alreadyClosed);
+        }
+    }
+
     private void openNewLedger() throws LogNotAvailableException {
         writeLock.lock();
         try {
@@ -581,6 +829,9 @@ public class ReplicatedCommitLog extends StatusChangesLog {
 
     @Override
     public void recovery(LogSequenceNumber snapshotSequenceNumber, BiConsumer<LogSequenceNumber, StatusEdit> consumer, boolean fencing) throws LogNotAvailableException {
+        closeFollowerHandle();
+        followerLagEntries = 0;
+        followerBehindSince = 0;
         this.actualLedgersList = zKClusterManager.getActualLedgersList();
         LOGGER.log(Level.SEVERE, "Actual ledgers list:" + actualLedgersList);
         this.currentLedgerId = snapshotSequenceNumber.ledgerId;
@@ -589,6 +840,13 @@ public class ReplicatedCommitLog extends StatusChangesLog {
             // TODO: download snapshot from another remote broker
             throw new LogNotAvailableException(new Exception("Actual ledgers list does not include latest snapshot ledgerid:" + currentLedgerId + ". manual recoveryis needed (pickup a recent snapshot from a live broker please)"));
         }
+        ExecutorService decoders = Executors.newFixedThreadPool(RECOVERY_DECODER_THREADS, (Runnable r) -> {
+            Thread t = new Thread(r, "dodo-recovery-decoder");
+            t.setDaemon(true);
+            return t;
+        });
+        long recoveryStart = System.currentTimeMillis();
+        long replayedEntries = 0;
         try {
             for (long ledgerId : actualLedgersList.getActiveLedgers()) {
 
@@ -613,36 +871,17 @@ public class ReplicatedCommitLog extends StatusChangesLog {
                     }
                     long lastAddConfirmed = handle.getLastAddConfirmed();
                     LOGGER.log(Level.SEVERE, "Recovering from ledger " + ledgerId + ", first=" + first, " lastAddConfirmed=" + lastAddConfirmed);
-                    final int BATCH_SIZE = 10000;
                     if (lastAddConfirmed >= 0) {
-
-                        for (long b = first; b <= lastAddConfirmed;) {
-                            long start = b;
-                            long end = b + BATCH_SIZE;
-                            if (end > lastAddConfirmed) {
-                                end = lastAddConfirmed;
-                            }
-                            b = end + 1;
-                            double percent = ((start - first) * 100.0 / (lastAddConfirmed + 1));
-                            LOGGER.log(Level.SEVERE, "From entry {0}, to entry {1} ({2} %)", new Object[]{start, end, percent});
-                            Enumeration<LedgerEntry> seq = handle.readEntries(start, end);
-                            while (seq.hasMoreElements()) {
-                                LedgerEntry entry = seq.nextElement();
-                                LogSequenceNumber number = new LogSequenceNumber(ledgerId, entry.getEntryId());
-                                StatusEdit statusEdit = StatusEdit.read(entry.getEntry());
-                                if (number.after(snapshotSequenceNumber)) {
-                                    LOGGER.log(Level.FINEST, "RECOVER ENTRY {0}, {1}", new Object[]{number, statusEdit});
-                                    consumer.accept(number, statusEdit);
-                                } else {
-                                    LOGGER.log(Level.FINEST, "SKIP ENTRY {0}<{1}, {2}", new Object[]{number, snapshotSequenceNumber, statusEdit});
-                                }
-                            }
-                        }
+                        replayedEntries += replayLedger(handle, first, lastAddConfirmed, snapshotSequenceNumber, consumer, decoders,
+                            recoveryStart, replayedEntries);
                     }
                 } finally {
                     handle.close();
                 }
             }
+            long elapsed = Math.max(1, System.currentTimeMillis() - recoveryStart);
+            LOGGER.log(Level.INFO, "Recovery replayed {0} entries in {1} ms ({2} entries/s)",
+                new Object[]{replayedEntries, elapsed, replayedEntries * 1000 / elapsed});
         } catch (InterruptedException | BKException err) {
             LOGGER.log(Level.SEVERE, "Fatal error during recovery", err);
             signalBrokerFailed(err);
@@ -651,7 +890,106 @@ public class ReplicatedCommitLog extends StatusChangesLog {
             LOGGER.log(Level.SEVERE, "Unknown fatal error during recovery", err);
             signalBrokerFailed(err);
             throw new LogNotAvailableException(err);
+        } finally {
+            decoders.shutdownNow();
+        }
+    }
+
+    /**
+     * Replays the entries of a ledger. Reads are issued {@link #RECOVERY_READ_AHEAD} batches ahead, entries are
+     * decoded on the given pool and then applied in order by the calling thread. If replay fails the pending batches
+     * are cancelled and their reads are drained, so that nothing keeps reading the ledger once this method returns
+     *
+     * @return the number of entries read from the ledger
+     */
+    private long replayLedger(LedgerHandle handle, long first, long lastAddConfirmed, LogSequenceNumber snapshotSequenceNumber,
+        BiConsumer<LogSequenceNumber, StatusEdit> consumer, ExecutorService decoders,
+        long recoveryStart, long previouslyReplayed) throws InterruptedException, BKException {
+        long ledgerId = handle.getId();
+        Deque<CompletableFuture<Enumeration<LedgerEntry>>> reads = new ArrayDeque<>();
+        Deque<CompletableFuture<List<Map.Entry<LogSequenceNumber, StatusEdit>>>> pipeline = new ArrayDeque<>();
+        long nextToRead = first;
+        long replayed = 0;
+        boolean done = false;
+        try {
+            while (nextToRead <= lastAddConfirmed || !pipeline.isEmpty()) {
+                while (nextToRead <= lastAddConfirmed && pipeline.size() < RECOVERY_READ_AHEAD) {
+                    long end = Math.min(nextToRead + RECOVERY_BATCH_SIZE - 1, lastAddConfirmed);
+                    CompletableFuture<Enumeration<LedgerEntry>> read = readEntriesAsync(handle, nextToRead, end);
+                    reads.add(read);
+                    pipeline.add(read.thenApplyAsync(ReplicatedCommitLog::decodeEntries, decoders));
+                    nextToRead = end + 1;
+                }
+                List<Map.Entry<LogSequenceNumber, StatusEdit>> batch;
+                try {
+                    batch = pipeline.peek().get();
+                } catch (ExecutionException err) {
+                    if (err.getCause() instanceof BKException) {
+                        throw (BKException) err.getCause();
+                    }
+                    throw new RuntimeException(err.getCause());
+                }
+                pipeline.poll();
+                reads.poll();
+                replayed += replayBatch(batch, snapshotSequenceNumber, consumer);
+                if (!batch.isEmpty()) {
+                    long lastEntry = batch.get(batch.size() - 1).getKey().sequenceNumber;
+                    double percent = (lastEntry + 1) * 100.0 / (lastAddConfirmed + 1);
+                    long elapsed = Math.max(1, System.currentTimeMillis() - recoveryStart);
+                    LOGGER.log(Level.FINE, "Ledger {0}, replayed up to entry {1} ({2} %), {3} entries/s",
+                        new Object[]{ledgerId, lastEntry, percent, (previouslyReplayed + replayed) * 1000 / elapsed});
+                }
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                for (CompletableFuture<?> decoding : pipeline) {
+                    decoding.cancel(false);
+                }
+                // reads on BookKeeper cannot be cancelled, wait for them before the ledger gets closed
+                for (CompletableFuture<?> read : reads) {
+                    read.handle((result, error) -> null).join();
+                }
+            }
         }
+        return replayed;
+    }
+
+    private static int replayBatch(List<Map.Entry<LogSequenceNumber, StatusEdit>> batch, LogSequenceNumber snapshotSequenceNumber,
+        BiConsumer<LogSequenceNumber, StatusEdit> consumer) {
+        for (Map.Entry<LogSequenceNumber, StatusEdit> entry : batch) {
+            LogSequenceNumber number = entry.getKey();
+            StatusEdit statusEdit = entry.getValue();
+            if (number.after(snapshotSequenceNumber)) {
+                LOGGER.log(Level.FINEST, "RECOVER ENTRY {0}, {1}", new Object[]{number, statusEdit});
+                consumer.accept(number, statusEdit);
+            } else {
+                LOGGER.log(Level.FINEST, "SKIP ENTRY {0}<{1}, {2}", new Object[]{number, snapshotSequenceNumber, statusEdit});
+            }
+        }
+        return batch.size();
+    }
+
+    private static CompletableFuture<Enumeration<LedgerEntry>> readEntriesAsync(LedgerHandle handle, long first, long last) {
+        CompletableFuture<Enumeration<LedgerEntry>> res = new CompletableFuture<>();
+        handle.asyncReadEntries(first, last, (int rc, LedgerHandle lh, Enumeration<LedgerEntry> seq, Object ctx) -> {
+            if (rc == BKException.Code.OK) {
+                res.complete(seq);
+            } else {
+                res.completeExceptionally(BKException.create(rc));
+            }
+        }, null);
+        return res;
+    }
+
+    private static List<Map.Entry<LogSequenceNumber, StatusEdit>> decodeEntries(Enumeration<LedgerEntry> seq) {
+        List<Map.Entry<LogSequenceNumber, StatusEdit>> res = new ArrayList<>();
+        while (seq.hasMoreElements()) {
+            LedgerEntry entry = seq.nextElement();
+            LogSequenceNumber number = new LogSequenceNumber(entry.getLedgerId(), entry.getEntryId());
+            res.add(new AbstractMap.SimpleImmutableEntry<>(number, StatusEdit.read(entry.getEntry())));
+        }
+        return res;
     }
 
     @Override
@@ -675,7 +1013,7 @@ public class ReplicatedCommitLog extends StatusChangesLog {
 
     @Override
     public boolean isWritable() {
-        return writer != null;
+        return writer != null && writeFailure.get() == null;
     }
 
     private void ensureDirectories() throws LogNotAvailableException {
@@ -708,10 +1046,11 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         try (DirectoryStream<Path> allfiles = Files.newDirectoryStream(snapshotsDirectory)) {
             for (Path path : allfiles) {
                 String other_filename = path.getFileName() + "";
-                if (other_filename.endsWith(SNAPSHOTFILEXTENSION)) {
+                String baseName = BrokerStatusSnapshot.getSnapshotFileBaseName(other_filename);
+                if (baseName != null) {
                     LOGGER.log(Level.SEVERE, "Processing snapshot file: " + path);
                     try {
-                        other_filename = other_filename.substring(0, other_filename.length() - SNAPSHOTFILEXTENSION.length());
+                        other_filename = baseName;
 
                         int pos = other_filename.indexOf('_');
                         if (pos > 0) {
@@ -739,9 +1078,8 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         LOGGER.log(Level.INFO, "checkpoint, file:{0}", snapshotfilename.toAbsolutePath());
 
         try (OutputStream out = Files.newOutputStream(snapshotfilename_tmp);
-            BufferedOutputStream bout = new BufferedOutputStream(out, 64 * 1024);
-            GZIPOutputStream zout = new GZIPOutputStream(bout)) {
-            BrokerStatusSnapshot.serializeSnapshot(snapshotData, zout);
+            BufferedOutputStream bout = new BufferedOutputStream(out, 64 * 1024)) {
+            BrokerStatusSnapshot.serializeSnapshot(snapshotData, bout, isCompressSnapshots());
         } catch (IOException err) {
             throw new LogNotAvailableException(err);
         }
@@ -800,7 +1138,7 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         }
     }
 
-    private static final String SNAPSHOTFILEXTENSION = ".snap.json.gz";
+    private static final String SNAPSHOTFILEXTENSION = BrokerStatusSnapshot.SNAPSHOT_FILE_EXTENSION;
 
     @Override
     public BrokerStatusSnapshot loadBrokerStatusSnapshot() throws LogNotAvailableException {
@@ -823,17 +1161,20 @@ public class ReplicatedCommitLog extends StatusChangesLog {
             throw new LogNotAvailableException(err);
         }
         if (leaderData != null && !isLeader()) {
-            byte[] snapshot;
             try {
-                snapshot = downloadSnapshotFromMaster(leaderData);
-                LOGGER.log(Level.SEVERE, "downloaded " + snapshot.length + " snapshot data from actual leader");
-                try (InputStream in = new ByteArrayInputStream(snapshot);
-                    GZIPInputStream gzip = new GZIPInputStream(in)) {
-                    BrokerStatusSnapshot result = BrokerStatusSnapshot.deserializeSnapshot(gzip);
-                    writeSnapshotOnDisk(result);
-                    currentLedgerId = result.getActualLogSequenceNumber().ledgerId;
-                    return result;
+                Path downloaded = downloadSnapshotFromMaster(leaderData);
+                LOGGER.log(Level.SEVERE, "downloaded " + Files.size(downloaded) + " bytes of snapshot data from actual leader");
+                BrokerStatusSnapshot result;
+                try (InputStream in = Files.newInputStream(downloaded);
+                    BufferedInputStream bin = new BufferedInputStream(in, 64 * 1024)) {
+                    result = BrokerStatusSnapshot.deserializeSnapshot(bin);
                 }
+                // the downloaded file is already a valid snapshot file
+                LogSequenceNumber position = result.getActualLogSequenceNumber();
+                Path snapshotfile = snapshotsDirectory.resolve(position.ledgerId + "_" + position.sequenceNumber + SNAPSHOTFILEXTENSION);
+                Files.move(downloaded, snapshotfile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                currentLedgerId = position.ledgerId;
+                return result;
             } catch (Exception err) {
                 LOGGER.log(Level.SEVERE, "error while reading snapshot from network", err);
             }
@@ -844,10 +1185,11 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         try (DirectoryStream<Path> allfiles = Files.newDirectoryStream(snapshotsDirectory)) {
             for (Path path : allfiles) {
                 String filename = path.getFileName() + "";
-                if (filename.endsWith(SNAPSHOTFILEXTENSION)) {
+                String baseName = BrokerStatusSnapshot.getSnapshotFileBaseName(filename);
+                if (baseName != null) {
                     LOGGER.log(Level.SEVERE, "Processing snapshot file: " + path);
                     try {
-                        filename = filename.substring(0, filename.length() - SNAPSHOTFILEXTENSION.length());
+                        filename = baseName;
 
                         int pos = filename.indexOf('_');
                         if (pos > 0) {
@@ -874,9 +1216,8 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         if (snapshotfilename != null) {
             LOGGER.log(Level.SEVERE, "Loading snapshot from " + snapshotfilename);
             try (InputStream in = Files.newInputStream(snapshotfilename);
-                BufferedInputStream bin = new BufferedInputStream(in);
-                GZIPInputStream gzip = new GZIPInputStream(bin)) {
-                BrokerStatusSnapshot result = BrokerStatusSnapshot.deserializeSnapshot(gzip);
+                BufferedInputStream bin = new BufferedInputStream(in)) {
+                BrokerStatusSnapshot result = BrokerStatusSnapshot.deserializeSnapshot(bin);
                 currentLedgerId = result.getActualLogSequenceNumber().ledgerId;
 
                 LOGGER.log(Level.SEVERE,
@@ -909,15 +1250,23 @@ public class ReplicatedCommitLog extends StatusChangesLog {
     }
 
     private volatile boolean closed = false;
+    private volatile boolean closing = false;
 
     @Override
     public final void close() {
+        // refuse new asynchronous writes and wait for the pending ones before taking the lock
+        closing = true;
+        CommitFileWriter _writer = writer;
+        if (_writer != null) {
+            _writer.awaitPendingWrites();
+        }
         writeLock.lock();
         try {
             if (closed) {
                 return;
             }
             closeCurrentWriter();
+            closeFollowerHandle();
             if (zKClusterManager != null) {
                 try {
                     zKClusterManager.close();
@@ -931,22 +1280,28 @@ public class ReplicatedCommitLog extends StatusChangesLog {
             writer = null;
             writeLock.unlock();
         }
+        writeFailureHandler.shutdown();
 
     }
 
     private void closeCurrentWriter() {
         if (writer != null) {
-
             try {
-                writer.close();
-            } catch (Exception err) {
-                LOGGER.log(Level.SEVERE, "error while closing ledger", err);
+                closeWriter(writer);
             } finally {
                 writer = null;
             }
         }
     }
 
+    private static void closeWriter(CommitFileWriter writer) {
+        try {
+            writer.close();
+        } catch (Exception err) {
+            LOGGER.log(Level.SEVERE, "error while closing ledger", err);
+        }
+    }
+
     @Override
     public boolean isClosed() {
         return closed;
@@ -962,9 +1317,10 @@ public class ReplicatedCommitLog extends StatusChangesLog {
 
         List<Long> actualList;
         try {
-            actualList = zKClusterManager.getActualLedgersList().getActiveLedgers();
+            actualList = getFollowerLedgers();
         } catch (LogNotAvailableException temporaryError) {
             LOGGER.log(Level.SEVERE, "temporary error " + temporaryError, temporaryError);
+            pauseFollower();
             return;
         }
 
@@ -972,59 +1328,185 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         if (skipPast.ledgerId != -1) {
             toRead = toRead.stream().filter(l -> l >= skipPast.ledgerId).collect(Collectors.toList());
         }
+        if (toRead.isEmpty()) {
+            pauseFollower();
+            return;
+        }
 
         try {
-            long nextEntry = skipPast.sequenceNumber + 1;
-            LOGGER.log(Level.SEVERE, "followTheLeader skipPast:{0} toRead: {1} actualList:{2}, nextEntry:{3}", new Object[]{skipPast, toRead, actualList, nextEntry});
-            for (Long previous : toRead) {
-                //LOGGER.log(Level.SEVERE, "followTheLeader openLedger " + previous + " nextEntry:" + nextEntry);
-
-                List<Map.Entry<Long, StatusEdit>> buffer = new ArrayList<>();
-
-                // first of all we read data from the leader
-                try (LedgerHandle lh = bookKeeper.openLedgerNoRecovery(previous,
-                    BookKeeper.DigestType.MAC, sharedSecret.getBytes(StandardCharsets.UTF_8));) {
-                    long lastAddConfirmed = lh.getLastAddConfirmed();
-                    LOGGER.log(Level.FINE, "followTheLeader openLedger {0} -> lastAddConfirmed:{1}, nextEntry:{2}", new Object[]{previous, lastAddConfirmed, nextEntry});
-                    if (nextEntry > lastAddConfirmed) {
-                        nextEntry = 0;
-                        continue;
-                    }
-                    Enumeration<LedgerEntry> entries = lh.readEntries(nextEntry, lh.getLastAddConfirmed());
-                    if (entries != null) {
-                        while (entries.hasMoreElements()) {
-                            LedgerEntry e = entries.nextElement();
-                            long entryId = e.getEntryId();
-                            byte[] entryData = e.getEntry();
-                            StatusEdit statusEdit = StatusEdit.read(entryData);
-                            buffer.add(new AbstractMap.SimpleImmutableEntry<>(entryId, statusEdit));
-                        }
-                    }
-                } catch (BKException.BKLedgerRecoveryException | BKBookieHandleNotAvailableException temporaryError) {
-                    LOGGER.log(Level.SEVERE, "temporary error " + temporaryError, temporaryError);
-                    return;
-                } catch (InterruptedException err) {
-                    LOGGER.log(Level.SEVERE, "error while reading ledger " + err, err);
-                    Thread.currentThread().interrupt();
-                    throw err;
+            LogSequenceNumber position = skipPast;
+            for (int i = 0; i < toRead.size(); i++) {
+                long ledgerId = toRead.get(i);
+                long nextEntry = ledgerId == position.ledgerId ? position.sequenceNumber + 1 : 0;
+                if (i < toRead.size() - 1) {
+                    // the leader already moved to another ledger, this one is closed
+                    position = readClosedLedger(ledgerId, nextEntry, position, consumer);
+                } else {
+                    tailLedger(ledgerId, nextEntry, consumer);
                 }
+            }
+        } catch (BKException.BKLedgerRecoveryException | BKBookieHandleNotAvailableException temporaryError) {
+            LOGGER.log(Level.SEVERE, "temporary error " + temporaryError, temporaryError);
+            closeFollowerHandle();
+            pauseFollower();
+        } catch (InterruptedException | BKException err) {
+            LOGGER.log(Level.SEVERE, "error while following the leader " + err, err);
+            closeFollowerHandle();
+            if (err instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new LogNotAvailableException(err);
+        }
+
+    }
+
+    /**
+     * Returns the list of active ledgers. The list is read again from ZooKeeper only when the tailed ledger has been
+     * closed or dropped, and at most once per long-poll timeout otherwise
+     */
+    private List<Long> getFollowerLedgers() throws LogNotAvailableException {
+        List<Long> ledgers = followerLedgers;
+        LedgerHandle tailing = followerHandle;
+        long now = System.currentTimeMillis();
+        if (ledgers == null
+            || now - followerLedgersRefreshTime >= FOLLOWER_LONG_POLL_TIMEOUT
+            || (tailing != null && tailing.isClosed())) {
+            ledgers = zKClusterManager.getActualLedgersList().getActiveLedgers();
+            followerLedgersReads.incrementAndGet();
+            followerLedgersRefreshTime = now;
+            followerLedgers = ledgers;
+        }
+        return ledgers;
+    }
 
-                // use the entry
-                for (Map.Entry<Long, StatusEdit> entry : buffer) {
-                    long entryId = entry.getKey();
-                    StatusEdit statusEdit = entry.getValue();
-                    LOGGER.log(Level.FINEST, "entry {0},{1} -> {2}", new Object[]{previous, entryId, statusEdit});
-                    LogSequenceNumber number = new LogSequenceNumber(previous, entryId);
-                    consumer.accept(number, statusEdit);
-                    lastSequenceNumber = number.sequenceNumber;
-                    currentLedgerId = number.ledgerId;
+    /**
+     * Number of times the follower read the list of ledgers from ZooKeeper
+     */
+    long getFollowerLedgersReads() {
+        return followerLedgersReads.get();
+    }
+
+    private LogSequenceNumber readClosedLedger(long ledgerId, long nextEntry, LogSequenceNumber position,
+        BiConsumer<LogSequenceNumber, StatusEdit> consumer) throws InterruptedException, BKException {
+        LedgerHandle tailing = followerHandle;
+        if (tailing != null && tailing.getId() == ledgerId) {
+            // we need fresh metadata in order to see the real end of the ledger
+            closeFollowerHandle();
+        }
+        try (LedgerHandle lh = bookKeeper.openLedgerNoRecovery(ledgerId,
+            BookKeeper.DigestType.MAC, sharedSecret.getBytes(StandardCharsets.UTF_8));) {
+            long lastAddConfirmed = lh.getLastAddConfirmed();
+            LOGGER.log(Level.INFO, "followTheLeader reading closed ledger {0} -> lastAddConfirmed:{1}, nextEntry:{2}", new Object[]{ledgerId, lastAddConfirmed, nextEntry});
+            while (nextEntry <= lastAddConfirmed) {
+                updateFollowerLag(lastAddConfirmed, nextEntry - 1);
+                long end = Math.min(lastAddConfirmed, nextEntry + FOLLOWER_READ_BATCH_SIZE - 1);
+                position = readAndApply(lh, nextEntry, end, consumer);
+                nextEntry = end + 1;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Reads the ledger which is being written by the leader. The handle stays open between calls and new entries are
+     * waited for with long-poll reads of the last-add-confirmed, so that entries are applied as soon as they are
+     * durable
+     */
+    private void tailLedger(long ledgerId, long nextEntry, BiConsumer<LogSequenceNumber, StatusEdit> consumer) throws InterruptedException, BKException {
+        LedgerHandle lh = followerHandle;
+        if (lh != null && lh.getId() != ledgerId) {
+            closeFollowerHandle();
+            lh = null;
+        }
+        if (lh == null) {
+            lh = bookKeeper.openLedgerNoRecovery(ledgerId,
+                BookKeeper.DigestType.MAC, sharedSecret.getBytes(StandardCharsets.UTF_8));
+            followerHandle = lh;
+            LOGGER.log(Level.INFO, "followTheLeader tailing ledger {0}, lastAddConfirmed:{1}, nextEntry:{2}", new Object[]{ledgerId, lh.getLastAddConfirmed(), nextEntry});
+        }
+        long lastAddConfirmed = lh.getLastAddConfirmed();
+        if (lastAddConfirmed < nextEntry) {
+            try (LastConfirmedAndEntry result = lh.readLastAddConfirmedAndEntry(nextEntry, FOLLOWER_LONG_POLL_TIMEOUT, false);) {
+                lastAddConfirmed = result.getLastAddConfirmed();
+                if (result.hasEntry()) {
+                    org.apache.bookkeeper.client.api.LedgerEntry entry = result.getEntry();
+                    applyEntry(ledgerId, entry.getEntryId(), entry.getEntryBytes(), consumer);
+                    nextEntry = entry.getEntryId() + 1;
                 }
             }
-        } catch (InterruptedException | IOException | BKException err) {
-            err.printStackTrace();
+        }
+        while (nextEntry <= lastAddConfirmed) {
+            updateFollowerLag(lastAddConfirmed, nextEntry - 1);
+            long end = Math.min(lastAddConfirmed, nextEntry + FOLLOWER_READ_BATCH_SIZE - 1);
+            readAndApply(lh, nextEntry, end, consumer);
+            nextEntry = end + 1;
+        }
+        updateFollowerLag(lastAddConfirmed, nextEntry - 1);
+    }
+
+    private LogSequenceNumber readAndApply(LedgerHandle lh, long first, long last, BiConsumer<LogSequenceNumber, StatusEdit> consumer) throws InterruptedException, BKException {
+        LogSequenceNumber number = null;
+        Enumeration<LedgerEntry> entries = lh.readEntries(first, last);
+        while (entries.hasMoreElements()) {
+            LedgerEntry e = entries.nextElement();
+            number = applyEntry(lh.getId(), e.getEntryId(), e.getEntry(), consumer);
+        }
+        return number;
+    }
+
+    private LogSequenceNumber applyEntry(long ledgerId, long entryId, byte[] entryData, BiConsumer<LogSequenceNumber, StatusEdit> consumer) {
+        StatusEdit statusEdit = StatusEdit.read(entryData);
+        LOGGER.log(Level.FINEST, "entry {0},{1} -> {2}", new Object[]{ledgerId, entryId, statusEdit});
+        LogSequenceNumber number = new LogSequenceNumber(ledgerId, entryId);
+        consumer.accept(number, statusEdit);
+        lastSequenceNumber = number.sequenceNumber;
+        currentLedgerId = number.ledgerId;
+        return number;
+    }
+
+    private void updateFollowerLag(long lastAddConfirmed, long lastApplied) {
+        long lag = Math.max(0, lastAddConfirmed - lastApplied);
+        followerLagEntries = lag;
+        if (lag == 0) {
+            followerBehindSince = 0;
+        } else if (followerBehindSince == 0) {
+            followerBehindSince = System.currentTimeMillis();
+        }
+    }
+
+    private void pauseFollower() throws LogNotAvailableException {
+        try {
+            Thread.sleep(FOLLOWER_LONG_POLL_TIMEOUT);
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
             throw new LogNotAvailableException(err);
         }
+    }
 
+    private void closeFollowerHandle() {
+        LedgerHandle lh = followerHandle;
+        followerHandle = null;
+        followerLedgers = null;
+        if (lh != null) {
+            try {
+                lh.close();
+            } catch (InterruptedException err) {
+                Thread.currentThread().interrupt();
+            } catch (BKException err) {
+                LOGGER.log(Level.SEVERE, "error while closing ledger " + lh.getId(), err);
+            }
+        }
+    }
+
+    @Override
+    public long getFollowerLagEntries() {
+        return followerLagEntries;
+    }
+
+    @Override
+    public long getFollowerLagMillis() {
+        long since = followerBehindSince;
+        return since == 0 ? 0 : System.currentTimeMillis() - since;
     }
 
     @Override
@@ -1032,6 +1514,11 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         return zKClusterManager != null && zKClusterManager.isLeader();
     }
 
+    @Override
+    public Path getSnapshotsDirectory() {
+        return snapshotsDirectory;
+    }
+
     @Override
     public LogSequenceNumber getLastSequenceNumber() {
         return new LogSequenceNumber(currentLedgerId, lastSequenceNumber);
@@ -0,0 +1,269 @@
+
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import majordodo.codepools.CodePool;
+import majordodo.utils.io.ExtendedDataInputStream;
+import majordodo.utils.io.ExtendedDataOutputStream;
+
+/**
+ * Binary format of a {@link BrokerStatusSnapshot}. After a fixed header the snapshot is a sequence of records, so that
+ * it can be written directly from the live status without building intermediate lists. Numbers are written as varints
+ * and repeated strings (task types, user ids, codepools, modes, workers and resources) are written only once: a
+ * STRING record adds the string to the dictionary the first time it is used, and then it is referred by its index.
+ *
+ * @author enrico.olivelli
+ */
+final class BinarySnapshotFormat {
+
+    static final int MAGIC = 0x4d44534e; // MDSN
+    static final int VERSION = 1;
+
+    private static final byte RECORD_END = 0;
+    private static final byte RECORD_STRING = 1;
+    private static final byte RECORD_TASK = 2;
+    private static final byte RECORD_WORKER = 3;
+    private static final byte RECORD_TRANSACTION = 4;
+    private static final byte RECORD_CODEPOOL = 5;
+
+    private BinarySnapshotFormat() {
+    }
+
+    static final class Writer {
+
+        private final ExtendedDataOutputStream out;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+
+        Writer(OutputStream out, long maxTaskId, long maxTransactionId, LogSequenceNumber actualLogSequenceNumber) throws IOException {
+            this.out = new ExtendedDataOutputStream(out);
+            this.out.writeInt(MAGIC);
+            this.out.writeVInt(VERSION);
+            this.out.writeZLong(actualLogSequenceNumber.ledgerId);
+            this.out.writeZLong(actualLogSequenceNumber.sequenceNumber);
+            this.out.writeZLong(maxTaskId);
+            this.out.writeZLong(maxTransactionId);
+        }
+
+        void writeTask(Task task) throws IOException {
+            // strings must be in the dictionary before the record which uses them
+            int type = dictionaryRef(task.getType());
+            int userId = dictionaryRef(task.getUserId());
+            int workerId = dictionaryRef(task.getWorkerId());
+            int codepool = dictionaryRef(task.getCodepool());
+            int mode = dictionaryRef(task.getMode());
+            int resources = dictionaryRef(task.getResources());
+            out.writeByte(RECORD_TASK);
+            out.writeZLong(task.getTaskId());
+            out.writeVInt(task.getStatus());
+            out.writeVInt(type);
+            out.writeVInt(userId);
+            out.writeVInt(workerId);
+            out.writeVInt(codepool);
+            out.writeVInt(mode);
+            out.writeVInt(resources);
+            writeString(task.getParameter());
+            writeString(task.getResult());
+            writeString(task.getSlot());
+            out.writeVInt(task.getMaxattempts());
+            out.writeVInt(task.getAttempts());
+            out.writeZLong(task.getCreatedTimestamp());
+            out.writeZLong(task.getRequestedStartTime());
+            out.writeZLong(task.getExecutionDeadline());
+        }
+
+        void writeWorker(WorkerStatus worker) throws IOException {
+            out.writeByte(RECORD_WORKER);
+            writeString(worker.getWorkerId());
+            writeString(worker.getWorkerLocation());
+            writeString(worker.getProcessId());
+            out.writeZLong(worker.getLastConnectionTs());
+            out.writeVInt(worker.getStatus());
+        }
+
+        void writeTransaction(Transaction transaction) throws IOException {
+            List<Task> preparedTasks = transaction.getPreparedTasks();
+            out.writeByte(RECORD_TRANSACTION);
+            out.writeZLong(transaction.getTransactionId());
+            out.writeZLong(transaction.getCreationTimestamp());
+            // prepared tasks follow as TASK records
+            out.writeVInt(preparedTasks.size());
+            for (Task task : preparedTasks) {
+                writeTask(task);
+            }
+        }
+
+        void writeCodePool(CodePool codePool) throws IOException {
+            out.writeByte(RECORD_CODEPOOL);
+            writeString(codePool.getId());
+            out.writeZLong(codePool.getCreationTimestamp());
+            out.writeZLong(codePool.getTtl());
+            out.writeArray(codePool.getCodePoolData());
+        }
+
+        void finish() throws IOException {
+            out.writeByte(RECORD_END);
+            out.flush();
+        }
+
+        private int dictionaryRef(String value) throws IOException {
+            if (value == null) {
+                return 0;
+            }
+            Integer ref = dictionary.get(value);
+            if (ref == null) {
+                ref = dictionary.size() + 1;
+                dictionary.put(value, ref);
+                out.writeByte(RECORD_STRING);
+                writeString(value);
+            }
+            return ref;
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                out.writeVInt(0);
+            } else {
+                byte[] data = value.getBytes(StandardCharsets.UTF_8);
+                out.writeVInt(data.length + 1);
+                out.write(data);
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot, the MAGIC has already been consumed
+     */
+    static BrokerStatusSnapshot read(InputStream in) throws IOException {
+        ExtendedDataInputStream din = new ExtendedDataInputStream(in);
+        int version = din.readVInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        long ledgerId = din.readZLong();
+        long sequenceNumber = din.readZLong();
+        long maxTaskId = din.readZLong();
+        long maxTransactionId = din.readZLong();
+        BrokerStatusSnapshot result = new BrokerStatusSnapshot(maxTaskId, maxTransactionId, new LogSequenceNumber(ledgerId, sequenceNumber));
+        List<String> dictionary = new ArrayList<>();
+        Transaction currentTransaction = null;
+        int pendingPreparedTasks = 0;
+        while (true) {
+            byte type = din.readByte();
+            switch (type) {
+                case RECORD_END:
+                    if (pendingPreparedTasks > 0) {
+                        throw new IOException("Truncated transaction " + currentTransaction.getTransactionId());
+                    }
+                    return result;
+                case RECORD_STRING:
+                    dictionary.add(readString(din).intern());
+                    break;
+                case RECORD_TASK: {
+                    Task task = readTask(din, dictionary);
+                    if (pendingPreparedTasks > 0) {
+                        currentTransaction.getPreparedTasks().add(task);
+                        pendingPreparedTasks--;
+                    } else {
+                        result.tasks.add(task);
+                    }
+                    break;
+                }
+                case RECORD_WORKER: {
+                    WorkerStatus worker = new WorkerStatus();
+                    worker.setWorkerId(readString(din));
+                    worker.setWorkerLocation(readString(din));
+                    worker.setProcessId(readString(din));
+                    worker.setLastConnectionTs(din.readZLong());
+                    worker.setStatus(din.readVInt());
+                    result.workers.add(worker);
+                    break;
+                }
+                case RECORD_TRANSACTION: {
+                    long transactionId = din.readZLong();
+                    long creationTimestamp = din.readZLong();
+                    currentTransaction = new Transaction(transactionId, creationTimestamp);
+                    pendingPreparedTasks = din.readVInt();
+                    result.transactions.add(currentTransaction);
+                    break;
+                }
+                case RECORD_CODEPOOL: {
+                    String id = readString(din);
+                    long creationTimestamp = din.readZLong();
+                    long ttl = din.readZLong();
+                    byte[] data = din.readArray();
+                    result.codePools.add(new CodePool(id, creationTimestamp, data, ttl));
+                    break;
+                }
+                default:
+                    throw new IOException("Unexpected record type " + type);
+            }
+        }
+    }
+
+    private static Task readTask(ExtendedDataInputStream din, List<String> dictionary) throws IOException {
+        Task task = new Task();
+        task.setTaskId(din.readZLong());
+        task.setStatus(din.readVInt());
+        task.setType(lookup(din.readVInt(), dictionary));
+        task.setUserId(lookup(din.readVInt(), dictionary));
+        task.setWorkerId(lookup(din.readVInt(), dictionary));
+        task.setCodepool(lookup(din.readVInt(), dictionary));
+        task.setMode(lookup(din.readVInt(), dictionary));
+        task.setResources(lookup(din.readVInt(), dictionary));
+        task.setParameter(readString(din));
+        task.setResult(readString(din));
+        task.setSlot(readString(din));
+        task.setMaxattempts(din.readVInt());
+        task.setAttempts(din.readVInt());
+        task.setCreatedTimestamp(din.readZLong());
+        task.setRequestedStartTime(din.readZLong());
+        task.setExecutionDeadline(din.readZLong());
+        return task;
+    }
+
+    private static String lookup(int ref, List<String> dictionary) throws IOException {
+        if (ref == 0) {
+            return null;
+        }
+        if (ref > dictionary.size()) {
+            throw new IOException("Invalid string reference " + ref);
+        }
+        return dictionary.get(ref - 1);
+    }
+
+    private static String readString(ExtendedDataInputStream din) throws IOException {
+        int len = din.readVInt();
+        if (len == 0) {
+            return null;
+        }
+        byte[] data = new byte[len - 1];
+        din.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -27,13 +27,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.DelayQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -61,6 +62,10 @@ import majordodo.utils.Version;
 public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, BrokerFailureListener {
 
     public static final int MAX_SIMULTANEOUS_RESUMED_TASKS = 1000;
+    /**
+     * Resolution (ms) of the scheduler of delayed tasks
+     */
+    public static final long DELAYED_TASKS_TICK_DURATION = 10;
 
     private static final Logger LOGGER = Logger.getLogger(Broker.class.getName());
     private String brokerId = UUID.randomUUID().toString();
@@ -123,7 +128,7 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
 
     private final Workers workers;
     public final TasksHeap tasksHeap;
-    private final DelayQueue<Task> delayedTasksQueue = new DelayQueue<>();
+    private final DelayedTasksScheduler delayedTasksQueue;
     private final BrokerStatus brokerStatus;
     private final StatusChangesLog log;
     private final ResourceUsageCounters globalResourceUsageCounters;
@@ -138,6 +143,7 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
     private final ResourcesScheduler groupMapperScheduler;
     private final FinishedTaskCollectorScheduler finishedTaskCollectorScheduler;
     private final BrokerStatusMonitor brokerStatusMonitor;
+    private final SnapshotTransfers snapshotTransfers;
     private final Thread brokerLifeThread;
 
     private int cycleAwaitSeconds = 10;
@@ -175,6 +181,10 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         return workers;
     }
 
+    SnapshotTransfers getSnapshotTransfers() {
+        return snapshotTransfers;
+    }
+
     public BrokerStatus getBrokerStatus() {
         return brokerStatus;
     }
@@ -185,14 +195,21 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         this.acceptor = new BrokerServerEndpoint(this);
         this.authenticationManager = new SingleUserAuthenticationManager("admin", "password");
         this.client = new ClientFacade(this);
+        log.setCompressSnapshots(configuration.isCompressSnapshots());
         this.brokerStatus = new BrokerStatus(log);
+        if (configuration.getGroupCommitMaxBatchSize() > 1) {
+            this.brokerStatus.enableGroupCommit(configuration.getGroupCommitMaxBatchSize(), configuration.getGroupCommitMaxDelay());
+        }
         this.tasksHeap = tasksHeap;
+        this.delayedTasksQueue = new DelayedTasksScheduler(DELAYED_TASKS_TICK_DURATION, MAX_SIMULTANEOUS_RESUMED_TASKS, this::resumeDelayedTasks);
+        this.tasksHeap.setCompactionTimeBudget(configuration.getTasksHeapCompactionTimeBudget());
         this.log = log;
         this.log.setFailureListener(this);
         this.checkpointScheduler = new CheckpointScheduler(configuration, this);
         this.groupMapperScheduler = new ResourcesScheduler(configuration, this);
         this.finishedTaskCollectorScheduler = new FinishedTaskCollectorScheduler(configuration, this);
         this.brokerStatusMonitor = new BrokerStatusMonitor(configuration, this);
+        this.snapshotTransfers = new SnapshotTransfers(log.getSnapshotsDirectory());
         this.brokerLifeThread = new Thread(brokerLife, "broker-life");
         this.brokerLifeThread.setDaemon(true);
         this.log.setSharedSecret(configuration.getSharedSecret());
@@ -221,6 +238,7 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         } finally {
             recoveryInProgress = false;
         }
+        this.snapshotTransfers.start();
         // checkpoint must startboth in leader mode and in follower mode
         this.checkpointScheduler.start();
         this.brokerLifeThread.start();
@@ -274,7 +292,7 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
                             break;
                         case Task.STATUS_DELAYED:
                             LOGGER.log(Level.SEVERE, "Task {0}, {1}, user={2}, slot={3} is to be scheduled (status=delayed)", new Object[]{task.getTaskId(), task.getType(), task.getUserId(), task.getSlot()});
-                            delayedTasksQueue.add(task);
+                            delayedTasksQueue.schedule(task);
                             if (task.getSlot() != null && !task.getSlot().isEmpty()) {
                                 busySlots.put(task.getSlot(), task.getTaskId());
                             }
@@ -310,6 +328,7 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
                 workers.start(brokerStatus, deadWorkerTasks,
                     workersConnectedAtBoot, globalResourceUsageCounters, tasksAtBoot, workersAtBoot);
                 started = true;
+                delayedTasksQueue.start();
                 for (Map.Entry<String, Collection<Long>> workerTasksToRecovery : deadWorkerTasks.entrySet()) {
                     tasksNeedsRecoveryDueToWorkerDeath(workerTasksToRecovery.getValue(), workerTasksToRecovery.getKey());
                 }
@@ -323,7 +342,6 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
                             // to other follower brokers
                             noop();
                         }
-                        resumeDelayedTasks();
                         if (externalProcessChecker != null) {
                             externalProcessChecker.call();
                         }
@@ -341,25 +359,28 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
 
     };
 
-    public void resumeDelayedTasks() throws LogNotAvailableException {
-        List<Task> tasksToResume = new ArrayList<>();
+    private void resumeDelayedTasks(List<Task> tasksToResume) throws LogNotAvailableException {
         List<StatusEdit> edits = new ArrayList<>();
-        delayedTasksQueue.drainTo(tasksToResume, MAX_SIMULTANEOUS_RESUMED_TASKS);
         for (Task task : tasksToResume) {
             edits.add(StatusEdit.TASK_STATUS_CHANGE(task.getTaskId(), null, Task.STATUS_WAITING, null));
         }
+        // in case of LogNotAvailableException no edit has been applied, the scheduler retries the whole batch
         List<BrokerStatus.ModificationResult> results = brokerStatus.applyModifications(edits);
+        Set<String> taskTypes = new HashSet<>();
         int i = 0;
         for (BrokerStatus.ModificationResult mod : results) {
             Task task = tasksToResume.get(i++);
-            if (mod.error == null) {
-                LOGGER.log(Level.FINER, "task {0} resumed", task.getTaskId());
-            } else {
-                //LOGGER.log(Level.SEVERE, String.format("fail to resume task %s (%s)", task.getTaskId(), mod.error));
-                throw new IllegalStateException(String.format("fail to resume task %s (%s)", task.getTaskId(), mod.error));
+            if (mod.error != null) {
+                // for instance the task has been deleted in the meantime
+                LOGGER.log(Level.SEVERE, "cannot resume task {0}: {1}", new Object[]{task.getTaskId(), mod.error});
+                continue;
             }
+            LOGGER.log(Level.FINER, "task {0} resumed", task.getTaskId());
             tasksHeap.insertTask(task.getTaskId(), task.getType(), task.getUserId());
-
+            taskTypes.add(task.getType());
+        }
+        if (!taskTypes.isEmpty()) {
+            workers.tasksAvailable(taskTypes);
         }
     }
 
@@ -377,11 +398,13 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
 
         JVMBrokersRegistry.unregisterBroker(brokerId);
         this.brokerStatusMonitor.stop();
+        this.delayedTasksQueue.stop();
         this.finishedTaskCollectorScheduler.stop();
         this.checkpointScheduler.stop();
         this.groupMapperScheduler.stop();
         this.workers.stop();
         this.brokerStatus.close();
+        this.snapshotTransfers.close();
 
         if (brokerDiedCallback != null) {
             brokerDiedCallback.run();
@@ -499,6 +522,7 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
     public void recomputeGroups() {
         try {
             tasksHeap.recomputeGroups();
+            workers.wakeUp();
         } catch (Throwable t) {
             LOGGER.log(Level.SEVERE, "error during group mapping recomputation", t);
         }
@@ -538,19 +562,21 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
             throw new IllegalActionException(result.error);
         }
         List<Task> preparedtasks = (List<Task>) result.data;
+        Set<String> taskTypes = new HashSet<>();
         for (Task task : preparedtasks) {
             switch (task.getStatus()) {
                 case Task.STATUS_WAITING:
                     this.tasksHeap.insertTask(task.getTaskId(), task.getType(), task.getUserId());
+                    taskTypes.add(task.getType());
                     break;
                 case Task.STATUS_DELAYED:
-                    this.delayedTasksQueue.add(task);
+                    this.delayedTasksQueue.schedule(task);
                     break;
                 default:
                     throw new IllegalStateException("Impossibile");
             }
         }
-
+        workers.tasksAvailable(taskTypes);
     }
 
     private void assertBrokerAvailableForClients() throws LogNotAvailableException {
@@ -585,6 +611,8 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         LogSequenceNumber currentPos = log.getLastSequenceNumber();
         res.setCurrentLedgerId(currentPos.ledgerId);
         res.setCurrentSequenceNumber(currentPos.sequenceNumber);
+        res.setFollowerLagEntries(log.getFollowerLagEntries());
+        res.setFollowerLagMillis(log.getFollowerLagMillis());
         res.setTasks(brokerStatus.getStats().getTasks());
         res.setPendingTasks(brokerStatus.getStats().getPendingTasks());
         res.setRunningTasks(brokerStatus.getStats().getRunningTasks());
@@ -615,6 +643,10 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
             status.setDelay(task.getDelay(TimeUnit.MILLISECONDS));
             res.getTasks().add(status);
         });
+        res.setResumedTasks(delayedTasksQueue.getResumedTasks());
+        res.setAverageResumeLag(delayedTasksQueue.getAverageLag());
+        res.setMaxResumeLag(delayedTasksQueue.getMaxLag());
+        res.setLastResumeLag(delayedTasksQueue.getLastLag());
         return res;
     }
 
@@ -706,33 +738,51 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
     }
 
     public AddTaskResult addTask(AddTaskRequest request) throws LogNotAvailableException {
-        assertBrokerAvailableForClients();
+        return StatusChangesLog.waitForResult(addTaskAsync(request));
+    }
+
+    /**
+     * Submits a new task, the result is available as soon as the task has been written to the log, without blocking
+     * the caller
+     *
+     * @param request
+     * @return
+     */
+    public CompletableFuture<AddTaskResult> addTaskAsync(AddTaskRequest request) {
+        try {
+            assertBrokerAvailableForClients();
+        } catch (LogNotAvailableException err) {
+            CompletableFuture<AddTaskResult> res = new CompletableFuture<>();
+            res.completeExceptionally(err);
+            return res;
+        }
         Long taskId = brokerStatus.nextTaskId();
-        Task newTask;
         if (request.transaction > 0) {
             StatusEdit addTask = StatusEdit.PREPARE_ADD_TASK(request.transaction, taskId, request.taskType, request.data, request.userId, request.maxattempts, request.requestedStartTime, request.deadline, request.slot, request.attempt, request.codepool, request.mode);
-            BrokerStatus.ModificationResult result = this.brokerStatus.applyModification(addTask);
-            newTask = (Task) result.data;
-            taskId = newTask != null ? newTask.getTaskId() : 0;
-            return new AddTaskResult(taskId, result.error);
+            return this.brokerStatus.applyModificationAsync(addTask).thenApply(result -> {
+                Task newTask = (Task) result.data;
+                return new AddTaskResult(newTask != null ? newTask.getTaskId() : 0, result.error);
+            });
         } else {
             StatusEdit addTask = StatusEdit.ADD_TASK(taskId, request.taskType, request.data, request.userId, request.maxattempts, request.requestedStartTime, request.deadline, request.slot, request.attempt, request.codepool, request.mode);
-            BrokerStatus.ModificationResult result = this.brokerStatus.applyModification(addTask);
-            newTask = (Task) result.data;
-            taskId = newTask != null ? newTask.getTaskId() : 0;
-            if (taskId > 0 && result.error == null && newTask != null) {
-                switch (newTask.getStatus()) {
-                    case Task.STATUS_WAITING:
-                        this.tasksHeap.insertTask(taskId, request.taskType, request.userId);
-                        break;
-                    case Task.STATUS_DELAYED:
-                        this.delayedTasksQueue.add(newTask);
-                        break;
-                    default:
-                        throw new IllegalStateException("Impossibile");
+            return this.brokerStatus.applyModificationAsync(addTask).thenApply(result -> {
+                Task newTask = (Task) result.data;
+                long newTaskId = newTask != null ? newTask.getTaskId() : 0;
+                if (newTaskId > 0 && result.error == null) {
+                    switch (newTask.getStatus()) {
+                        case Task.STATUS_WAITING:
+                            this.tasksHeap.insertTask(newTaskId, request.taskType, request.userId);
+                            workers.tasksAvailable(Collections.singleton(request.taskType));
+                            break;
+                        case Task.STATUS_DELAYED:
+                            this.delayedTasksQueue.schedule(newTask);
+                            break;
+                        default:
+                            throw new IllegalStateException("Impossibile");
+                    }
                 }
-            }
-            return new AddTaskResult(taskId, result.error);
+                return new AddTaskResult(newTaskId, result.error);
+            });
         }
     }
 
@@ -752,6 +802,7 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
             }
         }
         List<BrokerStatus.ModificationResult> batch = this.brokerStatus.applyModifications(edits);
+        Set<String> taskTypes = new HashSet<>();
         if (LOGGER.isLoggable(Level.FINEST)) {
             LOGGER.log(Level.FINEST, "addTasks {0}", requests);
             LOGGER.log(Level.FINEST, "addTasks results {0}", batch);
@@ -768,9 +819,10 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
                     switch (newTask.getStatus()) {
                         case Task.STATUS_WAITING:
                             this.tasksHeap.insertTask(taskId, addTask.taskType, addTask.userid);
+                            taskTypes.add(addTask.taskType);
                             break;
                         case Task.STATUS_DELAYED:
-                            this.delayedTasksQueue.add(newTask);
+                            this.delayedTasksQueue.schedule(newTask);
                             break;
                         default:
                             throw new IllegalStateException("Impossibile");
@@ -779,6 +831,7 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
                 res.add(new AddTaskResult(taskId, result.error));
             }
         }
+        workers.tasksAvailable(taskTypes);
         return res;
     }
 
@@ -871,6 +924,7 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
 
         List<BrokerStatus.ModificationResult> modifications = brokerStatus.applyModifications(edits);
 
+        boolean globalResourcesReleased = false;
         for (int i = 0; i < edits.size(); i++) {
             if (modifications.get(i).sequenceNumber != null) {
                 StatusEdit edit = edits.get(i);
@@ -878,13 +932,25 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
                 if (resourceIds != null) {
                     workers.getWorkerManager(workerId).releaseResources(resourceIds);
                     globalResourceUsageCounters.releaseResources(resourceIds);
+                    globalResourcesReleased = true;
                 }
             }
         }
 
+        Set<String> taskTypes = new HashSet<>();
         for (Task task : toSchedule) {
             LOGGER.log(Level.SEVERE, "Schedule task for recovery {0} {1} {2} ({3})", new Object[]{task.getTaskId(), task.getType(), task.getUserId(), task.getResult() + ""});
             this.tasksHeap.insertTask(task.getTaskId(), task.getType(), task.getUserId());
+            taskTypes.add(task.getType());
+        }
+
+        if (globalResourcesReleased) {
+            // resources shared among workers are now available
+            workers.wakeUp();
+        } else if (!edits.isEmpty()) {
+            // the worker has free slots
+            workers.wakeUpWorker(workerId);
+            workers.tasksAvailable(taskTypes);
         }
 
     }
@@ -164,6 +164,40 @@ public class BrokerConfiguration {
         this.tasksHeapSize = tasksHeapSize;
     }
 
+    /**
+     * Partitioning of the tasksheap: none|tasktype|group. With a partitioned heap workers which declare disjoint task
+     * types (or groups) can be assigned concurrently
+     *
+     * @see TasksHeap#PARTITIONING_NONE
+     * @see TasksHeap#PARTITIONING_TASKTYPE
+     * @see TasksHeap#PARTITIONING_GROUP
+     */
+    private String tasksHeapPartitioning = TasksHeap.PARTITIONING_NONE;
+
+    public String getTasksHeapPartitioning() {
+        return tasksHeapPartitioning;
+    }
+
+    public void setTasksHeapPartitioning(String tasksHeapPartitioning) {
+        this.tasksHeapPartitioning = tasksHeapPartitioning;
+    }
+
+    /**
+     * Maximum time (in milliseconds) spent compacting the tasksheap during an assignment of tasks to a worker. 0 means
+     * that compaction is never split in slices
+     *
+     * @see TasksHeap#setCompactionTimeBudget(long)
+     */
+    private long tasksHeapCompactionTimeBudget = 1;
+
+    public long getTasksHeapCompactionTimeBudget() {
+        return tasksHeapCompactionTimeBudget;
+    }
+
+    public void setTasksHeapCompactionTimeBudget(long tasksHeapCompactionTimeBudget) {
+        this.tasksHeapCompactionTimeBudget = tasksHeapCompactionTimeBudget;
+    }
+
     /**
      * Parallelism of worker assigment operations
      */
@@ -177,6 +211,60 @@ public class BrokerConfiguration {
         this.workersThreadpoolSize = workersThreadpoolSize;
     }
 
+    /**
+     * Maximum number of edits submitted concurrently which are written to the log with a single batch. Values lower
+     * than 2 disable group commit and every edit is written as soon as it is submitted
+     */
+    private int groupCommitMaxBatchSize = 0;
+
+    public int getGroupCommitMaxBatchSize() {
+        return groupCommitMaxBatchSize;
+    }
+
+    public void setGroupCommitMaxBatchSize(int groupCommitMaxBatchSize) {
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+    }
+
+    /**
+     * Maximum time (in microseconds) to wait for other edits before writing a batch to the log
+     */
+    private long groupCommitMaxDelay = 200;
+
+    public long getGroupCommitMaxDelay() {
+        return groupCommitMaxDelay;
+    }
+
+    public void setGroupCommitMaxDelay(long groupCommitMaxDelay) {
+        this.groupCommitMaxDelay = groupCommitMaxDelay;
+    }
+
+    /**
+     * Compress snapshots (using the fastest level of GZIP)
+     */
+    private boolean compressSnapshots = true;
+
+    public boolean isCompressSnapshots() {
+        return compressSnapshots;
+    }
+
+    public void setCompressSnapshots(boolean compressSnapshots) {
+        this.compressSnapshots = compressSnapshots;
+    }
+
+    /**
+     * Worker managers are woken up when new tasks are submitted or tasks finish. This is the period (ms) of an
+     * additional scan of all the workers, as a safety net. 0 means 'never'
+     */
+    private long workersPollingPeriod = 10000;
+
+    public long getWorkersPollingPeriod() {
+        return workersPollingPeriod;
+    }
+
+    public void setWorkersPollingPeriod(long workersPollingPeriod) {
+        this.workersPollingPeriod = workersPollingPeriod;
+    }
+
     public void read(Map<String, Object> properties) {
         ReflectionUtils.apply(properties, this);
     }
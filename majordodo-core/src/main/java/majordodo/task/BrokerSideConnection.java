@@ -35,7 +35,6 @@ import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
 import majordodo.codepools.CodePool;
 import majordodo.network.ConnectionRequestInfo;
 import majordodo.security.sasl.SaslNettyServer;
@@ -63,6 +62,8 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
     private volatile boolean isWorker = false;
     private volatile boolean isBroker = false;
     private volatile String username;
+    private volatile boolean batchedAssignmentsSupported;
+    private volatile boolean typedEncodingSupported;
     private static final AtomicLong SESSIONID = new AtomicLong();
 
     public BrokerSideConnection() {
@@ -134,6 +135,24 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
         return channel != null && channel.isValid();
     }
 
+    /**
+     * Tells whether the worker is draining the messages we send, new tasks should not be assigned otherwise
+     *
+     * @return
+     */
+    public boolean isWritable() {
+        Channel _channel = channel;
+        return _channel != null && _channel.isWritable();
+    }
+
+    @Override
+    public void channelWritabilityChanged(boolean writable) {
+        LOGGER.log(Level.INFO, "worker {0} at {1}, processid {2} connection writable: {3}", new Object[]{clientId, location, workerProcessId, writable});
+        if (writable && clientId != null) {
+            broker.getWorkers().wakeUpWorker(clientId);
+        }
+    }
+
     @Override
     public void messageReceived(Message message) {
         lastReceivedMessageTs = System.currentTimeMillis();
@@ -249,6 +268,8 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
                 this.clientId = _clientId;
                 this.location = (String) message.parameters.get("location");
                 this.workerProcessId = (String) message.parameters.get("processId");
+                this.batchedAssignmentsSupported = Integer.valueOf(1).equals(message.parameters.get(Message.FEATURE_BATCHED_ASSIGNMENTS));
+                this.typedEncodingSupported = Integer.valueOf(1).equals(message.parameters.get(Message.FEATURE_TYPED_ENCODING));
                 if (isWorker) {
                     LOGGER.log(Level.INFO, "registering worker connection {0}, workerId:{1}, processId={2}, location={3}", new Object[]{connectionId, _clientId, message.parameters.get("processId"), message.parameters.get("location")});
                     BrokerSideConnection actual = this.broker.getAcceptor().getActualConnectionFromWorker(_clientId);
@@ -280,6 +301,9 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
                     manager.activateConnection(this);
                 }
                 answerConnectionAccepted(message);
+                if (isWorker) {
+                    broker.getWorkers().wakeUpWorker(clientId);
+                }
                 break;
             }
 
@@ -326,12 +350,29 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
                     break;
                 }
                 String processId = (String) message.parameters.getOrDefault("processId", "");
-                Integer maxThreads = (Integer) message.parameters.getOrDefault("maxThreads", 0);
-                int maxThreadPerUserPerTaskTypePercent = (Integer) message.parameters.getOrDefault("maxThreadPerUserPerTaskTypePercent", 0);
-                Map<String, Integer> maxThreadsByTaskType = (Map<String, Integer>) message.parameters.getOrDefault("maxThreadsByTaskType", Collections.emptyMap());
-                List<Integer> groups = (List<Integer>) message.parameters.getOrDefault("groups", Collections.emptyList());
-                Set<Integer> excludedGroups = (Set<Integer>) message.parameters.getOrDefault("excludedGroups", Collections.emptySet());
-                Map<String, Integer> resourceLimits = (Map<String, Integer>) message.parameters.getOrDefault("resources", Collections.emptyMap());
+                this.manager = broker.getWorkers().getWorkerManager(clientId);
+                Integer maxThreads;
+                int maxThreadPerUserPerTaskTypePercent;
+                Map<String, Integer> maxThreadsByTaskType;
+                List<Integer> groups;
+                Set<Integer> excludedGroups;
+                Map<String, Integer> resourceLimits;
+                if (message.parameters.containsKey("delta")) {
+                    // only changed values are sent
+                    maxThreads = (Integer) message.parameters.getOrDefault("maxThreads", manager.getMaxThreads());
+                    maxThreadPerUserPerTaskTypePercent = (Integer) message.parameters.getOrDefault("maxThreadPerUserPerTaskTypePercent", manager.getMaxThreadPerUserPerTaskTypePercent());
+                    maxThreadsByTaskType = (Map<String, Integer>) message.parameters.getOrDefault("maxThreadsByTaskType", manager.getMaxThreadsByTaskType());
+                    groups = (List<Integer>) message.parameters.getOrDefault("groups", manager.getGroups());
+                    excludedGroups = (Set<Integer>) message.parameters.getOrDefault("excludedGroups", manager.getExcludedGroups());
+                    resourceLimits = (Map<String, Integer>) message.parameters.getOrDefault("resources", manager.getResourceLimis());
+                } else {
+                    maxThreads = (Integer) message.parameters.getOrDefault("maxThreads", 0);
+                    maxThreadPerUserPerTaskTypePercent = (Integer) message.parameters.getOrDefault("maxThreadPerUserPerTaskTypePercent", 0);
+                    maxThreadsByTaskType = (Map<String, Integer>) message.parameters.getOrDefault("maxThreadsByTaskType", Collections.emptyMap());
+                    groups = (List<Integer>) message.parameters.getOrDefault("groups", Collections.emptyList());
+                    excludedGroups = (Set<Integer>) message.parameters.getOrDefault("excludedGroups", Collections.emptySet());
+                    resourceLimits = (Map<String, Integer>) message.parameters.getOrDefault("resources", Collections.emptyMap());
+                }
                 LOGGER.log(Level.FINE, "ping connection {0}, workerId:{1}, processId={2}, location={3}", new Object[]{connectionId, clientId, message.parameters.get("processId"), message.parameters.get("location")});
                 if (workerProcessId != null && !message.workerProcessId.equals(processId)) {
                     // worker process is not the same as the one we expect, send a "die" message and close the channel
@@ -342,9 +383,28 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
                     });
                     return;
                 }
+                if (manager.applyConfiguration(maxThreads, maxThreadsByTaskType, groups, excludedGroups, resourceLimits, maxThreadPerUserPerTaskTypePercent)) {
+                    broker.getWorkers().wakeUpWorker(clientId);
+                }
+                break;
+            case Message.TYPE_WORKER_CREDITS: {
+                if (!authenticated && requireAuthentication) {
+                    Message error = Message.ERROR(null, new Exception("autentication required (client " + channel + ")"));
+                    _channel.sendReplyMessage(message, error);
+                    break;
+                }
+                if (!isWorker) {
+                    Message error = Message.ERROR(null, new Exception("request type " + message.type + " is only for workers"));
+                    _channel.sendReplyMessage(message, error);
+                    break;
+                }
+                List<Long> releasedTasks = (List<Long>) message.parameters.getOrDefault("releasedTasks", Collections.emptyList());
+                LOGGER.log(Level.FINEST, "worker {0} released tasks {1}", new Object[]{clientId, releasedTasks});
                 this.manager = broker.getWorkers().getWorkerManager(clientId);
-                manager.applyConfiguration(maxThreads, maxThreadsByTaskType, groups, excludedGroups, resourceLimits, maxThreadPerUserPerTaskTypePercent);
+                manager.tasksReleased(releasedTasks);
+                broker.getWorkers().wakeUpWorker(clientId);
                 break;
+            }
             case Message.TYPE_WORKER_SHUTDOWN:
                 if (!authenticated && requireAuthentication) {
                     Message error = Message.ERROR(null, new Exception("autentication required (client " + channel + ")"));
@@ -371,14 +431,21 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
                     break;
                 }
                 LOGGER.log(Level.INFO, "creating snapshot in reponse to a SNAPSHOT_DOWNLOAD_REQUEST from {0}", this.channel);
-                try {
-                    BrokerStatusSnapshot snapshot = broker.getBrokerStatus().createSnapshot();
-
+                if (message.parameters != null && message.parameters.containsKey("chunkSize")) {
+                    try {
+                        SnapshotTransfers.SnapshotTransfer transfer = broker.getSnapshotTransfers().start(broker.getBrokerStatus());
+                        channel.sendReplyMessage(message, Message.SNAPSHOT_DOWNLOAD_RESPONSE(transfer.getId(), transfer.getSize()));
+                    } catch (Exception error) {
+                        LOGGER.log(Level.SEVERE, "Error", error);
+                        channel.sendReplyMessage(message, Message.ERROR(workerProcessId, error));
+                    }
+                    break;
+                }
+                try (BrokerStatusSnapshot snapshot = broker.getBrokerStatus().createSnapshot()) {
+                    // follower of a previous version, send the whole snapshot at once
                     byte[] data;
-                    try (ByteArrayOutputStream out = new ByteArrayOutputStream();
-                        GZIPOutputStream zout = new GZIPOutputStream(out)) {
-                        BrokerStatusSnapshot.serializeSnapshot(snapshot, zout);
-                        zout.close();
+                    try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+                        BrokerStatusSnapshot.serializeSnapshot(snapshot, out, true);
                         data = out.toByteArray();
                     } catch (IOException err) {
                         throw new LogNotAvailableException(err);
@@ -390,6 +457,45 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
                     channel.sendReplyMessage(message, Message.ERROR(workerProcessId, error));
                 }
                 break;
+            case Message.TYPE_SNAPSHOT_CHUNK_REQUEST: {
+                if (!authenticated && requireAuthentication) {
+                    Message error = Message.ERROR(null, new Exception("autentication required (client " + channel + ")"));
+                    _channel.sendReplyMessage(message, error);
+                    break;
+                }
+                if (!isBroker) {
+                    Message error = Message.ERROR(null, new Exception("request type " + message.type + " is only for brokers"));
+                    _channel.sendReplyMessage(message, error);
+                    break;
+                }
+                String snapshotId = (String) message.parameters.get("snapshotId");
+                long offset = ((Number) message.parameters.get("offset")).longValue();
+                int length = ((Number) message.parameters.get("length")).intValue();
+                try {
+                    byte[] data = broker.getSnapshotTransfers().readChunk(snapshotId, offset, length);
+                    _channel.sendReplyMessage(message, Message.SNAPSHOT_CHUNK_RESPONSE(snapshotId, offset, data));
+                } catch (IOException error) {
+                    LOGGER.log(Level.SEVERE, "cannot send snapshot chunk to " + channel, error);
+                    _channel.sendReplyMessage(message, Message.ERROR(null, error));
+                }
+                break;
+            }
+            case Message.TYPE_SNAPSHOT_DOWNLOAD_DONE: {
+                if (!authenticated && requireAuthentication) {
+                    Message error = Message.ERROR(null, new Exception("autentication required (client " + channel + ")"));
+                    _channel.sendReplyMessage(message, error);
+                    break;
+                }
+                if (!isBroker) {
+                    Message error = Message.ERROR(null, new Exception("request type " + message.type + " is only for brokers"));
+                    _channel.sendReplyMessage(message, error);
+                    break;
+                }
+                String snapshotId = (String) message.parameters.get("snapshotId");
+                broker.getSnapshotTransfers().complete(snapshotId);
+                _channel.sendReplyMessage(message, Message.ACK(null));
+                break;
+            }
             case Message.TYPE_DOWNLOAD_CODEPOOL:
                 if (!authenticated && requireAuthentication) {
                     Message error = Message.ERROR(null, new Exception("autentication required (client " + channel + ")"));
@@ -458,10 +564,58 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
 
     void answerConnectionAccepted(Message connectionRequestMessage
     ) {
-        channel.sendReplyMessage(connectionRequestMessage, Message.ACK(workerProcessId));
+        Message ack = Message.ACK(workerProcessId);
+        if (typedEncodingSupported) {
+            ack.setParameter(Message.FEATURE_TYPED_ENCODING, 1);
+            channel.enableTypedEncoding();
+        }
+        if (isWorker) {
+            ack.setParameter(Message.FEATURE_CREDITS, 1);
+            ack.setParameter(Message.FEATURE_DELTA_PING, 1);
+        }
+        channel.sendReplyMessage(connectionRequestMessage, ack);
+    }
+
+    /**
+     * Tells whether the worker accepts {@link Message#TYPE_TASKS_ASSIGNED} messages
+     *
+     * @return
+     */
+    public boolean isBatchedAssignmentsSupported() {
+        return batchedAssignmentsSupported;
     }
 
     public void sendTaskAssigned(Task task, SimpleCallback<Void> callback) {
+        channel.sendOneWayMessage(Message.TYPE_TASK_ASSIGNED(workerProcessId, describeTaskAssigned(task)), new SendResultCallback() {
+
+            @Override
+            public void messageSent(Message originalMessage, Throwable error) {
+                callback.onResult(null, error);
+            }
+        });
+    }
+
+    /**
+     * Sends many tasks to the worker with a single message, the callback is called once for all the tasks
+     *
+     * @param tasks
+     * @param callback
+     */
+    public void sendTasksAssigned(List<Task> tasks, SimpleCallback<Void> callback) {
+        List<Map<String, Object>> tasksData = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            tasksData.add(describeTaskAssigned(task));
+        }
+        channel.sendOneWayMessage(Message.TASKS_ASSIGNED(workerProcessId, tasksData), new SendResultCallback() {
+
+            @Override
+            public void messageSent(Message originalMessage, Throwable error) {
+                callback.onResult(null, error);
+            }
+        });
+    }
+
+    private static Map<String, Object> describeTaskAssigned(Task task) {
         Map<String, Object> params = new HashMap<>();
         params.put("taskid", task.getTaskId());
         params.put("tasktype", task.getType());
@@ -475,13 +629,7 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
         if (task.getCodepool() != null) {
             params.put("codepool", task.getCodepool());
         }
-        channel.sendOneWayMessage(Message.TYPE_TASK_ASSIGNED(workerProcessId, params), new SendResultCallback() {
-
-            @Override
-            public void messageSent(Message originalMessage, Throwable error) {
-                callback.onResult(null, error);
-            }
-        });
+        return params;
     }
 
     public void workerDied() {
@@ -26,10 +26,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -40,6 +43,7 @@ import majordodo.clientfacade.CodePoolView;
 import majordodo.clientfacade.TransactionStatus;
 import majordodo.codepools.CodePool;
 import majordodo.utils.IntCounter;
+import majordodo.utils.LongObjectHashMap;
 
 /**
  * Replicated status of the broker. Each broker, leader or follower, contains a copy of this status. The status is
@@ -51,8 +55,8 @@ public final class BrokerStatus {
 
     private static final Logger LOGGER = Logger.getLogger(BrokerStatus.class.getName());
 
-    private final Map<Long, Task> tasks = new HashMap<>();
-    private final Map<Long, Transaction> transactions = new HashMap<>();
+    private final LongObjectHashMap<Task> tasks = new LongObjectHashMap<>();
+    private final LongObjectHashMap<Transaction> transactions = new LongObjectHashMap<>();
 
     private final Map<String, WorkerStatus> workers = new HashMap<>();
     private final Map<String, CodePool> codePools = new HashMap<>();
@@ -66,7 +70,30 @@ public final class BrokerStatus {
     private final AtomicInteger checkpointsCount = new AtomicInteger();
     private final SlotsManager slotsManager = new SlotsManager();
     private final BrokerStatusStats stats = new BrokerStatusStats();
+    private final RunningTasksIndex runningTasks = new RunningTasksIndex();
+    private static final long RETENTION_INDEX_BUCKET_DURATION = 1000;
+    private static final int RETENTION_INDEX_BATCH_SIZE = 1000;
+    private final TimeBucketsIndex waitingTasksByDeadline = new TimeBucketsIndex(RETENTION_INDEX_BUCKET_DURATION);
+    private final TimeBucketsIndex finishedTasksByCreationTime = new TimeBucketsIndex(RETENTION_INDEX_BUCKET_DURATION);
     private boolean readonly;
+    private StatusEditsGroupCommit groupCommit;
+
+    /**
+     * Current version of the status, incremented every time a snapshot pins the status. Tasks created in a previous
+     * version are copied before being modified if a snapshot is still using them
+     */
+    private long statusVersion;
+    private final AtomicInteger runningSnapshots = new AtomicInteger();
+    /**
+     * Applies the edits acknowledged by the log, so that the threads of the log (the spool thread, the BookKeeper
+     * callbacks) never wait for the status, the heap or the scheduling of delayed tasks. A single thread keeps edits
+     * applied in the same order they were acknowledged
+     */
+    private final ExecutorService applyEditsExecutor = Executors.newSingleThreadExecutor((Runnable r) -> {
+        Thread t = new Thread(r, "dodo-broker-apply-edits");
+        t.setDaemon(true);
+        return t;
+    });
 
     public boolean isReadonly() {
         return readonly;
@@ -84,6 +111,21 @@ public final class BrokerStatus {
         this.log = log;
     }
 
+    /**
+     * Single edits submitted concurrently to {@link #applyModification(majordodo.task.StatusEdit)} will be written to
+     * the log in batches
+     *
+     * @param maxBatchSize maximum number of edits in a batch
+     * @param maxDelay maximum time to wait for other edits before writing a batch, in microseconds
+     */
+    public void enableGroupCommit(int maxBatchSize, long maxDelay) {
+        this.groupCommit = new StatusEditsGroupCommit(log, maxBatchSize, maxDelay);
+    }
+
+    StatusEditsGroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
     public Map<String, Long> getActualSlots() {
         return slotsManager.getActualSlots();
     }
@@ -292,85 +334,188 @@ public final class BrokerStatus {
         }
         purgeAbandonedCodePools();
 
-        BrokerStatusSnapshot snapshot = createSnapshot();
-
-        this.log.checkpoint(snapshot);
+        try (BrokerStatusSnapshot snapshot = createSnapshot()) {
+            this.log.checkpoint(snapshot);
+        }
     }
 
+    /**
+     * Creates a snapshot of the status. The lock is held only in order to pin the current version of the status: tasks
+     * are copied-on-write by {@link #applyEdit(majordodo.task.LogSequenceNumber, majordodo.task.StatusEdit) } while
+     * the snapshot is serialized, so new edits do not wait for the serialization of the snapshot. The pinned objects
+     * are written directly to the stream of the caller, the status stays pinned until the snapshot is closed
+     *
+     * @return
+     * @see BrokerStatusSnapshot#close()
+     */
     public BrokerStatusSnapshot createSnapshot() {
-        lock.readLock().lock();
+        List<Task> pinnedTasks;
+        List<WorkerStatus> pinnedWorkers = new ArrayList<>();
+        List<Transaction> pinnedTransactions = new ArrayList<>();
+        List<CodePool> pinnedCodePools;
+        long snapshotMaxTaskId;
+        long snapshotMaxTransactionId;
+        LogSequenceNumber snapshotSequenceNumber;
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
         try {
-            BrokerStatusSnapshot snap = new BrokerStatusSnapshot(maxTaskId, maxTransactionId, lastLogSequenceNumber);
-            for (Task task : tasks.values()) {
-                snap.tasks.add(task.cloneForSnapshot());
-            }
+            statusVersion++;
+            runningSnapshots.incrementAndGet();
+            pinnedTasks = new ArrayList<>(tasks.values());
+            // workers and transactions are few, we can copy them
             for (WorkerStatus status : workers.values()) {
-                snap.workers.add(status.cloneForSnapshot());
+                pinnedWorkers.add(status.cloneForSnapshot());
             }
-            for (Transaction status : transactions.values()) {
-                snap.transactions.add(status.cloneForSnapshot());
+            for (Transaction transaction : transactions.values()) {
+                pinnedTransactions.add(transaction.cloneForSnapshot());
             }
-            return snap;
+            // codepools are immutable
+            pinnedCodePools = new ArrayList<>(codePools.values());
+            snapshotMaxTaskId = maxTaskId;
+            snapshotMaxTransactionId = maxTransactionId;
+            snapshotSequenceNumber = lastLogSequenceNumber;
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
         }
+        LOGGER.log(Level.INFO, "snapshot at {0}, {1} tasks, pinned in {2} ms",
+            new Object[]{snapshotSequenceNumber, pinnedTasks.size(), System.currentTimeMillis() - start});
+        return new BrokerStatusSnapshot(snapshotMaxTaskId, snapshotMaxTransactionId, snapshotSequenceNumber,
+            pinnedTasks, pinnedWorkers, pinnedTransactions, pinnedCodePools, runningSnapshots::decrementAndGet);
+    }
+
+    /**
+     * Returns the task to be modified, copying it if it is pinned by a running snapshot. Must be called while holding
+     * the write lock
+     *
+     * @param task
+     * @return
+     */
+    private Task prepareTaskForUpdate(Task task) {
+        if (task.getStatusVersion() < statusVersion && runningSnapshots.get() > 0) {
+            Task copy = task.cloneForSnapshot();
+            copy.setStatusVersion(statusVersion);
+            tasks.put(copy.getTaskId(), copy);
+            return copy;
+        }
+        return task;
     }
 
     public void close() {
+        if (groupCommit != null) {
+            groupCommit.close();
+        }
         try {
             this.log.close();
         } catch (LogNotAvailableException sorry) {
             LOGGER.log(Level.SEVERE, "Error while closing transaction log", sorry);
         }
+        // the log is closed, no more writes will be acknowledged
+        applyEditsExecutor.shutdown();
 
     }
 
+    /**
+     * Purges finished tasks older than the retention period and looks for waiting tasks whose deadline has expired.
+     * Only tasks indexed as due are visited, in batches, releasing the write lock between batches
+     *
+     * @param finishedTasksRetention
+     * @param maxExpiredPerCycle
+     * @return the ids of the expired tasks
+     */
     public Set<Long> purgeFinishedTasksAndSignalExpiredTasks(int finishedTasksRetention, int maxExpiredPerCycle) {
         long now = System.currentTimeMillis();
         long finished_deadline = now - finishedTasksRetention;
 
         Set<Long> expired = new HashSet<>();
-        int expiredcount = 0;
-        this.lock.writeLock().lock();
-        try {
-            // when running in FOLLOWER MODE we cannot expire tasks, but we need to remove them from memory, see MAJ-58
-            boolean allowExpire = this.log.isLeader() && this.log.isWritable();
-            // tasks are only purged from memry, not from logs
-            // in case of broker restart it may re-appear
-            for (Iterator<Map.Entry<Long, Task>> it = tasks.entrySet().iterator(); it.hasNext();) {
-                Map.Entry<Long, Task> taskEntry = it.next();
-                Task t = taskEntry.getValue();
-                switch (t.getStatus()) {
-                    case Task.STATUS_WAITING:
-                    case Task.STATUS_DELAYED:
-                        if (expiredcount < maxExpiredPerCycle && allowExpire) {
+        IntCounter purged = new IntCounter();
+        long nextBucket = 0;
+        do {
+            this.lock.writeLock().lock();
+            try {
+                // tasks are only purged from memry, not from logs
+                // in case of broker restart it may re-appear
+                nextBucket = finishedTasksByCreationTime.visit(nextBucket, finished_deadline, RETENTION_INDEX_BATCH_SIZE, taskId -> {
+                    Task t = tasks.get(taskId);
+                    if (t == null) {
+                        return false;
+                    }
+                    switch (t.getStatus()) {
+                        case Task.STATUS_ERROR:
+                        case Task.STATUS_FINISHED:
+                            if (t.getCreatedTimestamp() < finished_deadline) {
+                                LOGGER.log(Level.INFO, "purging finished task {0} slot {2}, created at {1}", new Object[]{t.getTaskId(), new java.util.Date(t.getCreatedTimestamp()), t.getSlot()});
+                                tasks.remove(taskId);
+                                stats.taskStatusChange(t.getStatus(), -1);
+                                purged.count++;
+                                return false;
+                            }
+                            return true;
+                        default:
+                            return false;
+                    }
+                });
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        } while (nextBucket >= 0);
+
+        nextBucket = 0;
+        do {
+            this.lock.writeLock().lock();
+            try {
+                // when running in FOLLOWER MODE we cannot expire tasks, but we need to remove them from memory, see MAJ-58
+                boolean allowExpire = this.log.isLeader() && this.log.isWritable();
+                nextBucket = waitingTasksByDeadline.visit(nextBucket, now, RETENTION_INDEX_BATCH_SIZE, taskId -> {
+                    Task t = tasks.get(taskId);
+                    if (t == null) {
+                        return false;
+                    }
+                    switch (t.getStatus()) {
+                        case Task.STATUS_WAITING:
+                        case Task.STATUS_DELAYED:
                             long taskdeadline = t.getExecutionDeadline();
-                            if (taskdeadline > 0 && taskdeadline < now) {
-                                expired.add(t.getTaskId());
-                                expiredcount++;
+                            if (allowExpire && expired.size() < maxExpiredPerCycle && taskdeadline < now
+                                && expired.add(taskId)) {
                                 LOGGER.log(Level.INFO, "task {0}, created at {1}, expired, deadline {2}", new Object[]{t.getTaskId(), new java.util.Date(t.getCreatedTimestamp()), new java.util.Date(taskdeadline)});
                             }
-                        }
-                        break;
-                    case Task.STATUS_ERROR:
-                    case Task.STATUS_FINISHED:
-                        if (t.getCreatedTimestamp() < finished_deadline) {
-                            LOGGER.log(Level.INFO, "purging finished task {0} slot {2}, created at {1}", new Object[]{t.getTaskId(), new java.util.Date(t.getCreatedTimestamp()), t.getSlot()});
-                            it.remove();
-                            stats.taskStatusChange(t.getStatus(), -1);
-                        }
-                        break;
-                    default:
-                        // not interesting
-                        break;
-                }
+                            // the task leaves the index when its status changes
+                            return true;
+                        default:
+                            return false;
+                    }
+                });
+            } finally {
+                this.lock.writeLock().unlock();
             }
-        } finally {
-            this.lock.writeLock().unlock();
+        } while (nextBucket >= 0 && expired.size() < maxExpiredPerCycle);
+        if (purged.count > 0) {
+            LOGGER.log(Level.INFO, "purged {0} finished tasks", purged.count);
         }
         return expired;
     }
 
+    /**
+     * Adds the task to the time based indexes used by
+     * {@link #purgeFinishedTasksAndSignalExpiredTasks(int, int) }, after a change of status
+     */
+    private void indexTaskByTime(Task task) {
+        switch (task.getStatus()) {
+            case Task.STATUS_WAITING:
+            case Task.STATUS_DELAYED:
+                if (task.getExecutionDeadline() > 0) {
+                    waitingTasksByDeadline.add(task.getExecutionDeadline(), task.getTaskId());
+                }
+                break;
+            case Task.STATUS_ERROR:
+            case Task.STATUS_FINISHED:
+                finishedTasksByCreationTime.add(task.getCreatedTimestamp(), task.getTaskId());
+                break;
+            default:
+                // not interesting
+                break;
+        }
+    }
+
     public void followTheLeader() throws InterruptedException {
         try {
             log.requestLeadership();
@@ -380,9 +525,11 @@ public final class BrokerStatus {
                         LOGGER.log(Level.FINEST, "following the leader {0} {1}", new Object[]{logSeqNumber, edit});
                         applyEdit(logSeqNumber, edit);
                     });
-                Thread.sleep(1000);
             }
         } catch (LogNotAvailableException err) {
+            if (err.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) err.getCause();
+            }
             throw new RuntimeException(err);
         }
     }
@@ -390,7 +537,7 @@ public final class BrokerStatus {
     List<Long> getRunningTasksAssignedToWorker(String workerId) {
         this.lock.readLock().lock();
         try {
-            return tasks.values().stream().filter(t -> t.getStatus() == Task.STATUS_RUNNING && workerId.equals(t.getWorkerId())).map(Task::getTaskId).collect(Collectors.toList());
+            return runningTasks.getRunningTasks(workerId).getTaskIds();
         } finally {
             this.lock.readLock().unlock();
         }
@@ -436,19 +583,32 @@ public final class BrokerStatus {
         LOGGER.log(Level.SEVERE, "After recoverForLeadership maxTaskId=" + maxTaskId + ", maxTransactionId=" + maxTransactionId + ", lastLogSequenceNumber=" + lastLogSequenceNumber);
     }
 
-    int applyRunningTasksFilterToAssignTasksRequest(String workerId, Map<String, Integer> availableSpace) {
+    int applyRunningTasksFilterToAssignTasksRequest(String workerId, Map<String, Integer> availableSpace, Set<Long> releasedTasks) {
         lock.readLock().lock();
         try {
-            AtomicInteger running = new AtomicInteger();
-            tasks.values().forEach(t -> {
-                if (t.getStatus() != Task.STATUS_RUNNING || !workerId.equals(t.getWorkerId())) {
-                    return;
+            RunningTasksIndex.WorkerRunningTasks running = runningTasks.getRunningTasks(workerId);
+            Map<TaskTypeUser, IntCounter> counts = running.getCountsByTaskTypeUser();
+            int actuallyRunning = running.size();
+            if (!releasedTasks.isEmpty()) {
+                // the worker already gave back the slots of these tasks
+                Map<TaskTypeUser, IntCounter> notReleased = new HashMap<>();
+                counts.forEach((taskTypeUser, runningCount) -> {
+                    notReleased.put(taskTypeUser, new IntCounter(runningCount.count));
+                });
+                for (Long taskId : releasedTasks) {
+                    TaskTypeUser taskTypeUser = running.getTaskTypeUser(taskId);
+                    if (taskTypeUser != null) {
+                        notReleased.get(taskTypeUser).count--;
+                        actuallyRunning--;
+                    }
                 }
-                running.incrementAndGet();
-                String taskType = t.getType();
+                counts = notReleased;
+            }
+            counts.forEach((taskTypeUser, runningCount) -> {
+                String taskType = taskTypeUser.taskType;
                 Integer count = availableSpace.get(taskType);
                 if (count != null) {
-                    int newCount = count - 1;
+                    int newCount = count - runningCount.count;
                     if (newCount > 0) {
                         availableSpace.put(taskType, newCount);
                     } else {
@@ -456,7 +616,7 @@ public final class BrokerStatus {
                     }
                 }
             });
-            return running.get();
+            return actuallyRunning;
         } finally {
             lock.readLock().unlock();
         }
@@ -516,33 +676,22 @@ public final class BrokerStatus {
         Map<TaskTypeUser, IntCounter> res = new HashMap<>();
         lock.readLock().lock();
         try {
-            this.tasks
-                .values()
-                .stream()
-                .filter(t -> t.getStatus() == Task.STATUS_RUNNING
-                && workerId.equals(t.getWorkerId()))
-                .forEach(t -> {
-                    String type = t.getType();
+            runningTasks.getRunningTasks(workerId)
+                .getCountsByTaskTypeUser()
+                .forEach((key, runningCount) -> {
+                    String type = key.taskType;
                     Integer startingMaxAvailableSpacePerUser = startingAvailableSpace.get(type);
                     if (startingMaxAvailableSpacePerUser == null) {
                         startingMaxAvailableSpacePerUser = startingAvailableSpace.get(Task.TASKTYPE_ANY);
                     }
                     if (startingMaxAvailableSpacePerUser != null && startingMaxAvailableSpacePerUser > 0) {
-                        TaskTypeUser key = new TaskTypeUser(type, t.getUserId());
-                        IntCounter count = res.get(key);
-                        if (count == null) {
-                            int effectiveBoundForUser
-                                = (startingMaxAvailableSpacePerUser * maxThreadPerUserPerTaskTypePercent) / 100;
-                            if (effectiveBoundForUser <= 0) {
-                                effectiveBoundForUser = 1;
-                            }
-                            LOGGER.log(Level.FINEST, "collectMaxAvailableSpacePerUserOnWorker {0} -> for user {1} we are starting from {2} - bound is {3}", new Object[]{workerId, t.getUserId(), startingMaxAvailableSpacePerUser, effectiveBoundForUser});
-                            count = new IntCounter(effectiveBoundForUser);
-                            res.put(key, count);
-
+                        int effectiveBoundForUser
+                            = (startingMaxAvailableSpacePerUser * maxThreadPerUserPerTaskTypePercent) / 100;
+                        if (effectiveBoundForUser <= 0) {
+                            effectiveBoundForUser = 1;
                         }
-                        LOGGER.log(Level.FINEST, "collectMaxAvailableSpacePerUserOnWorker {0} -> for user {1} found task {2} - id {3}", new Object[]{workerId, t.getUserId(), t.getType(), t.getTaskId()});
-                        count.count--;
+                        LOGGER.log(Level.FINEST, "collectMaxAvailableSpacePerUserOnWorker {0} -> for user {1} we are starting from {2} - bound is {3}, running {4}", new Object[]{workerId, key.userId, startingMaxAvailableSpacePerUser, effectiveBoundForUser, runningCount.count});
+                        res.put(key, new IntCounter(effectiveBoundForUser - runningCount.count));
                     }
                 });
         } finally {
@@ -572,10 +721,19 @@ public final class BrokerStatus {
     }
 
     List<ModificationResult> applyModifications(List<StatusEdit> edits) throws LogNotAvailableException {
+        return StatusChangesLog.waitForResult(applyModificationsAsync(edits));
+    }
+
+    /**
+     * Writes a batch of edits to the log and then applies them to the status, without waiting for the log
+     *
+     * @param edits
+     * @return
+     */
+    CompletableFuture<List<ModificationResult>> applyModificationsAsync(List<StatusEdit> edits) {
         if (brokerFailed) {
-            throw new LogNotAvailableException("broker failed");
+            return failedFuture(new LogNotAvailableException("broker failed"));
         }
-        List<ModificationResult> results = new ArrayList<>();
         Set<Integer> skip = new HashSet<>();
         int index = 0;
         List<StatusEdit> toLog = new ArrayList<>();
@@ -592,8 +750,18 @@ public final class BrokerStatus {
             }
             index++;
         }
-        try {
-            List<LogSequenceNumber> num = log.logStatusEditBatch(toLog);
+        return log.logStatusEditBatchAsync(toLog).handleAsync((num, error) -> {
+            if (error != null) {
+                for (StatusEdit edit : toLog) {
+                    if ((edit.editType == StatusEdit.TYPE_ADD_TASK
+                        || edit.editType == StatusEdit.TYPE_PREPARE_ADD_TASK)
+                        && edit.slot != null) {
+                        slotsManager.releaseSlot(edit.slot, edit.taskId);
+                    }
+                }
+                throw new CompletionException(error);
+            }
+            List<ModificationResult> results = new ArrayList<>();
             int max = edits.size();
             int numberSequence = 0;
             for (int i = 0; i < max; i++) {
@@ -618,53 +786,63 @@ public final class BrokerStatus {
                 }
             }
             return results;
-        } catch (LogNotAvailableException err) {
-            for (StatusEdit edit : edits) {
-                if ((edit.editType == StatusEdit.TYPE_ADD_TASK
-                    || edit.editType == StatusEdit.TYPE_PREPARE_ADD_TASK)
-                    && edit.slot != null) {
-                    slotsManager.releaseSlot(edit.slot, edit.taskId);
-
-                } else {
-                    toLog.add(edit);
-                }
-                index++;
-            }
-            throw err;
-        }
+        }, applyEditsExecutor);
     }
 
     public ModificationResult applyModification(StatusEdit edit) throws LogNotAvailableException {
+        return StatusChangesLog.waitForResult(applyModificationAsync(edit));
+    }
+
+    /**
+     * Writes the edit to the log and then applies it to the status. The caller is not blocked while the log is
+     * writing, the edit is applied by a dedicated thread once the write is acknowledged
+     *
+     * @param edit
+     * @return
+     */
+    public CompletableFuture<ModificationResult> applyModificationAsync(StatusEdit edit) {
         if (brokerFailed) {
-            throw new LogNotAvailableException("broker failed");
+            return failedFuture(new LogNotAvailableException("broker failed"));
         }
         LOGGER.log(Level.FINEST, "applyModification {0}", edit);
         if ((edit.editType == StatusEdit.TYPE_ADD_TASK || edit.editType == StatusEdit.TYPE_PREPARE_ADD_TASK)
             && edit.slot != null) {
             if (slotsManager.assignSlot(edit.slot, edit.taskId)) {
-                try {
-                    LogSequenceNumber num = log.logStatusEdit(edit); // ? out of the lock ?        
+                return logStatusEditAsync(edit).handleAsync((num, error) -> {
+                    if (error != null) {
+                        slotsManager.releaseSlot(edit.slot, edit.taskId);
+                        throw new CompletionException(error);
+                    }
                     return applyEdit(num, edit);
-                } catch (LogNotAvailableException releaseSlot) {
-                    slotsManager.releaseSlot(edit.slot, edit.taskId);
-                    throw releaseSlot;
-                }
+                }, applyEditsExecutor);
             } else {
                 // slot already assigned
                 LOGGER.log(Level.FINEST, "slot {0} already assigned", edit.slot);
-                return new ModificationResult(null, null, "slot " + edit.slot + " already assigned");
+                return CompletableFuture.completedFuture(new ModificationResult(null, null, "slot " + edit.slot + " already assigned"));
             }
         } else {
             if (edit.editType == StatusEdit.TYPE_CREATECODEPOOL) {
                 if (edit.codepool == null || edit.codepool.isEmpty()) {
-                    return new ModificationResult(null, edit.codepool, "codepoolid must not be empty");
+                    return CompletableFuture.completedFuture(new ModificationResult(null, edit.codepool, "codepoolid must not be empty"));
                 } else if (codePools.containsKey(edit.codepool)) {
-                    return new ModificationResult(null, edit.codepool, "codepool " + edit.codepool + " already exists");
+                    return CompletableFuture.completedFuture(new ModificationResult(null, edit.codepool, "codepool " + edit.codepool + " already exists"));
                 }
             }
-            LogSequenceNumber num = log.logStatusEdit(edit); // ? out of the lock ?        
-            return applyEdit(num, edit);
+            return logStatusEditAsync(edit).thenApplyAsync(num -> applyEdit(num, edit), applyEditsExecutor);
+        }
+    }
+
+    private CompletableFuture<LogSequenceNumber> logStatusEditAsync(StatusEdit edit) {
+        if (groupCommit != null) {
+            return groupCommit.logStatusEditAsync(edit);
         }
+        return log.logStatusEditAsync(edit);
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable error) {
+        CompletableFuture<T> res = new CompletableFuture<>();
+        res.completeExceptionally(error);
+        return res;
     }
 
     /**
@@ -691,7 +869,9 @@ public final class BrokerStatus {
                     if (task == null) {
                         throw new RuntimeException("task " + taskId + " not present in brokerstatus. maybe you are recovering broken snapshot");
                     }
+                    task = prepareTaskForUpdate(task);
                     int oldStatus = task.getStatus();
+                    String oldWorkerId = task.getWorkerId();
                     task.setStatus(Task.STATUS_RUNNING);
                     if (workerId == null || workerId.isEmpty()) {
                         throw new RuntimeException("bug " + edit);
@@ -702,6 +882,7 @@ public final class BrokerStatus {
                     }
                     task.setAttempts(edit.attempt);
                     stats.taskStatusChange(oldStatus, task.getStatus());
+                    runningTasks.taskChanged(task, oldStatus, oldWorkerId);
                     return new ModificationResult(num, null, null);
                 }
                 case StatusEdit.TYPE_TASK_STATUS_CHANGE: {
@@ -710,9 +891,14 @@ public final class BrokerStatus {
                     if (task == null) {
                         throw new IllegalStateException("task " + taskId + " does not exist");
                     }
+                    task = prepareTaskForUpdate(task);
                     int oldStatus = task.getStatus();
                     task.setStatus(edit.taskStatus);
                     task.setResult(edit.result);
+                    runningTasks.taskChanged(task, oldStatus, task.getWorkerId());
+                    if (oldStatus != edit.taskStatus) {
+                        indexTaskByTime(task);
+                    }
                     if (task.getSlot() != null) {
                         switch (edit.taskStatus) {
                             case Task.STATUS_FINISHED:
@@ -747,6 +933,7 @@ public final class BrokerStatus {
                     for (Task task : transaction.getPreparedTasks()) {
                         tasks.put(task.getTaskId(), task);
                         stats.taskStatusChange(-1, task.getStatus());
+                        indexTaskByTime(task);
                     }
                     transactions.remove(edit.transactionId);
                     return new ModificationResult(num, transaction.getPreparedTasks(), null);
@@ -771,6 +958,7 @@ public final class BrokerStatus {
                 case StatusEdit.TYPE_ADD_TASK: {
                     Task task = new Task();
                     task.setTaskId(edit.taskId);
+                    task.setStatusVersion(statusVersion);
                     if (maxTaskId < edit.taskId) {
                         maxTaskId = edit.taskId;
                     }
@@ -796,6 +984,7 @@ public final class BrokerStatus {
                     }
                     tasks.put(edit.taskId, task);
                     stats.taskStatusChange(-1, task.getStatus());
+                    indexTaskByTime(task);
 
                     if (edit.slot != null) {
                         // we need this, for log-replay on recovery and on followers
@@ -811,6 +1000,7 @@ public final class BrokerStatus {
                     }
                     Task task = new Task();
                     task.setTaskId(edit.taskId);
+                    task.setStatusVersion(statusVersion);
                     if (maxTaskId < edit.taskId) {
                         maxTaskId = edit.taskId;
                     }
@@ -926,6 +1116,8 @@ public final class BrokerStatus {
                     maxTaskId = taskId;
                 }
                 stats.taskStatusChange(-1, task.getStatus());
+                runningTasks.taskChanged(task, -1, null);
+                indexTaskByTime(task);
                 switch (task.getStatus()) {
                     case Task.STATUS_RUNNING:
                     case Task.STATUS_WAITING:
@@ -99,14 +99,17 @@ public class BrokerStatusMonitor {
             }
             
             LOGGER.log(Level.INFO, "Broker status: " + brokerStatusView.getClusterMode()
-                    + ", logpos:" + brokerStatusView.getCurrentLedgerId() + "," + brokerStatusView.getCurrentSequenceNumber() + ",Tasks:" + brokerStatusView.getTasks()
+                    + ", logpos:" + brokerStatusView.getCurrentLedgerId() + "," + brokerStatusView.getCurrentSequenceNumber()
+                    + ", follower lag " + brokerStatusView.getFollowerLagEntries() + " entries " + brokerStatusView.getFollowerLagMillis() + " ms"
+                    + ",Tasks:" + brokerStatusView.getTasks()
                     + ", waiting:" + brokerStatusView.getWaitingTasks()
                     + ", running:" + brokerStatusView.getRunningTasks()
                     + ", error:" + brokerStatusView.getErrorTasks()
                     + ", finished:" + brokerStatusView.getFinishedTasks() + ","
                     + "Transactions: count " + transactions.getTransactions().size() + ", oldest " + oldestTransaction + ", "
                     + "TasksHeap: size " + heap.getTasks().size() + ", first " + first + ", last " + last + ", "
-                    + "DelayedTasksQueue: size " + delayedQueue.getTasks().size() + ", average delay " + averageDelayInSeconds + ", "
+                    + "DelayedTasksQueue: size " + delayedQueue.getTasks().size() + ", average delay " + averageDelayInSeconds + ", resumed " + delayedQueue.getResumedTasks()
+                    + ", resume lag avg " + delayedQueue.getAverageResumeLag() + " ms, max " + delayedQueue.getMaxResumeLag() + " ms, last " + delayedQueue.getLastResumeLag() + " ms, "
                     + "Slots: " + slots.getBusySlots().size());
         }
 
@@ -19,49 +19,37 @@
  */
 package majordodo.task;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import majordodo.codepools.CodePool;
 import org.codehaus.jackson.JsonFactory;
-import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 
 /**
- * Snapshot of the status of the broker
+ * Snapshot of the status of the broker. A snapshot created from the live status by
+ * {@link BrokerStatus#createSnapshot()} pins the status until it is closed
  *
  * @author enrico.olivelli
  */
-public class BrokerStatusSnapshot {
-
-    private static void serializeTransaction(Transaction transaction, JsonGenerator g) throws IOException {
-        g.writeStartObject();
-        writeSimpleProperty(g, "id", transaction.getTransactionId());
-        writeSimpleProperty(g, "creationTimestamp", transaction.getCreationTimestamp());
-
-        if (transaction.getPreparedTasks() != null && !transaction.getPreparedTasks().isEmpty()) {
-            g.writeFieldName("preparedTasks");
-            g.writeStartArray();
-            for (Task t : transaction.getPreparedTasks()) {
-                serializeTask(t, g);
-            }
-            g.writeEndArray();
-        }
-        g.writeEndObject();
-    }
+public class BrokerStatusSnapshot implements AutoCloseable {
 
-    private static void serializeCodePool(CodePool transaction, JsonGenerator g) throws IOException {
-        g.writeStartObject();
-        writeSimpleProperty(g, "id", transaction.getId());
-        writeSimpleProperty(g, "creationTimestamp", transaction.getCreationTimestamp());
-        writeSimpleProperty(g, "ttl", transaction.getTtl());
-        writeSimpleProperty(g, "data", Base64.getEncoder().encodeToString(transaction.getCodePoolData()));
-        g.writeEndObject();
-    }
+    public static final String SNAPSHOT_FILE_EXTENSION = ".snap";
+    /**
+     * Snapshots written by previous versions, gzipped JSON
+     */
+    public static final String LEGACY_SNAPSHOT_FILE_EXTENSION = ".snap.json.gz";
+
+    private static final int GZIP_MAGIC = 0x1f8b;
 
     List<Task> tasks = new ArrayList<>();
     List<WorkerStatus> workers = new ArrayList<>();
@@ -70,6 +58,10 @@ public class BrokerStatusSnapshot {
     long maxTaskId;
     long maxTransactionId;
     LogSequenceNumber actualLogSequenceNumber;
+    /**
+     * Releases the objects pinned in the live status, see {@link #close() }
+     */
+    private Runnable release;
 
     public BrokerStatusSnapshot(long maxTaskId, long maxTransactionId, LogSequenceNumber actualLogSequenceNumber) {
         this.maxTaskId = maxTaskId;
@@ -77,6 +69,52 @@ public class BrokerStatusSnapshot {
         this.actualLogSequenceNumber = actualLogSequenceNumber;
     }
 
+    /**
+     * Snapshot of the live status, the objects are pinned by {@link BrokerStatus#createSnapshot()} and written
+     * directly to the stream by {@link #serializeSnapshot(majordodo.task.BrokerStatusSnapshot, java.io.OutputStream)}
+     */
+    BrokerStatusSnapshot(long maxTaskId, long maxTransactionId, LogSequenceNumber actualLogSequenceNumber,
+        List<Task> tasks, List<WorkerStatus> workers, List<Transaction> transactions, List<CodePool> codePools,
+        Runnable release) {
+        this.maxTaskId = maxTaskId;
+        this.maxTransactionId = maxTransactionId;
+        this.actualLogSequenceNumber = actualLogSequenceNumber;
+        this.tasks = tasks;
+        this.workers = workers;
+        this.transactions = transactions;
+        this.codePools = codePools;
+        this.release = release;
+    }
+
+    /**
+     * Releases the objects pinned in the live status: tasks modified after the creation of the snapshot are no more
+     * copied on write. Must be called once the snapshot has been written, or if it is not going to be written at all
+     */
+    @Override
+    public void close() {
+        Runnable _release = release;
+        release = null;
+        if (_release != null) {
+            _release.run();
+        }
+    }
+
+    /**
+     * Strips the extension from the name of a snapshot file
+     *
+     * @param filename
+     * @return null if the file does not contain a snapshot
+     */
+    public static String getSnapshotFileBaseName(String filename) {
+        if (filename.endsWith(SNAPSHOT_FILE_EXTENSION)) {
+            return filename.substring(0, filename.length() - SNAPSHOT_FILE_EXTENSION.length());
+        } else if (filename.endsWith(LEGACY_SNAPSHOT_FILE_EXTENSION)) {
+            return filename.substring(0, filename.length() - LEGACY_SNAPSHOT_FILE_EXTENSION.length());
+        } else {
+            return null;
+        }
+    }
+
     public long getMaxTransactionId() {
         return maxTransactionId;
     }
@@ -145,7 +183,34 @@ public class BrokerStatusSnapshot {
         return result;
     }
 
+    /**
+     * Reads a snapshot, both in binary format and in the legacy JSON format, compressed or not
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
     public static BrokerStatusSnapshot deserializeSnapshot(InputStream in) throws IOException {
+        BufferedInputStream bin = new BufferedInputStream(in);
+        bin.mark(4);
+        int b1 = bin.read();
+        int b2 = bin.read();
+        bin.reset();
+        if (((b1 << 8) | b2) == GZIP_MAGIC) {
+            return deserializeSnapshot(new GZIPInputStream(bin));
+        }
+        if (b1 != '{') {
+            DataInputStream din = new DataInputStream(bin);
+            bin.mark(4);
+            if (din.readInt() == BinarySnapshotFormat.MAGIC) {
+                return BinarySnapshotFormat.read(bin);
+            }
+            bin.reset();
+        }
+        return deserializeJsonSnapshot(bin);
+    }
+
+    private static BrokerStatusSnapshot deserializeJsonSnapshot(InputStream in) throws IOException {
         JsonFactory jfactory = new JsonFactory();
         JsonParser jParser = jfactory.createJsonParser(in);
 
@@ -428,103 +493,52 @@ public class BrokerStatusSnapshot {
         return task;
     }
 
-    private static void writeSimpleProperty(JsonGenerator g, String name, String value) throws IOException {
-        if (value != null) {
-            g.writeFieldName(name);
-            g.writeString(value);
-        }
-    }
-
-    private static void writeSimpleProperty(JsonGenerator g, String name, long value) throws IOException {
-
-        g.writeFieldName(name);
-        g.writeNumber(value);
-    }
-
+    /**
+     * Writes a snapshot in binary format
+     *
+     * @param snapshotData
+     * @param out
+     * @throws IOException
+     */
     public static void serializeSnapshot(BrokerStatusSnapshot snapshotData, OutputStream out) throws IOException {
-        JsonFactory f = new JsonFactory();
-        JsonGenerator g = f.createJsonGenerator(out);
-        g.writeStartObject();
-        LogSequenceNumber actualLogSequenceNumber = snapshotData.getActualLogSequenceNumber();
-
-        writeSimpleProperty(g, "ledgerid", actualLogSequenceNumber.ledgerId);
-        writeSimpleProperty(g, "sequenceNumber", actualLogSequenceNumber.sequenceNumber);
-        writeSimpleProperty(g, "maxTaskId", snapshotData.maxTaskId);
-        writeSimpleProperty(g, "maxTransactionId", snapshotData.maxTransactionId);
-        if (!snapshotData.getTasks().isEmpty()) {
-            g.writeFieldName("tasks");
-            g.writeStartArray();
-            for (Task task : snapshotData.getTasks()) {
-                serializeTask(task, g);
-            }
-            g.writeEndArray();
+        BinarySnapshotFormat.Writer writer = new BinarySnapshotFormat.Writer(out,
+            snapshotData.maxTaskId, snapshotData.maxTransactionId, snapshotData.actualLogSequenceNumber);
+        for (Task task : snapshotData.getTasks()) {
+            writer.writeTask(task);
         }
-
-        if (!snapshotData.getWorkers().isEmpty()) {
-            g.writeFieldName("workers");
-            g.writeStartArray();
-            for (WorkerStatus worker : snapshotData.getWorkers()) {
-                serializeWorker(worker, g);
-            };
-            g.writeEndArray();
+        for (WorkerStatus worker : snapshotData.getWorkers()) {
+            writer.writeWorker(worker);
         }
-        if (!snapshotData.getTransactions().isEmpty()) {
-            g.writeFieldName("transactions");
-            g.writeStartArray();
-            for (Transaction t : snapshotData.getTransactions()) {
-                serializeTransaction(t, g);
-            }
-            g.writeEndArray();
+        for (Transaction transaction : snapshotData.getTransactions()) {
+            writer.writeTransaction(transaction);
         }
-        if (!snapshotData.getCodePools().isEmpty()) {
-            g.writeFieldName("codepools");
-            g.writeStartArray();
-            for (CodePool t : snapshotData.getCodePools()) {
-                serializeCodePool(t, g);
-            }
-            g.writeEndArray();
+        for (CodePool codePool : snapshotData.getCodePools()) {
+            writer.writeCodePool(codePool);
         }
-
-        g.writeEndObject();
-        g.flush();
+        writer.finish();
     }
 
-    private static void serializeTask(Task task, JsonGenerator g) throws IOException {
-        g.writeStartObject();
-
-        writeSimpleProperty(g, "id", task.getTaskId());
-        writeSimpleProperty(g, "status", task.getStatus());
-        writeSimpleProperty(g, "maxattempts", task.getMaxattempts());
-        writeSimpleProperty(g, "slot", task.getSlot());
-        writeSimpleProperty(g, "attempts", task.getAttempts());
-        writeSimpleProperty(g, "requestedStartTime", task.getRequestedStartTime());
-        writeSimpleProperty(g, "executionDeadline", task.getExecutionDeadline());
-        writeSimpleProperty(g, "parameter", task.getParameter());
-        writeSimpleProperty(g, "result", task.getResult());
-        writeSimpleProperty(g, "userId", task.getUserId());
-        if (task.getResources() != null) {
-            writeSimpleProperty(g, "resources", task.getResources());
+    /**
+     * Writes a snapshot in binary format, optionally compressed with the fastest level of GZIP
+     *
+     * @param snapshotData
+     * @param out
+     * @param compress
+     * @throws IOException
+     */
+    public static void serializeSnapshot(BrokerStatusSnapshot snapshotData, OutputStream out, boolean compress) throws IOException {
+        if (!compress) {
+            serializeSnapshot(snapshotData, out);
+            return;
         }
-        if (task.getCodepool() != null) {
-            writeSimpleProperty(g, "codepool", task.getCodepool());
-        }
-        if (task.getMode() != null) {
-            writeSimpleProperty(g, "mode", task.getMode());
-        }
-        writeSimpleProperty(g, "createdTimestamp", task.getCreatedTimestamp());
-        writeSimpleProperty(g, "type", task.getType());
-        writeSimpleProperty(g, "workerId", task.getWorkerId());
-        g.writeEndObject();
-    }
-
-    private static void serializeWorker(WorkerStatus worker, JsonGenerator g) throws IOException {
-        g.writeStartObject();
-        writeSimpleProperty(g, "workerId", worker.getWorkerId());
-        writeSimpleProperty(g, "location", worker.getWorkerLocation());
-        writeSimpleProperty(g, "processId", worker.getProcessId());
-        writeSimpleProperty(g, "lastConnectionTs", worker.getLastConnectionTs());
-        writeSimpleProperty(g, "status", worker.getStatus());
-        g.writeEndObject();
+        GZIPOutputStream zout = new GZIPOutputStream(out, 64 * 1024) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+        serializeSnapshot(snapshotData, zout);
+        zout.finish();
+        zout.flush();
     }
 
 }
@@ -0,0 +1,356 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps delayed tasks until their requested start time, using a hierarchical timing wheel: scheduling and expiring a
+ * task are O(1) operations. Due tasks are resumed in batches by a dedicated thread, as soon as they become due
+ *
+ * @author enrico.olivelli
+ */
+final class DelayedTasksScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(DelayedTasksScheduler.class.getName());
+
+    /**
+     * Function which moves the tasks from the delayed status to the waiting status. Tasks which cannot be resumed are
+     * skipped, a {@link LogNotAvailableException} means that no task of the batch has been resumed and the whole
+     * batch will be retried
+     */
+    @FunctionalInterface
+    interface ResumeFunction {
+
+        void resume(List<Task> tasks) throws LogNotAvailableException;
+    }
+
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long RETRY_DELAY = 1000;
+
+    private final long tickDuration;
+    private final int maxBatchSize;
+    private final ResumeFunction resumeFunction;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wakeUp = lock.newCondition();
+    @SuppressWarnings("unchecked")
+    private final List<Task>[][] wheels = new List[LEVELS][WHEEL_SIZE];
+    private final int[] levelSizes = new int[LEVELS];
+    /**
+     * Tasks too far in the future for the wheels
+     */
+    private List<Task> overflow = new ArrayList<>();
+    private List<Task> ready = new ArrayList<>();
+    private long currentTick;
+    private int size;
+
+    private Thread thread;
+    private volatile boolean stopped;
+
+    private volatile long resumedTasks;
+    private volatile long totalLag;
+    private volatile long maxLag;
+    private volatile long lastLag;
+
+    DelayedTasksScheduler(long tickDuration, int maxBatchSize, ResumeFunction resumeFunction) {
+        this.tickDuration = tickDuration;
+        this.maxBatchSize = maxBatchSize;
+        this.resumeFunction = resumeFunction;
+        this.currentTick = System.currentTimeMillis() / tickDuration;
+    }
+
+    void start() {
+        lock.lock();
+        try {
+            if (thread != null || stopped) {
+                return;
+            }
+            thread = new Thread(this::run, "delayed-tasks-scheduler");
+            thread.setDaemon(true);
+            thread.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void stop() {
+        Thread _thread;
+        lock.lock();
+        try {
+            stopped = true;
+            wakeUp.signalAll();
+            _thread = thread;
+        } finally {
+            lock.unlock();
+        }
+        if (_thread != null && _thread != Thread.currentThread()) {
+            try {
+                _thread.join();
+            } catch (InterruptedException exit) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void schedule(Task task) {
+        lock.lock();
+        try {
+            boolean wasEmpty = size == 0 && ready.isEmpty();
+            if (wasEmpty) {
+                // the wheels may not have been advanced while there was nothing to do
+                currentTick = System.currentTimeMillis() / tickDuration;
+            }
+            if (add(task) <= 0 || wasEmpty) {
+                // the scheduler thread may be waiting for a later tick
+                wakeUp.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Places the task in the wheels, or in the list of ready tasks if it is already due
+     *
+     * @return the level of the wheel, -1 if the task is already due, {@link #LEVELS} for the overflow list
+     */
+    private int add(Task task) {
+        long dueTick = (task.getRequestedStartTime() + tickDuration - 1) / tickDuration;
+        long delta = dueTick - currentTick;
+        if (delta <= 0) {
+            ready.add(task);
+            return -1;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (WHEEL_BITS * (level + 1))) {
+                int index = (int) (dueTick >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+                List<Task> slot = wheels[level][index];
+                if (slot == null) {
+                    slot = new ArrayList<>();
+                    wheels[level][index] = slot;
+                }
+                slot.add(task);
+                levelSizes[level]++;
+                size++;
+                return level;
+            }
+        }
+        overflow.add(task);
+        size++;
+        return LEVELS;
+    }
+
+    /**
+     * Advances the wheels up to the given tick, moving due tasks to the ready list
+     */
+    private void advance(long targetTick) {
+        while (currentTick < targetTick) {
+            if (levelSizes[0] == 0) {
+                // nothing in the first wheel, jump to the next cascade
+                long nextCascade = ((currentTick >>> WHEEL_BITS) + 1) << WHEEL_BITS;
+                if (nextCascade > targetTick) {
+                    currentTick = targetTick;
+                    return;
+                }
+                currentTick = nextCascade - 1;
+            }
+            currentTick++;
+            if ((currentTick & WHEEL_MASK) == 0) {
+                cascade(1);
+            }
+            int index = (int) currentTick & WHEEL_MASK;
+            List<Task> slot = wheels[0][index];
+            if (slot != null && !slot.isEmpty()) {
+                wheels[0][index] = null;
+                levelSizes[0] -= slot.size();
+                size -= slot.size();
+                ready.addAll(slot);
+            }
+        }
+    }
+
+    /**
+     * Moves the tasks of the current slot of the given level to the lower levels
+     */
+    private void cascade(int level) {
+        if (level == LEVELS) {
+            List<Task> tasks = overflow;
+            overflow = new ArrayList<>();
+            size -= tasks.size();
+            tasks.forEach(this::add);
+            return;
+        }
+        int index = (int) (currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+        if (index == 0) {
+            cascade(level + 1);
+        }
+        List<Task> slot = wheels[level][index];
+        if (slot != null && !slot.isEmpty()) {
+            wheels[level][index] = null;
+            levelSizes[level] -= slot.size();
+            size -= slot.size();
+            slot.forEach(this::add);
+        }
+    }
+
+    private void run() {
+        try {
+            while (!stopped) {
+                List<Task> batch;
+                lock.lock();
+                try {
+                    advance(System.currentTimeMillis() / tickDuration);
+                    if (ready.isEmpty()) {
+                        if (size == 0) {
+                            wakeUp.await();
+                        } else if (levelSizes[0] > 0) {
+                            wakeUp.await(tickDuration, TimeUnit.MILLISECONDS);
+                        } else {
+                            // wait for the next cascade
+                            long nextCascade = ((currentTick >>> WHEEL_BITS) + 1) << WHEEL_BITS;
+                            long wait = nextCascade * tickDuration - System.currentTimeMillis();
+                            wakeUp.await(Math.max(wait, 1), TimeUnit.MILLISECONDS);
+                        }
+                        continue;
+                    }
+                    if (ready.size() <= maxBatchSize) {
+                        batch = ready;
+                        ready = new ArrayList<>();
+                    } else {
+                        List<Task> head = ready.subList(0, maxBatchSize);
+                        batch = new ArrayList<>(head);
+                        head.clear();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    resumeFunction.resume(batch);
+                    recordLag(batch);
+                } catch (RuntimeException error) {
+                    // do not retry, a batch which always fails would block every other delayed task
+                    LOGGER.log(Level.SEVERE, "cannot resume " + batch.size() + " delayed tasks, dropping them", error);
+                } catch (LogNotAvailableException error) {
+                    LOGGER.log(Level.SEVERE, "cannot resume " + batch.size() + " delayed tasks, retrying in " + RETRY_DELAY + " ms", error);
+                    lock.lock();
+                    try {
+                        ready.addAll(0, batch);
+                        if (!stopped) {
+                            wakeUp.await(RETRY_DELAY, TimeUnit.MILLISECONDS);
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        } catch (InterruptedException exit) {
+            LOGGER.log(Level.SEVERE, "delayed tasks scheduler interrupted");
+        }
+    }
+
+    private void recordLag(List<Task> resumed) {
+        long now = System.currentTimeMillis();
+        long _totalLag = totalLag;
+        long _maxLag = maxLag;
+        long lag = 0;
+        for (Task task : resumed) {
+            lag = Math.max(0, now - task.getRequestedStartTime());
+            _totalLag += lag;
+            if (lag > _maxLag) {
+                _maxLag = lag;
+            }
+        }
+        totalLag = _totalLag;
+        maxLag = _maxLag;
+        lastLag = lag;
+        resumedTasks += resumed.size();
+    }
+
+    /**
+     * Visits every task waiting in the scheduler
+     *
+     * @param consumer
+     */
+    void forEach(Consumer<Task> consumer) {
+        lock.lock();
+        try {
+            ready.forEach(consumer);
+            for (List<Task>[] wheel : wheels) {
+                for (List<Task> slot : wheel) {
+                    if (slot != null) {
+                        slot.forEach(consumer);
+                    }
+                }
+            }
+            overflow.forEach(consumer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size + ready.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of tasks resumed since the start of the broker
+     */
+    long getResumedTasks() {
+        return resumedTasks;
+    }
+
+    /**
+     * Maximum delay (ms) between the requested start time and the actual resume of a task
+     */
+    long getMaxLag() {
+        return maxLag;
+    }
+
+    /**
+     * Delay (ms) between the requested start time and the actual resume of the last resumed task
+     */
+    long getLastLag() {
+        return lastLag;
+    }
+
+    /**
+     * Average delay (ms) between the requested start time and the actual resume of tasks
+     */
+    long getAverageLag() {
+        long count = resumedTasks;
+        return count > 0 ? totalLag / count : 0;
+    }
+}
@@ -22,7 +22,6 @@ package majordodo.task;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
@@ -30,6 +29,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -40,15 +42,15 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
 import majordodo.utils.FileUtils;
 
 /**
@@ -78,65 +80,285 @@ public class FileCommitLog extends StatusChangesLog {
     private Thread spool;
 
     private final BlockingQueue<StatusEditHolderFuture> writeQueue = new LinkedBlockingQueue<>(100000);
+    // used only by the spool thread
+    private final StatusEditEncoder encoder = new StatusEditEncoder();
+
+    private boolean memoryMappedFiles;
+    private int recoveryParallelism;
 
     private final ReentrantLock snapshotLock = new ReentrantLock();
 
     private final static byte ENTRY_START = 13;
     private final static byte ENTRY_END = 25;
+    /**
+     * Entries which carry a checksum of the sequence number, the length and the data
+     */
+    private final static byte ENTRY_START_V2 = 14;
+    private final static byte FOOTER_START = 15;
+    private final static int ENTRY_HEADER_SIZE = 1 + 8 + 4;
+    private final static int ENTRY_OVERHEAD = ENTRY_HEADER_SIZE + 4 + 1;
 
-    private class CommitFileWriter implements AutoCloseable {
+    private abstract class CommitFileWriter implements AutoCloseable {
 
         final long ledgerId;
         long sequenceNumber;
-        FileOutputStream fOut;
-        DataOutputStream out;
-        Path filename;
+        final Path filename;
+        private final ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        private final CRC32 checksum = new CRC32();
+        private int entries;
+        private long firstSequenceNumber = -1;
+        private long lastSequenceNumber = -1;
 
         private CommitFileWriter(long ledgerId, long sequenceNumber) throws IOException {
             this.ledgerId = ledgerId;
             this.sequenceNumber = sequenceNumber;
             filename = logDirectory.resolve(String.format("%016x", ledgerId) + LOGFILEEXTENSION).toAbsolutePath();
-            // in case of IOException the stream is not opened, not need to close it
             LOGGER.log(Level.SEVERE, "starting new file {0} ", filename);
             File file = filename.toFile();
             if (file.isFile()) {
                 throw new IOException("File " + file.getAbsolutePath() + " already exists");
             }
-            this.fOut = new FileOutputStream(file);
+            writtenBytes = 0;
+        }
+
+        /**
+         * Tells whether an entry fits in the file, leaving space for the footer
+         *
+         * @param dataLength
+         * @return
+         */
+        abstract boolean canWrite(int dataLength);
+
+        abstract void write(byte[] header, byte[] data, int length, int checksum) throws IOException;
+
+        abstract void writeFooter(byte[] footer) throws IOException;
+
+        abstract void closeFile() throws IOException;
+
+        public abstract void synch() throws IOException;
+
+        public void writeEntry(long seqnumber, byte[] serialize, int length) throws IOException {
+            header.clear();
+            header.put(ENTRY_START_V2);
+            header.putLong(seqnumber);
+            header.putInt(length);
+            checksum.reset();
+            checksum.update(header.array(), 1, ENTRY_HEADER_SIZE - 1);
+            checksum.update(serialize, 0, length);
+            write(header.array(), serialize, length, (int) checksum.getValue());
+            if (entries++ == 0) {
+                firstSequenceNumber = seqnumber;
+            }
+            lastSequenceNumber = seqnumber;
+            writtenBytes += (ENTRY_OVERHEAD + length);
+        }
+
+        @Override
+        public void close() throws LogNotAvailableException {
+            try {
+                try {
+                    writeFooter(FileFooter.serialize(entries, firstSequenceNumber, lastSequenceNumber));
+                    synch();
+                } finally {
+                    closeFile();
+                }
+            } catch (IOException err) {
+                throw new LogNotAvailableException(err);
+            }
+        }
+    }
+
+    private class StreamCommitFileWriter extends CommitFileWriter {
+
+        final FileOutputStream fOut;
+        final DataOutputStream out;
+
+        private StreamCommitFileWriter(long ledgerId, long sequenceNumber) throws IOException {
+            super(ledgerId, sequenceNumber);
+            // in case of IOException the stream is not opened, not need to close it
+            this.fOut = new FileOutputStream(filename.toFile());
             this.out = new DataOutputStream(
                 new BufferedOutputStream(
                     this.fOut
                 )
             );
-            writtenBytes = 0;
         }
 
-        public void writeEntry(long seqnumber, StatusEdit edit) throws IOException {
-            byte[] serialize = edit.serialize();
-            this.out.writeByte(ENTRY_START);
-            this.out.writeLong(seqnumber);
-            this.out.writeInt(serialize.length);
-            this.out.write(serialize);
+        @Override
+        boolean canWrite(int dataLength) {
+            return true;
+        }
+
+        @Override
+        void write(byte[] header, byte[] data, int length, int checksum) throws IOException {
+            this.out.write(header);
+            this.out.write(data, 0, length);
+            this.out.writeInt(checksum);
             this.out.writeByte(ENTRY_END);
-            writtenBytes += (1 + 8 + 4 + serialize.length + 1);
         }
 
+        @Override
+        void writeFooter(byte[] footer) throws IOException {
+            this.out.write(footer);
+        }
+
+        @Override
         public void synch() throws IOException {
             this.out.flush();
             this.fOut.getFD().sync();
         }
 
         @Override
-        public void close() throws LogNotAvailableException {
+        void closeFile() throws IOException {
             try {
                 out.close();
+            } finally {
                 fOut.close();
-            } catch (IOException err) {
-                throw new LogNotAvailableException(err);
             }
         }
     }
 
+    /**
+     * Writes to a file which is preallocated and mapped in memory, entries are copied directly into the mapping and
+     * the file never grows on the write path. The unused tail of the file is filled with zeroes, which the reader
+     * recognizes as the end of the data. When the file is closed it is truncated to the actual data
+     */
+    private class MappedCommitFileWriter extends CommitFileWriter {
+
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        private MappedCommitFileWriter(long ledgerId, long sequenceNumber, long capacity) throws IOException {
+            super(ledgerId, sequenceNumber);
+            this.channel = FileChannel.open(filename, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                // the mapping extends the file to its full size
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            } catch (IOException | RuntimeException err) {
+                channel.close();
+                throw err;
+            }
+        }
+
+        @Override
+        boolean canWrite(int dataLength) {
+            return buffer.remaining() >= ENTRY_OVERHEAD + dataLength + FileFooter.SIZE;
+        }
+
+        @Override
+        void write(byte[] header, byte[] data, int length, int checksum) throws IOException {
+            if (!canWrite(length)) {
+                throw new IOException("file " + filename + " is full");
+            }
+            buffer.put(header);
+            buffer.put(data, 0, length);
+            buffer.putInt(checksum);
+            buffer.put(ENTRY_END);
+        }
+
+        @Override
+        void writeFooter(byte[] footer) throws IOException {
+            buffer.put(footer);
+        }
+
+        @Override
+        public void synch() throws IOException {
+            buffer.force();
+        }
+
+        @Override
+        void closeFile() throws IOException {
+            try {
+                int size = buffer.position();
+                if (FileUtils.unmap(buffer)) {
+                    // the tail is not needed anymore, truncating a file which is still mapped is not safe
+                    channel.truncate(size);
+                    channel.force(true);
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Summary of the contents of a log file, written at the end of the file when it is closed. A file without footer
+     * has not been closed cleanly
+     */
+    static final class FileFooter {
+
+        static final int SIZE = 1 + 4 + 8 + 8 + 4 + 8;
+        private static final long MAGIC = 0x4d444f444f4c4f47L;
+
+        final int entries;
+        final long firstSequenceNumber;
+        final long lastSequenceNumber;
+
+        private FileFooter(int entries, long firstSequenceNumber, long lastSequenceNumber) {
+            this.entries = entries;
+            this.firstSequenceNumber = firstSequenceNumber;
+            this.lastSequenceNumber = lastSequenceNumber;
+        }
+
+        static byte[] serialize(int entries, long firstSequenceNumber, long lastSequenceNumber) {
+            ByteBuffer footer = ByteBuffer.allocate(SIZE);
+            footer.put(FOOTER_START);
+            footer.putInt(entries);
+            footer.putLong(firstSequenceNumber);
+            footer.putLong(lastSequenceNumber);
+            CRC32 checksum = new CRC32();
+            checksum.update(footer.array(), 1, 4 + 8 + 8);
+            footer.putInt((int) checksum.getValue());
+            footer.putLong(MAGIC);
+            return footer.array();
+        }
+
+        /**
+         * Reads a footer, the FOOTER_START byte has already been consumed
+         *
+         * @param buffer
+         * @return null if the footer is not valid
+         */
+        static FileFooter read(ByteBuffer buffer) {
+            if (buffer.remaining() < SIZE - 1) {
+                return null;
+            }
+            int start = buffer.position();
+            int entries = buffer.getInt();
+            long firstSequenceNumber = buffer.getLong();
+            long lastSequenceNumber = buffer.getLong();
+            int expectedChecksum = buffer.getInt();
+            long magic = buffer.getLong();
+            ByteBuffer checked = buffer.duplicate();
+            checked.limit(start + 4 + 8 + 8);
+            checked.position(start);
+            CRC32 checksum = new CRC32();
+            checksum.update(checked);
+            if (magic != MAGIC || (int) checksum.getValue() != expectedChecksum) {
+                return null;
+            }
+            return new FileFooter(entries, firstSequenceNumber, lastSequenceNumber);
+        }
+
+        /**
+         * Looks for a footer at the end of the given buffer, without changing its position
+         *
+         * @param buffer
+         * @return null if the file does not end with a footer
+         */
+        static FileFooter readAtEnd(ByteBuffer buffer) {
+            if (buffer.limit() < SIZE) {
+                return null;
+            }
+            ByteBuffer tail = buffer.duplicate();
+            tail.position(buffer.limit() - SIZE);
+            if (tail.get() != FOOTER_START) {
+                return null;
+            }
+            return read(tail);
+        }
+    }
+
     protected Path getCurrentLedgerFilePath() {
         return writer.filename;
     }
@@ -153,70 +375,136 @@ public class FileCommitLog extends StatusChangesLog {
 
     }
 
+    /**
+     * Reads a log file, both files written by streams and preallocated files. The file is mapped in memory and entries
+     * are decoded in place. Entries written with the first version of the format do not carry a checksum
+     */
     private class CommitFileReader implements AutoCloseable {
 
-        DataInputStream in;
-        long ledgerId;
-        boolean lastFile;
+        final MappedByteBuffer buffer;
+        final long ledgerId;
+        final boolean lastFile;
+        final CRC32 checksum = new CRC32();
+        int entries;
+        long lastSequenceNumber = -1;
+        final FileFooter expectedFooter;
+        FileFooter footer;
 
         private CommitFileReader(long ledgerId, boolean lastFile) throws IOException {
             this.ledgerId = ledgerId;
+            this.lastFile = lastFile;
             Path filename = logDirectory.resolve(String.format("%016x", ledgerId) + LOGFILEEXTENSION);
-            // in case of IOException the stream is not opened, not need to close it
-            this.in = new DataInputStream(Files.newInputStream(filename, StandardOpenOption.READ));
+            // the mapping remains valid after closing the channel
+            try (FileChannel channel = FileChannel.open(filename, StandardOpenOption.READ)) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            this.expectedFooter = FileFooter.readAtEnd(buffer);
         }
 
         public StatusEditWithSequenceNumber nextEntry() throws IOException {
-            byte entryStart;
-            try {
-                entryStart = in.readByte();
-            } catch (EOFException okEnd) {
+            if (footer != null || !buffer.hasRemaining()) {
                 return null;
             }
-            try {
-                if (entryStart != ENTRY_START) {
-                    throw new IOException("corrupted stream");
-                }
-                long seqNumber = this.in.readLong();
-                int len = this.in.readInt();
-                byte[] data = new byte[len];
-                int rr = this.in.read(data);
-                if (rr != data.length) {
+            int entryPosition = buffer.position();
+            byte entryStart = buffer.get();
+            switch (entryStart) {
+                case 0:
+                    // preallocated space, no more data in this file
                     return null;
-                }
-                int entryEnd = this.in.readByte();
-                if (entryEnd != ENTRY_END) {
-                    throw new IOException("corrupted stream");
-                }
-                StatusEdit edit = StatusEdit.read(data);
-                return new StatusEditWithSequenceNumber(new LogSequenceNumber(ledgerId, seqNumber), edit);
-            } catch (EOFException truncatedLog) {
-                // if we hit EOF the entry has not been written, and so not acked, we can ignore it and say that the file is finished
-                // it is important that this is the last file in the set
-                if (lastFile) {
-                    LOGGER.log(Level.SEVERE, "found unfinished entry in file " + this.ledgerId + ". entry was not acked. ignoring " + truncatedLog);
+                case FOOTER_START:
+                    footer = FileFooter.read(buffer);
+                    if (footer == null) {
+                        return truncatedEntry();
+                    }
+                    if (footer.entries != entries || footer.lastSequenceNumber != lastSequenceNumber) {
+                        throw new IOException("corrupted footer in file " + ledgerId + ", " + footer.entries + " entries up to "
+                            + footer.lastSequenceNumber + ", found " + entries + " entries up to " + lastSequenceNumber);
+                    }
                     return null;
-                } else {
-                    throw truncatedLog;
+                case ENTRY_START:
+                case ENTRY_START_V2:
+                    break;
+                default:
+                    throw new IOException("corrupted stream in file " + ledgerId + " at position " + entryPosition);
+            }
+            boolean withChecksum = entryStart == ENTRY_START_V2;
+            if (buffer.remaining() < 8 + 4) {
+                return truncatedEntry();
+            }
+            long seqNumber = buffer.getLong();
+            int len = buffer.getInt();
+            if (len < 0 || buffer.remaining() < len + (withChecksum ? 4 : 0) + 1) {
+                return truncatedEntry();
+            }
+            ByteBuffer data = buffer.slice();
+            data.limit(len);
+            buffer.position(buffer.position() + len);
+            if (withChecksum) {
+                int expectedChecksum = buffer.getInt();
+                ByteBuffer checked = buffer.duplicate();
+                checked.limit(entryPosition + ENTRY_HEADER_SIZE + len);
+                checked.position(entryPosition + 1);
+                checksum.reset();
+                checksum.update(checked);
+                if ((int) checksum.getValue() != expectedChecksum) {
+                    LOGGER.log(Level.SEVERE, "bad checksum for entry " + seqNumber + " at position " + entryPosition + " in file " + ledgerId);
+                    return truncatedEntry();
                 }
             }
+            byte entryEnd = buffer.get();
+            if (entryEnd == 0) {
+                // the entry has not been entirely written in a preallocated file
+                return truncatedEntry();
+            }
+            if (entryEnd != ENTRY_END) {
+                throw new IOException("corrupted stream in file " + ledgerId + " at position " + entryPosition);
+            }
+            entries++;
+            lastSequenceNumber = seqNumber;
+            StatusEdit edit = StatusEdit.read(data);
+            return new StatusEditWithSequenceNumber(new LogSequenceNumber(ledgerId, seqNumber), edit);
+        }
+
+        private StatusEditWithSequenceNumber truncatedEntry() throws IOException {
+            // if we hit EOF the entry has not been written, and so not acked, we can ignore it and say that the file is finished
+            // it is important that this is the last file in the set, and that the file has not been closed cleanly
+            if (lastFile && expectedFooter == null) {
+                LOGGER.log(Level.SEVERE, "found unfinished entry in file " + this.ledgerId + ". entry was not acked. ignoring");
+                buffer.position(buffer.limit());
+                return null;
+            } else {
+                throw new EOFException("found unfinished entry in file " + this.ledgerId);
+            }
         }
 
-        public void close() throws IOException {
-            in.close();
+        @Override
+        public void close() {
+            FileUtils.unmap(buffer);
         }
     }
 
     private void openNewLedger() throws LogNotAvailableException {
+        openNewLedger(0);
+    }
+
+    private void openNewLedger(int minDataLength) throws LogNotAvailableException {
 
         try {
             if (writer != null) {
                 LOGGER.log(Level.SEVERE, "closing actual file {0}", writer.filename);
-                writer.close();
+                CommitFileWriter current = writer;
+                // the writer must not be used anymore, even if the new file cannot be created
+                writer = null;
+                current.close();
             }
             ensureDirectories();
 
-            writer = new CommitFileWriter(++currentLedgerId, -1);
+            if (memoryMappedFiles) {
+                long capacity = Math.min(Integer.MAX_VALUE, Math.max(maxLogFileSize, ENTRY_OVERHEAD + minDataLength) + FileFooter.SIZE);
+                writer = new MappedCommitFileWriter(++currentLedgerId, -1, capacity);
+            } else {
+                writer = new StreamCommitFileWriter(++currentLedgerId, -1);
+            }
 
         } catch (IOException err) {
             throw new LogNotAvailableException(err);
@@ -232,6 +520,32 @@ public class FileCommitLog extends StatusChangesLog {
         LOGGER.log(Level.SEVERE, "snapshotdirectory:{0}, logdirectory:{1},maxLogFileSize {2} bytes", new Object[]{snapshotsDirectory, logDirectory, maxLogFileSize});
     }
 
+    public boolean isMemoryMappedFiles() {
+        return memoryMappedFiles;
+    }
+
+    /**
+     * Use preallocated files mapped in memory for new log files, files are always read using memory mapping.
+     *
+     * @param memoryMappedFiles
+     */
+    public void setMemoryMappedFiles(boolean memoryMappedFiles) {
+        this.memoryMappedFiles = memoryMappedFiles;
+    }
+
+    public int getRecoveryParallelism() {
+        return recoveryParallelism;
+    }
+
+    /**
+     * Number of files which are decoded concurrently during recovery, 0 means the number of available processors
+     *
+     * @param recoveryParallelism
+     */
+    public void setRecoveryParallelism(int recoveryParallelism) {
+        this.recoveryParallelism = recoveryParallelism;
+    }
+
     private class SpoolTask implements Runnable {
 
         @Override
@@ -319,8 +633,14 @@ public class FileCommitLog extends StatusChangesLog {
                 throw new IOException("not yet writable");
             }
 
+            int length = encoder.encode(entry.entry);
+            if (!writer.canWrite(length)) {
+                // entries written to the current file are synched when it gets closed
+                openNewLedger(length);
+                writer = this.writer;
+            }
             long newSequenceNumber = ++writer.sequenceNumber;
-            writer.writeEntry(newSequenceNumber, entry.entry);
+            writer.writeEntry(newSequenceNumber, encoder.getBuffer(), length);
 
             if (writtenBytes > maxLogFileSize) {
                 openNewLedger();
@@ -341,10 +661,15 @@ public class FileCommitLog extends StatusChangesLog {
 
     @Override
     public LogSequenceNumber logStatusEdit(StatusEdit edit) throws LogNotAvailableException {
-        return logStatusEdit(edit, true);
+        return waitForResult(logStatusEditAsync(edit));
     }
 
-    private LogSequenceNumber logStatusEdit(StatusEdit edit, boolean synch) throws LogNotAvailableException {
+    @Override
+    public CompletableFuture<LogSequenceNumber> logStatusEditAsync(StatusEdit edit) {
+        return enqueue(edit, true);
+    }
+
+    private CompletableFuture<LogSequenceNumber> enqueue(StatusEdit edit, boolean synch) {
 
         if (LOGGER.isLoggable(Level.FINEST)) {
             LOGGER.log(Level.FINEST, "log {0}", edit);
@@ -352,24 +677,35 @@ public class FileCommitLog extends StatusChangesLog {
         StatusEditHolderFuture future = new StatusEditHolderFuture(edit, synch);
         try {
             writeQueue.put(future);
-            return future.ack.get();
         } catch (InterruptedException err) {
             Thread.currentThread().interrupt();
-            throw new LogNotAvailableException(err);
-        } catch (ExecutionException err) {
-            throw new LogNotAvailableException(err.getCause());
+            future.ack.completeExceptionally(new LogNotAvailableException(err));
         }
+        return future.ack;
     }
 
     @Override
     public List<LogSequenceNumber> logStatusEditBatch(List<StatusEdit> edits) throws LogNotAvailableException {
-        List<LogSequenceNumber> res = new ArrayList<>();
+        return waitForResult(logStatusEditBatchAsync(edits));
+    }
+
+    @Override
+    public CompletableFuture<List<LogSequenceNumber>> logStatusEditBatchAsync(List<StatusEdit> edits) {
         int size = edits.size();
+        List<CompletableFuture<LogSequenceNumber>> futures = new ArrayList<>(size);
         for (int i = 0; i < size; i++) {
+            // entries are written in order, we need to wait for fsync only on the last one
             boolean synchLast = i == size - 1;
-            res.add(logStatusEdit(edits.get(i), synchLast));
+            futures.add(enqueue(edits.get(i), synchLast));
         }
-        return res;
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[size]))
+            .thenApply(v -> {
+                List<LogSequenceNumber> res = new ArrayList<>(size);
+                for (CompletableFuture<LogSequenceNumber> future : futures) {
+                    res.add(future.join());
+                }
+                return res;
+            });
     }
 
     @Override
@@ -377,50 +713,91 @@ public class FileCommitLog extends StatusChangesLog {
         return writable && !closed;
     }
 
+    /**
+     * Reads and validates a whole file, returning only the entries which follow the snapshot
+     */
+    private List<StatusEditWithSequenceNumber> readLogFile(long ledgerId, boolean lastFile, LogSequenceNumber snapshotSequenceNumber) throws IOException {
+        List<StatusEditWithSequenceNumber> result = new ArrayList<>();
+        try (CommitFileReader reader = new CommitFileReader(ledgerId, lastFile)) {
+            FileFooter footer = reader.expectedFooter;
+            if (footer != null && !new LogSequenceNumber(ledgerId, footer.lastSequenceNumber).after(snapshotSequenceNumber)) {
+                LOGGER.log(Level.SEVERE, "SKIP FILE {0}, {1} entries, all of them are in the snapshot", new Object[]{ledgerId, footer.entries});
+                return result;
+            }
+            StatusEditWithSequenceNumber n = reader.nextEntry();
+            while (n != null) {
+                if (n.logSequenceNumber.after(snapshotSequenceNumber)) {
+                    LOGGER.log(Level.FINE, "RECOVER ENTRY {0}, {1}", new Object[]{n.logSequenceNumber, n.statusEdit});
+                    result.add(n);
+                } else {
+                    LOGGER.log(Level.FINE, "SKIP ENTRY {0}, {1}", new Object[]{n.logSequenceNumber, n.statusEdit});
+                }
+                n = reader.nextEntry();
+            }
+        }
+        return result;
+    }
+
     @Override
     public void recovery(LogSequenceNumber snapshotSequenceNumber, BiConsumer<LogSequenceNumber, StatusEdit> consumer, boolean fencing) throws LogNotAvailableException {
         LOGGER.log(Level.SEVERE, "recovery, snapshotSequenceNumber: {0}", snapshotSequenceNumber);
         // no lock is needed, we are at boot time
+        List<Path> names = new ArrayList<>();
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(logDirectory)) {
-            List<Path> names = new ArrayList<>();
             for (Path path : stream) {
                 if (Files.isRegularFile(path)
                     && (path.getFileName() + "").endsWith(LOGFILEEXTENSION)) {
                     names.add(path);
                 }
             }
-            names.sort(Comparator.comparing(Path::toString));
-            final Path last = names.isEmpty() ? null : names.get(names.size() - 1);
-
-            for (Path p : names) {
-                boolean lastFile = p.equals(last);
-
-                LOGGER.log(Level.SEVERE, "logfile is {0}, lastFile {1}", new Object[]{p.toAbsolutePath(), lastFile});
-
-                String name = (p.getFileName() + "").replace(LOGFILEEXTENSION, "");
-                long ledgerId = Long.parseLong(name, 16);
-                if (ledgerId > currentLedgerId) {
-                    currentLedgerId = ledgerId;
-                }
-                try (CommitFileReader reader = new CommitFileReader(ledgerId, lastFile)) {
-                    StatusEditWithSequenceNumber n = reader.nextEntry();
-                    while (n != null) {
-
-                        if (n.logSequenceNumber.after(snapshotSequenceNumber)) {
-                            LOGGER.log(Level.FINE, "RECOVER ENTRY {0}, {1}", new Object[]{n.logSequenceNumber, n.statusEdit});
-                            consumer.accept(n.logSequenceNumber, n.statusEdit);
-                        } else {
-                            LOGGER.log(Level.FINE, "SKIP ENTRY {0}, {1}", new Object[]{n.logSequenceNumber, n.statusEdit});
-                        }
-                        n = reader.nextEntry();
+        } catch (IOException err) {
+            throw new LogNotAvailableException(err);
+        }
+        names.sort(Comparator.comparing(Path::toString));
+        int numFiles = names.size();
+
+        // files are decoded and validated in parallel, but edits are applied in sequence order by this thread
+        // only a few files are decoded in advance, in order to bound memory usage
+        int parallelism = recoveryParallelism > 0 ? recoveryParallelism : Runtime.getRuntime().availableProcessors();
+        int window = parallelism * 2;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<CompletableFuture<List<StatusEditWithSequenceNumber>>> decoded = new ArrayList<>(numFiles);
+        long _start = System.currentTimeMillis();
+        long count = 0;
+        try {
+            for (int i = 0; i < numFiles; i++) {
+                while (decoded.size() < numFiles && decoded.size() <= i + window) {
+                    int index = decoded.size();
+                    Path p = names.get(index);
+                    boolean lastFile = index == numFiles - 1;
+                    String name = (p.getFileName() + "").replace(LOGFILEEXTENSION, "");
+                    long ledgerId = Long.parseLong(name, 16);
+                    if (ledgerId > currentLedgerId) {
+                        currentLedgerId = ledgerId;
                     }
+                    LOGGER.log(Level.SEVERE, "logfile is {0}, lastFile {1}", new Object[]{p.toAbsolutePath(), lastFile});
+                    decoded.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return readLogFile(ledgerId, lastFile, snapshotSequenceNumber);
+                        } catch (IOException err) {
+                            throw new CompletionException(err);
+                        }
+                    }, pool));
+                }
+                List<StatusEditWithSequenceNumber> entries = waitForResult(decoded.get(i));
+                // release memory as soon as possible
+                decoded.set(i, null);
+                for (StatusEditWithSequenceNumber n : entries) {
+                    consumer.accept(n.logSequenceNumber, n.statusEdit);
                 }
+                count += entries.size();
             }
-            LOGGER.log(Level.SEVERE, "Max ledgerId is {0}", new Object[]{currentLedgerId});
-        } catch (IOException err) {
-            throw new LogNotAvailableException(err);
+        } finally {
+            pool.shutdownNow();
         }
-
+        long delta = System.currentTimeMillis() - _start;
+        LOGGER.log(Level.SEVERE, "recovered {0} entries from {1} files in {2} ms, parallelism {3}", new Object[]{count, numFiles, delta, parallelism});
+        LOGGER.log(Level.SEVERE, "Max ledgerId is {0}", new Object[]{currentLedgerId});
     }
 
     @Override
@@ -470,9 +847,8 @@ public class FileCommitLog extends StatusChangesLog {
         LOGGER.log(Level.INFO, "checkpoint, file:{0}", snapshotfilename.toAbsolutePath());
 
         try (OutputStream out = Files.newOutputStream(snapshotfilename_tmp);
-            BufferedOutputStream bout = new BufferedOutputStream(out, 64 * 1024);
-            GZIPOutputStream zout = new GZIPOutputStream(bout)) {
-            BrokerStatusSnapshot.serializeSnapshot(snapshotData, zout);
+            BufferedOutputStream bout = new BufferedOutputStream(out, 64 * 1024)) {
+            BrokerStatusSnapshot.serializeSnapshot(snapshotData, bout, isCompressSnapshots());
         } catch (IOException err) {
             throw new LogNotAvailableException(err);
         }
@@ -488,10 +864,11 @@ public class FileCommitLog extends StatusChangesLog {
         try (DirectoryStream<Path> allfiles = Files.newDirectoryStream(snapshotsDirectory)) {
             for (Path path : allfiles) {
                 String other_filename = (path.getFileName() + "").toString();
-                if (other_filename.endsWith(SNAPSHOTFILEXTENSION)) {
+                String baseName = BrokerStatusSnapshot.getSnapshotFileBaseName(other_filename);
+                if (baseName != null) {
                     LOGGER.log(Level.SEVERE, "Processing snapshot file: " + path);
                     try {
-                        other_filename = other_filename.substring(0, other_filename.length() - SNAPSHOTFILEXTENSION.length());
+                        other_filename = baseName;
 
                         int pos = other_filename.indexOf('_');
                         if (pos > 0) {
@@ -551,7 +928,7 @@ public class FileCommitLog extends StatusChangesLog {
 
     }
 
-    private static final String SNAPSHOTFILEXTENSION = ".snap.json.gz";
+    private static final String SNAPSHOTFILEXTENSION = BrokerStatusSnapshot.SNAPSHOT_FILE_EXTENSION;
 
     @Override
     public BrokerStatusSnapshot loadBrokerStatusSnapshot() throws LogNotAvailableException {
@@ -561,10 +938,11 @@ public class FileCommitLog extends StatusChangesLog {
         try (DirectoryStream<Path> allfiles = Files.newDirectoryStream(snapshotsDirectory)) {
             for (Path path : allfiles) {
                 String filename = path.getFileName() + "";
-                if (filename.endsWith(SNAPSHOTFILEXTENSION)) {
+                String baseName = BrokerStatusSnapshot.getSnapshotFileBaseName(filename);
+                if (baseName != null) {
                     LOGGER.severe("Processing snapshot file: " + path);
                     try {
-                        filename = filename.substring(0, filename.length() - SNAPSHOTFILEXTENSION.length());
+                        filename = baseName;
 
                         int pos = filename.indexOf('_');
                         if (pos > 0) {
@@ -592,9 +970,8 @@ public class FileCommitLog extends StatusChangesLog {
         } else {
 
             try (InputStream in = Files.newInputStream(snapshotfilename);
-                BufferedInputStream bin = new BufferedInputStream(in);
-                GZIPInputStream gzip = new GZIPInputStream(bin)) {
-                BrokerStatusSnapshot result = BrokerStatusSnapshot.deserializeSnapshot(gzip);
+                BufferedInputStream bin = new BufferedInputStream(in)) {
+                BrokerStatusSnapshot result = BrokerStatusSnapshot.deserializeSnapshot(bin);
                 currentLedgerId = result.getActualLogSequenceNumber().ledgerId;
                 return result;
             } catch (IOException err) {
@@ -623,6 +1000,11 @@ public class FileCommitLog extends StatusChangesLog {
         return closed;
     }
 
+    @Override
+    public Path getSnapshotsDirectory() {
+        return snapshotsDirectory;
+    }
+
     @Override
     public LogSequenceNumber getLastSequenceNumber() {
         final CommitFileWriter writer = this.writer;
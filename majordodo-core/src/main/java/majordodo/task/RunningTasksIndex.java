@@ -0,0 +1,123 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import majordodo.utils.IntCounter;
+
+/**
+ * Index of the tasks in running status, by worker. It is maintained by the {@link BrokerStatus} while applying edits,
+ * so that the scheduler does not need to scan all the tasks in order to know what a worker is running. This class is
+ * not thread safe, it is guarded by the lock of the BrokerStatus
+ *
+ * @author enrico.olivelli
+ */
+final class RunningTasksIndex {
+
+    private final Map<String, WorkerRunningTasks> byWorker = new HashMap<>();
+
+    /**
+     * Tasks running on a single worker
+     */
+    static final class WorkerRunningTasks {
+
+        private final Map<Long, TaskTypeUser> tasks = new HashMap<>();
+        private final Map<TaskTypeUser, IntCounter> countsByTaskTypeUser = new HashMap<>();
+
+        public int size() {
+            return tasks.size();
+        }
+
+        public List<Long> getTaskIds() {
+            return new ArrayList<>(tasks.keySet());
+        }
+
+        public TaskTypeUser getTaskTypeUser(long taskId) {
+            return tasks.get(taskId);
+        }
+
+        public Map<TaskTypeUser, IntCounter> getCountsByTaskTypeUser() {
+            return Collections.unmodifiableMap(countsByTaskTypeUser);
+        }
+
+        private void add(long taskId, TaskTypeUser key) {
+            if (tasks.put(taskId, key) != null) {
+                // already indexed
+                return;
+            }
+            IntCounter count = countsByTaskTypeUser.get(key);
+            if (count == null) {
+                count = new IntCounter();
+                countsByTaskTypeUser.put(key, count);
+            }
+            count.count++;
+        }
+
+        private void remove(long taskId) {
+            TaskTypeUser key = tasks.remove(taskId);
+            if (key == null) {
+                return;
+            }
+            IntCounter count = countsByTaskTypeUser.get(key);
+            if (--count.count <= 0) {
+                countsByTaskTypeUser.remove(key);
+            }
+        }
+
+    }
+
+    private static final WorkerRunningTasks EMPTY = new WorkerRunningTasks();
+
+    /**
+     * Updates the index after a change of status or of worker of a task
+     *
+     * @param task the task, already modified
+     * @param oldStatus status of the task before the change, -1 for new tasks
+     * @param oldWorkerId worker of the task before the change
+     */
+    void taskChanged(Task task, int oldStatus, String oldWorkerId) {
+        if (oldStatus == Task.STATUS_RUNNING && oldWorkerId != null) {
+            WorkerRunningTasks worker = byWorker.get(oldWorkerId);
+            if (worker != null) {
+                worker.remove(task.getTaskId());
+                if (worker.size() == 0) {
+                    byWorker.remove(oldWorkerId);
+                }
+            }
+        }
+        if (task.getStatus() == Task.STATUS_RUNNING && task.getWorkerId() != null) {
+            WorkerRunningTasks worker = byWorker.get(task.getWorkerId());
+            if (worker == null) {
+                worker = new WorkerRunningTasks();
+                byWorker.put(task.getWorkerId(), worker);
+            }
+            worker.add(task.getTaskId(), new TaskTypeUser(task.getType(), task.getUserId()));
+        }
+    }
+
+    WorkerRunningTasks getRunningTasks(String workerId) {
+        WorkerRunningTasks res = byWorker.get(workerId);
+        return res != null ? res : EMPTY;
+    }
+}
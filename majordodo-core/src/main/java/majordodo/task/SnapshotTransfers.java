@@ -0,0 +1,221 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Snapshots being downloaded by followers. Each snapshot is serialized once on a temporary file and then served in
+ * chunks, so that neither the leader nor the follower need to hold the whole serialized snapshot in memory and a
+ * follower can resume an interrupted download, even if the response to its last chunk request is lost. A transfer is
+ * dropped when the follower tells that the download is complete, or when it is not accessed for a while. Files are written in the "transfers" subdirectory of the snapshots directory, leftovers of
+ * a previous run are deleted at start
+ *
+ * @author enrico.olivelli
+ */
+final class SnapshotTransfers implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(SnapshotTransfers.class.getName());
+
+    /**
+     * Upper limit to the size of a chunk, whatever the follower requests
+     */
+    static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private static final long EXPIRE_TIME = Long.getLong("majordodo.snapshottransfers.expiretime", 10 * 60 * 1000);
+    private static final long EXPIRE_CHECK_PERIOD = Math.min(EXPIRE_TIME, 60 * 1000);
+
+    static final String TRANSFERS_DIRECTORY = "transfers";
+    private static final String TRANSFER_FILE_EXTENSION = ".transfer";
+
+    static final class SnapshotTransfer {
+
+        private final String id;
+        private final Path file;
+        private final long size;
+        private volatile long lastAccess;
+
+        private SnapshotTransfer(String id, Path file, long size) {
+            this.id = id;
+            this.file = file;
+            this.size = size;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        String getId() {
+            return id;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+    }
+
+    private final Map<String, SnapshotTransfer> transfers = new ConcurrentHashMap<>();
+    private final Path directory;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param snapshotsDirectory snapshots directory of the broker, if null files are created in the temporary
+     * directory of the system
+     */
+    SnapshotTransfers(Path snapshotsDirectory) {
+        this.directory = snapshotsDirectory != null ? snapshotsDirectory.resolve(TRANSFERS_DIRECTORY) : null;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dodo-snapshot-transfers");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    void start() {
+        deleteLeftovers();
+        timer.scheduleWithFixedDelay(this::expireTransfers, EXPIRE_CHECK_PERIOD, EXPIRE_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    private void deleteLeftovers() {
+        if (directory == null || !Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + TRANSFER_FILE_EXTENSION)) {
+            for (Path file : files) {
+                LOGGER.log(Level.INFO, "deleting leftover snapshot transfer {0}", file);
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException err) {
+            LOGGER.log(Level.SEVERE, "cannot clean " + directory, err);
+        }
+    }
+
+    /**
+     * Pins a new snapshot of the status and serializes it directly on the file of a new transfer. The snapshot is
+     * released as soon as the file is written
+     */
+    SnapshotTransfer start(BrokerStatus status) throws IOException {
+        try (BrokerStatusSnapshot snapshot = status.createSnapshot()) {
+            return start(snapshot);
+        }
+    }
+
+    SnapshotTransfer start(BrokerStatusSnapshot snapshot) throws IOException {
+        String id = UUID.randomUUID().toString();
+        Path file;
+        if (directory != null) {
+            Files.createDirectories(directory);
+            file = directory.resolve(id + TRANSFER_FILE_EXTENSION);
+        } else {
+            file = Files.createTempFile("majordodo-snapshot-", TRANSFER_FILE_EXTENSION);
+        }
+        try (OutputStream out = Files.newOutputStream(file);
+            BufferedOutputStream bout = new BufferedOutputStream(out, 64 * 1024)) {
+            BrokerStatusSnapshot.serializeSnapshot(snapshot, bout, true);
+        } catch (IOException err) {
+            Files.deleteIfExists(file);
+            throw err;
+        }
+        SnapshotTransfer transfer = new SnapshotTransfer(id, file, Files.size(file));
+        transfers.put(transfer.id, transfer);
+        LOGGER.log(Level.INFO, "snapshot {0} at {1} ready to be transferred, {2} bytes",
+            new Object[]{transfer.id, snapshot.getActualLogSequenceNumber(), transfer.size});
+        return transfer;
+    }
+
+    byte[] readChunk(String id, long offset, int length) throws IOException {
+        SnapshotTransfer transfer = transfers.get(id);
+        if (transfer == null) {
+            throw new IOException("unknown snapshot " + id + ", maybe it expired");
+        }
+        transfer.lastAccess = System.currentTimeMillis();
+        if (offset < 0 || offset > transfer.size || length <= 0) {
+            throw new IOException("bad chunk request for snapshot " + id + ", offset " + offset + ", length " + length + ", size " + transfer.size);
+        }
+        int len = (int) Math.min(Math.min(length, MAX_CHUNK_SIZE), transfer.size - offset);
+        byte[] data = new byte[len];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try (FileChannel channel = FileChannel.open(transfer.file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("unexpected end of snapshot file " + transfer.file);
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Drops a transfer which has been completely downloaded by the follower
+     */
+    void complete(String id) {
+        SnapshotTransfer transfer = transfers.get(id);
+        if (transfer == null) {
+            return;
+        }
+        LOGGER.log(Level.INFO, "snapshot {0} transferred", transfer.id);
+        drop(transfer);
+    }
+
+    private void expireTransfers() {
+        long now = System.currentTimeMillis();
+        for (SnapshotTransfer transfer : transfers.values()) {
+            if (now - transfer.lastAccess > EXPIRE_TIME) {
+                LOGGER.log(Level.INFO, "snapshot {0} expired", transfer.id);
+                drop(transfer);
+            }
+        }
+    }
+
+    private void drop(SnapshotTransfer transfer) {
+        if (!transfers.remove(transfer.id, transfer)) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(transfer.file);
+        } catch (IOException err) {
+            LOGGER.log(Level.SEVERE, "cannot delete " + transfer.file, err);
+        }
+    }
+
+    @Override
+    public void close() {
+        timer.shutdown();
+        for (SnapshotTransfer transfer : transfers.values()) {
+            drop(transfer);
+        }
+    }
+
+}
@@ -19,8 +19,12 @@
  */
 package majordodo.task;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.function.BiConsumer;
 
 /**
@@ -31,6 +35,7 @@ import java.util.function.BiConsumer;
 public abstract class StatusChangesLog implements AutoCloseable {
 
     protected BrokerFailureListener failureListener;
+    private boolean compressSnapshots = true;
 
     public String getSharedSecret() {
         return null;
@@ -46,6 +51,14 @@ public abstract class StatusChangesLog implements AutoCloseable {
     public void setSharedSecret(String secret) {
     }
 
+    public boolean isCompressSnapshots() {
+        return compressSnapshots;
+    }
+
+    public void setCompressSnapshots(boolean compressSnapshots) {
+        this.compressSnapshots = compressSnapshots;
+    }
+
     public BrokerFailureListener getFailureListener() {
         return failureListener;
     }
@@ -62,6 +75,24 @@ public abstract class StatusChangesLog implements AutoCloseable {
 
     public abstract LogSequenceNumber logStatusEdit(StatusEdit edit) throws LogNotAvailableException;
 
+    /**
+     * Writes an edit to the log without blocking the caller. The future is completed when the edit is durable, errors
+     * are reported as {@link LogNotAvailableException}. The default implementation simply calls
+     * {@link #logStatusEdit(majordodo.task.StatusEdit)}
+     *
+     * @param edit
+     * @return
+     */
+    public CompletableFuture<LogSequenceNumber> logStatusEditAsync(StatusEdit edit) {
+        CompletableFuture<LogSequenceNumber> res = new CompletableFuture<>();
+        try {
+            res.complete(logStatusEdit(edit));
+        } catch (LogNotAvailableException | RuntimeException err) {
+            res.completeExceptionally(err);
+        }
+        return res;
+    }
+
     public abstract void recovery(LogSequenceNumber snapshotSequenceNumber, BiConsumer<LogSequenceNumber, StatusEdit> consumer, boolean fencing) throws LogNotAvailableException;
 
     public void clear() throws LogNotAvailableException {
@@ -79,15 +110,49 @@ public abstract class StatusChangesLog implements AutoCloseable {
     }
 
     public abstract LogSequenceNumber getLastSequenceNumber();
+
+    /**
+     * Directory which contains the snapshots, null if snapshots are not stored on disk
+     *
+     * @return
+     */
+    public Path getSnapshotsDirectory() {
+        return null;
+    }
     
 
     public boolean isLeader() {
         return true;
     }
 
+    /**
+     * Applies the edits written by the leader. Implementations may block for a short time waiting for new edits
+     *
+     * @param snapshotSequenceNumber position of the last applied edit
+     * @param consumer
+     * @throws LogNotAvailableException
+     */
     public void followTheLeader(LogSequenceNumber snapshotSequenceNumber, BiConsumer<LogSequenceNumber, StatusEdit> consumer) throws LogNotAvailableException {
     }
 
+    /**
+     * Number of edits written by the leader and not yet applied by this follower
+     *
+     * @return
+     */
+    public long getFollowerLagEntries() {
+        return 0;
+    }
+
+    /**
+     * Time since this follower is behind the leader, 0 if it is up to date
+     *
+     * @return
+     */
+    public long getFollowerLagMillis() {
+        return 0;
+    }
+
     public abstract boolean isClosed();
 
     public abstract boolean isWritable();
@@ -103,4 +168,50 @@ public abstract class StatusChangesLog implements AutoCloseable {
         return batch;
     }
 
+    /**
+     * Asynchronous version of {@link #logStatusEditBatch(java.util.List) }
+     *
+     * @param edits
+     * @return
+     * @see #logStatusEditAsync(majordodo.task.StatusEdit)
+     */
+    public CompletableFuture<List<LogSequenceNumber>> logStatusEditBatchAsync(List<StatusEdit> edits) {
+        CompletableFuture<List<LogSequenceNumber>> res = new CompletableFuture<>();
+        try {
+            res.complete(logStatusEditBatch(edits));
+        } catch (LogNotAvailableException | RuntimeException err) {
+            res.completeExceptionally(err);
+        }
+        return res;
+    }
+
+    /**
+     * Waits for the result of an asynchronous operation on the log
+     *
+     * @param <T>
+     * @param future
+     * @return
+     * @throws LogNotAvailableException
+     */
+    public static <T> T waitForResult(CompletableFuture<T> future) throws LogNotAvailableException {
+        try {
+            return future.get();
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            throw new LogNotAvailableException(err);
+        } catch (ExecutionException err) {
+            Throwable cause = err.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof LogNotAvailableException) {
+                throw (LogNotAvailableException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new LogNotAvailableException(cause);
+        }
+    }
+
 }
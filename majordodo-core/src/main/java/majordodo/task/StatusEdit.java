@@ -20,11 +20,13 @@
 package majordodo.task;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -34,6 +36,8 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import majordodo.utils.io.ExtendedDataInputStream;
 import majordodo.utils.io.ExtendedDataOutputStream;
+import majordodo.utils.io.SimpleByteArrayInputStream;
+import majordodo.utils.io.SimpleByteBufferInputStream;
 
 /**
  * An action for the log
@@ -43,7 +47,38 @@ import majordodo.utils.io.ExtendedDataOutputStream;
 public final class StatusEdit {
 
     /* This version is intended to be a minor version of the Version 2 of the entry format */
-    public static final int PROTOCOL_VERSION = 0;
+    public static final int PROTOCOL_VERSION_0 = 0;
+
+    /* Presence bitmap for fields, zig-zag varints and delta encoded running tasks */
+    public static final int PROTOCOL_VERSION_1 = 1;
+
+    /**
+     * Version used for new entries. Set it to 0 during a rolling upgrade, as brokers older than version 1 cannot read
+     * version 1 entries
+     */
+    public static final int PROTOCOL_VERSION = Integer.getInteger("majordodo.statusedit.protocolversion", PROTOCOL_VERSION_1);
+
+    private static final int FIELD_TRANSACTIONID = 1;
+    private static final int FIELD_TASKID = 1 << 1;
+    private static final int FIELD_TIMESTAMP = 1 << 2;
+    private static final int FIELD_TASKSTATUS = 1 << 3;
+    private static final int FIELD_MAXATTEMPTS = 1 << 4;
+    private static final int FIELD_ATTEMPT = 1 << 5;
+    private static final int FIELD_REQUESTEDSTARTTIME = 1 << 6;
+    private static final int FIELD_EXECUTIONDEADLINE = 1 << 7;
+    private static final int FIELD_USERID = 1 << 8;
+    private static final int FIELD_TASKTYPE = 1 << 9;
+    private static final int FIELD_PARAMETER = 1 << 10;
+    private static final int FIELD_SLOT = 1 << 11;
+    private static final int FIELD_CODEPOOL = 1 << 12;
+    private static final int FIELD_MODE = 1 << 13;
+    private static final int FIELD_WORKERID = 1 << 14;
+    private static final int FIELD_WORKERLOCATION = 1 << 15;
+    private static final int FIELD_WORKERPROCESSID = 1 << 16;
+    private static final int FIELD_RESOURCES = 1 << 17;
+    private static final int FIELD_RESULT = 1 << 18;
+    private static final int FIELD_RUNNINGTASKS = 1 << 19;
+    private static final int FIELD_PAYLOAD = 1 << 20;
     
     public static final short TYPE_ADD_TASK = 1;
     public static final short TYPE_WORKER_CONNECTED = 2;
@@ -421,143 +456,365 @@ public final class StatusEdit {
     }
     
     public byte[] serialize() {
+        return serialize(PROTOCOL_VERSION);
+    }
+
+    public byte[] serialize(int protocolVersion) {
         try {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
             ExtendedDataOutputStream doo = new ExtendedDataOutputStream(out);
-            doo.writeShort(TYPE_V2);
-            doo.writeVInt(PROTOCOL_VERSION);
-            doo.writeVInt(this.editType);
-            switch (this.editType) {
-                case TYPE_BEGIN_TRANSACTION:
-                    doo.writeLong(transactionId);
-                    doo.writeLong(timestamp);
-                    break;
-                case TYPE_COMMIT_TRANSACTION:
-                    doo.writeLong(transactionId);
-                    break;
-                case TYPE_ROLLBACK_TRANSACTION:
-                    doo.writeLong(transactionId);
-                    break;
-                case TYPE_ADD_TASK:
-                    doo.writeLong(taskId);
-                    doo.writeUTF(userid);
-                    doo.writeVInt(taskStatus);
-                    doo.writeUTF(taskType);
-                    doo.writeVInt(maxattempts);
-                    doo.writeVInt(attempt);
-                    doo.writeVLong(requestedStartTime);
-                    doo.writeLong(executionDeadline);
-                    if (parameter != null) {
-                        doo.writeUTF(parameter);
-                    } else {
-                        doo.writeUTF("");
-                    }
-                    if (slot != null) {
-                        doo.writeUTF(slot);
-                    } else {
-                        doo.writeUTF("");
-                    }
-                    if (codepool != null) {
-                        doo.writeUTF(codepool);
-                    } else {
-                        doo.writeUTF("");
-                    }
-                    if (mode != null) {
-                        doo.writeUTF(mode);
-                    } else {
-                        doo.writeUTF("");
-                    }
-                    break;
-                case TYPE_PREPARE_ADD_TASK:
-                    doo.writeLong(transactionId);
-                    doo.writeLong(taskId);
-                    doo.writeUTF(userid);
-                    doo.writeVInt(taskStatus);
-                    doo.writeUTF(taskType);
-                    doo.writeVInt(maxattempts);
-                    doo.writeVInt(attempt);
-                    doo.writeVLong(requestedStartTime);
-                    doo.writeLong(executionDeadline);
-                    if (parameter != null) {
-                        doo.writeUTF(parameter);
-                    } else {
-                        doo.writeUTF("");
-                    }
-                    if (slot != null) {
-                        doo.writeUTF(slot);
-                    } else {
-                        doo.writeUTF("");
-                    }
-                    if (codepool != null) {
-                        doo.writeUTF(codepool);
-                    } else {
-                        doo.writeUTF("");
-                    }
-                    if (mode != null) {
-                        doo.writeUTF(mode);
-                    } else {
-                        doo.writeUTF("");
-                    }
-                    break;
-                case TYPE_WORKER_CONNECTED:
-                    doo.writeUTF(workerId);
-                    doo.writeUTF(workerLocation);
-                    doo.writeUTF(workerProcessId);
-                    doo.writeLong(timestamp);
-                    doo.writeUTF(actualRunningTasks.stream().map(l -> l.toString()).collect(Collectors.joining(",")));
-                    break;
-                case TYPE_WORKER_DIED:
-                case TYPE_WORKER_DISCONNECTED:
-                    doo.writeUTF(workerId);
-                    doo.writeLong(timestamp);
-                    break;
+            serialize(doo, protocolVersion);
+            doo.close();
+            return out.toByteArray();
+        } catch (IOException err) {
+            throw new RuntimeException(err);
+        }
+    }
 
-                case TYPE_ASSIGN_TASK_TO_WORKER:
-                    doo.writeUTF(workerId);
-                    doo.writeLong(taskId);
-                    doo.writeVInt(attempt);
-                    if (resources != null) {
-                        doo.writeUTF(resources);
-                    } else {
-                        doo.writeUTF("");
-                    }
-                    break;
-                case TYPE_TASK_STATUS_CHANGE:
-                    doo.writeLong(taskId);
-                    doo.writeVInt(taskStatus);
-                    if (workerId != null) {
-                        doo.writeUTF(workerId);
-                    } else {
-                        doo.writeUTF("");
-                    }
-                    if (result != null) {
-                        doo.writeUTF(result);
-                    } else {
-                        doo.writeUTF("");
-                    }
-                    break;
-                case TYPE_NOOP:
-                    break;
-                case TYPE_DELETECODEPOOL:
+    /**
+     * Writes the edit to the given stream, without closing it
+     *
+     * @see StatusEditEncoder
+     */
+    public void serialize(ExtendedDataOutputStream doo, int protocolVersion) throws IOException {
+        if (protocolVersion != PROTOCOL_VERSION_0 && protocolVersion != PROTOCOL_VERSION_1) {
+            throw new IllegalArgumentException("unsupported protocol version " + protocolVersion);
+        }
+        doo.writeShort(TYPE_V2);
+        doo.writeVInt(protocolVersion);
+        doo.writeVInt(this.editType);
+        if (protocolVersion == PROTOCOL_VERSION_1) {
+            writeFields(doo);
+            return;
+        }
+        switch (this.editType) {
+            case TYPE_BEGIN_TRANSACTION:
+                doo.writeLong(transactionId);
+                doo.writeLong(timestamp);
+                break;
+            case TYPE_COMMIT_TRANSACTION:
+                doo.writeLong(transactionId);
+                break;
+            case TYPE_ROLLBACK_TRANSACTION:
+                doo.writeLong(transactionId);
+                break;
+            case TYPE_ADD_TASK:
+                doo.writeLong(taskId);
+                doo.writeUTF(userid);
+                doo.writeVInt(taskStatus);
+                doo.writeUTF(taskType);
+                doo.writeVInt(maxattempts);
+                doo.writeVInt(attempt);
+                doo.writeVLong(requestedStartTime);
+                doo.writeLong(executionDeadline);
+                if (parameter != null) {
+                    doo.writeUTF(parameter);
+                } else {
+                    doo.writeUTF("");
+                }
+                if (slot != null) {
+                    doo.writeUTF(slot);
+                } else {
+                    doo.writeUTF("");
+                }
+                if (codepool != null) {
                     doo.writeUTF(codepool);
-                    break;
-                case TYPE_CREATECODEPOOL:
+                } else {
+                    doo.writeUTF("");
+                }
+                if (mode != null) {
+                    doo.writeUTF(mode);
+                } else {
+                    doo.writeUTF("");
+                }
+                break;
+            case TYPE_PREPARE_ADD_TASK:
+                doo.writeLong(transactionId);
+                doo.writeLong(taskId);
+                doo.writeUTF(userid);
+                doo.writeVInt(taskStatus);
+                doo.writeUTF(taskType);
+                doo.writeVInt(maxattempts);
+                doo.writeVInt(attempt);
+                doo.writeVLong(requestedStartTime);
+                doo.writeLong(executionDeadline);
+                if (parameter != null) {
+                    doo.writeUTF(parameter);
+                } else {
+                    doo.writeUTF("");
+                }
+                if (slot != null) {
+                    doo.writeUTF(slot);
+                } else {
+                    doo.writeUTF("");
+                }
+                if (codepool != null) {
                     doo.writeUTF(codepool);
-                    doo.writeLong(timestamp);
-                    doo.writeLong(executionDeadline);
-                    doo.writeVInt(payload.length);
-                    doo.write(payload);
-                    break;
-                default:
-                    throw new UnsupportedOperationException();
+                } else {
+                    doo.writeUTF("");
+                }
+                if (mode != null) {
+                    doo.writeUTF(mode);
+                } else {
+                    doo.writeUTF("");
+                }
+                break;
+            case TYPE_WORKER_CONNECTED:
+                doo.writeUTF(workerId);
+                doo.writeUTF(workerLocation);
+                doo.writeUTF(workerProcessId);
+                doo.writeLong(timestamp);
+                doo.writeUTF(actualRunningTasks.stream().map(l -> l.toString()).collect(Collectors.joining(",")));
+                break;
+            case TYPE_WORKER_DIED:
+            case TYPE_WORKER_DISCONNECTED:
+                doo.writeUTF(workerId);
+                doo.writeLong(timestamp);
+                break;
+
+            case TYPE_ASSIGN_TASK_TO_WORKER:
+                doo.writeUTF(workerId);
+                doo.writeLong(taskId);
+                doo.writeVInt(attempt);
+                if (resources != null) {
+                    doo.writeUTF(resources);
+                } else {
+                    doo.writeUTF("");
+                }
+                break;
+            case TYPE_TASK_STATUS_CHANGE:
+                doo.writeLong(taskId);
+                doo.writeVInt(taskStatus);
+                if (workerId != null) {
+                    doo.writeUTF(workerId);
+                } else {
+                    doo.writeUTF("");
+                }
+                if (result != null) {
+                    doo.writeUTF(result);
+                } else {
+                    doo.writeUTF("");
+                }
+                break;
+            case TYPE_NOOP:
+                break;
+            case TYPE_DELETECODEPOOL:
+                doo.writeUTF(codepool);
+                break;
+            case TYPE_CREATECODEPOOL:
+                doo.writeUTF(codepool);
+                doo.writeLong(timestamp);
+                doo.writeLong(executionDeadline);
+                doo.writeVInt(payload.length);
+                doo.write(payload);
+                break;
+            default:
+                throw new UnsupportedOperationException();
 
+        }
+    }
+
+    /**
+     * Writes only the fields which are set, preceded by a bitmap which tells which ones are present. Edits are read
+     * from any position of the log (after a snapshot, by a tailing follower, by parallel decoders) so each entry must
+     * stay self-contained.
+     */
+    private void writeFields(ExtendedDataOutputStream doo) throws IOException {
+        int fields = 0;
+        if (transactionId != 0) {
+            fields |= FIELD_TRANSACTIONID;
+        }
+        if (taskId != 0) {
+            fields |= FIELD_TASKID;
+        }
+        if (timestamp != 0) {
+            fields |= FIELD_TIMESTAMP;
+        }
+        if (taskStatus != 0) {
+            fields |= FIELD_TASKSTATUS;
+        }
+        if (maxattempts != 0) {
+            fields |= FIELD_MAXATTEMPTS;
+        }
+        if (attempt != 0) {
+            fields |= FIELD_ATTEMPT;
+        }
+        if (requestedStartTime != 0) {
+            fields |= FIELD_REQUESTEDSTARTTIME;
+        }
+        if (executionDeadline != 0) {
+            fields |= FIELD_EXECUTIONDEADLINE;
+        }
+        if (userid != null) {
+            fields |= FIELD_USERID;
+        }
+        if (taskType != null) {
+            fields |= FIELD_TASKTYPE;
+        }
+        if (parameter != null) {
+            fields |= FIELD_PARAMETER;
+        }
+        if (slot != null) {
+            fields |= FIELD_SLOT;
+        }
+        if (codepool != null) {
+            fields |= FIELD_CODEPOOL;
+        }
+        if (mode != null) {
+            fields |= FIELD_MODE;
+        }
+        if (workerId != null) {
+            fields |= FIELD_WORKERID;
+        }
+        if (workerLocation != null) {
+            fields |= FIELD_WORKERLOCATION;
+        }
+        if (workerProcessId != null) {
+            fields |= FIELD_WORKERPROCESSID;
+        }
+        if (resources != null) {
+            fields |= FIELD_RESOURCES;
+        }
+        if (result != null) {
+            fields |= FIELD_RESULT;
+        }
+        if (actualRunningTasks != null) {
+            fields |= FIELD_RUNNINGTASKS;
+        }
+        if (payload != null) {
+            fields |= FIELD_PAYLOAD;
+        }
+        doo.writeVInt(fields);
+        if ((fields & FIELD_TRANSACTIONID) != 0) {
+            doo.writeZLong(transactionId);
+        }
+        if ((fields & FIELD_TASKID) != 0) {
+            doo.writeZLong(taskId);
+        }
+        if ((fields & FIELD_TIMESTAMP) != 0) {
+            doo.writeZLong(timestamp);
+        }
+        if ((fields & FIELD_TASKSTATUS) != 0) {
+            doo.writeZInt(taskStatus);
+        }
+        if ((fields & FIELD_MAXATTEMPTS) != 0) {
+            doo.writeZInt(maxattempts);
+        }
+        if ((fields & FIELD_ATTEMPT) != 0) {
+            doo.writeZInt(attempt);
+        }
+        if ((fields & FIELD_REQUESTEDSTARTTIME) != 0) {
+            doo.writeZLong(requestedStartTime);
+        }
+        if ((fields & FIELD_EXECUTIONDEADLINE) != 0) {
+            doo.writeZLong(executionDeadline);
+        }
+        writeString(doo, fields, FIELD_USERID, userid);
+        writeString(doo, fields, FIELD_TASKTYPE, taskType);
+        writeString(doo, fields, FIELD_PARAMETER, parameter);
+        writeString(doo, fields, FIELD_SLOT, slot);
+        writeString(doo, fields, FIELD_CODEPOOL, codepool);
+        writeString(doo, fields, FIELD_MODE, mode);
+        writeString(doo, fields, FIELD_WORKERID, workerId);
+        writeString(doo, fields, FIELD_WORKERLOCATION, workerLocation);
+        writeString(doo, fields, FIELD_WORKERPROCESSID, workerProcessId);
+        writeString(doo, fields, FIELD_RESOURCES, resources);
+        writeString(doo, fields, FIELD_RESULT, result);
+        if ((fields & FIELD_RUNNINGTASKS) != 0) {
+            // sorted ids, each one written as the distance from the previous one
+            long[] ids = new long[actualRunningTasks.size()];
+            int i = 0;
+            for (Long id : actualRunningTasks) {
+                ids[i++] = id;
             }
-            doo.close();
-            return out.toByteArray();
-        } catch (IOException err) {
-            throw new RuntimeException(err);
+            Arrays.sort(ids);
+            doo.writeVInt(ids.length);
+            long previous = 0;
+            for (long id : ids) {
+                doo.writeZLong(id - previous);
+                previous = id;
+            }
+        }
+        if ((fields & FIELD_PAYLOAD) != 0) {
+            doo.writeArray(payload);
+        }
+    }
+
+    private static void writeString(ExtendedDataOutputStream doo, int fields, int field, String value) throws IOException {
+        if ((fields & field) == 0) {
+            return;
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+                doo.writeArray(value.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        // ASCII strings are written as they are, without allocating a temporary array
+        doo.writeVInt(length);
+        for (int i = 0; i < length; i++) {
+            doo.write(value.charAt(i));
+        }
+    }
+
+    private static void readFields(StatusEdit res, ExtendedDataInputStream doo) throws IOException {
+        int fields = doo.readVInt();
+        if ((fields & FIELD_TRANSACTIONID) != 0) {
+            res.transactionId = doo.readZLong();
+        }
+        if ((fields & FIELD_TASKID) != 0) {
+            res.taskId = doo.readZLong();
+        }
+        if ((fields & FIELD_TIMESTAMP) != 0) {
+            res.timestamp = doo.readZLong();
+        }
+        if ((fields & FIELD_TASKSTATUS) != 0) {
+            res.taskStatus = doo.readZInt();
+        }
+        if ((fields & FIELD_MAXATTEMPTS) != 0) {
+            res.maxattempts = doo.readZInt();
+        }
+        if ((fields & FIELD_ATTEMPT) != 0) {
+            res.attempt = doo.readZInt();
+        }
+        if ((fields & FIELD_REQUESTEDSTARTTIME) != 0) {
+            res.requestedStartTime = doo.readZLong();
+        }
+        if ((fields & FIELD_EXECUTIONDEADLINE) != 0) {
+            res.executionDeadline = doo.readZLong();
+        }
+        res.userid = readString(doo, fields, FIELD_USERID);
+        res.taskType = readString(doo, fields, FIELD_TASKTYPE);
+        res.parameter = readString(doo, fields, FIELD_PARAMETER);
+        res.slot = readString(doo, fields, FIELD_SLOT);
+        res.codepool = readString(doo, fields, FIELD_CODEPOOL);
+        res.mode = readString(doo, fields, FIELD_MODE);
+        res.workerId = readString(doo, fields, FIELD_WORKERID);
+        res.workerLocation = readString(doo, fields, FIELD_WORKERLOCATION);
+        res.workerProcessId = readString(doo, fields, FIELD_WORKERPROCESSID);
+        res.resources = readString(doo, fields, FIELD_RESOURCES);
+        res.result = readString(doo, fields, FIELD_RESULT);
+        if ((fields & FIELD_RUNNINGTASKS) != 0) {
+            int count = doo.readVInt();
+            res.actualRunningTasks = new HashSet<>(count * 2);
+            long id = 0;
+            for (int i = 0; i < count; i++) {
+                id += doo.readZLong();
+                res.actualRunningTasks.add(id);
+            }
+        }
+        if ((fields & FIELD_PAYLOAD) != 0) {
+            res.payload = doo.readArray();
         }
     }
+
+    private static String readString(ExtendedDataInputStream doo, int fields, int field) throws IOException {
+        if ((fields & field) == 0) {
+            return null;
+        }
+        return new String(doo.readArray(), StandardCharsets.UTF_8);
+    }
     
     public static StatusEdit readV1(short editType, DataInputStream doo) throws IOException {
         StatusEdit res = new StatusEdit();
@@ -679,9 +936,22 @@ public final class StatusEdit {
 
     }
     
-    @SuppressFBWarnings(value = "DLS_DEAD_LOCAL_STORE")
     public static StatusEdit read(byte[] data) throws IOException {
-        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        return read(new SimpleByteArrayInputStream(data));
+    }
+
+    /**
+     * Reads an edit directly from a buffer (for instance a portion of a memory mapped file), without copying data
+     *
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    public static StatusEdit read(ByteBuffer data) throws IOException {
+        return read(new SimpleByteBufferInputStream(data));
+    }
+
+    private static StatusEdit read(InputStream in) throws IOException {
         ExtendedDataInputStream doo = new ExtendedDataInputStream(in);
         short header = doo.readShort();
         if (header != TYPE_V2) {
@@ -691,6 +961,12 @@ public final class StatusEdit {
         
         int version = doo.readVInt();
         res.editType = (short) doo.readVInt();
+        if (version == PROTOCOL_VERSION_1) {
+            readFields(res, doo);
+            return res;
+        } else if (version != PROTOCOL_VERSION_0) {
+            throw new IOException("unsupported edit protocol version " + version);
+        }
         
         switch (res.editType) {
             case TYPE_ADD_TASK: {
@@ -0,0 +1,115 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.io.IOException;
+import majordodo.utils.io.ExtendedDataOutputStream;
+import majordodo.utils.io.VisibleByteArrayOutputStream;
+
+/**
+ * Serializes edits into a buffer which is reused for every edit, in order not to allocate a new stream and a new
+ * array for each entry written to the log. An encoder must be used by one thread at a time
+ *
+ * @author enrico.olivelli
+ */
+@SuppressFBWarnings("EI_EXPOSE_REP")
+public final class StatusEditEncoder {
+
+    /**
+     * Buffers grown bigger than this (for instance by a CREATE_CODEPOOL edit) are not retained after use
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = Integer.getInteger("majordodo.statusedit.maxretainedbuffersize", 64 * 1024);
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private static final ThreadLocal<StatusEditEncoder> ENCODERS = ThreadLocal.withInitial(StatusEditEncoder::new);
+
+    /**
+     * Returns the encoder bound to the current thread
+     */
+    public static StatusEditEncoder get() {
+        return ENCODERS.get();
+    }
+
+    private final int protocolVersion;
+    private VisibleByteArrayOutputStream buffer;
+    private ExtendedDataOutputStream out;
+
+    public StatusEditEncoder() {
+        this(StatusEdit.PROTOCOL_VERSION);
+    }
+
+    public StatusEditEncoder(int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+        allocateBuffer();
+    }
+
+    private void allocateBuffer() {
+        this.buffer = new VisibleByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        this.out = new ExtendedDataOutputStream(buffer);
+    }
+
+    /**
+     * Serializes the edit. The result is available from {@link #getBuffer() } and {@link #getSize() } until the next
+     * call
+     *
+     * @param edit
+     * @return the size of the serialized edit
+     */
+    public int encode(StatusEdit edit) {
+        if (buffer.getBuffer().length > MAX_RETAINED_BUFFER_SIZE) {
+            allocateBuffer();
+        } else {
+            buffer.reset();
+        }
+        try {
+            edit.serialize(out, protocolVersion);
+        } catch (IOException err) {
+            // not expected, we are writing to memory
+            throw new RuntimeException(err);
+        }
+        return buffer.size();
+    }
+
+    /**
+     * Serializes the edit into a buffer taken from the given allocator. The caller owns the returned buffer and it is
+     * responsible for releasing it, BookKeeper releases the buffers passed to asyncAddEntry
+     *
+     * @param edit
+     * @param allocator
+     * @return
+     */
+    public ByteBuf encode(StatusEdit edit, ByteBufAllocator allocator) {
+        int size = encode(edit);
+        ByteBuf result = allocator.directBuffer(size, size);
+        result.writeBytes(buffer.getBuffer(), 0, size);
+        return result;
+    }
+
+    public byte[] getBuffer() {
+        return buffer.getBuffer();
+    }
+
+    public int getSize() {
+        return buffer.size();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects edits submitted concurrently and writes them to the {@link StatusChangesLog} with a single call to
+ * {@link StatusChangesLog#logStatusEditBatch(java.util.List)}. This way the latency of the log (for instance a
+ * BookKeeper round trip) is paid once for every batch and not once for every edit
+ *
+ * @author enrico.olivelli
+ */
+final class StatusEditsGroupCommit implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(StatusEditsGroupCommit.class.getName());
+
+    private final StatusChangesLog log;
+    private final int maxBatchSize;
+    private final long maxDelay;
+    private final BlockingQueue<PendingEdit> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicLong batchesCount = new AtomicLong();
+    private final AtomicLong editsCount = new AtomicLong();
+    private volatile boolean closed;
+
+    private static final class PendingEdit {
+
+        final StatusEdit edit;
+        final CompletableFuture<LogSequenceNumber> result = new CompletableFuture<>();
+
+        PendingEdit(StatusEdit edit) {
+            this.edit = edit;
+        }
+
+    }
+
+    /**
+     *
+     * @param log
+     * @param maxBatchSize maximum number of edits written together
+     * @param maxDelay maximum time to wait for other edits before writing a batch, in microseconds
+     */
+    StatusEditsGroupCommit(StatusChangesLog log, int maxBatchSize, long maxDelay) {
+        this.log = log;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = TimeUnit.MICROSECONDS.toNanos(maxDelay);
+        this.thread = new Thread(new GroupCommitTask(), "dodo-group-commit");
+        this.thread.setDaemon(true);
+    }
+
+    long getBatchesCount() {
+        return batchesCount.get();
+    }
+
+    long getEditsCount() {
+        return editsCount.get();
+    }
+
+    CompletableFuture<LogSequenceNumber> logStatusEditAsync(StatusEdit edit) {
+        PendingEdit pending = new PendingEdit(edit);
+        if (closed) {
+            pending.result.completeExceptionally(new LogNotAvailableException(new Exception("closed")));
+            return pending.result;
+        }
+        if (!started.get() && started.compareAndSet(false, true)) {
+            thread.start();
+        }
+        queue.add(pending);
+        if (closed) {
+            // the writer thread could already have exited
+            failPending(new LogNotAvailableException(new Exception("closed")));
+        }
+        return pending.result;
+    }
+
+    private class GroupCommitTask implements Runnable {
+
+        @Override
+        public void run() {
+            List<PendingEdit> batch = new ArrayList<>();
+            try {
+                while (!closed) {
+                    PendingEdit first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long deadline = System.nanoTime() + maxDelay;
+                    while (batch.size() < maxBatchSize) {
+                        long wait = deadline - System.nanoTime();
+                        if (wait <= 0) {
+                            break;
+                        }
+                        PendingEdit next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                    }
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException err) {
+                LOGGER.log(Level.SEVERE, "group commit interrupted", err);
+                Thread.currentThread().interrupt();
+            } finally {
+                LogNotAvailableException error = new LogNotAvailableException(new Exception("closed"));
+                for (PendingEdit pending : batch) {
+                    pending.result.completeExceptionally(error);
+                }
+                failPending(error);
+            }
+        }
+
+    }
+
+    private void write(List<PendingEdit> batch) {
+        List<PendingEdit> pendings = new ArrayList<>(batch);
+        List<StatusEdit> edits = new ArrayList<>(pendings.size());
+        for (PendingEdit pending : pendings) {
+            edits.add(pending.edit);
+        }
+        long _start = System.nanoTime();
+        batchesCount.incrementAndGet();
+        editsCount.addAndGet(edits.size());
+        // do not wait for the log, the next batch can be written while this one is in flight
+        log.logStatusEditBatchAsync(edits).whenComplete((sequenceNumbers, error) -> {
+            if (error != null) {
+                LOGGER.log(Level.SEVERE, "error while writing a batch of " + edits.size() + " edits", error);
+                for (PendingEdit pending : pendings) {
+                    pending.result.completeExceptionally(error);
+                }
+            } else {
+                for (int i = 0; i < pendings.size(); i++) {
+                    pendings.get(i).result.complete(sequenceNumbers.get(i));
+                }
+            }
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.log(Level.FINEST, "group commit of {0} edits, time {1} us",
+                    new Object[]{edits.size(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - _start)});
+            }
+        });
+    }
+
+    private void failPending(LogNotAvailableException error) {
+        PendingEdit pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(error);
+        }
+    }
+
+    @Override
+    public void close() {
+        // we do not wait for the thread, close() could be called by the thread itself in case of failure of the log,
+        // the batch in progress (if any) is left to complete
+        closed = true;
+        failPending(new LogNotAvailableException(new Exception("closed")));
+    }
+
+}
@@ -108,6 +108,18 @@ public class Task implements Delayed {
     private String codepool;
     private String mode;
     private String resources;
+    /**
+     * version of the BrokerStatus in which this object was created, see {@link BrokerStatus#createSnapshot()}
+     */
+    private long statusVersion;
+
+    long getStatusVersion() {
+        return statusVersion;
+    }
+
+    void setStatusVersion(long statusVersion) {
+        this.statusVersion = statusVersion;
+    }
 
     public long getRequestedStartTime() {
         return requestedStartTime;
@@ -253,6 +265,8 @@ public class Task implements Delayed {
         copy.executionDeadline = this.executionDeadline;
         copy.slot = this.slot;
         copy.resources = this.resources;
+        copy.codepool = this.codepool;
+        copy.mode = this.mode;
         return copy;
     }
 
@@ -22,19 +22,19 @@ package majordodo.task;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Set;
 import java.util.logging.Logger;
 
-import majordodo.utils.DiscardingBoundedPriorityQueue;
 import majordodo.utils.IntCounter;
 
 /**
- * Chooses tasks
+ * Chooses tasks. Candidates are read from the index of each {@link TasksHeapSegment}: the FIFO queues of every
+ * (group, tasktype) pair are merged by priority of the group and then by age of the entries, so that only the entries
+ * which are going to be assigned (or skipped because of limits) are visited.
  *
  * @author enrico.olivelli
  */
@@ -42,23 +42,29 @@ public final class TasksChooser {
 
     private final List<Integer> groups;
     private final Set<Integer> excludedGroups;
-    private final Map<Integer, Integer> availableSpace;
     private final Map<Integer, IntCounter> availableResourcesCounters;
     private final Map<Integer, Integer> priorityByGroup = new HashMap<>();
     private final boolean matchAllGroups;
     private final int max;
-    private final Map<Integer, PriorityQueue<Entry>> bestbyTasktype = new HashMap<>();
-    private final PriorityQueue<Entry> matchAllTypesQueue;
+    private final Map<Integer, Integer> availableSpace;
+    private final Map<Integer, IntCounter> remainingSpaceByTasktype = new HashMap<>();
     private final Integer availableSpaceForAnyTask;
+    private final IntCounter remainingSpaceForAnyTask;
     private final Map<IntTaskTypeUser, IntCounter> availableSpacePerUser;
     private final int maxThreadPerUserPerTaskTypePercent;
+    private final PriorityQueue<Cursor> cursors = new PriorityQueue<>(Cursor.COMPARATOR);
+    private final TasksHeap.ResourcesList[] resourcesLists;
+    /**
+     * Resource lists which cannot be used anymore, resource lists are pooled so we can use the id
+     */
+    private final BitSet exhaustedResources = new BitSet();
 
     static final class IntTaskTypeUser {
 
         final int tasktype;
-        final String userid;
+        final int userid;
 
-        public IntTaskTypeUser(int tasktype, String userid) {
+        public IntTaskTypeUser(int tasktype, int userid) {
             this.tasktype = tasktype;
             this.userid = userid;
         }
@@ -72,7 +78,7 @@ public final class TasksChooser {
         public int hashCode() {
             int hash = 3;
             hash = 97 * hash + this.tasktype;
-            hash = 97 * hash + Objects.hashCode(this.userid);
+            hash = 97 * hash + this.userid;
             return hash;
         }
 
@@ -91,7 +97,7 @@ public final class TasksChooser {
             if (this.tasktype != other.tasktype) {
                 return false;
             }
-            if (!Objects.equals(this.userid, other.userid)) {
+            if (this.userid != other.userid) {
                 return false;
             }
             return true;
@@ -99,75 +105,75 @@ public final class TasksChooser {
 
     }
 
-    static final class Entry implements Comparable<Entry> {
-
-        /**
-         * Inverse ordering comparator
-         */
-        public static final Comparator<Entry> INVERSE_COMPARATOR = new Comparator<Entry>() {
-
-            @Override
-            public int compare(Entry o1, Entry o2) {
-                return o2.compareTo(o1);
-            }
-
-        };
+    /**
+     * A task chosen for assignment
+     */
+    static final class Entry {
 
+        final TasksHeapSegment segment;
         final int position;
         final long taskid;
-        final int priorityByGroup;
-        final int[] resources;
 
-        public Entry(int position, long taskid, int priorityByGroup, int[] resources) {
+        Entry(TasksHeapSegment segment, int position, long taskid) {
+            this.segment = segment;
             this.position = position;
             this.taskid = taskid;
-            this.priorityByGroup = priorityByGroup;
-            this.resources = resources;
         }
 
         @Override
-        public int hashCode() {
-            return position;
+        public String toString() {
+            return "Entry{" + "segment=" + segment.key + ", position=" + position + ", taskid=" + taskid + '}';
         }
 
-        @Override
-        @edu.umd.cs.findbugs.annotations.SuppressWarnings(value = "BC_EQUALS_METHOD_SHOULD_WORK_FOR_ALL_OBJECTS")
-        public boolean equals(Object obj) {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null) {
-                return false;
-            }
-            final Entry other = (Entry) obj;
-            if (this.position != other.position) {
-                return false;
-            }
-            return true;
-        }
+    }
 
-        @Override
-        public String toString() {
-            return "Entry{" + "position=" + position + ", taskid=" + taskid + ", priorityByGroup=" + priorityByGroup + '}';
-        }
+    /**
+     * Read position on a FIFO queue of the index
+     */
+    private static final class Cursor {
 
         /**
-         * {@inheritDoc}
-         *
-         * Entries with less priority are <i>smaller</i>. On ties newer entries (bigger position) are <i>smaller</i>
+         * Higher priority first, then older entries first
          */
-        @Override
-        public int compareTo(Entry o) {
-
-            int diff = this.priorityByGroup - o.priorityByGroup;
+        static final Comparator<Cursor> COMPARATOR = (Cursor o1, Cursor o2) -> {
+            int diff = Integer.compare(o2.priorityByGroup, o1.priorityByGroup);
             if (diff != 0) {
                 return diff;
             }
-            if (this.position < o.position) {
-                return 1;
-            } else {
-                return -1;
+            return Long.compare(o1.sequence(), o2.sequence());
+        };
+
+        final TasksHeapSegment segment;
+        final TasksHeapSegment.PositionsQueue queue;
+        final int priorityByGroup;
+        final int availableSpaceForTaskType;
+        final IntCounter remainingSpace;
+        int index;
+
+        Cursor(TasksHeapSegment segment, TasksHeapSegment.PositionsQueue queue, int priorityByGroup,
+            int availableSpaceForTaskType, IntCounter remainingSpace) {
+            this.segment = segment;
+            this.queue = queue;
+            this.priorityByGroup = priorityByGroup;
+            this.availableSpaceForTaskType = availableSpaceForTaskType;
+            this.remainingSpace = remainingSpace;
+            this.index = queue.head;
+        }
+
+        int position() {
+            return queue.positions[index];
+        }
+
+        long sequence() {
+            return segment.sequences[queue.positions[index]];
+        }
+
+        boolean next() {
+            index++;
+            while (index < queue.tail && !segment.isIndexed(queue.positions[index], queue)) {
+                index++;
             }
+            return index < queue.tail;
         }
 
     }
@@ -175,8 +181,9 @@ public final class TasksChooser {
     TasksChooser(List<Integer> groups, Set<Integer> excludedGroups, Map<Integer, Integer> availableSpace,
         Map<Integer, IntCounter> availableResourcesCounters, int max,
         Map<IntTaskTypeUser, IntCounter> availableSpacePerUser,
-        int maxThreadPerUserPerTaskTypePercent) {
+        int maxThreadPerUserPerTaskTypePercent, TasksHeap.ResourcesList[] resourcesLists) {
         this.availableSpacePerUser = availableSpacePerUser;
+        this.resourcesLists = resourcesLists;
         this.availableSpace = new HashMap<>(availableSpace);
         this.groups = groups;
         this.availableResourcesCounters = availableResourcesCounters;
@@ -184,14 +191,9 @@ public final class TasksChooser {
         this.max = max;
         this.maxThreadPerUserPerTaskTypePercent = maxThreadPerUserPerTaskTypePercent;
 
-        /*
-		 * Bonded priority queues will be used. each add will request log(n)
-		 * operations but n represent maximum task number for a type (enough
-		 * small) and not all existing tasks (possibly really big).
-         */
         availableSpace.entrySet().stream().forEach((entry) -> {
             if (entry.getKey() > 0) {
-                bestbyTasktype.put(entry.getKey(), new DiscardingBoundedPriorityQueue<>(entry.getValue()));
+                remainingSpaceByTasktype.put(entry.getKey(), new IntCounter(entry.getValue()));
             }
         });
 
@@ -202,110 +204,45 @@ public final class TasksChooser {
             this.priorityByGroup.put(idgroup, priority--);
         }
         if (availableSpaceForAnyTask != null) {
-            matchAllTypesQueue = new DiscardingBoundedPriorityQueue<>(availableSpaceForAnyTask);
+            remainingSpaceForAnyTask = new IntCounter(availableSpaceForAnyTask);
         } else {
-            matchAllTypesQueue = null;
-        }
-
-    }
-
-    List<Entry> getChoosenTasks() {
-
-        final List<Entry> result = new ArrayList<>();
-
-        bestbyTasktype.values().forEach(result::addAll);
-
-        if (matchAllTypesQueue != null) {
-            result.addAll(matchAllTypesQueue);
-        }
-
-        if (result.size() > 1) {
-            result.sort(Entry.INVERSE_COMPARATOR);
-        }
-
-        if (!availableResourcesCounters.isEmpty()) {
-            List<Entry> newResult = new ArrayList<>();
-            int acceptedCount = 0;
-            for (Entry entry : result) {
-                // an entry can be accepted only if there is space for every declared resource                
-                if (entry.resources == null) {
-                    newResult.add(entry);
-                    acceptedCount++;
-                } else {
-                    boolean allOk = true;
-                    for (int idresource : entry.resources) {
-                        IntCounter spaceForResource = availableResourcesCounters.get(idresource);
-                        if (spaceForResource != null && spaceForResource.count <= 0) {
-                            allOk = false;
-                            break;
-                        }
-                    }
-                    if (allOk) {
-                        for (int idresource : entry.resources) {
-                            IntCounter spaceForResource = availableResourcesCounters.get(idresource);
-                            if (spaceForResource != null) {
-                                spaceForResource.count--;
-                            }
-                        }
-                        newResult.add(entry);
-                        acceptedCount++;
-                    }
-                }
-                if (acceptedCount >= max) {
-                    break;
-                }
-            }
-            return newResult;
-        } else {
-
-            return result.size() > max ? result.subList(0, max) : result;
+            remainingSpaceForAnyTask = null;
         }
 
     }
 
     private static final Logger LOGGER = Logger.getLogger(TasksChooser.class.getName());
 
-    void accept(int position, TasksHeap.TaskEntry entry) {
+    /**
+     * Offers a queue of the index of the heap. Must be called while holding the write lock of the segment
+     *
+     * @param segment
+     * @param queue
+     */
+    void addQueue(TasksHeapSegment segment, TasksHeapSegment.PositionsQueue queue) {
 
-        final int idgroup = entry.groupid;
+        final int idgroup = queue.groupid;
 
         if ((matchAllGroups && !excludedGroups.contains(idgroup)) || groups.contains(idgroup)) {
 
-            int tasktype = entry.tasktype;
+            int tasktype = queue.tasktype;
 
             Integer availableSpaceForTaskType = availableSpace.get(tasktype);
-
+            IntCounter remainingSpace;
             if (availableSpaceForTaskType == null) {
                 availableSpaceForTaskType = availableSpaceForAnyTask;
+                remainingSpace = remainingSpaceForAnyTask;
+            } else {
+                remainingSpace = remainingSpaceByTasktype.get(tasktype);
             }
 
-            if (availableSpaceForTaskType != null) {
-
-                if (availableSpacePerUser != null) {
-                    IntCounter counterForUser = availableSpacePerUser.get(new IntTaskTypeUser(tasktype, entry.userid));
-                    if (counterForUser == null) {
-                        int limitForUserWithoutAnyTaskRunning = (availableSpaceForTaskType * maxThreadPerUserPerTaskTypePercent) / 100;
-                        if (limitForUserWithoutAnyTaskRunning <= 0) {
-                            limitForUserWithoutAnyTaskRunning = 1;
-                        }
-                        counterForUser = new IntCounter(limitForUserWithoutAnyTaskRunning);
-                        availableSpacePerUser.put(new IntTaskTypeUser(tasktype, entry.userid), counterForUser);
-                    }
-                    if (--counterForUser.count < 0) {
-                        return;
-                    }
+            if (availableSpaceForTaskType != null && availableSpaceForTaskType > 0) {
 
+                segment.skipStale(queue);
+                if (queue.head == queue.tail) {
+                    return;
                 }
 
-                Queue<Entry> queue;
-                Queue<Entry> bytasktype = bestbyTasktype.get(tasktype);
-
-                /*
-				 * If availableSpaceForTaskType is not null bytasktype or
-				 * matchAllTypesQueue aren't null... so queue is not null
-                 */
-                queue = bytasktype != null ? bytasktype : matchAllTypesQueue;
-
                 Integer priority = priorityByGroup.get(idgroup);
 
                 // possibile if using "matchAllGroups"
@@ -313,10 +250,81 @@ public final class TasksChooser {
                     priority = Integer.MIN_VALUE;
                 }
 
-                queue.add(new Entry(position, entry.taskid, priority, entry.resources));
+                cursors.add(new Cursor(segment, queue, priority, availableSpaceForTaskType, remainingSpace));
+            }
+        }
+    }
+
+    List<Entry> getChoosenTasks() {
+
+        final List<Entry> result = new ArrayList<>();
+
+        while (result.size() < max) {
+            Cursor cursor = cursors.poll();
+            if (cursor == null) {
+                break;
+            }
+            if (cursor.remainingSpace.count <= 0) {
+                // no more space for this tasktype, discard the whole queue
+                continue;
+            }
+            int position = cursor.position();
+            TasksHeapSegment segment = cursor.segment;
+            if (accept(cursor, segment.users[position], segment.resources[position])) {
+                result.add(new Entry(segment, position, segment.taskids[position]));
+            }
+            if (cursor.next()) {
+                cursors.add(cursor);
+            }
+        }
+
+        return result;
+    }
 
+    private boolean accept(Cursor cursor, int user, int resourcesList) {
+        IntCounter counterForUser = null;
+        if (availableSpacePerUser != null) {
+            int tasktype = cursor.queue.tasktype;
+            counterForUser = availableSpacePerUser.get(new IntTaskTypeUser(tasktype, user));
+            if (counterForUser == null) {
+                int limitForUserWithoutAnyTaskRunning = (cursor.availableSpaceForTaskType * maxThreadPerUserPerTaskTypePercent) / 100;
+                if (limitForUserWithoutAnyTaskRunning <= 0) {
+                    limitForUserWithoutAnyTaskRunning = 1;
+                }
+                counterForUser = new IntCounter(limitForUserWithoutAnyTaskRunning);
+                availableSpacePerUser.put(new IntTaskTypeUser(tasktype, user), counterForUser);
             }
+            if (counterForUser.count <= 0) {
+                return false;
+            }
+        }
+
+        if (resourcesList > 0 && !availableResourcesCounters.isEmpty()) {
+            // an entry can be accepted only if there is space for every declared resource
+            if (exhaustedResources.get(resourcesList)) {
+                return false;
+            }
+            int[] resources = resourcesLists[resourcesList].resources;
+            for (int idresource : resources) {
+                IntCounter spaceForResource = availableResourcesCounters.get(idresource);
+                if (spaceForResource != null && spaceForResource.count <= 0) {
+                    exhaustedResources.set(resourcesList);
+                    return false;
+                }
+            }
+            for (int idresource : resources) {
+                IntCounter spaceForResource = availableResourcesCounters.get(idresource);
+                if (spaceForResource != null) {
+                    spaceForResource.count--;
+                }
+            }
+        }
+
+        if (counterForUser != null) {
+            counterForUser.count--;
         }
+        cursor.remainingSpace.count--;
+        return true;
     }
 
 }
@@ -21,19 +21,24 @@ package majordodo.task;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import majordodo.utils.IntCounter;
-import majordodo.utils.IntCounter;
 
 /**
  * Heap of tasks to be executed. Tasks are not arranged in a queue but in an heap.<br>
@@ -44,6 +49,8 @@ import majordodo.utils.IntCounter;
  * <li>Compaction of the heap (removes empty slots)
  * <li>Readonly access for monitoring
  * </ul>
+ * The heap can be partitioned by task type or by group: every partition is a {@link TasksHeapSegment} with its own
+ * lock, so that workers which declare disjoint task types (or groups) can take tasks concurrently.
  *
  * @author enrico.olivelli
  */
@@ -53,20 +60,42 @@ public class TasksHeap {
 
     private static final int TASKTYPE_ANYTASK = 0;
 
-    private int actualsize;
-    private int fragmentation;
+    /**
+     * A single segment for the whole heap
+     */
+    public static final String PARTITIONING_NONE = "none";
+    /**
+     * One segment for each task type
+     */
+    public static final String PARTITIONING_TASKTYPE = "tasktype";
+    /**
+     * One segment for each group
+     */
+    public static final String PARTITIONING_GROUP = "group";
+
+    private static final int MAX_PARTITION_INITIAL_SIZE = 4096;
+
     private int maxFragmentation;
-    private int minValidPosition;
     private int autoGrowPercent = 25;
-    private int size;
-    private TaskEntry[] actuallist;
+    private long compactionTimeBudget = TimeUnit.MILLISECONDS.toNanos(1);
+    private final AtomicLong compactionSlices = new AtomicLong();
+    private final AtomicLong compactionTime = new AtomicLong();
+    private final AtomicLong compactionReclaimedSlots = new AtomicLong();
+    private final int initialSize;
+    private final String partitioning;
     private final TaskPropertiesMapperFunction resourceMapper;
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
-    private final Map<String, Integer> resourceMappings = new HashMap<>();
-    private final Map<Integer, String> resourceIdMappings = new HashMap<>();
-    private final Map<String, int[]> resourcesListPool = new HashMap<>();
-    private final Map<int[], String[]> resourcesIdsListPool = new HashMap<>();
-    private final Map<int[], String> resourcesStringListPool = new HashMap<>();
+    private final ConcurrentSkipListMap<Integer, TasksHeapSegment> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock globalResourcesLock = new ReentrantLock();
+    private final Object mappingsLock = new Object();
+    private final Map<String, Integer> resourceMappings = new ConcurrentHashMap<>();
+    private final Map<Integer, String> resourceIdMappings = new ConcurrentHashMap<>();
+    private final Map<String, Integer> resourcesListPool = new ConcurrentHashMap<>();
+    private volatile ResourcesList[] resourcesLists = new ResourcesList[16];
+    private int newIdResourcesList = 0;
+    private final Map<String, Integer> usersIds = new ConcurrentHashMap<>();
+    private volatile String[] users = new String[16];
+    private int newIdUser = 0;
+    private final AtomicLong newSequence = new AtomicLong();
 
     public int getAutoGrowPercent() {
         return autoGrowPercent;
@@ -79,26 +108,104 @@ public class TasksHeap {
         this.autoGrowPercent = autoGrowPercent;
     }
 
+    /**
+     * Maximum time spent compacting the heap during a single assignment of tasks, in milliseconds. Compaction is split
+     * in slices and no slice keeps a segment locked for longer than this budget. 0 means that every compaction is
+     * executed fully as soon as fragmentation exceeds the limit.
+     *
+     * @return
+     */
+    public long getCompactionTimeBudget() {
+        return TimeUnit.NANOSECONDS.toMillis(compactionTimeBudget);
+    }
+
+    public void setCompactionTimeBudget(long compactionTimeBudget) {
+        if (compactionTimeBudget < 0) {
+            throw new IllegalArgumentException(compactionTimeBudget + "");
+        }
+        this.compactionTimeBudget = TimeUnit.MILLISECONDS.toNanos(compactionTimeBudget);
+    }
+
+    /**
+     * Number of compaction slices executed
+     *
+     * @return
+     */
+    public long getCompactionSlices() {
+        return compactionSlices.get();
+    }
+
+    /**
+     * Total time spent in compaction slices, in nanoseconds
+     *
+     * @return
+     */
+    public long getCompactionTime() {
+        return compactionTime.get();
+    }
+
+    /**
+     * Total number of empty slots reclaimed by compaction
+     *
+     * @return
+     */
+    public long getCompactionReclaimedSlots() {
+        return compactionReclaimedSlots.get();
+    }
+
     public int getActualsize() {
-        return actualsize;
+        int res = 0;
+        for (TasksHeapSegment segment : segments.values()) {
+            res += segment.actualsize;
+        }
+        return res;
     }
 
     public int getFragmentation() {
-        return fragmentation;
+        int res = 0;
+        for (TasksHeapSegment segment : segments.values()) {
+            res += segment.fragmentation;
+        }
+        return res;
     }
 
     public int getSize() {
-        return size;
+        int res = 0;
+        for (TasksHeapSegment segment : segments.values()) {
+            res += segment.size;
+        }
+        return res;
+    }
+
+    public String getPartitioning() {
+        return partitioning;
+    }
+
+    public int getSegmentsCount() {
+        return segments.size();
     }
 
     public TasksHeap(int size, TaskPropertiesMapperFunction tenantAssigner) {
-        this.size = size;
-        this.resourceMapper = tenantAssigner;
-        this.actuallist = new TaskEntry[size];
-        for (int i = 0; i < size; i++) {
-            this.actuallist[i] = new TaskEntry(0, 0, null, 0, null);
+        this(size, tenantAssigner, PARTITIONING_NONE);
+    }
+
+    public TasksHeap(int size, TaskPropertiesMapperFunction tenantAssigner, String partitioning) {
+        switch (partitioning) {
+            case PARTITIONING_NONE:
+            case PARTITIONING_TASKTYPE:
+            case PARTITIONING_GROUP:
+                break;
+            default:
+                throw new IllegalArgumentException("bad value for partitioning " + partitioning + ", only valid values are "
+                    + PARTITIONING_NONE + "|" + PARTITIONING_TASKTYPE + "|" + PARTITIONING_GROUP);
         }
+        this.initialSize = size;
+        this.partitioning = partitioning;
+        this.resourceMapper = tenantAssigner;
         this.maxFragmentation = size / 4;
+        if (PARTITIONING_NONE.equals(partitioning)) {
+            this.segments.put(0, new TasksHeapSegment(0, size));
+        }
     }
 
     public int getMaxFragmentation() {
@@ -109,68 +216,90 @@ public class TasksHeap {
         this.maxFragmentation = maxFragmentation;
     }
 
+    private int getMaxFragmentation(TasksHeapSegment segment) {
+        if (PARTITIONING_NONE.equals(partitioning)) {
+            return maxFragmentation;
+        }
+        // partitions start small and grow independently, do not let them keep too many empty slots
+        return Math.min(maxFragmentation, Math.max(1, segment.size / 4));
+    }
+
+    private int getSegmentKey(int tasktype, int groupid) {
+        switch (partitioning) {
+            case PARTITIONING_TASKTYPE:
+                return tasktype;
+            case PARTITIONING_GROUP:
+                return groupid;
+            default:
+                return 0;
+        }
+    }
+
+    private TasksHeapSegment getSegmentForInsert(int key) {
+        TasksHeapSegment segment = segments.get(key);
+        if (segment == null) {
+            segment = segments.computeIfAbsent(key, k -> new TasksHeapSegment(k, Math.min(initialSize, MAX_PARTITION_INITIAL_SIZE)));
+        }
+        return segment;
+    }
+
     public void removeExpiredTasks(Set<Long> taskid) {
-        lock.writeLock().lock();
-        try {
-            for (TaskEntry entry : actuallist) {
-                if (taskid.contains(entry.taskid)) {
-                    entry.taskid = 0;
-                    entry.tasktype = 0;
-                    entry.userid = null;
-                    entry.groupid = 0;
-                    entry.resources = null;
+        for (TasksHeapSegment segment : segments.values()) {
+            segment.lock.writeLock().lock();
+            try {
+                for (int i = segment.minValidPosition; i < segment.actualsize; i++) {
+                    if (taskid.contains(segment.taskids[i])) {
+                        segment.clear(i);
+                        segment.groupids[i] = 0;
+                        segment.resources[i] = 0;
+                    }
                 }
+            } finally {
+                segment.lock.writeLock().unlock();
             }
-        } finally {
-            lock.writeLock().unlock();
         }
     }
 
-    private final Map<String, Integer> taskTypesIds = new HashMap<>();
-    private final Map<Integer, String> taskTypes = new HashMap<>();
+    private final Map<String, Integer> taskTypesIds = new ConcurrentHashMap<>();
+    private final Map<Integer, String> taskTypes = new ConcurrentHashMap<>();
     private int newIdtaskType = 0;
 
-    private void doAutoGrow() {
-        int delta = (int) (((actuallist.length * 1L * autoGrowPercent)) / 100);
-        if (delta <= 0) {
-            // be sure taht we always increment by one, in tore to have space for a new task
-            delta = 1;
+    private int resolveTaskTypeId(String tasktype) {
+        Integer taskTypeId = taskTypesIds.get(tasktype);
+        if (taskTypeId != null) {
+            return taskTypeId;
         }
-        int newSize = actuallist.length + delta;
-        LOGGER.log(Level.SEVERE, "doAutoGrow size {0}, newsize {1}", new Object[]{size, newSize});
-        TaskEntry[] newList = new TaskEntry[newSize];
-        System.arraycopy(actuallist, 0, newList, 0, actuallist.length);
-        for (int i = actuallist.length; i < newList.length; i++) {
-            newList[i] = new TaskEntry(0, 0, null, 0, null);
+        synchronized (mappingsLock) {
+            taskTypeId = taskTypesIds.get(tasktype);
+            if (taskTypeId == null) {
+                taskTypeId = ++newIdtaskType;
+                taskTypes.put(taskTypeId, tasktype);
+                taskTypesIds.put(tasktype, taskTypeId);
+            }
+            return taskTypeId;
         }
-        this.size = newList.length;
-        this.actuallist = newList;
     }
 
     public void insertTask(long taskid, String tasktype, String userid) {
         TaskProperties taskProperties = resourceMapper.getTaskProperties(taskid, tasktype, userid);
         int groupid = taskProperties.groupId;
         String[] resourceIds = taskProperties.resources;
-        lock.writeLock().lock();
+        int resources = convertResourceList(resourceIds);
+        int taskTypeId = resolveTaskTypeId(tasktype);
+        int user = resolveUser(userid);
+        insertEntry(taskid, taskTypeId, user, groupid, resources, 0);
+    }
+
+    private void insertEntry(long taskid, int taskTypeId, int user, int groupid, int resources, long sequence) {
+        TasksHeapSegment segment = getSegmentForInsert(getSegmentKey(taskTypeId, groupid));
+        segment.lock.writeLock().lock();
         try {
-            int[] resources = convertResourceList(resourceIds);
-            if (actualsize == size) {
-                doAutoGrow();
-            }
-            Integer taskTypeId = taskTypesIds.get(tasktype);
-            if (taskTypeId == null) {
-                taskTypeId = ++newIdtaskType;
-                taskTypesIds.put(tasktype, taskTypeId);
-                taskTypes.put(taskTypeId, tasktype);
+            if (sequence == 0) {
+                sequence = newSequence.incrementAndGet();
             }
-            TaskEntry entry = this.actuallist[actualsize++];
-            entry.taskid = taskid;
-            entry.tasktype = taskTypeId;
-            entry.userid = userid;
-            entry.groupid = groupid;
-            entry.resources = resources;
+            segment.insert(taskid, taskTypeId, user, groupid, resources, sequence, autoGrowPercent);
         } finally {
-            lock.writeLock().unlock();
+            segment.lock.writeLock().unlock();
         }
     }
 
@@ -178,40 +307,92 @@ public class TasksHeap {
         return taskTypes.get(tasktype);
     }
 
-    private String[] convertResourceListToIds(int[] resourceIds) {
-        return resourcesIdsListPool.get(resourceIds);
+    private int resolveUser(String userid) {
+        if (userid == null) {
+            return 0;
+        }
+        Integer user = usersIds.get(userid);
+        if (user != null) {
+            return user;
+        }
+        synchronized (mappingsLock) {
+            user = usersIds.get(userid);
+            if (user == null) {
+                user = ++newIdUser;
+                String[] _users = users;
+                if (user >= _users.length) {
+                    _users = Arrays.copyOf(_users, _users.length * 2);
+                }
+                _users[user] = userid;
+                // publish the new array before the id
+                users = _users;
+                usersIds.put(userid, user);
+            }
+            return user;
+        }
     }
 
-    private String convertResourceListString(int[] resourceIds) {
-        return resourcesStringListPool.get(resourceIds);
+    private String resolveUser(int user) {
+        return users[user];
     }
 
-    private int[] convertResourceList(String[] resourceIds) {
-        // this method must be invoked inside a writeLock
+    private int convertResourceList(String[] resourceIds) {
         if (resourceIds == null || resourceIds.length == 0) {
-            return null;
+            return 0;
         }
         String key = Arrays.toString(resourceIds);
-        int[] pooled = resourcesListPool.get(key);
+        Integer pooled = resourcesListPool.get(key);
         if (pooled != null) {
             return pooled;
         }
-        int[] result = new int[resourceIds.length];
-        int i = 0;
-        for (String s : resourceIds) {
-            Integer id = resolveResourceId(s);
-            result[i++] = id;
-        }
-        /* we are going to pool the array for two reasons:
-         - limit memory usage
-         - have the ability to compare arrays using reference comparisons
-         */
-        resourcesListPool.put(key, result);
-        resourcesIdsListPool.put(result, resourceIds);
-        resourcesStringListPool.put(result, Stream.of(resourceIds).collect(Collectors.joining(",")));
-        return result;
+        synchronized (mappingsLock) {
+            pooled = resourcesListPool.get(key);
+            if (pooled != null) {
+                return pooled;
+            }
+            int[] result = new int[resourceIds.length];
+            int i = 0;
+            for (String s : resourceIds) {
+                Integer id = resolveResourceId(s);
+                result[i++] = id;
+            }
+            /* we are going to pool the lists for two reasons:
+             - limit memory usage
+             - have the ability to compare lists using only the id
+             */
+            int id = ++newIdResourcesList;
+            ResourcesList[] _resourcesLists = resourcesLists;
+            if (id >= _resourcesLists.length) {
+                _resourcesLists = Arrays.copyOf(_resourcesLists, _resourcesLists.length * 2);
+            }
+            _resourcesLists[id] = new ResourcesList(result, resourceIds, Stream.of(resourceIds).collect(Collectors.joining(",")));
+            // publish the new array before the id
+            resourcesLists = _resourcesLists;
+            resourcesListPool.put(key, id);
+            return id;
+        }
     }
 
+    /**
+     * A pooled list of resources
+     */
+    static final class ResourcesList {
+
+        final int[] resources;
+        final String[] resourceIds;
+        final String resourceIdsAsString;
+
+        ResourcesList(int[] resources, String[] resourceIds, String resourceIdsAsString) {
+            this.resources = resources;
+            this.resourceIds = resourceIds;
+            this.resourceIdsAsString = resourceIdsAsString;
+        }
+
+    }
+
+    /**
+     * Snapshot of an entry of the heap, entries are not stored as objects
+     */
     public static final class TaskEntry {
 
         public long taskid;
@@ -219,13 +400,15 @@ public class TasksHeap {
         public String userid;
         public int groupid;
         public int[] resources;
+        public long sequence;
 
-        TaskEntry(long taskid, int tasktype, String userid, int groupid, int[] resources) {
+        TaskEntry(long taskid, int tasktype, String userid, int groupid, int[] resources, long sequence) {
             this.taskid = taskid;
             this.tasktype = tasktype;
             this.userid = userid;
             this.groupid = groupid;
             this.resources = resources;
+            this.sequence = sequence;
         }
 
         @Override
@@ -235,97 +418,174 @@ public class TasksHeap {
 
     }
 
+    private TaskEntry readEntry(TasksHeapSegment segment, int pos, ResourcesList[] _resourcesLists) {
+        ResourcesList resourcesList = _resourcesLists[segment.resources[pos]];
+        return new TaskEntry(segment.taskids[pos], segment.tasktypes[pos], resolveUser(segment.users[pos]), segment.groupids[pos],
+            resourcesList != null ? resourcesList.resources : null, segment.sequences[pos]);
+    }
+
     public void scan(Consumer<TaskEntry> consumer) {
-        lock.readLock().lock();
-        try {
-            for (int i = minValidPosition; i < actualsize; i++) {
-                TaskEntry entry = this.actuallist[i];
-                if (entry.taskid > 0) {
-                    consumer.accept(entry);
+        for (TasksHeapSegment segment : segments.values()) {
+            segment.lock.readLock().lock();
+            try {
+                ResourcesList[] _resourcesLists = resourcesLists;
+                for (int i = segment.minValidPosition; i < segment.actualsize; i++) {
+                    if (segment.taskids[i] > 0) {
+                        consumer.accept(readEntry(segment, i, _resourcesLists));
+                    }
                 }
+            } finally {
+                segment.lock.readLock().unlock();
             }
-        } finally {
-            lock.readLock().unlock();
         }
     }
 
     public void scanFull(Consumer<TaskEntry> consumer) {
-        lock.readLock().lock();
-        try {
-            for (int i = 0; i < actualsize; i++) {
-                TaskEntry entry = this.actuallist[i];
-                consumer.accept(entry);
+        for (TasksHeapSegment segment : segments.values()) {
+            segment.lock.readLock().lock();
+            try {
+                ResourcesList[] _resourcesLists = resourcesLists;
+                for (int i = 0; i < segment.actualsize; i++) {
+                    consumer.accept(readEntry(segment, i, _resourcesLists));
+                }
+            } finally {
+                segment.lock.readLock().unlock();
             }
-        } finally {
-            lock.readLock().unlock();
         }
     }
 
     public void recomputeGroups() {
-        lock.writeLock().lock();
-        try {
-            for (int i = minValidPosition; i < actualsize; i++) {
-                TaskEntry entry = this.actuallist[i];
-                if (entry.taskid > 0) {
-                    TaskProperties taskProperties = resourceMapper.getTaskProperties(entry.taskid, taskTypes.get(entry.tasktype), entry.userid);
-                    int newGroup = taskProperties.groupId;
-                    int[] resources = convertResourceList(taskProperties.resources);
-                    // we can compare the "resources" array using the reference because we are pooling them
-                    if (entry.groupid != newGroup || entry.resources != resources) {
-                        // let's limit writes on memory, most often group/resources does not change
-                        entry.groupid = newGroup;
-                        entry.resources = resources;
+        // with group partitioning an entry which changes group must be moved to another segment
+        List<long[]> moved = new ArrayList<>();
+        for (TasksHeapSegment segment : segments.values()) {
+            segment.lock.writeLock().lock();
+            try {
+                boolean reindex = false;
+                for (int i = segment.minValidPosition; i < segment.actualsize; i++) {
+                    long taskid = segment.taskids[i];
+                    if (taskid > 0) {
+                        int tasktype = segment.tasktypes[i];
+                        TaskProperties taskProperties = resourceMapper.getTaskProperties(taskid, taskTypes.get(tasktype), resolveUser(segment.users[i]));
+                        int newGroup = taskProperties.groupId;
+                        int resources = convertResourceList(taskProperties.resources);
+                        if (getSegmentKey(tasktype, newGroup) != segment.key) {
+                            moved.add(new long[]{taskid, tasktype, segment.users[i], newGroup, resources, segment.sequences[i]});
+                            segment.clear(i);
+                        } else if (segment.groupids[i] != newGroup || segment.resources[i] != resources) {
+                            // we can compare the "resources" using the id because we are pooling them
+                            // let's limit writes on memory, most often group/resources does not change
+                            reindex = reindex || segment.groupids[i] != newGroup;
+                            segment.groupids[i] = newGroup;
+                            segment.resources[i] = resources;
+                        }
                     }
                 }
+                if (reindex) {
+                    segment.rebuildIndex();
+                }
+            } finally {
+                segment.lock.writeLock().unlock();
             }
-        } finally {
-            lock.writeLock().unlock();
+        }
+        for (long[] entry : moved) {
+            insertEntry(entry[0], (int) entry[1], (int) entry[2], (int) entry[3], (int) entry[4], entry[5]);
         }
     }
 
     public void runCompaction() {
-        LOGGER.log(Level.FINEST, "running compaction,"
-            + "fragmentation " + fragmentation + ", actualsize " + actualsize
-            + ", size " + size + ", minValidPosition " + minValidPosition);
-        lock.writeLock().lock();
-        try {
-            int[] nonemptypositions = new int[size];
-            int insertpos = 0;
-            int pos = 0;
-            for (TaskEntry entry : actuallist) {
-                if (entry.taskid > 0) {
-                    nonemptypositions[insertpos++] = pos + 1; // NOTE_A: 0 means "empty", so we are going to add "+1" to every position
+        for (TasksHeapSegment segment : segments.values()) {
+            segment.lock.writeLock().lock();
+            try {
+                long _start = System.nanoTime();
+                segment.runCompaction();
+                compactionSlices.incrementAndGet();
+                compactionTime.addAndGet(System.nanoTime() - _start);
+            } finally {
+                segment.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Runs a slice of compaction on every segment which needs it, the lock of every segment is held only for the
+     * duration of a single slice and the whole work is bounded by the compaction time budget
+     *
+     * @param candidates
+     */
+    private void runCompactionSlices(List<TasksHeapSegment> candidates) {
+        long budget = compactionTimeBudget;
+        long start = System.nanoTime();
+        for (TasksHeapSegment segment : candidates) {
+            long remaining = budget - (System.nanoTime() - start);
+            if (budget > 0 && remaining <= 0) {
+                return;
+            }
+            if (!segment.compacting && segment.fragmentation <= getMaxFragmentation(segment)) {
+                // dirty read, just to avoid locking segments which do not need compaction
+                continue;
+            }
+            segment.lock.writeLock().lock();
+            try {
+                if (!segment.compacting) {
+                    if (segment.fragmentation <= getMaxFragmentation(segment)) {
+                        continue;
+                    }
+                    segment.startCompaction();
+                }
+                int fragmentationBefore = segment.fragmentation;
+                long _start = System.nanoTime();
+                int reclaimed = segment.runCompactionSlice(budget > 0 ? remaining : 0);
+                long sliceTime = System.nanoTime() - _start;
+                compactionSlices.incrementAndGet();
+                compactionTime.addAndGet(sliceTime);
+                compactionReclaimedSlots.addAndGet(reclaimed);
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "compaction slice on segment {0} took {1} us, reclaimed {2} slots, fragmentation {3} -> {4}, completed {5}",
+                        new Object[]{segment.key, TimeUnit.NANOSECONDS.toMicros(sliceTime), reclaimed, fragmentationBefore,
+                            segment.fragmentation, !segment.compacting});
                 }
-                pos++;
+            } finally {
+                segment.lock.writeLock().unlock();
             }
-            int writepos = 0;
-            for (int nonemptyindex = 0; nonemptyindex < size; nonemptyindex++) {
-                int nextnotempty = nonemptypositions[nonemptyindex];
-                if (nextnotempty == 0) {
-                    break;
+        }
+    }
+
+    private Collection<TasksHeapSegment> selectSegments(List<Integer> groups, Set<Integer> excludedGroups,
+        Map<Integer, Integer> availableSpaceByTaskTaskId) {
+        switch (partitioning) {
+            case PARTITIONING_TASKTYPE: {
+                if (availableSpaceByTaskTaskId.containsKey(TASKTYPE_ANYTASK)) {
+                    return segments.values();
                 }
-                nextnotempty = nextnotempty - 1; // see NOTE_A
-                actuallist[writepos].taskid = actuallist[nextnotempty].taskid;
-                actuallist[writepos].tasktype = actuallist[nextnotempty].tasktype;
-                actuallist[writepos].userid = actuallist[nextnotempty].userid;
-                actuallist[writepos].groupid = actuallist[nextnotempty].groupid;
-                actuallist[writepos].resources = actuallist[nextnotempty].resources;
-                writepos++;
+                TreeMap<Integer, TasksHeapSegment> result = new TreeMap<>();
+                for (Integer tasktype : availableSpaceByTaskTaskId.keySet()) {
+                    TasksHeapSegment segment = segments.get(tasktype);
+                    if (segment != null) {
+                        result.put(tasktype, segment);
+                    }
+                }
+                return result.values();
             }
-            for (int j = writepos; j < size; j++) {
-                actuallist[j].taskid = 0;
-                actuallist[j].tasktype = 0;
-                actuallist[j].userid = null;
-                actuallist[j].groupid = 0;
-                actuallist[j].resources = null;
+            case PARTITIONING_GROUP: {
+                TreeMap<Integer, TasksHeapSegment> result = new TreeMap<>();
+                if (groups.contains(Task.GROUP_ANY)) {
+                    for (TasksHeapSegment segment : segments.values()) {
+                        if (!excludedGroups.contains(segment.key) || groups.contains(segment.key)) {
+                            result.put(segment.key, segment);
+                        }
+                    }
+                } else {
+                    for (Integer group : groups) {
+                        TasksHeapSegment segment = segments.get(group);
+                        if (segment != null) {
+                            result.put(group, segment);
+                        }
+                    }
+                }
+                return result.values();
             }
-
-            minValidPosition = 0;
-            actualsize = writepos + 1;
-            fragmentation = 0;
-            LOGGER.log(Level.FINEST, "after compaction, fragmentation " + fragmentation + ", actualsize " + actualsize + ", size " + size + ", minValidPosition " + minValidPosition);
-        } finally {
-            lock.writeLock().unlock();
+            default:
+                return segments.values();
         }
     }
 
@@ -338,6 +598,12 @@ public class TasksHeap {
         if (forAny != null) {
             availableSpaceByTaskTaskId.put(TasksHeap.TASKTYPE_ANYTASK, forAny);
         }
+        for (Map.Entry<String, Integer> entry : availableSpace.entrySet()) {
+            Integer typeId = taskTypesIds.get(entry.getKey());
+            if (typeId != null) {
+                availableSpaceByTaskTaskId.put(typeId, entry.getValue());
+            }
+        }
 
         Map<Integer, IntCounter> availableResourcesCounters = new HashMap<>();
 
@@ -347,68 +613,82 @@ public class TasksHeap {
             computeAvailableResources(workerResourceLimits, availableResourcesCounters, workerResourceUsageCounters);
         }
 
-        lock.writeLock().lock();
-        try {
+        Map<TasksChooser.IntTaskTypeUser, IntCounter> _availableSpacePerUser = null;
+        if (availableSpacePerUser != null) {
+            _availableSpacePerUser = new HashMap<>(availableSpacePerUser.size());
+            for (Map.Entry<TaskTypeUser, IntCounter> entry : availableSpacePerUser.entrySet()) {
+                TaskTypeUser taskTypeUser = entry.getKey();
+                Integer typeId = taskTypesIds.get(taskTypeUser.taskType);
+                Integer user = usersIds.get(taskTypeUser.userId);
+                if (typeId != null && user != null) {
+                    _availableSpacePerUser.put(new TasksChooser.IntTaskTypeUser(typeId, user), entry.getValue());
+                }
+            }
+        }
 
-            // global counters but be modified only inside this "global" lock
-            globalResourceUsageCounters.updateResourceCounters();
-            if (globalResourceLimits != null && !globalResourceLimits.isEmpty()) {
+        boolean useGlobalResourceLimits = globalResourceLimits != null && !globalResourceLimits.isEmpty();
+        if (useGlobalResourceLimits) {
+            // global limits are shared among every segment, we have to serialize assignments
+            globalResourcesLock.lock();
+        } else if (globalResourcesLock.tryLock()) {
+            // no need to serialize, just consume pending usages if no one else is doing it
+            try {
+                globalResourceUsageCounters.updateResourceCounters();
+            } finally {
+                globalResourcesLock.unlock();
+            }
+        }
+        List<TasksHeapSegment> locked;
+        List<AssignedTask> result;
+        try {
+            if (useGlobalResourceLimits) {
+                // global counters must be modified only inside the "global" lock
+                globalResourceUsageCounters.updateResourceCounters();
                 computeAvailableResources(globalResourceLimits, availableResourcesCounters, globalResourceUsageCounters);
             }
 
-            for (Map.Entry<String, Integer> entry : availableSpace.entrySet()) {
-                Integer typeId = taskTypesIds.get(entry.getKey());
-                if (typeId != null) {
-                    availableSpaceByTaskTaskId.put(typeId, entry.getValue());
-                }
+            // segments are always locked in key order, so we cannot deadlock
+            locked = new ArrayList<>(selectSegments(groups, excludedGroups, availableSpaceByTaskTaskId));
+            for (TasksHeapSegment segment : locked) {
+                segment.lock.writeLock().lock();
             }
-            Map<TasksChooser.IntTaskTypeUser, IntCounter> _availableSpacePerUser = null;
-
-            if (availableSpacePerUser != null) {
-                _availableSpacePerUser = new HashMap<>(availableSpacePerUser.size());
-                for (Map.Entry<TaskTypeUser, IntCounter> entry : availableSpacePerUser.entrySet()) {
-                    TaskTypeUser taskTypeUser = entry.getKey();
-                    Integer typeId = taskTypesIds.get(taskTypeUser.taskType);
-                    if (typeId != null) {
-                        _availableSpacePerUser.put(new TasksChooser.IntTaskTypeUser(typeId, taskTypeUser.userId), entry.getValue());
+            try {
+                ResourcesList[] _resourcesLists = resourcesLists;
+                TasksChooser chooser = new TasksChooser(groups, excludedGroups, availableSpaceByTaskTaskId, availableResourcesCounters, max,
+                    _availableSpacePerUser, maxThreadPerUserPerTaskTypePercent, _resourcesLists);
+                for (TasksHeapSegment segment : locked) {
+                    for (TasksHeapSegment.PositionsQueue queue : segment.queues.values()) {
+                        chooser.addQueue(segment, queue);
                     }
                 }
-            }
-
-            TasksChooser chooser = new TasksChooser(groups, excludedGroups, availableSpaceByTaskTaskId, availableResourcesCounters, max,
-                _availableSpacePerUser, maxThreadPerUserPerTaskTypePercent);
-            for (int i = minValidPosition; i < actualsize; i++) {
-                TaskEntry entry = this.actuallist[i];
-                if (entry.taskid > 0) {
-                    chooser.accept(i, entry);
-                }
-            }
-            List<TasksChooser.Entry> choosen = chooser.getChoosenTasks();
-            if (choosen.isEmpty()) {
-                return Collections.emptyList();
-            }
-            List<AssignedTask> result = new ArrayList<>();
-            for (TasksChooser.Entry choosenentry : choosen) {
-                int pos = choosenentry.position;
-                TaskEntry entry = this.actuallist[pos];
-                if (entry.taskid == choosenentry.taskid) {
-                    entry.taskid = 0;
-                    entry.tasktype = 0;
-                    entry.userid = null;
-                    this.fragmentation++;
-                    result.add(new AssignedTask(choosenentry.taskid, convertResourceListToIds(entry.resources), convertResourceListString(entry.resources)));
-                    if (pos == minValidPosition) {
-                        minValidPosition++;
+                List<TasksChooser.Entry> choosen = chooser.getChoosenTasks();
+                result = new ArrayList<>(choosen.size());
+                for (TasksChooser.Entry choosenentry : choosen) {
+                    int pos = choosenentry.position;
+                    TasksHeapSegment segment = choosenentry.segment;
+                    if (segment.taskids[pos] == choosenentry.taskid) {
+                        segment.clear(pos);
+                        ResourcesList resourcesList = _resourcesLists[segment.resources[pos]];
+                        if (resourcesList != null) {
+                            result.add(new AssignedTask(choosenentry.taskid, resourcesList.resourceIds, resourcesList.resourceIdsAsString));
+                        } else {
+                            result.add(new AssignedTask(choosenentry.taskid, null, null));
+                        }
                     }
                 }
+            } finally {
+                for (int i = locked.size() - 1; i >= 0; i--) {
+                    locked.get(i).lock.writeLock().unlock();
+                }
             }
-            if (this.fragmentation > maxFragmentation) {
-                runCompaction();
-            }
-            return result;
         } finally {
-            lock.writeLock().unlock();
+            if (useGlobalResourceLimits) {
+                globalResourcesLock.unlock();
+            }
         }
+        // compaction runs out of the locks of the assignment, other workers can take tasks between slices
+        runCompactionSlices(locked);
+        return result;
 
     }
 
@@ -446,12 +726,18 @@ public class TasksHeap {
 
     private Integer resolveResourceId(String resourceId) {
         Integer idresource = resourceMappings.get(resourceId);
-        if (idresource == null) {
-            idresource = resourceMappings.size() + 1;
-            resourceMappings.put(resourceId, idresource);
-            resourceIdMappings.put(idresource, resourceId);
+        if (idresource != null) {
+            return idresource;
+        }
+        synchronized (mappingsLock) {
+            idresource = resourceMappings.get(resourceId);
+            if (idresource == null) {
+                idresource = resourceMappings.size() + 1;
+                resourceIdMappings.put(idresource, resourceId);
+                resourceMappings.put(resourceId, idresource);
+            }
+            return idresource;
         }
-        return idresource;
     }
 
 }
@@ -0,0 +1,345 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A portion of the {@link TasksHeap}. Every segment has its own lock and its own array of entries, so that operations
+ * on different segments can run concurrently. When the heap is not partitioned there is only one segment.<br>
+ * Entries are indexed by FIFO queues of positions, one for each (groupid, tasktype) pair. Positions of entries which
+ * have been taken are dropped lazily.<br>
+ * Compaction is incremental: every slice moves live entries towards the beginning of the arrays and fixes their
+ * positions inside the index, so that the lock of the segment can be released between slices.<br>
+ * Every method must be called while holding the lock of the segment
+ *
+ * @author enrico.olivelli
+ */
+final class TasksHeapSegment {
+
+    private static final Logger LOGGER = Logger.getLogger(TasksHeapSegment.class.getName());
+
+    /**
+     * Number of slots processed by a compaction slice between two checks of the time budget
+     */
+    private static final int COMPACTION_CHECK_INTERVAL = 1024;
+
+    final int key;
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+
+    int actualsize;
+    int fragmentation;
+    int minValidPosition;
+    int size;
+
+    /*
+     * Entries are stored in parallel arrays of primitives, in order to keep the number of objects to be traced by the GC
+     * independent from the number of waiting tasks. Users and resources are stored as indexes of the dictionaries of
+     * the TasksHeap, 0 means "none". An empty slot has taskid = 0
+     */
+    long[] taskids;
+    int[] tasktypes;
+    int[] groupids;
+    int[] users;
+    int[] resources;
+    long[] sequences;
+    final Map<Long, PositionsQueue> queues = new HashMap<>();
+
+    /*
+     * State of the compaction in progress: entries before compactionWritePosition have already been compacted, slots
+     * between compactionWritePosition and compactionReadPosition are empty, entries from compactionReadPosition up to
+     * actualsize still have to be processed
+     */
+    boolean compacting;
+    int compactionReadPosition;
+    int compactionWritePosition;
+    private int compactionHoles;
+
+    TasksHeapSegment(int key, int size) {
+        this.key = key;
+        this.size = size;
+        this.taskids = new long[size];
+        this.tasktypes = new int[size];
+        this.groupids = new int[size];
+        this.users = new int[size];
+        this.resources = new int[size];
+        this.sequences = new long[size];
+    }
+
+    void insert(long taskid, int tasktype, int user, int groupid, int resourcesList, long sequence, int autoGrowPercent) {
+        if (actualsize == size) {
+            doAutoGrow(autoGrowPercent);
+        }
+        int pos = actualsize++;
+        taskids[pos] = taskid;
+        tasktypes[pos] = tasktype;
+        users[pos] = user;
+        groupids[pos] = groupid;
+        resources[pos] = resourcesList;
+        sequences[pos] = sequence;
+        index(pos);
+    }
+
+    private void index(int pos) {
+        int groupid = groupids[pos];
+        int tasktype = tasktypes[pos];
+        long queueKey = (((long) groupid) << 32) | (tasktype & 0xFFFFFFFFL);
+        PositionsQueue queue = queues.get(queueKey);
+        if (queue == null) {
+            queue = new PositionsQueue(groupid, tasktype);
+            queues.put(queueKey, queue);
+        }
+        queue.add(pos);
+        if (compacting && pos < compactionWritePosition) {
+            // the index is being rebuilt during a compaction, this position is already final
+            queue.compactionCursor = queue.tail;
+        }
+    }
+
+    void rebuildIndex() {
+        queues.clear();
+        for (int i = minValidPosition; i < actualsize; i++) {
+            if (taskids[i] > 0) {
+                index(i);
+            }
+        }
+    }
+
+    boolean isIndexed(int pos, PositionsQueue queue) {
+        return pos >= 0 && taskids[pos] > 0 && groupids[pos] == queue.groupid && tasktypes[pos] == queue.tasktype;
+    }
+
+    /**
+     * Drops positions of entries which are no more valid from the head of the queue
+     *
+     * @param queue
+     */
+    void skipStale(PositionsQueue queue) {
+        while (queue.head < queue.tail && !isIndexed(queue.positions[queue.head], queue)) {
+            queue.head++;
+        }
+        if (queue.head == queue.tail) {
+            queue.head = 0;
+            queue.tail = 0;
+            queue.compactionCursor = 0;
+        }
+    }
+
+    void clear(int pos) {
+        taskids[pos] = 0;
+        tasktypes[pos] = 0;
+        users[pos] = 0;
+        this.fragmentation++;
+        if (compacting) {
+            // entries are moving backwards, minValidPosition stays at 0 until the end of the compaction
+            if (pos < compactionWritePosition) {
+                compactionHoles++;
+            }
+        } else if (pos == minValidPosition) {
+            minValidPosition++;
+        }
+    }
+
+    private void doAutoGrow(int autoGrowPercent) {
+        int delta = (int) (((size * 1L * autoGrowPercent)) / 100);
+        if (delta <= 0) {
+            // be sure taht we always increment by one, in tore to have space for a new task
+            delta = 1;
+        }
+        int newSize = size + delta;
+        LOGGER.log(Level.SEVERE, "doAutoGrow segment {0} size {1}, newsize {2}", new Object[]{key, size, newSize});
+        this.taskids = Arrays.copyOf(taskids, newSize);
+        this.tasktypes = Arrays.copyOf(tasktypes, newSize);
+        this.groupids = Arrays.copyOf(groupids, newSize);
+        this.users = Arrays.copyOf(users, newSize);
+        this.resources = Arrays.copyOf(resources, newSize);
+        this.sequences = Arrays.copyOf(sequences, newSize);
+        this.size = newSize;
+    }
+
+    private void move(int from, int to) {
+        taskids[to] = taskids[from];
+        tasktypes[to] = tasktypes[from];
+        users[to] = users[from];
+        groupids[to] = groupids[from];
+        resources[to] = resources[from];
+        sequences[to] = sequences[from];
+        taskids[from] = 0;
+        tasktypes[from] = 0;
+        users[from] = 0;
+        groupids[from] = 0;
+        resources[from] = 0;
+        sequences[from] = 0;
+    }
+
+    private void wipe(int pos) {
+        groupids[pos] = 0;
+        resources[pos] = 0;
+        sequences[pos] = 0;
+    }
+
+    void startCompaction() {
+        LOGGER.log(Level.FINEST, "starting compaction on segment " + key + ", "
+            + "fragmentation " + fragmentation + ", actualsize " + actualsize
+            + ", size " + size + ", minValidPosition " + minValidPosition);
+        compacting = true;
+        compactionReadPosition = 0;
+        compactionWritePosition = 0;
+        compactionHoles = 0;
+        minValidPosition = 0;
+        for (PositionsQueue queue : queues.values()) {
+            queue.compactionCursor = queue.head;
+        }
+    }
+
+    /**
+     * Runs a slice of the compaction in progress.
+     *
+     * @param maxTime maximum duration of the slice, in nanoseconds, 0 means that the compaction has to be completed
+     * @return the number of empty slots which have been reclaimed
+     */
+    int runCompactionSlice(long maxTime) {
+        long deadline = System.nanoTime() + maxTime;
+        int read = compactionReadPosition;
+        int write = compactionWritePosition;
+        PositionsQueue queue = null;
+        while (read < actualsize) {
+            int end = Math.min(actualsize, read + COMPACTION_CHECK_INTERVAL);
+            for (; read < end; read++) {
+                if (taskids[read] > 0) {
+                    if (queue == null || queue.groupid != groupids[read] || queue.tasktype != tasktypes[read]) {
+                        queue = queues.get((((long) groupids[read]) << 32) | (tasktypes[read] & 0xFFFFFFFFL));
+                    }
+                    if (read != write) {
+                        move(read, write);
+                    }
+                    if (queue != null) {
+                        relocate(queue, read, write);
+                    }
+                    write++;
+                } else {
+                    wipe(read);
+                }
+            }
+            if (maxTime > 0 && System.nanoTime() - deadline >= 0) {
+                break;
+            }
+        }
+        int reclaimed = (read - write) - (compactionReadPosition - compactionWritePosition);
+        compactionReadPosition = read;
+        compactionWritePosition = write;
+        if (read == actualsize) {
+            finishCompaction();
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Moves the position of an entry inside its queue. Positions of the queue are sorted, so every position before the
+     * one of the entry which has not been processed yet refers to an entry which is no more in the segment
+     */
+    private static void relocate(PositionsQueue queue, int from, int to) {
+        int cursor = Math.max(queue.compactionCursor, queue.head);
+        int[] positions = queue.positions;
+        while (cursor < queue.tail && positions[cursor] < from) {
+            positions[cursor++] = -1;
+        }
+        if (cursor < queue.tail && positions[cursor] == from) {
+            positions[cursor++] = to;
+        }
+        queue.compactionCursor = cursor;
+    }
+
+    private void finishCompaction() {
+        for (PositionsQueue queue : queues.values()) {
+            // positions which have not been processed refer to entries which are no more in the segment
+            queue.tail = Math.max(queue.compactionCursor, queue.head);
+            queue.compactionCursor = 0;
+            if (queue.head == queue.tail) {
+                queue.head = 0;
+                queue.tail = 0;
+            }
+        }
+        compacting = false;
+        minValidPosition = 0;
+        actualsize = Math.min(compactionWritePosition + 1, size);
+        fragmentation = compactionHoles;
+        LOGGER.log(Level.FINEST, "after compaction on segment " + key + ", fragmentation " + fragmentation + ", actualsize " + actualsize + ", size " + size + ", minValidPosition " + minValidPosition);
+    }
+
+    /**
+     * Runs a full compaction, including the completion of the compaction in progress, if any
+     */
+    void runCompaction() {
+        if (!compacting) {
+            startCompaction();
+        }
+        runCompactionSlice(0);
+    }
+
+    /**
+     * FIFO queue of positions of the entries with the same groupid and tasktype
+     */
+    static final class PositionsQueue {
+
+        final int groupid;
+        final int tasktype;
+        int[] positions = new int[8];
+        int head;
+        int tail;
+        int compactionCursor;
+
+        PositionsQueue(int groupid, int tasktype) {
+            this.groupid = groupid;
+            this.tasktype = tasktype;
+        }
+
+        void add(int pos) {
+            if (tail == positions.length) {
+                if (head >= positions.length / 2) {
+                    System.arraycopy(positions, head, positions, 0, tail - head);
+                    tail -= head;
+                    compactionCursor = Math.max(0, compactionCursor - head);
+                    head = 0;
+                } else {
+                    positions = Arrays.copyOf(positions, positions.length * 2);
+                }
+            }
+            positions[tail++] = pos;
+        }
+
+        @Override
+        public String toString() {
+            return "PositionsQueue{" + "groupid=" + groupid + ", tasktype=" + tasktype + ", size=" + (tail - head) + '}';
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return "TasksHeapSegment{" + "key=" + key + ", actualsize=" + actualsize + ", fragmentation=" + fragmentation + ", size=" + size + ", compacting=" + compacting + '}';
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongPredicate;
+
+/**
+ * Index of task ids by time (deadline, creation time...), grouped in buckets of fixed duration and ordered by time.
+ * Entries are not removed when the task changes, the visitor decides which entries are still valid. This class is
+ * not thread safe, it is guarded by the lock of the {@link BrokerStatus}
+ *
+ * @author enrico.olivelli
+ */
+final class TimeBucketsIndex {
+
+    private final long bucketDuration;
+    private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+    private int size;
+
+    private static final class Bucket {
+
+        private long[] taskIds = new long[8];
+        private int size;
+
+        private void add(long taskId) {
+            if (size == taskIds.length) {
+                taskIds = Arrays.copyOf(taskIds, size * 2);
+            }
+            taskIds[size++] = taskId;
+        }
+    }
+
+    TimeBucketsIndex(long bucketDuration) {
+        this.bucketDuration = bucketDuration;
+    }
+
+    void add(long time, long taskId) {
+        long key = time / bucketDuration;
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets.put(key, bucket);
+        }
+        bucket.add(taskId);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Visits the entries of the buckets which may contain times lower or equal to maxTime, in time order. Entries for
+     * which the predicate returns false are removed from the index. The visit proceeds bucket by bucket and stops as
+     * soon as at least maxVisits entries have been visited
+     *
+     * @param fromBucket the first bucket to visit, 0 to start from the beginning
+     * @param maxTime
+     * @param maxVisits
+     * @param retain
+     * @return the bucket from which to continue the visit, or -1 if there are no more buckets to visit
+     */
+    long visit(long fromBucket, long maxTime, int maxVisits, LongPredicate retain) {
+        long lastBucket = maxTime / bucketDuration;
+        if (fromBucket > lastBucket) {
+            return -1;
+        }
+        int visited = 0;
+        Iterator<Map.Entry<Long, Bucket>> it = buckets.subMap(fromBucket, true, lastBucket, true).entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Bucket> entry = it.next();
+            Bucket bucket = entry.getValue();
+            int retained = 0;
+            for (int i = 0; i < bucket.size; i++) {
+                long taskId = bucket.taskIds[i];
+                if (retain.test(taskId)) {
+                    bucket.taskIds[retained++] = taskId;
+                }
+            }
+            visited += bucket.size;
+            size -= bucket.size - retained;
+            bucket.size = retained;
+            if (retained == 0) {
+                it.remove();
+            }
+            if (visited >= maxVisits) {
+                long next = entry.getKey() + 1;
+                return next <= lastBucket ? next : -1;
+            }
+        }
+        return -1;
+    }
+}
@@ -19,6 +19,7 @@
  */
 package majordodo.task;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -26,8 +27,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,13 +46,13 @@ public class WorkerManager {
 
     private final String workerId;
     private final Broker broker;
-    private BrokerSideConnection connection;
+    private volatile BrokerSideConnection connection;
     private final int maxWorkerIdleTime;
     private final ResourceUsageCounters resourceUsageCounters;
 
     private int maxThreads = 0;
     private int maxThreadPerUserPerTaskTypePercent = 0;
-    private Map<String, Integer> maxThreadsByTaskType = Collections.emptyMap();
+    private volatile Map<String, Integer> maxThreadsByTaskType = Collections.emptyMap();
     private List<Integer> groups = Collections.emptyList();
     private Set<Integer> excludedGroups = Collections.emptySet();
     private Map<String, Integer> resourceLimis = Collections.emptyMap();
@@ -66,13 +69,23 @@ public class WorkerManager {
         this.resourceUsageCounters = new ResourceUsageCounters("worker-" + workerId + "-" + broker.getBrokerId());
     }
 
-    public void applyConfiguration(int maxThreads,
+    /**
+     * Applies the configuration sent by the worker
+     *
+     * @return true if the configuration changed
+     */
+    public boolean applyConfiguration(int maxThreads,
         Map<String, Integer> maxThreadsByTaskType,
         List<Integer> groups,
         Set<Integer> excludedGroups,
         Map<String, Integer> resourceLimis,
         int maxThreadPerUserPerTaskTypePercent) {
         LOGGER.log(Level.FINEST, "{0} applyConfiguration maxThreads {1} maxThreadPerUserPerTaskTypePercent {2} ", new Object[]{workerId, maxThreads});
+        boolean changed = this.maxThreads != maxThreads
+            || this.maxThreadPerUserPerTaskTypePercent != maxThreadPerUserPerTaskTypePercent
+            || !this.groups.equals(groups)
+            || !this.excludedGroups.equals(excludedGroups)
+            || !this.resourceLimis.equals(resourceLimis);
         this.maxThreads = maxThreads;
         this.maxThreadPerUserPerTaskTypePercent = maxThreadPerUserPerTaskTypePercent;
         Map<String, Integer> maxThreadsByTaskTypeNoZero = new HashMap<>(maxThreadsByTaskType);
@@ -82,10 +95,12 @@ public class WorkerManager {
                 it.remove();
             }
         }
+        changed = changed || !this.maxThreadsByTaskType.equals(maxThreadsByTaskTypeNoZero);
         this.maxThreadsByTaskType = maxThreadsByTaskTypeNoZero;
         this.groups = groups;
         this.excludedGroups = excludedGroups;
         this.resourceLimis = resourceLimis;
+        return changed;
     }
 
     private void requestNewTasks() {
@@ -93,7 +108,7 @@ public class WorkerManager {
         int max = this.maxThreads;
         try {
             Map<String, Integer> availableSpace = new HashMap<>(this.maxThreadsByTaskType);
-            int actuallyRunning = broker.getBrokerStatus().applyRunningTasksFilterToAssignTasksRequest(workerId, availableSpace);
+            int actuallyRunning = broker.getBrokerStatus().applyRunningTasksFilterToAssignTasksRequest(workerId, availableSpace, releasedTasks);
             LOGGER.log(Level.FINEST, "{0} requestNewTasks actuallyRunning {2} max {3} groups {4},excludedGroups {5} availableSpace {1}, maxThreadsByTaskType {6}, maxThreadPerUserPerTaskTypePercent {7} ",
                 new Object[]{workerId, availableSpace + "", actuallyRunning, max, groups, excludedGroups, maxThreadsByTaskType, maxThreadPerUserPerTaskTypePercent});
             max = max - actuallyRunning;
@@ -119,14 +134,48 @@ public class WorkerManager {
         return broker;
     }
 
-    private volatile boolean threadAssigned;
+    private final AtomicBoolean threadAssigned = new AtomicBoolean();
+    private final AtomicBoolean wakeUpRequested = new AtomicBoolean();
 
     public boolean isThreadAssigned() {
-        return threadAssigned;
+        return threadAssigned.get();
     }
 
-    public void threadAssigned() {
-        threadAssigned = true;
+    /**
+     * Requests a run of this manager. Requests received while the manager is running are coalesced into a single new
+     * run.
+     *
+     * @return true if the caller has to submit {@link #operation() } to the threadpool
+     */
+    boolean wakeUp() {
+        wakeUpRequested.set(true);
+        return threadAssigned.compareAndSet(false, true);
+    }
+
+    void operationRejected() {
+        threadAssigned.set(false);
+    }
+
+    /**
+     * Tells whether the worker could run tasks of the given type, according to its configuration
+     *
+     * @param taskType
+     * @return
+     */
+    boolean acceptsTaskType(String taskType) {
+        Map<String, Integer> _maxThreadsByTaskType = maxThreadsByTaskType;
+        return _maxThreadsByTaskType.containsKey(taskType) || _maxThreadsByTaskType.containsKey(Task.TASKTYPE_ANY);
+    }
+
+    /**
+     * Tells whether the worker has an active connection, managers without connection need periodic checks in order to
+     * detect dead workers
+     *
+     * @return
+     */
+    boolean isConnectionActive() {
+        BrokerSideConnection _connection = connection;
+        return _connection != null && _connection.validate();
     }
 
     public Runnable operation() {
@@ -134,12 +183,21 @@ public class WorkerManager {
             @Override
             public void run() {
                 String name = Thread.currentThread().getName();
+                boolean running = true;
                 try {
                     Thread.currentThread().setName(name + "_" + workerId);
-                    manageWorker();
+                    while (running) {
+                        wakeUpRequested.set(false);
+                        manageWorker();
+                        threadAssigned.set(false);
+                        // run again if someone woke up the manager in the meantime
+                        running = wakeUpRequested.get() && threadAssigned.compareAndSet(false, true);
+                    }
                 } finally {
+                    if (running) {
+                        threadAssigned.set(false);
+                    }
                     Thread.currentThread().setName(name);
-                    threadAssigned = false;
                 }
             }
         };
@@ -180,6 +238,7 @@ public class WorkerManager {
                             LOGGER.log(Level.SEVERE, "wakeup {0} -> requesting recovery for tasks {1}", new Object[]{workerId, tasksRunningOnRemoteWorker});
                             broker.tasksNeedsRecoveryDueToWorkerDeath(tasksRunningOnRemoteWorker, workerId);
                             tasksRunningOnRemoteWorker.clear();
+                            releasedTasks.clear();
                         }
                     }
                 } catch (LogNotAvailableException err) {
@@ -189,8 +248,15 @@ public class WorkerManager {
                 if (lastActivity < connection.getLastReceivedMessageTs()) {
                     lastActivity = connection.getLastReceivedMessageTs();
                 }
+                if (!connection.isWritable()) {
+                    // backpressure, the connection will wake us up as soon as the socket drains
+                    LOGGER.log(Level.FINE, "wakeup {0} -> connection is not writable, not assigning tasks", workerId);
+                    return;
+                }
                 LOGGER.log(Level.FINEST, "wakeup {0}, lastActivity {1}  taskToBeSubmittedToRemoteWorker {2} tasksRunningOnRemoteWorker {3}", new Object[]{workerId, new java.util.Date(lastActivity), taskToBeSubmittedToRemoteWorker, tasksRunningOnRemoteWorker});
                 requestNewTasks();
+                List<AssignedTask> assignments = new ArrayList<>();
+                List<Task> tasks = new ArrayList<>();
                 int max = 100;
                 while (max-- > 0) {
                     AssignedTask taskToBeSubmitted = taskToBeSubmittedToRemoteWorker.poll();
@@ -204,18 +270,11 @@ public class WorkerManager {
                         } else {
                             if (tasksRunningOnRemoteWorker.contains(taskToBeSubmitted.taskid)) {
                                 LOGGER.log(Level.SEVERE, "wakeup {0} -> assign task {1}, task {2} is already running on worker", new Object[]{workerId, taskToBeSubmitted, task});
-                                return;
+                                break;
                             }
                             if (task.getStatus() == Task.STATUS_RUNNING && task.getWorkerId().equals(workerId)) {
-                                connection.sendTaskAssigned(task, (Void result, Throwable error) -> {
-                                    if (error != null) {
-                                        // the write failed
-                                        LOGGER.log(Level.SEVERE, "wakeup {0} -> assign task {1}, task {2} network failure, rescheduling for retry:{3}", new Object[]{workerId, taskToBeSubmitted, task, error});
-                                        taskToBeSubmittedToRemoteWorker.add(taskToBeSubmitted);
-                                    } else {
-                                        tasksRunningOnRemoteWorker.add(taskToBeSubmitted.taskid);
-                                    }
-                                });
+                                assignments.add(taskToBeSubmitted);
+                                tasks.add(task);
                             } else {
                                 LOGGER.log(Level.SEVERE, "wakeup {0} -> assign task {1}, task {2} not in running status for this worker", new Object[]{workerId, taskToBeSubmitted, task});
                             }
@@ -224,14 +283,59 @@ public class WorkerManager {
                         break;
                     }
                 }
-
+                sendTasksAssigned(assignments, tasks);
+                if (!taskToBeSubmittedToRemoteWorker.isEmpty()) {
+                    // run again as soon as possible, without waiting for other events
+                    wakeUpRequested.set(true);
+                }
             }
         } finally {
             connectionLock.unlock();
         }
     }
 
+    /**
+     * Sends the tasks to the worker, all in one message if the worker supports it
+     */
+    private void sendTasksAssigned(List<AssignedTask> assignments, List<Task> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        if (connection.isBatchedAssignmentsSupported()) {
+            connection.sendTasksAssigned(tasks, (Void result, Throwable error) -> {
+                if (error != null) {
+                    // the write failed
+                    LOGGER.log(Level.SEVERE, "wakeup {0} -> assign tasks {1} network failure, rescheduling for retry:{2}", new Object[]{workerId, assignments, error});
+                    taskToBeSubmittedToRemoteWorker.addAll(assignments);
+                } else {
+                    for (AssignedTask assignment : assignments) {
+                        tasksRunningOnRemoteWorker.add(assignment.taskid);
+                    }
+                }
+            });
+            return;
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            AssignedTask taskToBeSubmitted = assignments.get(i);
+            Task task = tasks.get(i);
+            connection.sendTaskAssigned(task, (Void result, Throwable error) -> {
+                if (error != null) {
+                    // the write failed
+                    LOGGER.log(Level.SEVERE, "wakeup {0} -> assign task {1}, task {2} network failure, rescheduling for retry:{3}", new Object[]{workerId, taskToBeSubmitted, task, error});
+                    taskToBeSubmittedToRemoteWorker.add(taskToBeSubmitted);
+                } else {
+                    tasksRunningOnRemoteWorker.add(taskToBeSubmitted.taskid);
+                }
+            });
+        }
+    }
+
     private final Set<Long> tasksRunningOnRemoteWorker = new ConcurrentSkipListSet<>();
+    /**
+     * Tasks which are finished on the worker, whose slot has been given back as a credit, but whose final status has
+     * not been notified yet
+     */
+    private final Set<Long> releasedTasks = ConcurrentHashMap.newKeySet();
     private final BlockingQueue<AssignedTask> taskToBeSubmittedToRemoteWorker = new LinkedBlockingDeque<>();
 
     public void activateConnection(BrokerSideConnection connection) {
@@ -278,6 +382,21 @@ public class WorkerManager {
 
     void taskFinished(long taskId) {
         tasksRunningOnRemoteWorker.remove(taskId);
+        releasedTasks.remove(taskId);
+    }
+
+    /**
+     * Credits sent by the worker, the slots of these tasks can be used for new tasks even if the worker did not notify
+     * yet the final status of the tasks
+     *
+     * @param taskIds
+     */
+    void tasksReleased(List<Long> taskIds) {
+        for (Long taskId : taskIds) {
+            if (tasksRunningOnRemoteWorker.contains(taskId)) {
+                releasedTasks.add(taskId);
+            }
+        }
     }
 
     void releaseResources(String[] resourceIds) {
@@ -292,4 +411,24 @@ public class WorkerManager {
         return resourceLimis;
     }
 
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getMaxThreadPerUserPerTaskTypePercent() {
+        return maxThreadPerUserPerTaskTypePercent;
+    }
+
+    public Map<String, Integer> getMaxThreadsByTaskType() {
+        return maxThreadsByTaskType;
+    }
+
+    public List<Integer> getGroups() {
+        return groups;
+    }
+
+    public Set<Integer> getExcludedGroups() {
+        return excludedGroups;
+    }
+
 }
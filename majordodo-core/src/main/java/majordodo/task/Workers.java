@@ -31,6 +31,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -50,11 +51,18 @@ public class Workers {
     private final Thread workersActivityThread;
     private volatile boolean stop;
     private final ExecutorService workersThreadpool;
+    private final long pollingPeriod;
 
     private final Object waitForEvent = new Object();
 
+    /**
+     * Period of the checks on workers without an active connection
+     */
+    private static final long DISCONNECTED_WORKERS_CHECK_PERIOD = 500;
+
     public Workers(Broker broker) {
         this.broker = broker;
+        this.pollingPeriod = broker.getConfiguration().getWorkersPollingPeriod();
         this.workersActivityThread = new Thread(new Life(), "workers-life");
         this.workersThreadpool = Executors.newFixedThreadPool(broker.getConfiguration().getWorkersThreadpoolSize(), new ThreadFactory() {
             @Override
@@ -106,7 +114,9 @@ public class Workers {
 
     public void stop() {
         stop = true;
-        wakeUp();
+        synchronized (waitForEvent) {
+            waitForEvent.notify();
+        }
         try {
             workersActivityThread.join();
         } catch (InterruptedException exit) {
@@ -114,31 +124,34 @@ public class Workers {
         workersThreadpool.shutdown();
     }
 
+    /**
+     * Managers are woken up by events (new tasks, finished tasks, connections). This thread only checks workers
+     * without an active connection, in order to detect dead workers, and, if configured, periodically wakes up every
+     * manager
+     */
     private class Life implements Runnable {
 
         @Override
         public void run() {
             try {
+                long lastPoll = System.currentTimeMillis();
                 while (!stop) {
                     synchronized (waitForEvent) {
-                        waitForEvent.wait(500);
+                        waitForEvent.wait(DISCONNECTED_WORKERS_CHECK_PERIOD);
                     }
-                    List<WorkerManager> managers;
-                    lock.readLock().lock();
-                    try {
-                        managers = new ArrayList<>(nodeManagers.values());
-                    } finally {
-                        lock.readLock().unlock();
+                    if (stop) {
+                        break;
                     }
-                    Collections.shuffle(managers);
+                    long now = System.currentTimeMillis();
+                    boolean poll = pollingPeriod > 0 && now - lastPoll >= pollingPeriod;
+                    if (poll) {
+                        lastPoll = now;
+                    }
+                    List<WorkerManager> managers = getAllWorkerManagers();
+                    Collections.shuffle(managers, ThreadLocalRandom.current());
                     for (WorkerManager man : managers) {
-                        if (!man.isThreadAssigned()) {
-                            man.threadAssigned();
-                            try {
-                                workersThreadpool.submit(man.operation());
-                            } catch (RejectedExecutionException rejected) {
-                                LOGGER.log(Level.SEVERE, "workers manager rejected task", rejected);
-                            }
+                        if (poll || !man.isConnectionActive()) {
+                            wakeUp(man);
                         }
                     }
                 }
@@ -150,9 +163,70 @@ public class Workers {
         }
     }
 
+    private List<WorkerManager> getAllWorkerManagers() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(nodeManagers.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void wakeUp(WorkerManager man) {
+        if (man.wakeUp()) {
+            try {
+                workersThreadpool.submit(man.operation());
+            } catch (RejectedExecutionException rejected) {
+                man.operationRejected();
+                if (!stop) {
+                    LOGGER.log(Level.SEVERE, "workers manager rejected task", rejected);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wakes up every manager
+     */
     public void wakeUp() {
-        synchronized (waitForEvent) {
-            waitForEvent.notify();
+        for (WorkerManager man : getAllWorkerManagers()) {
+            wakeUp(man);
+        }
+    }
+
+    /**
+     * Wakes up the manager of a worker, for instance because some of its tasks finished
+     *
+     * @param workerId
+     */
+    public void wakeUpWorker(String workerId) {
+        WorkerManager man = getWorkerManagerNoCreate(workerId);
+        if (man != null) {
+            wakeUp(man);
+        }
+    }
+
+    /**
+     * Wakes up the managers of the connected workers which may run tasks of the given types
+     *
+     * @param taskTypes
+     */
+    public void tasksAvailable(Collection<String> taskTypes) {
+        if (taskTypes.isEmpty()) {
+            return;
+        }
+        List<WorkerManager> managers = getAllWorkerManagers();
+        Collections.shuffle(managers, ThreadLocalRandom.current());
+        for (WorkerManager man : managers) {
+            if (!man.isConnectionActive()) {
+                continue;
+            }
+            for (String taskType : taskTypes) {
+                if (man.acceptsTaskType(taskType)) {
+                    wakeUp(man);
+                    break;
+                }
+            }
         }
     }
 
@@ -162,6 +162,22 @@ public class ExtendedDataInputStream extends DataInputStream {
         }
     }
 
+    /**
+     * Reads a long written with {@link ExtendedDataOutputStream#writeZLong(long)}
+     */
+    public long readZLong() throws IOException {
+        long i = readVLong(true);
+        return (i >>> 1) ^ -(i & 1);
+    }
+
+    /**
+     * Reads an int written with {@link ExtendedDataOutputStream#writeZInt(int)}
+     */
+    public int readZInt() throws IOException {
+        int i = readVInt();
+        return (i >>> 1) ^ -(i & 1);
+    }
+
     private static final byte[] EMPTY_ARRAY = new byte[0];
 
     public byte[] readArray() throws IOException {
@@ -66,6 +66,25 @@ public final class ExtendedDataOutputStream extends DataOutputStream {
         writeByte((byte) i);
     }
     
+    /**
+     * Writes a long using zig-zag encoding, so that small negative values take
+     * few bytes too. Writes between one and ten bytes.
+     *
+     * @see ExtendedDataInputStream#readZLong()
+     */
+    public final void writeZLong(long i) throws IOException {
+        writeSignedVLong((i << 1) ^ (i >> 63));
+    }
+
+    /**
+     * Writes an int using zig-zag encoding. Writes between one and five bytes.
+     *
+     * @see ExtendedDataInputStream#readZInt()
+     */
+    public final void writeZInt(int i) throws IOException {
+        writeVInt((i << 1) ^ (i >> 31));
+    }
+
     public void writeArray(byte[] data) throws IOException {
         writeVInt(data.length);
         write(data);
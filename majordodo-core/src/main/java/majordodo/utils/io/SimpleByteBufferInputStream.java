@@ -0,0 +1,79 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.utils.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A very simple InputStream which reads the remaining bytes of a ByteBuffer without copying them, the position of the
+ * buffer is advanced
+ *
+ * @author enrico.olivelli
+ */
+public final class SimpleByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buf;
+
+    public SimpleByteBufferInputStream(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    @Override
+    public int read() {
+        return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (!buf.hasRemaining()) {
+            return -1;
+        }
+
+        int avail = buf.remaining();
+        if (len > avail) {
+            len = avail;
+        }
+        if (len <= 0) {
+            return 0;
+        }
+        buf.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) {
+        int toSkip = (int) Math.max(0, Math.min(n, buf.remaining()));
+        buf.position(buf.position() + toSkip);
+        return toSkip;
+    }
+
+    @Override
+    public int available() {
+        return buf.remaining();
+    }
+
+}
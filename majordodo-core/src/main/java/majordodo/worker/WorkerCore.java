@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import majordodo.network.BrokerRejectedConnectionException;
 import majordodo.network.BrokerNotAvailableException;
 import majordodo.network.BrokerLocator;
@@ -37,6 +38,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
@@ -75,6 +77,10 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
     private WorkerStatusListener listener;
     private KillWorkerHandler killWorkerHandler = KillWorkerHandler.GRACEFULL_STOP;
     private Callable<Void> externalProcessChecker; // PIDFILECHECKER
+    private volatile boolean brokerAcceptsCredits;
+    private volatile boolean brokerAcceptsDeltaPing;
+    private Map<String, Object> lastAdvertisedConfiguration = Collections.emptyMap();
+    private final BlockingQueue<Long> pendingCredits = new LinkedBlockingQueue<>();
 
     public CodePoolClassloadersManager getClassloadersManager() {
         return classloadersManager;
@@ -173,9 +179,23 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
         lastPingSent = now;
         Channel _channel = channel;
         if (_channel != null) {
-            _channel.sendOneWayMessage(Message.WORKER_PING(
-                processId, config.getGroups(), config.getExcludedGroups(), config.getMaxThreadsByTaskType(), config.getMaxThreads(), config.getResourcesLimits(),
-                config.getMaxThreadPerUserPerTaskTypePercent()),
+            Message ping;
+            if (brokerAcceptsDeltaPing) {
+                Map<String, Object> actualConfiguration = describeConfiguration();
+                Map<String, Object> changes = new HashMap<>();
+                actualConfiguration.forEach((key, value) -> {
+                    if (!Objects.equals(value, lastAdvertisedConfiguration.get(key))) {
+                        changes.put(key, value);
+                    }
+                });
+                lastAdvertisedConfiguration = actualConfiguration;
+                ping = Message.WORKER_PING_DELTA(processId, changes);
+            } else {
+                ping = Message.WORKER_PING(
+                    processId, config.getGroups(), config.getExcludedGroups(), config.getMaxThreadsByTaskType(), config.getMaxThreads(), config.getResourcesLimits(),
+                    config.getMaxThreadPerUserPerTaskTypePercent());
+            }
+            _channel.sendOneWayMessage(ping,
                 (Message originalMessage, Throwable error) -> {
                     if (error != null) {
                         if (!stopped) {
@@ -189,6 +209,64 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
         }
     }
 
+    /**
+     * Snapshot of the configuration which is advertised to the broker, with the same keys used by
+     * {@link Message#WORKER_PING}
+     */
+    private Map<String, Object> describeConfiguration() {
+        Map<String, Object> res = new HashMap<>();
+        res.put("groups", config.getGroups() != null ? new ArrayList<>(config.getGroups()) : null);
+        res.put("excludedGroups", config.getExcludedGroups() != null ? new HashSet<>(config.getExcludedGroups()) : null);
+        res.put("maxThreadsByTaskType", config.getMaxThreadsByTaskType() != null ? new HashMap<>(config.getMaxThreadsByTaskType()) : null);
+        res.put("maxThreads", config.getMaxThreads());
+        res.put("resources", config.getResourcesLimits() != null ? new HashMap<>(config.getResourcesLimits()) : null);
+        res.put("maxThreadPerUserPerTaskTypePercent", config.getMaxThreadPerUserPerTaskTypePercent());
+        return res;
+    }
+
+    /**
+     * Gives back to the broker the slot of a finished task, without waiting for the notification of the final status
+     * of the task, which is batched
+     *
+     * @param taskId
+     */
+    private void releaseCredit(long taskId) {
+        if (!brokerAcceptsCredits) {
+            return;
+        }
+        pendingCredits.add(taskId);
+        List<Long> releasedTasks = new ArrayList<>();
+        pendingCredits.drainTo(releasedTasks);
+        if (releasedTasks.isEmpty()) {
+            // sent by another thread
+            return;
+        }
+        Channel _channel = channel;
+        if (_channel != null) {
+            _channel.sendOneWayMessage(Message.WORKER_CREDITS(processId, releasedTasks),
+                (Message originalMessage, Throwable error) -> {
+                    if (error != null) {
+                        // not a problem, the slots will be released with the notification of the final status
+                        LOGGER.log(Level.FINE, "credits error " + error);
+                    }
+                });
+        }
+    }
+
+    @Override
+    public Map<String, Object> getProtocolFeatures() {
+        return Collections.singletonMap(Message.FEATURE_BATCHED_ASSIGNMENTS, 1);
+    }
+
+    @Override
+    public void connectionAccepted(Map<String, Object> ackParameters) {
+        brokerAcceptsCredits = Integer.valueOf(1).equals(ackParameters.get(Message.FEATURE_CREDITS));
+        brokerAcceptsDeltaPing = Integer.valueOf(1).equals(ackParameters.get(Message.FEATURE_DELTA_PING));
+        // the connection request carries the whole configuration
+        lastAdvertisedConfiguration = describeConfiguration();
+        LOGGER.log(Level.FINE, "connection accepted, credits {0}, delta ping {1}", new Object[]{brokerAcceptsCredits, brokerAcceptsDeltaPing});
+    }
+
     private WorkerCoreConfiguration config;
 
     public WorkerCore(
@@ -258,7 +336,10 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
             return;
         }
         if (message.type == Message.TYPE_TASK_ASSIGNED) {
-            startTask(message);
+            startTasks(Collections.singletonList(message.parameters));
+        }
+        if (message.type == Message.TYPE_TASKS_ASSIGNED) {
+            startTasks((List<Map<String, Object>>) message.parameters.get("tasks"));
         }
     }
 
@@ -287,6 +368,7 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
                         runningTasksLock.writeLock().unlock();
                     }
                     pendingFinishedTaskNotifications.add(new FinishedTaskNotification(taskId, finalStatus, results, error));
+                    releaseCredit(taskId);
                     break;
                 case TaskExecutorStatus.RUNNING:
                     break;
@@ -332,17 +414,19 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
         }
     }
 
-    private void startTask(Message message) {
-        Long taskid = (Long) message.parameters.get("taskid");
-        String tasktype = (String) message.parameters.get("tasktype");
+    private void startTasks(List<Map<String, Object>> tasksData) {
         runningTasksLock.writeLock().lock();
         try {
-            runningTasks.put(taskid, tasktype);
+            for (Map<String, Object> taskData : tasksData) {
+                runningTasks.put((Long) taskData.get("taskid"), (String) taskData.get("tasktype"));
+            }
         } finally {
             runningTasksLock.writeLock().unlock();
         }
-        ExecutorRunnable runnable = new ExecutorRunnable(this, taskid, message.parameters, executionCallback);
-        threadpool.submit(runnable);
+        for (Map<String, Object> taskData : tasksData) {
+            ExecutorRunnable runnable = new ExecutorRunnable(this, (Long) taskData.get("taskid"), taskData, executionCallback);
+            threadpool.submit(runnable);
+        }
     }
 
     public void stop() {
@@ -489,6 +573,9 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
     public void disconnect() {
         try {
             Channel c = channel;
+            brokerAcceptsCredits = false;
+            brokerAcceptsDeltaPing = false;
+            pendingCredits.clear();
             if (c != null) {
                 channel = null;
                 c.close();
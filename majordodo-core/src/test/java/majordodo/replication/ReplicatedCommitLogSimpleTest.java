@@ -29,7 +29,10 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import majordodo.task.LogNotAvailableException;
 import org.apache.bookkeeper.client.BookKeeper;
 import org.junit.Assert;
 import static org.junit.Assert.assertEquals;
@@ -138,6 +141,73 @@ public class ReplicatedCommitLogSimpleTest {
         }
     }
 
+    @Test
+    public void testFollowTheLeader() throws Exception {
+        try (ZKTestEnv zkServer = new ZKTestEnv(folderZk.getRoot().toPath());) {
+            zkServer.startBookie();
+            try (ReplicatedCommitLog leader = new ReplicatedCommitLog(zkServer.getAddress(), 40000, "/dodo", folderSnapshots.newFolder().toPath(), null, false);
+                ReplicatedCommitLog follower = new ReplicatedCommitLog(zkServer.getAddress(), 40000, "/dodo", folderSnapshots.newFolder().toPath(), null, false);) {
+                leader.getClusterManager().start();
+                leader.requestLeadership();
+                BrokerStatusSnapshot snapshot = leader.loadBrokerStatusSnapshot();
+                leader.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                    fail();
+                }, false);
+                leader.startWriting();
+                // small ledgers, the follower has to read closed ledgers and then tail the last one
+                leader.setMaxLogicalLogFileSize(2048);
+
+                follower.getClusterManager().start();
+                List<StatusEdit> received = Collections.synchronizedList(new ArrayList<>());
+                AtomicReference<LogSequenceNumber> position = new AtomicReference<>(new LogSequenceNumber(-1, -1));
+                AtomicBoolean stop = new AtomicBoolean();
+                long followerStart = System.currentTimeMillis();
+                Thread followerThread = new Thread(() -> {
+                    try {
+                        while (!stop.get()) {
+                            follower.followTheLeader(position.get(), (number, edit) -> {
+                                position.set(number);
+                                received.add(edit);
+                            });
+                        }
+                    } catch (LogNotAvailableException err) {
+                        err.printStackTrace();
+                    }
+                }, "test-follower");
+                followerThread.start();
+                try {
+                    int count = 500;
+                    for (int i = 0; i < count; i++) {
+                        leader.logStatusEdit(StatusEdit.ADD_TASK(i + 1, "mytask", "param" + i, "myuser", 0, 0, 0, null, 0, null, null));
+                    }
+                    long start = System.currentTimeMillis();
+                    while (received.size() < count || follower.getFollowerLagEntries() > 0) {
+                        assertTrue("follower did not catch up", System.currentTimeMillis() - start < 30000);
+                        Thread.sleep(10);
+                    }
+                    assertEquals(count, received.size());
+                    for (int i = 0; i < count; i++) {
+                        assertEquals(i + 1, received.get(i).taskId);
+                    }
+                    assertEquals(0, follower.getFollowerLagMillis());
+                    assertEquals(leader.getLastSequenceNumber().ledgerId, position.get().ledgerId);
+                    assertEquals(leader.getLastSequenceNumber().sequenceNumber, position.get().sequenceNumber);
+
+                    // the list of ledgers is read again only when the tailed ledger changes, or once per long-poll
+                    int ledgers = leader.getActualLedgersList().getActiveLedgers().size();
+                    assertTrue(ledgers > 1);
+                    long elapsed = System.currentTimeMillis() - followerStart;
+                    long reads = follower.getFollowerLedgersReads();
+                    assertTrue("too many reads from ZooKeeper: " + reads,
+                        reads <= elapsed / 1000 + 2 * ledgers + 2);
+                } finally {
+                    stop.set(true);
+                    followerThread.join();
+                }
+            }
+        }
+    }
+
     @Test
     public void testStopBookie() throws Exception {
         try (ZKTestEnv zkServer = new ZKTestEnv(folderZk.getRoot().toPath());) {
@@ -23,10 +23,13 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 import majordodo.codepools.CodePool;
 import org.junit.Assert;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import org.junit.Test;
 
 /**
@@ -115,9 +118,34 @@ public class BrokerStatusSerializerTest {
 
         ByteArrayOutputStream oo = new ByteArrayOutputStream();
         BrokerStatusSnapshot.serializeSnapshot(snapBefore, oo);
-        System.out.println("ser:" + oo.toString("utf-8"));
+        System.out.println("ser:" + oo.size() + " bytes");
         InputStream in = new ByteArrayInputStream(oo.toByteArray());
         BrokerStatusSnapshot snap = BrokerStatusSnapshot.deserializeSnapshot(in);
+        assertEquals(snapBefore.getActualLogSequenceNumber().ledgerId, snap.getActualLogSequenceNumber().ledgerId);
+        assertEquals(snapBefore.getActualLogSequenceNumber().sequenceNumber, snap.getActualLogSequenceNumber().sequenceNumber);
+        assertEquals(snapBefore.getMaxTaskId(), snap.getMaxTaskId());
+        assertEquals(snapBefore.getMaxTransactionId(), snap.getMaxTransactionId());
+        assertEquals(2, snap.getTasks().size());
+        Task task = snap.getTasks().get(1);
+        assertEquals(task2.getTaskId(), task.getTaskId());
+        assertEquals(task2.getType(), task.getType());
+        assertEquals(task2.getUserId(), task.getUserId());
+        assertEquals(task2.getParameter(), task.getParameter());
+        assertEquals(task2.getResult(), task.getResult());
+        assertEquals(task2.getSlot(), task.getSlot());
+        assertEquals(task2.getWorkerId(), task.getWorkerId());
+        assertEquals(task2.getStatus(), task.getStatus());
+        assertEquals(task2.getAttempts(), task.getAttempts());
+        assertEquals(task2.getMaxattempts(), task.getMaxattempts());
+        assertEquals(task2.getCreatedTimestamp(), task.getCreatedTimestamp());
+        assertEquals(task2.getExecutionDeadline(), task.getExecutionDeadline());
+        assertEquals(2, snap.getWorkers().size());
+        assertEquals(dummy1.getWorkerId(), snap.getWorkers().get(0).getWorkerId());
+        assertEquals(dummy1.getLastConnectionTs(), snap.getWorkers().get(0).getLastConnectionTs());
+        assertEquals(2, snap.getTransactions().size());
+        assertEquals(1, snap.getTransactions().get(0).getPreparedTasks().size());
+        assertEquals(task3.getTaskId(), snap.getTransactions().get(0).getPreparedTasks().get(0).getTaskId());
+        assertEquals(0, snap.getTransactions().get(1).getPreparedTasks().size());
         assertEquals(co1.getId(),snap.getCodePools().get(0).getId());
         assertEquals(co1.getTtl(),snap.getCodePools().get(0).getTtl());
         assertEquals(co1.getCreationTimestamp(),snap.getCodePools().get(0).getCreationTimestamp());
@@ -130,6 +158,142 @@ public class BrokerStatusSerializerTest {
         InputStream data = BrokerStatusSerializerTest.class.getClassLoader().getResourceAsStream("examplesnap.json.gz");
         GZIPInputStream gzip = new GZIPInputStream(data);
         BrokerStatusSnapshot snap = BrokerStatusSnapshot.deserializeSnapshot(gzip);
-        BrokerStatusSnapshot.serializeSnapshot(snap, new ByteArrayOutputStream());
+        ByteArrayOutputStream oo = new ByteArrayOutputStream();
+        BrokerStatusSnapshot.serializeSnapshot(snap, oo, true);
+        BrokerStatusSnapshot copy = BrokerStatusSnapshot.deserializeSnapshot(new ByteArrayInputStream(oo.toByteArray()));
+        assertEquals(snap.getTasks().size(), copy.getTasks().size());
+        assertEquals(snap.getWorkers().size(), copy.getWorkers().size());
+        assertEquals(snap.getTransactions().size(), copy.getTransactions().size());
+    }
+
+    @Test
+    public void testCreateSnapshot() throws Exception {
+        BrokerStatus status = new BrokerStatus(new MemoryCommitLog());
+        status.recover();
+        status.startWriting();
+        for (int i = 0; i < 10; i++) {
+            status.applyModification(StatusEdit.ADD_TASK(status.nextTaskId(), "mytype", "param" + i, "user" + (i % 2), 1, 0, 0, null, 0, null, null));
+        }
+        ByteArrayOutputStream oo = new ByteArrayOutputStream();
+        BrokerStatusSnapshot snapshot = status.createSnapshot();
+        try {
+            BrokerStatusSnapshot.serializeSnapshot(snapshot, oo, false);
+        } finally {
+            snapshot.close();
+        }
+        BrokerStatusSnapshot snap = BrokerStatusSnapshot.deserializeSnapshot(new ByteArrayInputStream(oo.toByteArray()));
+        assertEquals(10, snap.getTasks().size());
+        assertEquals(snapshot.getMaxTaskId(), snap.getMaxTaskId());
+        for (Task task : snap.getTasks()) {
+            assertEquals(Task.STATUS_WAITING, task.getStatus());
+            assertEquals("mytype", task.getType());
+            // strings in the dictionary are shared
+            assertSame(snap.getTasks().get(0).getType(), task.getType());
+        }
+    }
+
+    @Test
+    public void testSnapshotIsPinnedUntilClosed() throws Exception {
+        BrokerStatus status = new BrokerStatus(new MemoryCommitLog());
+        status.recover();
+        status.startWriting();
+        List<Long> taskIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            long taskId = status.nextTaskId();
+            taskIds.add(taskId);
+            status.applyModification(StatusEdit.ADD_TASK(taskId, "mytype", "param" + i, "user", 1, 0, 0, null, 0, null, null));
+        }
+        BrokerStatusSnapshot snapshot = status.createSnapshot();
+
+        // tasks are copied on write, the snapshot still sees the pinned version
+        Task pinned = status.getTask(taskIds.get(0));
+        status.applyModification(StatusEdit.ASSIGN_TASK_TO_WORKER(taskIds.get(0), "worker", 1, null));
+        assertNotSame(pinned, status.getTask(taskIds.get(0)));
+        assertEquals(Task.STATUS_WAITING, pinned.getStatus());
+        ByteArrayOutputStream oo = new ByteArrayOutputStream();
+        BrokerStatusSnapshot.serializeSnapshot(snapshot, oo, false);
+        BrokerStatusSnapshot snap = BrokerStatusSnapshot.deserializeSnapshot(new ByteArrayInputStream(oo.toByteArray()));
+        for (Task task : snap.getTasks()) {
+            assertEquals(Task.STATUS_WAITING, task.getStatus());
+        }
+
+        // writing the snapshot does not release it, only closing does
+        pinned = status.getTask(taskIds.get(1));
+        status.applyModification(StatusEdit.ASSIGN_TASK_TO_WORKER(taskIds.get(1), "worker", 1, null));
+        assertNotSame(pinned, status.getTask(taskIds.get(1)));
+
+        snapshot.close();
+        snapshot.close();
+        Task live = status.getTask(taskIds.get(2));
+        status.applyModification(StatusEdit.ASSIGN_TASK_TO_WORKER(taskIds.get(2), "worker", 1, null));
+        assertSame(live, status.getTask(taskIds.get(2)));
+        assertEquals(Task.STATUS_RUNNING, live.getStatus());
+    }
+
+    @Test
+    public void testCreateSnapshotWhileApplyingEdits() throws Exception {
+        BrokerStatus status = new BrokerStatus(new MemoryCommitLog());
+        status.recover();
+        status.startWriting();
+        int count = 5000;
+        List<Long> taskIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long taskId = status.nextTaskId();
+            taskIds.add(taskId);
+            status.applyModification(StatusEdit.ADD_TASK(taskId, "mytype", "param" + i, "user", 1, 0, 0, null, 0, null, null));
+        }
+        long firstEdit;
+        try (BrokerStatusSnapshot snapshot = status.createSnapshot()) {
+            firstEdit = snapshot.getActualLogSequenceNumber().sequenceNumber + 1;
+        }
+        Thread writer = new Thread(() -> {
+            try {
+                for (long taskId : taskIds) {
+                    status.applyModification(StatusEdit.ASSIGN_TASK_TO_WORKER(taskId, "worker", 1, null));
+                    status.applyModification(StatusEdit.TASK_STATUS_CHANGE(taskId, "worker", Task.STATUS_FINISHED, "ok"));
+                    if (taskId % 50 == 0) {
+                        // give time to the snapshots
+                        Thread.sleep(1);
+                    }
+                }
+            } catch (LogNotAvailableException | InterruptedException err) {
+                throw new RuntimeException(err);
+            }
+        });
+        writer.start();
+        int snapshots = 0;
+        do {
+            snapshots++;
+            ByteArrayOutputStream oo = new ByteArrayOutputStream();
+            try (BrokerStatusSnapshot snapshot = status.createSnapshot()) {
+                BrokerStatusSnapshot.serializeSnapshot(snapshot, oo, false);
+            }
+            BrokerStatusSnapshot snap = BrokerStatusSnapshot.deserializeSnapshot(new ByteArrayInputStream(oo.toByteArray()));
+            assertEquals(count, snap.getTasks().size());
+
+            // the snapshot must contain exactly the edits up to its sequence number
+            long applied = Math.max(0, snap.getActualLogSequenceNumber().sequenceNumber - firstEdit + 1);
+            for (Task task : snap.getTasks()) {
+                long pos = task.getTaskId() - taskIds.get(0);
+                int expected;
+                if (pos * 2 + 1 < applied) {
+                    expected = Task.STATUS_FINISHED;
+                } else if (pos * 2 < applied) {
+                    expected = Task.STATUS_RUNNING;
+                } else {
+                    expected = Task.STATUS_WAITING;
+                }
+                assertEquals("task " + task.getTaskId() + " at " + snap.getActualLogSequenceNumber(), expected, task.getStatus());
+            }
+        } while (writer.isAlive());
+        writer.join();
+        System.out.println("snapshots: " + snapshots);
+        for (long taskId : taskIds) {
+            Task task = status.getTask(taskId);
+            assertEquals(Task.STATUS_FINISHED, task.getStatus());
+            assertEquals("worker", task.getWorkerId());
+            assertEquals("ok", task.getResult());
+            assertEquals("mytype", task.getType());
+        }
     }
 }
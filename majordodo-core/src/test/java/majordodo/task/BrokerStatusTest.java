@@ -19,12 +19,24 @@
  */
 package majordodo.task;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import majordodo.clientfacade.AddTaskRequest;
 import majordodo.clientfacade.SubmitTaskResult;
+import majordodo.utils.IntCounter;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -143,4 +155,214 @@ public class BrokerStatusTest {
         }
     }
 
+    @Test
+    public void testGroupCommit() throws Exception {
+        AtomicInteger batches = new AtomicInteger();
+        MemoryCommitLog log = new MemoryCommitLog() {
+            @Override
+            public List<LogSequenceNumber> logStatusEditBatch(List<StatusEdit> edits) throws LogNotAvailableException {
+                batches.incrementAndGet();
+                try {
+                    // simulate a remote log
+                    Thread.sleep(10);
+                } catch (InterruptedException err) {
+                    throw new LogNotAvailableException(err);
+                }
+                return super.logStatusEditBatch(edits);
+            }
+        };
+        BrokerConfiguration configuration = new BrokerConfiguration();
+        configuration.setGroupCommitMaxBatchSize(100);
+        configuration.setGroupCommitMaxDelay(1000);
+        int threads = 10;
+        int tasksPerThread = 10;
+        try (Broker broker = new Broker(configuration, log, new TasksHeap(1000, createTaskPropertiesMapperFunction()));) {
+            broker.startAsWritable();
+            ExecutorService threadpool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> results = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    results.add(threadpool.submit(() -> {
+                        for (int i = 0; i < tasksPerThread; i++) {
+                            SubmitTaskResult res = broker.getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "", 1, 0, 0, null, 0, null, null));
+                            assertTrue(res.getTaskId() > 0);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } finally {
+                threadpool.shutdown();
+            }
+            assertEquals(threads * tasksPerThread, broker.getBrokerStatus().getStats().getTasks());
+            StatusEditsGroupCommit groupCommit = broker.getBrokerStatus().getGroupCommit();
+            assertTrue(groupCommit.getEditsCount() >= threads * tasksPerThread);
+            assertTrue(groupCommit.getBatchesCount() < threads * tasksPerThread);
+        }
+    }
+
+
+    @Test
+    public void testSubmitTaskAsync() throws Exception {
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch releaseWrite = new CountDownLatch(1);
+        MemoryCommitLog log = new MemoryCommitLog() {
+            @Override
+            public CompletableFuture<LogSequenceNumber> logStatusEditAsync(StatusEdit edit) {
+                // simulate a remote log which acknowledges writes on another thread
+                return CompletableFuture.supplyAsync(() -> {
+                    writeStarted.countDown();
+                    try {
+                        releaseWrite.await();
+                        return logStatusEdit(edit);
+                    } catch (InterruptedException | LogNotAvailableException err) {
+                        throw new CompletionException(err);
+                    }
+                });
+            }
+        };
+        try (Broker broker = new Broker(new BrokerConfiguration(), log, new TasksHeap(1000, createTaskPropertiesMapperFunction()));) {
+            broker.startAsWritable();
+            CompletableFuture<SubmitTaskResult> result = broker.getClient().submitTaskAsync(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "", 1, 0, 0, null, 0, null, null));
+            assertTrue(writeStarted.await(10, TimeUnit.SECONDS));
+            assertFalse(result.isDone());
+            assertEquals(0, broker.getBrokerStatus().getStats().getTasks());
+            releaseWrite.countDown();
+            SubmitTaskResult res = result.get(10, TimeUnit.SECONDS);
+            assertTrue(res.getTaskId() > 0);
+            assertNull(res.getOutcome());
+            assertEquals(Task.STATUS_WAITING, broker.getBrokerStatus().getTask(res.getTaskId()).getStatus());
+        }
+    }
+
+    @Test
+    public void testRunningTasksIndex() throws Exception {
+        BrokerStatus status = new BrokerStatus(new MemoryCommitLog());
+        status.recover();
+        status.startWriting();
+        List<Long> taskIds = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            long taskId = status.nextTaskId();
+            taskIds.add(taskId);
+            status.applyModification(StatusEdit.ADD_TASK(taskId, i < 4 ? TASKTYPE_MYTYPE : "othertype", "", i % 2 == 0 ? userId : "queue2", 1, 0, 0, null, 0, null, null));
+        }
+        for (int i = 0; i < 5; i++) {
+            status.applyModification(StatusEdit.ASSIGN_TASK_TO_WORKER(taskIds.get(i), i < 3 ? "worker1" : "worker2", 1, null));
+        }
+        assertEquals(3, status.getRunningTasksAssignedToWorker("worker1").size());
+        assertEquals(2, status.getRunningTasksAssignedToWorker("worker2").size());
+        assertTrue(status.getRunningTasksAssignedToWorker("worker3").isEmpty());
+
+        // worker1 runs 2 tasks of 'mytype' for 'queue1' and 1 for 'queue2'
+        Map<String, Integer> availableSpace = new HashMap<>();
+        availableSpace.put(TASKTYPE_MYTYPE, 10);
+        availableSpace.put("othertype", 10);
+        assertEquals(3, status.applyRunningTasksFilterToAssignTasksRequest("worker1", availableSpace, Collections.emptySet()));
+        assertEquals(7, availableSpace.get(TASKTYPE_MYTYPE).intValue());
+        assertEquals(10, availableSpace.get("othertype").intValue());
+
+        // slots given back by the worker before the notification of the final status of the task
+        availableSpace = new HashMap<>();
+        availableSpace.put(TASKTYPE_MYTYPE, 10);
+        Set<Long> released = new HashSet<>();
+        released.add(taskIds.get(0));
+        released.add(taskIds.get(4)); // running on worker2
+        assertEquals(2, status.applyRunningTasksFilterToAssignTasksRequest("worker1", availableSpace, released));
+        assertEquals(8, availableSpace.get(TASKTYPE_MYTYPE).intValue());
+
+        Map<TaskTypeUser, IntCounter> perUser = status.collectMaxAvailableSpacePerUserOnWorker("worker1", 50, Collections.singletonMap(TASKTYPE_MYTYPE, 10));
+        assertEquals(2, perUser.size());
+        assertEquals(3, perUser.get(new TaskTypeUser(TASKTYPE_MYTYPE, userId)).count);
+        assertEquals(4, perUser.get(new TaskTypeUser(TASKTYPE_MYTYPE, "queue2")).count);
+
+        // finished and resubmitted tasks leave the index
+        status.applyModification(StatusEdit.TASK_STATUS_CHANGE(taskIds.get(0), "worker1", Task.STATUS_FINISHED, null));
+        status.applyModification(StatusEdit.TASK_STATUS_CHANGE(taskIds.get(1), "worker1", Task.STATUS_WAITING, null));
+        assertEquals(Collections.singletonList(taskIds.get(2)), status.getRunningTasksAssignedToWorker("worker1"));
+
+        // a waiting task can be assigned to another worker
+        status.applyModification(StatusEdit.ASSIGN_TASK_TO_WORKER(taskIds.get(1), "worker2", 2, null));
+        assertEquals(3, status.getRunningTasksAssignedToWorker("worker2").size());
+        availableSpace = new HashMap<>();
+        availableSpace.put(TASKTYPE_MYTYPE, 1);
+        assertEquals(3, status.applyRunningTasksFilterToAssignTasksRequest("worker2", availableSpace, Collections.emptySet()));
+        assertFalse(availableSpace.containsKey(TASKTYPE_MYTYPE));
+    }
+
+    @Test
+    public void testPurgeFinishedTasksAndSignalExpiredTasks() throws Exception {
+        BrokerStatus status = new BrokerStatus(new MemoryCommitLog());
+        status.recover();
+        status.startWriting();
+        long now = System.currentTimeMillis();
+        List<Long> expiring = new ArrayList<>();
+        List<Long> finished = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            long taskId = status.nextTaskId();
+            switch (i % 3) {
+                case 0:
+                    // deadline already expired
+                    status.applyModification(StatusEdit.ADD_TASK(taskId, TASKTYPE_MYTYPE, "", userId, 1, 0, now - 1000, null, 0, null, null));
+                    expiring.add(taskId);
+                    break;
+                case 1:
+                    // deadline in the future
+                    status.applyModification(StatusEdit.ADD_TASK(taskId, TASKTYPE_MYTYPE, "", userId, 1, 0, now + 60000, null, 0, null, null));
+                    break;
+                default:
+                    status.applyModification(StatusEdit.ADD_TASK(taskId, TASKTYPE_MYTYPE, "", userId, 1, 0, 0, null, 0, null, null));
+                    status.applyModification(StatusEdit.TASK_STATUS_CHANGE(taskId, null, Task.STATUS_FINISHED, null));
+                    finished.add(taskId);
+                    break;
+            }
+        }
+        // an expired task which is running is not expired
+        status.applyModification(StatusEdit.ASSIGN_TASK_TO_WORKER(expiring.remove(0), "worker1", 1, null));
+
+        // retention not elapsed, limit of expired tasks per cycle
+        Set<Long> expired = status.purgeFinishedTasksAndSignalExpiredTasks(60000, 500);
+        assertEquals(500, expired.size());
+        assertTrue(expiring.containsAll(expired));
+        assertEquals(3000, status.getStats().getTasks());
+
+        Thread.sleep(10);
+        expired = status.purgeFinishedTasksAndSignalExpiredTasks(1, 5000);
+        assertEquals(new HashSet<>(expiring), expired);
+        assertEquals(2000, status.getStats().getTasks());
+        for (long taskId : finished) {
+            assertNull(status.getTask(taskId));
+        }
+    }
+
+    @Test
+    public void testEditsAreNotAppliedByTheThreadOfTheLog() throws Exception {
+        ExecutorService logThread = Executors.newSingleThreadExecutor((Runnable r) -> new Thread(r, "test-log-thread"));
+        CountDownLatch releaseWrite = new CountDownLatch(1);
+        MemoryCommitLog log = new MemoryCommitLog() {
+            @Override
+            public CompletableFuture<LogSequenceNumber> logStatusEditAsync(StatusEdit edit) {
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        releaseWrite.await();
+                        return logStatusEdit(edit);
+                    } catch (InterruptedException | LogNotAvailableException err) {
+                        throw new CompletionException(err);
+                    }
+                }, logThread);
+            }
+        };
+        try (Broker broker = new Broker(new BrokerConfiguration(), log, new TasksHeap(1000, createTaskPropertiesMapperFunction()));) {
+            broker.startAsWritable();
+            CompletableFuture<String> appliedBy = broker.getClient()
+                .submitTaskAsync(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "", 1, 0, 0, null, 0, null, null))
+                .thenApply(res -> Thread.currentThread().getName());
+            releaseWrite.countDown();
+            assertEquals("dodo-broker-apply-edits", appliedBy.get(10, TimeUnit.SECONDS));
+        } finally {
+            logThread.shutdown();
+        }
+    }
+
 }
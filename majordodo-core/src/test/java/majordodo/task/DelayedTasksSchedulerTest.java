@@ -0,0 +1,133 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class DelayedTasksSchedulerTest {
+
+    private static Task createTask(long taskId, long requestedStartTime) {
+        Task task = new Task();
+        task.setTaskId(taskId);
+        task.setRequestedStartTime(requestedStartTime);
+        return task;
+    }
+
+    @Test
+    public void testResumeTasksWhenDue() throws Exception {
+        int count = 2000;
+        Map<Long, Long> resumeTimes = new ConcurrentHashMap<>();
+        CountDownLatch allResumed = new CountDownLatch(count);
+        AtomicInteger maxBatch = new AtomicInteger();
+        // tick of 1 ms, so that delays of hundreds of ms need to be cascaded from the upper wheels
+        DelayedTasksScheduler scheduler = new DelayedTasksScheduler(1, 100, (List<Task> tasks) -> {
+            long now = System.currentTimeMillis();
+            maxBatch.accumulateAndGet(tasks.size(), Math::max);
+            for (Task task : tasks) {
+                resumeTimes.put(task.getTaskId(), now);
+                allResumed.countDown();
+            }
+        });
+        scheduler.start();
+        try {
+            List<Task> tasks = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                // some tasks are already due
+                Task task = createTask(i, now - 100 + (i % 1000));
+                tasks.add(task);
+                scheduler.schedule(task);
+            }
+            Task farTask = createTask(count, now + TimeUnit.HOURS.toMillis(1));
+            scheduler.schedule(farTask);
+            assertTrue(allResumed.await(10, TimeUnit.SECONDS));
+            for (Task task : tasks) {
+                long resumeTime = resumeTimes.get(task.getTaskId());
+                assertTrue("task " + task.getTaskId() + " resumed too early", resumeTime >= task.getRequestedStartTime());
+            }
+            assertTrue(maxBatch.get() <= 100);
+            assertEquals(1, scheduler.size());
+            List<Task> waiting = new ArrayList<>();
+            scheduler.forEach(waiting::add);
+            assertEquals(1, waiting.size());
+            assertEquals(count, waiting.get(0).getTaskId());
+            assertEquals(count, scheduler.getResumedTasks());
+            assertTrue(scheduler.getMaxLag() >= 100);
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testRetryAfterResumeFailure() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch resumed = new CountDownLatch(1);
+        DelayedTasksScheduler scheduler = new DelayedTasksScheduler(10, 1000, (List<Task> tasks) -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new LogNotAvailableException("simulated failure");
+            }
+            assertEquals(1, tasks.size());
+            resumed.countDown();
+        });
+        scheduler.start();
+        try {
+            scheduler.schedule(createTask(1, System.currentTimeMillis() + 50));
+            assertTrue(resumed.await(10, TimeUnit.SECONDS));
+            assertEquals(2, attempts.get());
+            assertEquals(0, scheduler.size());
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testUnexpectedErrorDoesNotBlockOtherTasks() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch resumed = new CountDownLatch(1);
+        DelayedTasksScheduler scheduler = new DelayedTasksScheduler(10, 1, (List<Task> tasks) -> {
+            attempts.incrementAndGet();
+            if (tasks.get(0).getTaskId() == 1) {
+                throw new IllegalStateException("simulated failure");
+            }
+            resumed.countDown();
+        });
+        scheduler.start();
+        try {
+            long now = System.currentTimeMillis();
+            scheduler.schedule(createTask(1, now + 50));
+            scheduler.schedule(createTask(2, now + 100));
+            assertTrue(resumed.await(10, TimeUnit.SECONDS));
+            // the failed batch is not retried
+            assertEquals(2, attempts.get());
+            assertEquals(0, scheduler.size());
+        } finally {
+            scheduler.stop();
+        }
+    }
+}
@@ -24,10 +24,16 @@ import majordodo.task.FileCommitLog;
 import majordodo.task.LogSequenceNumber;
 import majordodo.task.Task;
 import majordodo.task.StatusEdit;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -93,4 +99,119 @@ public class FileCommitLogSimpleTest {
 
     }
 
+    @Test
+    public void testMemoryMappedFiles() throws Exception {
+        int count = 200;
+        // small files, in order to roll new files many times
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 4096);) {
+            log.setMemoryMappedFiles(true);
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                fail();
+            }, false);
+            log.startWriting();
+            for (int i = 1; i <= count; i++) {
+                log.logStatusEdit(StatusEdit.ADD_TASK(i, "mytype", "param" + i, "myuser", 0, 0, 0, null, 0, null, null));
+            }
+            // bigger than a whole file
+            StringBuilder bigParameter = new StringBuilder();
+            for (int i = 0; i < 10000; i++) {
+                bigParameter.append('a');
+            }
+            log.logStatusEdit(StatusEdit.ADD_TASK(count + 1, "mytype", bigParameter.toString(), "myuser", 0, 0, 0, null, 0, null, null));
+            assertTrue(log.getLastSequenceNumber().ledgerId > 1);
+        }
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 4096);) {
+            log.setMemoryMappedFiles(true);
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            List<StatusEdit> edits = new ArrayList<>();
+            AtomicReference<LogSequenceNumber> last = new AtomicReference<>(snapshot.getActualLogSequenceNumber());
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                assertTrue(a.after(last.get()));
+                edits.add(b);
+                last.set(a);
+            }, false);
+            assertEquals(count + 1, edits.size());
+            for (int i = 0; i < edits.size(); i++) {
+                assertEquals(i + 1, edits.get(i).taskId);
+            }
+            assertEquals(10000, edits.get(count).parameter.length());
+
+            // the new file is preallocated, the unused tail is not considered as data
+            log.startWriting();
+            log.logStatusEdit(StatusEdit.ADD_TASK(count + 2, "mytype", "param", "myuser", 0, 0, 0, null, 0, null, null));
+            assertEquals(4096 + FileCommitLog.FileFooter.SIZE, Files.size(log.getCurrentLedgerFilePath()));
+        }
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 4096);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            AtomicLong countRecovered = new AtomicLong();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                countRecovered.incrementAndGet();
+            }, false);
+            assertEquals(count + 2, countRecovered.get());
+        }
+    }
+
+    @Test
+    public void testChecksumsAndParallelRecovery() throws Exception {
+        int count = 200;
+        Path logs = folderLogs.getRoot().toPath();
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), logs, 1024);) {
+            log.loadBrokerStatusSnapshot();
+            log.startWriting();
+            List<StatusEdit> edits = new ArrayList<>();
+            for (int i = 1; i <= count; i++) {
+                edits.add(StatusEdit.ADD_TASK(i, "mytype", "param" + i, "myuser", 0, 0, 0, null, 0, null, null));
+            }
+            log.logStatusEditBatch(edits);
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(logs)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparing(Path::toString));
+        assertTrue(files.size() > 4);
+
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), logs, 1024);) {
+            log.setRecoveryParallelism(4);
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            List<Long> taskIds = new ArrayList<>();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                taskIds.add(b.taskId);
+            }, false);
+            assertEquals(count, taskIds.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i + 1, taskIds.get(i).longValue());
+            }
+        }
+
+        // torn write at the end of the last file, the footer is missing
+        Path lastFile = files.get(files.size() - 1);
+        byte[] content = Files.readAllBytes(lastFile);
+        Files.write(lastFile, Arrays.copyOf(content, content.length - FileCommitLog.FileFooter.SIZE - 3));
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), logs, 1024);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            AtomicLong recovered = new AtomicLong();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                recovered.incrementAndGet();
+            }, false);
+            assertEquals(count - 1, recovered.get());
+        }
+
+        // corruption inside a file which has been closed cleanly
+        Path firstFile = files.get(0);
+        content = Files.readAllBytes(firstFile);
+        content[content.length / 2]++;
+        Files.write(firstFile, content);
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), logs, 1024);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            try {
+                log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                }, false);
+                fail();
+            } catch (LogNotAvailableException expected) {
+            }
+        }
+    }
+
 }
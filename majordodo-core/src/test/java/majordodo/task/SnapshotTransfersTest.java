@@ -0,0 +1,142 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for chunked snapshot transfers
+ *
+ * @author enrico.olivelli
+ */
+public class SnapshotTransfersTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testChunkedTransfer() throws Exception {
+        BrokerStatusSnapshot snapshot = new BrokerStatusSnapshot(17, 18, new LogSequenceNumber(101, 102));
+        snapshot.setTasks(new ArrayList<>());
+        snapshot.setTransactions(new ArrayList<>());
+        snapshot.setWorkers(new ArrayList<>());
+        for (int i = 0; i < 1000; i++) {
+            Task task = new Task();
+            task.setTaskId(i);
+            task.setType("type" + i);
+            task.setUserId("user" + (i % 10));
+            task.setParameter("parameter" + i);
+            task.setStatus(Task.STATUS_WAITING);
+            task.setCreatedTimestamp(i);
+            snapshot.getTasks().add(task);
+        }
+
+        Path transfersDirectory = folder.getRoot().toPath().resolve(SnapshotTransfers.TRANSFERS_DIRECTORY);
+        try (SnapshotTransfers transfers = new SnapshotTransfers(folder.getRoot().toPath())) {
+            transfers.start();
+            SnapshotTransfers.SnapshotTransfer transfer = transfers.start(snapshot);
+            assertTrue(transfer.getSize() > 0);
+            assertEquals(1, countFiles(transfersDirectory));
+
+            try {
+                transfers.readChunk(transfer.getId(), transfer.getSize() + 1, 100);
+                fail();
+            } catch (IOException expected) {
+            }
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            int chunks = 0;
+            while (received.size() < transfer.getSize()) {
+                byte[] chunk = transfers.readChunk(transfer.getId(), received.size(), 100);
+                assertTrue(chunk.length > 0 && chunk.length <= 100);
+                received.write(chunk);
+                chunks++;
+                if (chunks == 1) {
+                    // a chunk can be requested again, in order to resume an interrupted download
+                    byte[] again = transfers.readChunk(transfer.getId(), 0, 100);
+                    assertEquals(100, again.length);
+                }
+            }
+            assertEquals(transfer.getSize(), received.size());
+            assertEquals((transfer.getSize() + 99) / 100, chunks);
+
+            // the last chunk can be requested again, the response could have been lost
+            long lastChunkOffset = (chunks - 1) * 100L;
+            byte[] lastChunk = transfers.readChunk(transfer.getId(), lastChunkOffset, 100);
+            assertEquals(transfer.getSize() - lastChunkOffset, lastChunk.length);
+            assertEquals(1, countFiles(transfersDirectory));
+
+            // the transfer is dropped as soon as the follower tells that the download is complete
+            transfers.complete(transfer.getId());
+            assertEquals(0, countFiles(transfersDirectory));
+            transfers.complete(transfer.getId());
+            try {
+                transfers.readChunk(transfer.getId(), 0, 100);
+                fail();
+            } catch (IOException expected) {
+            }
+
+            BrokerStatusSnapshot read = BrokerStatusSnapshot.deserializeSnapshot(new ByteArrayInputStream(received.toByteArray()));
+            assertEquals(snapshot.getActualLogSequenceNumber().ledgerId, read.getActualLogSequenceNumber().ledgerId);
+            assertEquals(snapshot.getActualLogSequenceNumber().sequenceNumber, read.getActualLogSequenceNumber().sequenceNumber);
+            assertEquals(1000, read.getTasks().size());
+            assertEquals("parameter999", read.getTasks().get(999).getParameter());
+
+            try {
+                transfers.readChunk("unknown", 0, 100);
+                fail();
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testDeleteLeftoversAtStart() throws Exception {
+        Path transfersDirectory = folder.getRoot().toPath().resolve(SnapshotTransfers.TRANSFERS_DIRECTORY);
+        Files.createDirectories(transfersDirectory);
+        Files.write(transfersDirectory.resolve("crashed.transfer"), new byte[10]);
+        try (SnapshotTransfers transfers = new SnapshotTransfers(folder.getRoot().toPath())) {
+            transfers.start();
+            assertEquals(0, countFiles(transfersDirectory));
+        }
+    }
+
+    private static int countFiles(Path directory) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks that edits written to the log with a reused {@link StatusEditEncoder} do not allocate memory. This holds for
+ * the edits written for each task, WORKER_CONNECTED edits still allocate the sorted array of the running tasks
+ *
+ * @author enrico.olivelli
+ */
+public class StatusEditEncoderAllocationTest {
+
+    private static final int ITERATIONS = 10000;
+
+    @Test
+    public void encodeTaskEditsWithoutAllocations() throws Exception {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            // allocation measurement not supported on this JVM
+            return;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        List<StatusEdit> edits = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            long taskId = 1000000 + i;
+            edits.add(StatusEdit.ADD_TASK(taskId, "mytype", "parameter" + i, "user" + (i % 10), Task.STATUS_WAITING, 1, 0, null, 0, null, null));
+            edits.add(StatusEdit.ASSIGN_TASK_TO_WORKER(taskId, "worker" + (i % 5), 1, null));
+            edits.add(StatusEdit.TASK_STATUS_CHANGE(taskId, "worker" + (i % 5), Task.STATUS_FINISHED, "result" + i));
+        }
+        StatusEditEncoder encoder = new StatusEditEncoder();
+        // let the buffer grow to its final size
+        for (StatusEdit edit : edits) {
+            encoder.encode(edit);
+        }
+
+        long start = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            encoder.encode(edits.get(i % edits.size()));
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - start;
+        assertEquals(0, allocated / ITERATIONS);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for the encodings of {@link StatusEdit}
+ *
+ * @author enrico.olivelli
+ */
+public class StatusEditSerializationTest {
+
+    private static List<StatusEdit> createEdits() {
+        List<StatusEdit> edits = new ArrayList<>();
+        edits.add(StatusEdit.NOOP());
+        edits.add(StatusEdit.DELETE_CODEPOOL("codepool"));
+        edits.add(StatusEdit.CREATE_CODEPOOL("codepool", Long.MAX_VALUE - 123, "payload".getBytes(), 321));
+        edits.add(StatusEdit.BEGIN_TRANSACTION(431, 123));
+        edits.add(StatusEdit.ROLLBACK_TRANSACTION(Long.MAX_VALUE - 432));
+        edits.add(StatusEdit.COMMIT_TRANSACTION(433));
+        edits.add(StatusEdit.ASSIGN_TASK_TO_WORKER(Long.MAX_VALUE - 123, "nodeId", 12, "resources"));
+        edits.add(StatusEdit.TASK_STATUS_CHANGE(234, "workerId", Integer.MIN_VALUE + 4, "result"));
+        edits.add(StatusEdit.ADD_TASK(Integer.MAX_VALUE - 12, "taskType", "taskParameter", "userid", 1, 744, Long.MIN_VALUE + 3, "slot", 4, "codePool", "mode"));
+        edits.add(StatusEdit.PREPARE_ADD_TASK(51, 13, "taskType", "taskParameter", "userid", 1, Long.MAX_VALUE - 744, 3, "slot", 4, "codePool", "mode"));
+        edits.add(StatusEdit.WORKER_CONNECTED("workerId", "processid", "nodeLocation", new HashSet<>(Arrays.asList(3L, 4L, 1000L, Long.MAX_VALUE, Long.MIN_VALUE, -5L)), 32));
+        edits.add(StatusEdit.WORKER_CONNECTED("workerId", "processid", "nodeLocation", new HashSet<>(), 32));
+        edits.add(StatusEdit.WORKER_DISCONNECTED("workerId", 16));
+        edits.add(StatusEdit.WORKER_DIED("workerId", Long.MAX_VALUE - 45));
+        return edits;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (StatusEdit edit : createEdits()) {
+            assertEquals(edit, StatusEdit.read(edit.serialize(StatusEdit.PROTOCOL_VERSION_1)));
+            assertEquals(edit, StatusEdit.read(edit.serialize(StatusEdit.PROTOCOL_VERSION_0)));
+        }
+    }
+
+    @Test
+    public void testAbsentFields() throws Exception {
+        StatusEdit edit = StatusEdit.ADD_TASK(1, "type", null, "user", Task.STATUS_WAITING, 0, 0, null, 0, null, null);
+        StatusEdit read = StatusEdit.read(edit.serialize(StatusEdit.PROTOCOL_VERSION_1));
+        assertEquals(edit, read);
+        assertNull(read.parameter);
+        assertNull(read.slot);
+        assertNull(read.codepool);
+        assertNull(read.mode);
+    }
+
+    @Test
+    public void testNonAsciiStrings() throws Exception {
+        StatusEdit edit = StatusEdit.TASK_STATUS_CHANGE(1, "w\u00f6rker", Task.STATUS_ERROR, "\u20ac \ud83d\ude00");
+        assertEquals(edit, StatusEdit.read(edit.serialize(StatusEdit.PROTOCOL_VERSION_1)));
+    }
+
+    @Test
+    public void testSmallerEntries() throws Exception {
+        StatusEdit connected = StatusEdit.WORKER_CONNECTED("worker", "process", "location",
+            new HashSet<>(Arrays.asList(1000000L, 1000001L, 1000002L, 1000010L)), System.currentTimeMillis());
+        StatusEdit statusChange = StatusEdit.TASK_STATUS_CHANGE(1000000L, "worker", Task.STATUS_FINISHED, null);
+        for (StatusEdit edit : Arrays.asList(connected, statusChange)) {
+            int v0 = edit.serialize(StatusEdit.PROTOCOL_VERSION_0).length;
+            int v1 = edit.serialize(StatusEdit.PROTOCOL_VERSION_1).length;
+            assertTrue(edit + ": " + v1 + " >= " + v0, v1 < v0);
+        }
+    }
+}
@@ -27,6 +27,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 public class TasksHeapCompactionTest {
@@ -226,4 +228,55 @@ public class TasksHeapCompactionTest {
 
     }
 
+    @Test
+    public void testIncrementalCompaction() throws Exception {
+        TasksHeapSegment segment = new TasksHeapSegment(0, 10000);
+        long taskid = 0;
+        for (int i = 0; i < 5000; i++) {
+            taskid++;
+            segment.insert(taskid, (int) (taskid % 2) + 1, 1, GROUPID1, 0, taskid, 25);
+        }
+        // take every task of type 2
+        for (int i = 0; i < segment.actualsize; i++) {
+            if (segment.tasktypes[i] == 2) {
+                segment.clear(i);
+            }
+        }
+        TasksHeapSegment.PositionsQueue queue = segment.queues.get((((long) GROUPID1) << 32) | 1);
+        segment.startCompaction();
+        int slices = 0;
+        int reclaimed = 0;
+        while (segment.compacting) {
+            // a budget of 1 nanosecond processes a single chunk of slots
+            reclaimed += segment.runCompactionSlice(1);
+            slices++;
+            // tasks are submitted and taken between slices
+            taskid++;
+            segment.insert(taskid, 1, 1, GROUPID1, 0, taskid, 25);
+            segment.skipStale(queue);
+            segment.clear(queue.positions[queue.head]);
+        }
+        assertTrue(slices > 1);
+        assertEquals(2500, reclaimed);
+        assertFalse(segment.compacting);
+
+        List<Long> inSegment = new ArrayList<>();
+        for (int i = 0; i < segment.actualsize; i++) {
+            if (segment.taskids[i] > 0) {
+                inSegment.add(segment.taskids[i]);
+            }
+        }
+        List<Long> inQueue = new ArrayList<>();
+        for (int i = queue.head; i < queue.tail; i++) {
+            if (segment.isIndexed(queue.positions[i], queue)) {
+                inQueue.add(segment.taskids[queue.positions[i]]);
+            }
+        }
+        assertEquals(2500, inSegment.size());
+        assertEquals(inSegment, inQueue);
+        for (int i = 1; i < inSegment.size(); i++) {
+            assertTrue(inSegment.get(i - 1) < inSegment.get(i));
+        }
+    }
+
 }
@@ -19,6 +19,7 @@
  */
 package majordodo.task;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -276,4 +277,30 @@ public class TasksHeapLimitsTest {
         assertEquals(3 + 10, taskids.size());
     }
 
+    @Test
+    public void test_scan_resolves_users_and_resources() throws Exception {
+        TasksHeap instance = new TasksHeap(1, DEFAULT_FUNCTION);
+        AtomicLong newTaskId = new AtomicLong(987);
+        for (int i = 0; i < 10; i++) {
+            instance.insertTask(newTaskId.incrementAndGet(), TASKTYPE_MYTASK1, i % 2 == 0 ? USERID1 : USERID2);
+        }
+        List<TasksHeap.TaskEntry> entries = new ArrayList<>();
+        instance.scan(entries::add);
+        assertEquals(10, entries.size());
+        for (int i = 0; i < 10; i++) {
+            TasksHeap.TaskEntry entry = entries.get(i);
+            assertEquals(i % 2 == 0 ? USERID1 : USERID2, entry.userid);
+            assertEquals(i % 2 == 0 ? GROUPID1 : GROUPID2, entry.groupid);
+            assertEquals(2, entry.resources.length);
+        }
+
+        Map< String, Integer> availableSpace = new HashMap<>();
+        availableSpace.put(Task.TASKTYPE_ANY, 1);
+        List<AssignedTask> taskids = instance.takeTasks(1, Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), availableSpace,
+            Collections.emptyMap(), new ResourceUsageCounters(), Collections.emptyMap(), new ResourceUsageCounters(), null, 0);
+        assertEquals(1, taskids.size());
+        assertEquals(Arrays.asList(RESOURCE1, RESOURCE2), Arrays.asList(taskids.get(0).resourceIds));
+        assertEquals(RESOURCE1 + "," + RESOURCE2, taskids.get(0).resources);
+    }
+
 }
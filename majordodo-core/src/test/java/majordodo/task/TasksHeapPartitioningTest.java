@@ -0,0 +1,194 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class TasksHeapPartitioningTest {
+
+    private static final String TASKTYPE_MYTASK1 = "MYTASK1";
+    private static final String TASKTYPE_MYTASK2 = "MYTASK2";
+    private static final String USERID1 = "myuser1";
+    private static final String USERID2 = "myuser2";
+    private static final int GROUPID1 = 9713;
+    private static final int GROUPID2 = 972;
+
+    private final TaskPropertiesMapperFunction DEFAULT_FUNCTION = new TaskPropertiesMapperFunction() {
+        @Override
+        public TaskProperties getTaskProperties(long taskid, String taskType, String userid) {
+            int groupId;
+            switch (userid) {
+                case USERID1:
+                    groupId = GROUPID1;
+                    break;
+                case USERID2:
+                    groupId = GROUPID2;
+                    break;
+                default:
+                    groupId = -1;
+            }
+            return new TaskProperties(groupId, null);
+        }
+
+    };
+
+    private static List<AssignedTask> take(TasksHeap instance, int max, List<Integer> groups, Set<Integer> excludedGroups, Map<String, Integer> availableSpace) {
+        return instance.takeTasks(max, groups, excludedGroups, availableSpace, Collections.emptyMap(), new ResourceUsageCounters(),
+            Collections.emptyMap(), new ResourceUsageCounters(), null, 0);
+    }
+
+    @Test
+    public void testPartitionByTaskType() throws Exception {
+        TasksHeap instance = new TasksHeap(10, DEFAULT_FUNCTION, TasksHeap.PARTITIONING_TASKTYPE);
+        AtomicLong newTaskId = new AtomicLong(0);
+        long task1 = newTaskId.incrementAndGet();
+        long task2 = newTaskId.incrementAndGet();
+        long task3 = newTaskId.incrementAndGet();
+        instance.insertTask(task1, TASKTYPE_MYTASK1, USERID1);
+        instance.insertTask(task2, TASKTYPE_MYTASK2, USERID1);
+        instance.insertTask(task3, TASKTYPE_MYTASK1, USERID2);
+        assertEquals(2, instance.getSegmentsCount());
+
+        Map< String, Integer> availableSpace = new HashMap<>();
+        availableSpace.put(TASKTYPE_MYTASK2, 10);
+        List<AssignedTask> taskids = take(instance, 10, Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), availableSpace);
+        assertEquals(1, taskids.size());
+        assertEquals(task2, taskids.get(0).taskid);
+
+        // tasks from different segments are still taken in submission order
+        availableSpace.clear();
+        availableSpace.put(Task.TASKTYPE_ANY, 10);
+        instance.insertTask(newTaskId.incrementAndGet(), TASKTYPE_MYTASK2, USERID1);
+        taskids = take(instance, 10, Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), availableSpace);
+        assertEquals(3, taskids.size());
+        assertEquals(task1, taskids.get(0).taskid);
+        assertEquals(task3, taskids.get(1).taskid);
+        assertEquals(newTaskId.get(), taskids.get(2).taskid);
+    }
+
+    @Test
+    public void testPartitionByGroup() throws Exception {
+        TasksHeap instance = new TasksHeap(10, DEFAULT_FUNCTION, TasksHeap.PARTITIONING_GROUP);
+        AtomicLong newTaskId = new AtomicLong(0);
+        long task1 = newTaskId.incrementAndGet();
+        long task2 = newTaskId.incrementAndGet();
+        long task3 = newTaskId.incrementAndGet();
+        instance.insertTask(task1, TASKTYPE_MYTASK1, USERID1);
+        instance.insertTask(task2, TASKTYPE_MYTASK2, USERID1);
+        instance.insertTask(task3, TASKTYPE_MYTASK2, USERID2);
+        assertEquals(2, instance.getSegmentsCount());
+
+        Map< String, Integer> availableSpace = new HashMap<>();
+        availableSpace.put(TASKTYPE_MYTASK1, 3);
+        availableSpace.put(TASKTYPE_MYTASK2, 1);
+        List<AssignedTask> taskids = take(instance, 3, Arrays.asList(Task.GROUP_ANY), new HashSet<>(Arrays.asList(GROUPID1)), availableSpace);
+        assertEquals(1, taskids.size());
+        assertEquals(task3, taskids.get(0).taskid);
+
+        // explicit groups have priority in the order they are declared
+        instance.insertTask(newTaskId.incrementAndGet(), TASKTYPE_MYTASK2, USERID2);
+        availableSpace.clear();
+        availableSpace.put(Task.TASKTYPE_ANY, 10);
+        taskids = take(instance, 10, Arrays.asList(GROUPID2, GROUPID1), Collections.emptySet(), availableSpace);
+        assertEquals(3, taskids.size());
+        assertEquals(newTaskId.get(), taskids.get(0).taskid);
+        assertEquals(task1, taskids.get(1).taskid);
+        assertEquals(task2, taskids.get(2).taskid);
+    }
+
+    @Test
+    public void testRecomputeGroupsMovesEntries() throws Exception {
+        Map<String, Integer> groupsByUser = new ConcurrentHashMap<>();
+        groupsByUser.put(USERID1, GROUPID1);
+        TasksHeap instance = new TasksHeap(10, (long taskid, String taskType, String userid)
+            -> new TaskProperties(groupsByUser.get(userid), null), TasksHeap.PARTITIONING_GROUP);
+        instance.insertTask(1, TASKTYPE_MYTASK1, USERID1);
+        instance.insertTask(2, TASKTYPE_MYTASK1, USERID1);
+
+        groupsByUser.put(USERID1, GROUPID2);
+        instance.recomputeGroups();
+
+        Map< String, Integer> availableSpace = new HashMap<>();
+        availableSpace.put(Task.TASKTYPE_ANY, 10);
+        assertEquals(0, take(instance, 10, Arrays.asList(GROUPID1), Collections.emptySet(), availableSpace).size());
+        List<AssignedTask> taskids = take(instance, 10, Arrays.asList(GROUPID2), Collections.emptySet(), availableSpace);
+        assertEquals(2, taskids.size());
+        assertEquals(1, taskids.get(0).taskid);
+        assertEquals(2, taskids.get(1).taskid);
+    }
+
+    @Test
+    public void testConcurrentTakes() throws Exception {
+        TasksHeap instance = new TasksHeap(100, DEFAULT_FUNCTION, TasksHeap.PARTITIONING_TASKTYPE);
+        int tasksPerType = 2000;
+        int tasktypes = 8;
+        long taskid = 0;
+        for (int i = 0; i < tasksPerType; i++) {
+            for (int t = 0; t < tasktypes; t++) {
+                instance.insertTask(++taskid, "type" + t, USERID1);
+            }
+        }
+        ExecutorService threadpool = Executors.newFixedThreadPool(tasktypes);
+        try {
+            List<Future<List<Long>>> results = new ArrayList<>();
+            for (int t = 0; t < tasktypes; t++) {
+                String tasktype = "type" + t;
+                results.add(threadpool.submit(() -> {
+                    Map< String, Integer> availableSpace = new HashMap<>();
+                    availableSpace.put(tasktype, 10);
+                    List<Long> taken = new ArrayList<>();
+                    while (true) {
+                        List<AssignedTask> tasks = take(instance, 10, Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), availableSpace);
+                        if (tasks.isEmpty()) {
+                            return taken;
+                        }
+                        tasks.forEach(task -> taken.add(task.taskid));
+                    }
+                }));
+            }
+            Set<Long> all = new HashSet<>();
+            for (Future<List<Long>> result : results) {
+                List<Long> taken = result.get();
+                assertEquals(tasksPerType, taken.size());
+                all.addAll(taken);
+            }
+            assertEquals(taskid, all.size());
+            assertTrue(instance.getFragmentation() < instance.getSize());
+        } finally {
+            threadpool.shutdown();
+        }
+    }
+
+}
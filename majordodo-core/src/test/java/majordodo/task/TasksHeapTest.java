@@ -199,4 +199,36 @@ public class TasksHeapTest {
 
     }
 
+    @Test
+    public void testPriorityByGroupAcrossTaskTypes() throws Exception {
+        TasksHeap instance = new TasksHeap(10, DEFAULT_FUNCTION);
+        Map< String, Integer> availableSpace = new HashMap<>();
+        availableSpace.put(TASKTYPE_MYTASK1, 2);
+        availableSpace.put(Task.TASKTYPE_ANY, 2);
+        AtomicLong newTaskId = new AtomicLong(0);
+        long task1 = newTaskId.incrementAndGet();
+        long task2 = newTaskId.incrementAndGet();
+        long task3 = newTaskId.incrementAndGet();
+        long task4 = newTaskId.incrementAndGet();
+        long task5 = newTaskId.incrementAndGet();
+        instance.insertTask(task1, TASKTYPE_MYTASK1, USERID1);
+        instance.insertTask(task2, TASKTYPE_MYTASK2, USERID1);
+        instance.insertTask(task3, TASKTYPE_MYTASK1, USERID2);
+        instance.insertTask(task4, TASKTYPE_MYTASK2, USERID2);
+        instance.insertTask(task5, TASKTYPE_MYTASK1, USERID2);
+
+        List<AssignedTask> taskids = instance.takeTasks(10, Arrays.asList(GROUPID2, GROUPID1), Collections.emptySet(), availableSpace, Collections.emptyMap(), new ResourceUsageCounters(), Collections.emptyMap(), new ResourceUsageCounters(), null, 0);
+        assertEquals(4, taskids.size());
+        assertEquals(task3, taskids.get(0).taskid);
+        assertEquals(task4, taskids.get(1).taskid);
+        assertEquals(task5, taskids.get(2).taskid);
+        assertEquals(task2, taskids.get(3).taskid);
+
+        // the index must survive compaction
+        instance.runCompaction();
+        taskids = instance.takeTasks(10, Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), availableSpace, Collections.emptyMap(), new ResourceUsageCounters(), Collections.emptyMap(), new ResourceUsageCounters(), null, 0);
+        assertEquals(1, taskids.size());
+        assertEquals(task1, taskids.get(0).taskid);
+    }
+
 }
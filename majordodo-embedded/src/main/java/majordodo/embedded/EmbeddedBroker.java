@@ -132,6 +132,10 @@ public class EmbeddedBroker implements AutoCloseable {
         }
         String host = configuration.getStringProperty(EmbeddedBrokerConfiguration.KEY_HOST, "localhost");
         int workerthreads = configuration.getIntProperty(EmbeddedBrokerConfiguration.KEY_BROKERWORKERTHREADS, 16);
+        boolean flushconsolidation = configuration.getBooleanProperty(EmbeddedBrokerConfiguration.KEY_FLUSHCONSOLIDATION, false);
+        int flushconsolidationmaxflushes = configuration.getIntProperty(EmbeddedBrokerConfiguration.KEY_FLUSHCONSOLIDATION_MAXFLUSHES, 256);
+        int writebufferlowwatermark = configuration.getIntProperty(EmbeddedBrokerConfiguration.KEY_WRITEBUFFER_LOWWATERMARK, 32 * 1024);
+        int writebufferhighwatermark = configuration.getIntProperty(EmbeddedBrokerConfiguration.KEY_WRITEBUFFER_HIGHWATERMARK, 64 * 1024);
         int port = configuration.getIntProperty(EmbeddedBrokerConfiguration.KEY_PORT, 7862);
         boolean ssl = configuration.getBooleanProperty(EmbeddedBrokerConfiguration.KEY_SSL, false);
         boolean sslunsecure = configuration.getBooleanProperty(EmbeddedBrokerConfiguration.KEY_SSL_UNSECURE, false);
@@ -175,7 +179,9 @@ public class EmbeddedBroker implements AutoCloseable {
                 if (!Files.isDirectory(_snapshotsDirectory)) {
                     Files.createDirectory(_snapshotsDirectory);
                 }
-                statusChangesLog = new FileCommitLog(_logDirectory, _snapshotsDirectory, maxFileSize);
+                FileCommitLog fileCommitLog = new FileCommitLog(_logDirectory, _snapshotsDirectory, maxFileSize);
+                fileCommitLog.setMemoryMappedFiles(configuration.getBooleanProperty(EmbeddedBrokerConfiguration.KEY_LOGSMMAP, false));
+                statusChangesLog = fileCommitLog;
                 break;
             }
             case EmbeddedBrokerConfiguration.MODE_CLUSTERED: {
@@ -208,7 +214,7 @@ public class EmbeddedBroker implements AutoCloseable {
         String sharedSecret = configuration.getStringProperty(EmbeddedBrokerConfiguration.KEY_SHAREDSECRET, EmbeddedBrokerConfiguration.KEY_SHAREDSECRET_DEFAULT);
         brokerConfiguration.setSharedSecret(sharedSecret);
         brokerConfiguration.read(configuration.getProperties());
-        broker = new Broker(brokerConfiguration, statusChangesLog, new TasksHeap(brokerConfiguration.getTasksHeapSize(), taskPropertiesMapperFunction));
+        broker = new Broker(brokerConfiguration, statusChangesLog, new TasksHeap(brokerConfiguration.getTasksHeapSize(), taskPropertiesMapperFunction, brokerConfiguration.getTasksHeapPartitioning()));
         broker.setAuthenticationManager(authenticationManager);
         broker.setGlobalResourceLimitsConfiguration(globalResourceLimitsConfiguration);
         broker.setBrokerId(id);
@@ -226,6 +232,10 @@ public class EmbeddedBroker implements AutoCloseable {
                 server.setSslCertPassword(certpassword);
                 server.setSsl(ssl);
                 server.setWorkerThreads(workerthreads);
+                server.setFlushConsolidation(flushconsolidation);
+                server.setFlushConsolidationMaxFlushes(flushconsolidationmaxflushes);
+                server.setWriteBufferLowWaterMark(writebufferlowwatermark);
+                server.setWriteBufferHighWaterMark(writebufferhighwatermark);
                 break;
             default:
                 throw new IllegalArgumentException("Unsupported mode " + mode);
@@ -28,6 +28,7 @@ public class EmbeddedBrokerConfiguration extends AbstractEmbeddedServiceConfigur
 
     public static final String KEY_LOGSDIRECTORY = "logsdirectory";
     public static final String KEY_LOGSMAXFILESIZE = "logsmaxfilesize";
+    public static final String KEY_LOGSMMAP = "logsmmap";
     public static final String KEY_SNAPSHOTSDIRECTORY = "snapshotsdirectory";
     public static final String KEY_HOST = "broker.host";
     public static final String KEY_PORT = "broker.port";
@@ -47,6 +48,10 @@ public class EmbeddedBrokerConfiguration extends AbstractEmbeddedServiceConfigur
     public static final String KEY_BK_LEDGERSRETENTIONPERIOD = "bookkeeper.ledgersretentionperiod";
 
     public static final String KEY_BROKERWORKERTHREADS = "broker.worker.threads";
+    public static final String KEY_FLUSHCONSOLIDATION = "broker.io.flushconsolidation";
+    public static final String KEY_FLUSHCONSOLIDATION_MAXFLUSHES = "broker.io.flushconsolidation.maxflushes";
+    public static final String KEY_WRITEBUFFER_LOWWATERMARK = "broker.io.writebuffer.lowwatermark";
+    public static final String KEY_WRITEBUFFER_HIGHWATERMARK = "broker.io.writebuffer.highwatermark";
     public static final String KEY_REQUIREAUTHENTICATION = "broker.requireauthentication";
     public static final boolean KEY_REQUIREAUTHENTICATION_DEFAULT = true;
 
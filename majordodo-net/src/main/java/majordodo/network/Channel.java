@@ -81,6 +81,24 @@ public abstract class Channel implements AutoCloseable {
 
     public abstract boolean isValid();
 
+    /**
+     * Tells whether messages can be written without being queued in memory. When the outbound buffer of the channel
+     * exceeds its high water mark this method returns false until the buffer drains under the low water mark, the
+     * {@link ChannelEventListener} will be notified of both changes
+     *
+     * @return
+     */
+    public boolean isWritable() {
+        return true;
+    }
+
+    /**
+     * Enables the compact encoding of the most frequent messages. To be called only when the other side declared
+     * {@link Message#FEATURE_TYPED_ENCODING}, messages are always decoded in any format
+     */
+    public void enableTypedEncoding() {
+    }
+
     public String getName() {
         return name;
     }
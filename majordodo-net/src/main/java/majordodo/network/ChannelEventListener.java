@@ -36,5 +36,14 @@ public interface ChannelEventListener {
     public void messageReceived(Message message);
     
     public void channelClosed();
-    
+
+    /**
+     * Called when the channel stops or starts again being writable
+     *
+     * @param writable
+     * @see Channel#isWritable()
+     */
+    public default void channelWritabilityChanged(boolean writable) {
+    }
+
 }
@@ -19,6 +19,7 @@
  */
 package majordodo.network;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -63,4 +64,23 @@ public interface ConnectionRequestInfo {
     public String getClientType();
 
     public int getMaxThreadPerUserPerTaskTypePercent();
+
+    /**
+     * Optional features of the protocol supported by this client, they are sent to the broker with the connection
+     * request
+     *
+     * @return
+     */
+    public default Map<String, Object> getProtocolFeatures() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Called when the broker accepts the connection
+     *
+     * @param ackParameters parameters of the ACK sent by the broker, they tell which optional features of the protocol
+     * are supported by the broker
+     */
+    public default void connectionAccepted(Map<String, Object> ackParameters) {
+    }
 }
@@ -53,16 +53,82 @@ public final class Message {
         return new Message(null, TYPE_SNAPSHOT_DOWNLOAD_REQUEST, null);
     }
 
+    /**
+     * Requests a snapshot to be downloaded in chunks of the given size. Brokers of previous versions ignore the chunk
+     * size and reply with the whole snapshot
+     *
+     * @param chunkSize
+     * @return
+     * @see #SNAPSHOT_CHUNK_REQUEST(java.lang.String, long, int)
+     */
+    public static Message SNAPSHOT_DOWNLOAD_REQUEST(int chunkSize) {
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("chunkSize", chunkSize);
+        return new Message(null, TYPE_SNAPSHOT_DOWNLOAD_REQUEST, parameters);
+    }
+
     public static Message SNAPSHOT_DOWNLOAD_RESPONSE(byte[] data) {
         HashMap<String, Object> parameters = new HashMap<>();
         parameters.put("data", data);
         return new Message(null, TYPE_SNAPSHOT_DOWNLOAD_RESPONSE, parameters);
     }
 
+    /**
+     * Tells that the snapshot is ready to be downloaded in chunks
+     *
+     * @param snapshotId
+     * @param size size of the serialized snapshot, in bytes
+     * @return
+     */
+    public static Message SNAPSHOT_DOWNLOAD_RESPONSE(String snapshotId, long size) {
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("snapshotId", snapshotId);
+        parameters.put("size", size);
+        return new Message(null, TYPE_SNAPSHOT_DOWNLOAD_RESPONSE, parameters);
+    }
+
+    public static Message SNAPSHOT_CHUNK_REQUEST(String snapshotId, long offset, int length) {
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("snapshotId", snapshotId);
+        parameters.put("offset", offset);
+        parameters.put("length", length);
+        return new Message(null, TYPE_SNAPSHOT_CHUNK_REQUEST, parameters);
+    }
+
+    public static Message SNAPSHOT_CHUNK_RESPONSE(String snapshotId, long offset, byte[] data) {
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("snapshotId", snapshotId);
+        parameters.put("offset", offset);
+        parameters.put("data", data);
+        return new Message(null, TYPE_SNAPSHOT_CHUNK_RESPONSE, parameters);
+    }
+
+    /**
+     * Tells that the snapshot has been completely downloaded and the leader can drop it
+     *
+     * @param snapshotId
+     * @return
+     */
+    public static Message SNAPSHOT_DOWNLOAD_DONE(String snapshotId) {
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("snapshotId", snapshotId);
+        return new Message(null, TYPE_SNAPSHOT_DOWNLOAD_DONE, parameters);
+    }
+
     public static Message TYPE_TASK_ASSIGNED(String workerProcessId, Map<String, Object> taskParameters) {
         return new Message(workerProcessId, TYPE_TASK_ASSIGNED, taskParameters);
     }
 
+    /**
+     * Many tasks assigned to the worker with a single message. Only workers which advertise
+     * {@link #FEATURE_BATCHED_ASSIGNMENTS} on the connection request accept it
+     */
+    public static Message TASKS_ASSIGNED(String workerProcessId, List<Map<String, Object>> tasksData) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("tasks", tasksData);
+        return new Message(workerProcessId, TYPE_TASKS_ASSIGNED, params);
+    }
+
     public static Message KILL_WORKER(String workerProcessId) {
         return new Message(workerProcessId, TYPE_KILL_WORKER, null);
     }
@@ -157,6 +223,47 @@ public final class Message {
         return new Message(processId, TYPE_WORKER_PING, params);
     }
 
+    /**
+     * Incremental ping, it carries only the parameters which changed since the previous ping or since the connection
+     * request. Only brokers which advertise {@link #FEATURE_DELTA_PING} on the connection ACK accept it
+     */
+    public static Message WORKER_PING_DELTA(String processId, Map<String, Object> changedParameters) {
+        Map<String, Object> params = new HashMap<>(changedParameters);
+        params.put("processId", processId);
+        params.put("delta", 1);
+        return new Message(processId, TYPE_WORKER_PING, params);
+    }
+
+    /**
+     * Worker slots released by finished tasks, the broker can assign new tasks in place of them without waiting for the
+     * (batched) {@link #TYPE_TASK_FINISHED} notification. Only brokers which advertise {@link #FEATURE_CREDITS} on the
+     * connection ACK accept it
+     */
+    public static Message WORKER_CREDITS(String processId, List<Long> releasedTasks) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("processId", processId);
+        params.put("releasedTasks", releasedTasks);
+        return new Message(processId, TYPE_WORKER_CREDITS, params);
+    }
+
+    /**
+     * Parameter of the ACK to a connection request (value 1), the broker accepts {@link #TYPE_WORKER_CREDITS} messages
+     */
+    public static final String FEATURE_CREDITS = "credits";
+    /**
+     * Parameter of the ACK to a connection request (value 1), the broker accepts incremental {@link #TYPE_WORKER_PING} messages
+     */
+    public static final String FEATURE_DELTA_PING = "deltaPing";
+    /**
+     * Parameter of the connection request (value 1), the worker accepts {@link #TYPE_TASKS_ASSIGNED} messages
+     */
+    public static final String FEATURE_BATCHED_ASSIGNMENTS = "batchedAssignments";
+    /**
+     * Parameter of the connection request and of its ACK (value 1), the peer is able to decode the compact encoding
+     * of the most frequent messages
+     */
+    public static final String FEATURE_TYPED_ENCODING = "typedEncoding";
+
     public final String workerProcessId;
     public final int type;
     public final Map<String, Object> parameters;
@@ -180,6 +287,11 @@ public final class Message {
     public static final int TYPE_SNAPSHOT_DOWNLOAD_RESPONSE = 10;
     public static final int TYPE_DOWNLOAD_CODEPOOL = 11;
     public static final int TYPE_DOWNLOAD_CODEPOOL_RESPONSE = 12;
+    public static final int TYPE_WORKER_CREDITS = 13;
+    public static final int TYPE_TASKS_ASSIGNED = 14;
+    public static final int TYPE_SNAPSHOT_CHUNK_REQUEST = 15;
+    public static final int TYPE_SNAPSHOT_CHUNK_RESPONSE = 16;
+    public static final int TYPE_SNAPSHOT_DOWNLOAD_DONE = 17;
 
     public static final int TYPE_SASL_TOKEN_MESSAGE_REQUEST = 100;
     public static final int TYPE_SASL_TOKEN_SERVER_RESPONSE = 101;
@@ -211,6 +323,16 @@ public final class Message {
                 return "TYPE_DOWNLOAD_CODEPOOL";
             case TYPE_DOWNLOAD_CODEPOOL_RESPONSE:
                 return "TYPE_DOWNLOAD_CODEPOOL_RESPONSE";
+            case TYPE_WORKER_CREDITS:
+                return "TYPE_WORKER_CREDITS";
+            case TYPE_TASKS_ASSIGNED:
+                return "TYPE_TASKS_ASSIGNED";
+            case TYPE_SNAPSHOT_CHUNK_REQUEST:
+                return "TYPE_SNAPSHOT_CHUNK_REQUEST";
+            case TYPE_SNAPSHOT_CHUNK_RESPONSE:
+                return "TYPE_SNAPSHOT_CHUNK_RESPONSE";
+            case TYPE_SNAPSHOT_DOWNLOAD_DONE:
+                return "TYPE_SNAPSHOT_DOWNLOAD_DONE";
             case TYPE_SASL_TOKEN_MESSAGE_REQUEST:
                 return "SASL_TOKEN_MESSAGE_REQUEST";
             case TYPE_SASL_TOKEN_SERVER_RESPONSE:
@@ -0,0 +1,158 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Messages sent by a {@link Channel} which are waiting for a reply. Each message is tracked by a single entry, keyed by
+ * the numeric id of the message, and it is expired by a timer wheel shared by all the channels, so that the cost of
+ * timeouts does not depend on the number of messages in flight
+ *
+ * @author enrico.olivelli
+ */
+public final class PendingReplies {
+
+    /**
+     * Receives the messages whose reply did not arrive in time
+     */
+    @FunctionalInterface
+    public interface TimeoutListener {
+
+        void replyTimedOut(PendingReply pendingReply);
+    }
+
+    /**
+     * A message waiting for a reply
+     */
+    public static final class PendingReply {
+
+        private final PendingReplies owner;
+        private final long id;
+        private final Message message;
+        private final ReplyCallback callback;
+        private final long deadline;
+
+        // fields managed by ReplyTimeoutWheel, guarded by its lock
+        long deadlineTick;
+        int slot = -1;
+        PendingReply prev;
+        PendingReply next;
+
+        private PendingReply(PendingReplies owner, long id, Message message, ReplyCallback callback, long deadline) {
+            this.owner = owner;
+            this.id = id;
+            this.message = message;
+            this.callback = callback;
+            this.deadline = deadline;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        public ReplyCallback getCallback() {
+            return callback;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        void expired() {
+            if (owner.entries.remove(id, this)) {
+                owner.timeoutListener.replyTimedOut(this);
+            }
+        }
+
+    }
+
+    private final Map<Long, PendingReply> entries = new ConcurrentHashMap<>();
+    private final TimeoutListener timeoutListener;
+
+    public PendingReplies(TimeoutListener timeoutListener) {
+        this.timeoutListener = timeoutListener;
+    }
+
+    /**
+     * Parses the id of a message generated by a channel of this version
+     *
+     * @param messageId
+     * @return the numeric id or -1 if the id is not numeric
+     */
+    public static long parseMessageId(String messageId) {
+        if (messageId == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(messageId);
+        } catch (NumberFormatException notGeneratedByUs) {
+            return -1;
+        }
+    }
+
+    public void register(long id, Message message, ReplyCallback callback, long timeout) {
+        PendingReply pendingReply = new PendingReply(this, id, message, callback, System.currentTimeMillis() + timeout);
+        entries.put(id, pendingReply);
+        ReplyTimeoutWheel.INSTANCE.schedule(pendingReply);
+    }
+
+    /**
+     * Removes the message, because its reply has been received
+     *
+     * @param id
+     * @return the pending message, or null if it timed out or if the reply was already received
+     */
+    public PendingReply remove(long id) {
+        PendingReply pendingReply = entries.remove(id);
+        if (pendingReply != null) {
+            ReplyTimeoutWheel.INSTANCE.cancel(pendingReply);
+        }
+        return pendingReply;
+    }
+
+    /**
+     * Removes all the messages, usually because the channel has been closed
+     *
+     * @return the messages which were waiting for a reply
+     */
+    public List<PendingReply> removeAll() {
+        List<PendingReply> res = new ArrayList<>(entries.size());
+        for (Long id : entries.keySet()) {
+            PendingReply pendingReply = remove(id);
+            if (pendingReply != null) {
+                res.add(pendingReply);
+            }
+        }
+        return res;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timer wheel which expires {@link PendingReplies.PendingReply} entries. Scheduling and cancellation are O(1),
+ * every tick visits only the entries of one slot. A single daemon thread, started at the first use, serves all the
+ * channels of the JVM
+ *
+ * @author enrico.olivelli
+ */
+final class ReplyTimeoutWheel {
+
+    private static final Logger LOGGER = Logger.getLogger(ReplyTimeoutWheel.class.getName());
+
+    static final ReplyTimeoutWheel INSTANCE = new ReplyTimeoutWheel(
+        Long.getLong("majordodo.network.replytimeouts.tick", 50),
+        Integer.getInteger("majordodo.network.replytimeouts.slots", 1024));
+
+    private final long tickDuration;
+    private final int mask;
+    private final PendingReplies.PendingReply[] slots;
+    private final Object lock = new Object();
+    private long processedTick;
+    private Thread thread;
+
+    ReplyTimeoutWheel(long tickDuration, int numSlots) {
+        this.tickDuration = tickDuration;
+        int size = Integer.highestOneBit(Math.max(numSlots, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.slots = new PendingReplies.PendingReply[size];
+        this.processedTick = System.currentTimeMillis() / tickDuration;
+    }
+
+    void schedule(PendingReplies.PendingReply entry) {
+        long deadlineTick = (entry.getDeadline() + tickDuration - 1) / tickDuration;
+        synchronized (lock) {
+            if (deadlineTick <= processedTick) {
+                deadlineTick = processedTick + 1;
+            }
+            entry.deadlineTick = deadlineTick;
+            int slot = (int) (deadlineTick & mask);
+            entry.slot = slot;
+            entry.prev = null;
+            entry.next = slots[slot];
+            if (entry.next != null) {
+                entry.next.prev = entry;
+            }
+            slots[slot] = entry;
+            if (thread == null) {
+                thread = new Thread(this::run, "majordodo-reply-timeouts");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    void cancel(PendingReplies.PendingReply entry) {
+        synchronized (lock) {
+            unlink(entry);
+        }
+    }
+
+    private void unlink(PendingReplies.PendingReply entry) {
+        if (entry.slot < 0) {
+            return;
+        }
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            slots[entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.slot = -1;
+    }
+
+    /**
+     * Advances the wheel up to the given tick
+     *
+     * @return the expired entries
+     */
+    List<PendingReplies.PendingReply> advance(long tick) {
+        List<PendingReplies.PendingReply> expired = new ArrayList<>();
+        synchronized (lock) {
+            // after a long pause visit each slot at most once
+            long from = Math.max(processedTick + 1, tick - mask);
+            for (long t = from; t <= tick; t++) {
+                PendingReplies.PendingReply entry = slots[(int) (t & mask)];
+                while (entry != null) {
+                    PendingReplies.PendingReply next = entry.next;
+                    if (entry.deadlineTick <= tick) {
+                        unlink(entry);
+                        expired.add(entry);
+                    }
+                    entry = next;
+                }
+            }
+            if (tick > processedTick) {
+                processedTick = tick;
+            }
+        }
+        return expired;
+    }
+
+    private void run() {
+        while (true) {
+            long now = System.currentTimeMillis();
+            long tick = now / tickDuration;
+            for (PendingReplies.PendingReply entry : advance(tick)) {
+                try {
+                    entry.expired();
+                } catch (Throwable error) {
+                    LOGGER.log(Level.SEVERE, "error while expiring message " + entry.getMessage(), error);
+                }
+            }
+            long wait = (tick + 1) * tickDuration - System.currentTimeMillis();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException exit) {
+                    LOGGER.log(Level.SEVERE, "reply timeouts thread interrupted");
+                    return;
+                }
+            }
+        }
+    }
+}
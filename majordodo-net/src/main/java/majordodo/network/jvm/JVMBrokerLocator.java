@@ -71,9 +71,15 @@ public class JVMBrokerLocator implements BrokerLocator {
             workerInfo.getLocation(), workerInfo.getSharedSecret(), workerInfo.getRunningTaskIds(), workerInfo.getMaxThreads(),
             workerInfo.getMaxThreadsByTaskType(), workerInfo.getGroups(), workerInfo.getExcludedGroups(), workerInfo.getResourceLimits(),
             workerInfo.getClientType(), workerInfo.getMaxThreadPerUserPerTaskTypePercent());
+        acceptMessage.parameters.putAll(workerInfo.getProtocolFeatures());
+        acceptMessage.parameters.put(Message.FEATURE_TYPED_ENCODING, 1);
         try {
             Message connectionResponse = workerSide.sendMessageWithReply(acceptMessage, 10000);
             if (connectionResponse.type == Message.TYPE_ACK) {
+                if (Integer.valueOf(1).equals(connectionResponse.parameters.get(Message.FEATURE_TYPED_ENCODING))) {
+                    workerSide.enableTypedEncoding();
+                }
+                workerInfo.connectionAccepted(connectionResponse.parameters);
                 return workerSide;
             } else {
                 throw new BrokerRejectedConnectionException("Broker rejected connection, response message:" + connectionResponse);
@@ -24,14 +24,15 @@ import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledHeapByteBuf;
 import majordodo.network.Channel;
 import majordodo.network.Message;
+import majordodo.network.PendingReplies;
 import majordodo.network.ReplyCallback;
 import majordodo.network.SendResultCallback;
-import java.util.Map;
+import java.io.IOException;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import majordodo.network.netty.DodoMessageUtils;
@@ -45,12 +46,13 @@ public class JVMChannel extends Channel {
 
     private static final Logger LOGGER = Logger.getLogger(JVMChannel.class.getName());
     private volatile boolean active = false;
-    private final Map<String, ReplyCallback> pendingReplyMessages = new ConcurrentHashMap<>();
-    private final Map<String, Message> pendingReplyMessagesSource = new ConcurrentHashMap<>();
+    private final PendingReplies pendingReplies = new PendingReplies(this::replyTimedOut);
     private JVMChannel otherSide;
     private final ExecutorService callbackexecutor = Executors.newCachedThreadPool();
     private final ExecutorService executionserializer = Executors.newFixedThreadPool(1);
     private String id = UUID.randomUUID().toString();
+    private final AtomicLong messageIdGenerator = new AtomicLong();
+    private volatile boolean typedEncoding;
 
     @Override
     public String toString() {
@@ -62,7 +64,7 @@ public class JVMChannel extends Channel {
 
     private Message cloneMessage(Message message) {
         ByteBuf buf = Unpooled.buffer();
-        DodoMessageUtils.encodeMessage(buf, message);
+        DodoMessageUtils.encodeMessage(buf, message, typedEncoding);
         return DodoMessageUtils.decodeMessage(buf);
     }
 
@@ -84,6 +86,16 @@ public class JVMChannel extends Channel {
         }
     }
 
+    private String nextMessageId() {
+        // ids must be unique only inside the channel
+        return Long.toString(messageIdGenerator.incrementAndGet());
+    }
+
+    @Override
+    public void enableTypedEncoding() {
+        typedEncoding = true;
+    }
+
     public void setOtherSide(JVMChannel brokerSide) {
         this.otherSide = brokerSide;
         this.active = true;
@@ -91,7 +103,7 @@ public class JVMChannel extends Channel {
 
     @Override
     public void sendOneWayMessage(Message message, SendResultCallback callback) {
-        message.setMessageId(UUID.randomUUID().toString());
+        message.setMessageId(nextMessageId());
         Message _message = cloneMessage(message);
 //        System.out.println("[JVM] sendOneWayMessage " + message);
         if (!active || executionserializer.isShutdown()) {
@@ -108,22 +120,24 @@ public class JVMChannel extends Channel {
 
     private void handleReply(Message anwermessage) {
 
-        final ReplyCallback callback = pendingReplyMessages.get(anwermessage.getReplyMessageId());
-//        System.out.println("[JVM] handleReply " + anwermessage + " callback=" + callback + ", pendingReplyMessages=" + pendingReplyMessages);
-        if (callback != null) {
-            pendingReplyMessages.remove(anwermessage.getReplyMessageId());
-            Message original = pendingReplyMessagesSource.remove(anwermessage.getReplyMessageId());
-            if (original != null) {
-                submitCallback(() -> {
-                    callback.replyReceived(original, anwermessage, null);
-                });
-            }
+        PendingReplies.PendingReply pending = pendingReplies.remove(PendingReplies.parseMessageId(anwermessage.getReplyMessageId()));
+        if (pending != null) {
+            submitCallback(() -> {
+                pending.getCallback().replyReceived(pending.getMessage(), anwermessage, null);
+            });
         }
     }
 
+    private void replyTimedOut(PendingReplies.PendingReply pending) {
+        LOGGER.log(Level.SEVERE, this + " message " + pending.getMessage() + " without reply");
+        submitCallback(() -> {
+            pending.getCallback().replyReceived(pending.getMessage(), null, new IOException(this + " reply timeout expired"));
+        });
+    }
+
     @Override
     public void sendReplyMessage(Message inAnswerTo, Message message) {
-        message.setMessageId(UUID.randomUUID().toString());
+        message.setMessageId(nextMessageId());
         Message _message = cloneMessage(message);
         if (executionserializer.isShutdown()) {
             LOGGER.log(Level.FINER, "channel shutdown, discarding reply message " + _message);
@@ -149,7 +163,7 @@ public class JVMChannel extends Channel {
 
     @Override
     public void sendMessageWithAsyncReply(Message message, long timeout, ReplyCallback callback) {
-        message.setMessageId(UUID.randomUUID().toString());
+        message.setMessageId(nextMessageId());
         Message _message = cloneMessage(message);
         if (executionserializer.isShutdown()) {
             LOGGER.log(Level.FINE, "[JVM] channel shutdown, discarding sendMessageWithAsyncReply");
@@ -163,8 +177,7 @@ public class JVMChannel extends Channel {
                 });
                 return;
             }
-            pendingReplyMessages.put(_message.getMessageId(), callback);
-            pendingReplyMessagesSource.put(_message.getMessageId(), _message);
+            pendingReplies.register(Long.parseLong(_message.getMessageId()), _message, callback, timeout);
             otherSide.receiveMessageFromPeer(_message);
         });
     }
@@ -183,15 +196,11 @@ public class JVMChannel extends Channel {
         closed = true;
         LOGGER.log(Level.FINEST, this + ": closing");
         active = false;
-        pendingReplyMessages.forEach((key, callback) -> {
+        for (PendingReplies.PendingReply pending : pendingReplies.removeAll()) {
             submitCallback(() -> {
-                Message original = pendingReplyMessagesSource.remove(key);
-                if (original != null) {
-                    callback.replyReceived(original, null, new Exception("comunication channel closed"));
-                }
+                pending.getCallback().replyReceived(pending.getMessage(), null, new Exception("comunication channel closed"));
             });
-        });
-        pendingReplyMessages.clear();
+        }
 
         if (otherSide.active) {
             otherSide.close();
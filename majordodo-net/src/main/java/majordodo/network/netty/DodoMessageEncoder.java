@@ -33,11 +33,22 @@ import java.nio.charset.StandardCharsets;
  */
 public class DodoMessageEncoder extends ChannelOutboundHandlerAdapter {
 
+    private volatile boolean typedEncoding;
+
+    /**
+     * Enables the compact encoding of the most frequent messages
+     *
+     * @see DodoMessageUtils#encodeMessage(io.netty.buffer.ByteBuf, majordodo.network.Message, boolean)
+     */
+    public void setTypedEncoding(boolean typedEncoding) {
+        this.typedEncoding = typedEncoding;
+    }
+
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
         Message m = (Message) msg;
         ByteBuf encoded = ctx.alloc().buffer();
-        DodoMessageUtils.encodeMessage(encoded, m);
+        DodoMessageUtils.encodeMessage(encoded, m, typedEncoding);
         ctx.writeAndFlush(encoded, promise);
     }
 
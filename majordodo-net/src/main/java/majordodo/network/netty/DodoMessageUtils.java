@@ -65,6 +65,21 @@ public class DodoMessageUtils {
     }
 
     public static void encodeMessage(ByteBuf encoded, Message m) {
+        encodeMessage(encoded, m, false);
+    }
+
+    /**
+     * Encodes a message
+     *
+     * @param encoded
+     * @param m
+     * @param typedEncoding use the compact encoding for the most frequent messages, only if the other side declared
+     * that it is able to decode it
+     */
+    public static void encodeMessage(ByteBuf encoded, Message m, boolean typedEncoding) {
+        if (typedEncoding && TypedMessageCodec.encodeMessage(encoded, m)) {
+            return;
+        }
         encoded.writeByte(VERSION);
         encoded.writeInt(m.type);
         writeUTF8String(encoded, m.messageId);
@@ -184,6 +199,9 @@ public class DodoMessageUtils {
 
     public static Message decodeMessage(ByteBuf encoded) {
         byte version = encoded.readByte();
+        if (version == TypedMessageCodec.VERSION) {
+            return TypedMessageCodec.decodeMessage(encoded);
+        }
         if (version != VERSION) {
             throw new RuntimeException("bad protocol version " + version);
         }
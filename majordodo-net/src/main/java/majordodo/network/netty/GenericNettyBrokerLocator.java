@@ -88,9 +88,15 @@ public abstract class GenericNettyBrokerLocator implements BrokerLocator {
                 workerInfo.getRunningTaskIds(), workerInfo.getMaxThreads(), workerInfo.getMaxThreadsByTaskType(),
                 workerInfo.getGroups(), workerInfo.getExcludedGroups(), workerInfo.getResourceLimits(),
                 workerInfo.getClientType(), workerInfo.getMaxThreadPerUserPerTaskTypePercent());
+            acceptMessage.parameters.putAll(workerInfo.getProtocolFeatures());
+            acceptMessage.parameters.put(Message.FEATURE_TYPED_ENCODING, 1);
             try {
                 Message connectionResponse = channel.sendMessageWithReply(acceptMessage, 10000);
                 if (connectionResponse.type == Message.TYPE_ACK) {
+                    if (Integer.valueOf(1).equals(connectionResponse.parameters.get(Message.FEATURE_TYPED_ENCODING))) {
+                        channel.enableTypedEncoding();
+                    }
+                    workerInfo.connectionAccepted(connectionResponse.parameters);
                     ok = true;
                     return channel;
                 } else {
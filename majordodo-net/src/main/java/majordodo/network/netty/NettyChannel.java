@@ -21,17 +21,13 @@ package majordodo.network.netty;
 
 import majordodo.network.Channel;
 import majordodo.network.Message;
+import majordodo.network.PendingReplies;
 import majordodo.network.ReplyCallback;
 import majordodo.network.SendResultCallback;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
@@ -50,18 +46,17 @@ public class NettyChannel extends Channel {
     private static final Logger LOGGER = Logger.getLogger(NettyChannel.class.getName());
     private static final AtomicLong idGenerator = new AtomicLong();
 
-    private final Map<String, ReplyCallback> pendingReplyMessages = new ConcurrentHashMap<>();
-    private final Map<String, Message> pendingReplyMessagesSource = new ConcurrentHashMap<>();
-    private final Map<String, Long> pendingReplyMessagesDeadline = new ConcurrentHashMap<>();
+    private final PendingReplies pendingReplies = new PendingReplies(this::replyTimedOut);
     private final ExecutorService callbackexecutor;
     private final NettyConnector connector;
     private boolean ioErrors = false;
     private final long id = idGenerator.incrementAndGet();
+    private final AtomicLong messageIdGenerator = new AtomicLong();
     private final boolean disconnectOnReplyTimeout;
 
     @Override
     public String toString() {
-        return "NettyChannel{name=" + name + ", id=" + id + ", socket=" + socket + " pending " + pendingReplyMessages.size() + " msgs}";
+        return "NettyChannel{name=" + name + ", id=" + id + ", socket=" + socket + " pending " + pendingReplies.size() + " msgs}";
     }
 
     public NettyChannel(String name, SocketChannel socket, ExecutorService callbackexecutor, NettyConnector connector) {
@@ -72,6 +67,22 @@ public class NettyChannel extends Channel {
         this.disconnectOnReplyTimeout = (connector == null); // only server-side
     }
 
+    private String nextMessageId() {
+        // ids must be unique only inside the channel
+        return Long.toString(messageIdGenerator.incrementAndGet());
+    }
+
+    @Override
+    public void enableTypedEncoding() {
+        SocketChannel _socket = this.socket;
+        if (_socket != null) {
+            DodoMessageEncoder encoder = _socket.pipeline().get(DodoMessageEncoder.class);
+            if (encoder != null) {
+                encoder.setTypedEncoding(true);
+            }
+        }
+    }
+
     public void messageReceived(Message message) {
         if (message.getReplyMessageId() != null) {
             handleReply(message);
@@ -88,13 +99,15 @@ public class NettyChannel extends Channel {
     }
 
     private void handleReply(Message anwermessage) {
-        final ReplyCallback callback = pendingReplyMessages.get(anwermessage.getReplyMessageId());
-        pendingReplyMessages.remove(anwermessage.getReplyMessageId());
-        pendingReplyMessagesDeadline.remove(anwermessage.getReplyMessageId());
-        Message original = pendingReplyMessagesSource.remove(anwermessage.getReplyMessageId());
-        if (callback != null && original != null) {
+        long messageId = PendingReplies.parseMessageId(anwermessage.getReplyMessageId());
+        if (messageId < 0) {
+            LOGGER.log(Level.SEVERE, this + " discarding reply to unknown message " + anwermessage);
+            return;
+        }
+        PendingReplies.PendingReply pending = pendingReplies.remove(messageId);
+        if (pending != null) {
             submitCallback(() -> {
-                callback.replyReceived(original, anwermessage, null);
+                pending.getCallback().replyReceived(pending.getMessage(), anwermessage, null);
             });
         }
     }
@@ -102,7 +115,7 @@ public class NettyChannel extends Channel {
     @Override
     public void sendOneWayMessage(Message message, SendResultCallback callback) {
         if (message.getMessageId() == null) {
-            message.setMessageId(UUID.randomUUID().toString());
+            message.setMessageId(nextMessageId());
         }
         SocketChannel _socket = this.socket;
         if (_socket == null || !_socket.isOpen()) {
@@ -128,7 +141,7 @@ public class NettyChannel extends Channel {
     @Override
     public void sendReplyMessage(Message inAnswerTo, Message message) {
         if (message.getMessageId() == null) {
-            message.setMessageId(UUID.randomUUID().toString());
+            message.setMessageId(nextMessageId());
         }
         if (this.socket == null) {
             LOGGER.log(Level.SEVERE, this + " channel not active, discarding reply message " + message);
@@ -146,42 +159,27 @@ public class NettyChannel extends Channel {
         });
     }
 
-    private void processPendingReplyMessagesDeadline() {
-        List<String> messagesWithNoReply = new ArrayList<>();
-        long now = System.currentTimeMillis();
-        pendingReplyMessagesDeadline.forEach((messageId, deadline) -> {
-            if (deadline < now) {
-                messagesWithNoReply.add(messageId);
-            }
-        });
-        if (messagesWithNoReply.isEmpty()) {
-            return;
-        }
-        if (DISCONNECT_ON_PENDING_REPLY_TIMEOUT && disconnectOnReplyTimeout) {
-            LOGGER.log(Level.SEVERE, this + " found " + messagesWithNoReply.size() + " without reply, channel will be closed");
+    private void replyTimedOut(PendingReplies.PendingReply pending) {
+        boolean disconnect = DISCONNECT_ON_PENDING_REPLY_TIMEOUT && disconnectOnReplyTimeout;
+        if (disconnect) {
+            LOGGER.log(Level.SEVERE, this + " message " + pending.getMessage() + " without reply, channel will be closed");
             ioErrors = true;
         } else {
-            LOGGER.log(Level.SEVERE, this + " found " + messagesWithNoReply.size() + " without reply");
-        }
-        for (String messageId : messagesWithNoReply) {
-            Message original = pendingReplyMessagesSource.remove(messageId);
-            ReplyCallback callback = pendingReplyMessages.remove(messageId);
-            pendingReplyMessagesDeadline.remove(messageId);
-            if (original != null && callback != null) {
-                submitCallback(() -> {
-                    callback.replyReceived(original, null, new IOException(this + " reply timeout expired"));
-                });
-            }
+            LOGGER.log(Level.SEVERE, this + " message " + pending.getMessage() + " without reply");
         }
-        if (DISCONNECT_ON_PENDING_REPLY_TIMEOUT && disconnectOnReplyTimeout) {
-            close();
+        submitCallback(() -> {
+            pending.getCallback().replyReceived(pending.getMessage(), null, new IOException(this + " reply timeout expired"));
+        });
+        if (disconnect) {
+            // do not block the timer thread while waiting for the socket to close
+            submitCallback(this::close);
         }
     }
 
     @Override
     public void sendMessageWithAsyncReply(Message message, long timeout, ReplyCallback callback) {
-        if (message.getMessageId() == null) {
-            message.setMessageId(UUID.randomUUID().toString());
+        if (PendingReplies.parseMessageId(message.getMessageId()) < 0) {
+            message.setMessageId(nextMessageId());
         }
         if (!isValid()) {
             submitCallback(() -> {
@@ -189,9 +187,7 @@ public class NettyChannel extends Channel {
             });
             return;
         }
-        pendingReplyMessages.put(message.getMessageId(), callback);
-        pendingReplyMessagesSource.put(message.getMessageId(), message);
-        pendingReplyMessagesDeadline.put(message.getMessageId(), System.currentTimeMillis() + timeout);
+        pendingReplies.register(Long.parseLong(message.getMessageId()), message, callback, timeout);
         sendOneWayMessage(message, new SendResultCallback() {
 
             @Override
@@ -212,6 +208,12 @@ public class NettyChannel extends Channel {
         return _socket != null && _socket.isOpen() && !ioErrors;
     }
 
+    @Override
+    public boolean isWritable() {
+        SocketChannel _socket = socket;
+        return _socket != null && _socket.isWritable();
+    }
+
     private volatile boolean closed = false;
 
     @Override
@@ -232,18 +234,12 @@ public class NettyChannel extends Channel {
             }
         }
 
-        pendingReplyMessages.forEach((key, callback) -> {
-            Message original = pendingReplyMessagesSource.remove(key);
-            LOGGER.log(Level.SEVERE, this + " message " + key + " was not replied (" + original + ") callback:" + callback);
-            if (original != null) {
-                submitCallback(() -> {
-                    callback.replyReceived(original, null, new IOException("comunication channel is closed. Cannot wait for pending messages, socket=" + socketDescription));
-                });
-            }
-        });
-        pendingReplyMessages.clear();
-        pendingReplyMessagesSource.clear();
-        pendingReplyMessagesDeadline.clear();
+        for (PendingReplies.PendingReply pending : pendingReplies.removeAll()) {
+            LOGGER.log(Level.SEVERE, this + " message " + pending.getId() + " was not replied (" + pending.getMessage() + ") callback:" + pending.getCallback());
+            submitCallback(() -> {
+                pending.getCallback().replyReceived(pending.getMessage(), null, new IOException("comunication channel is closed. Cannot wait for pending messages, socket=" + socketDescription));
+            });
+        }
 
         if (connector != null) {
             connector.close();
@@ -255,6 +251,15 @@ public class NettyChannel extends Channel {
         ioErrors = true;
     }
 
+    void channelWritabilityChanged(boolean writable) {
+        LOGGER.log(writable ? Level.FINE : Level.INFO, "{0} writable: {1}", new Object[]{this, writable});
+        submitCallback(() -> {
+            if (this.messagesReceiver != null) {
+                this.messagesReceiver.channelWritabilityChanged(writable);
+            }
+        });
+    }
+
     void channelClosed() {
         submitCallback(() -> {
             if (this.messagesReceiver != null) {
@@ -280,8 +285,8 @@ public class NettyChannel extends Channel {
 
     @Override
     public void channelIdle() {
+        // reply timeouts are expired by the PendingReplies timer wheel
         LOGGER.log(Level.FINEST, "{0} channelIdle", this);
-        processPendingReplyMessagesDeadline();
     }
 
     public String getName() {
@@ -26,6 +26,7 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -33,6 +34,7 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.SslProvider;
@@ -65,6 +67,10 @@ public class NettyChannelAcceptor implements AutoCloseable {
     private File sslCertFile;
     private String sslCertPassword;
     private int workerThreads = 16;
+    private boolean flushConsolidation = NetworkUtils.isFlushConsolidation();
+    private int flushConsolidationMaxFlushes = NetworkUtils.getFlushConsolidationMaxFlushes();
+    private int writeBufferLowWaterMark = NetworkUtils.getWriteBufferLowWaterMark();
+    private int writeBufferHighWaterMark = NetworkUtils.getWriteBufferHighWaterMark();
     private final ExecutorService callbackExecutor = Executors.newCachedThreadPool();
 
     public int getWorkerThreads() {
@@ -75,6 +81,38 @@ public class NettyChannelAcceptor implements AutoCloseable {
         this.workerThreads = workerThreads;
     }
 
+    public boolean isFlushConsolidation() {
+        return flushConsolidation;
+    }
+
+    public void setFlushConsolidation(boolean flushConsolidation) {
+        this.flushConsolidation = flushConsolidation;
+    }
+
+    public int getFlushConsolidationMaxFlushes() {
+        return flushConsolidationMaxFlushes;
+    }
+
+    public void setFlushConsolidationMaxFlushes(int flushConsolidationMaxFlushes) {
+        this.flushConsolidationMaxFlushes = flushConsolidationMaxFlushes;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
     public boolean isSsl() {
         return ssl;
     }
@@ -182,6 +220,7 @@ public class NettyChannelAcceptor implements AutoCloseable {
             bossGroup = new NioEventLoopGroup(workerThreads);
             workerGroup = new NioEventLoopGroup(workerThreads);
         }
+        WriteBufferWaterMark writeBufferWaterMark = NetworkUtils.newWriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark);
         ServerBootstrap b = new ServerBootstrap();
         b.group(bossGroup, workerGroup)
             .channel(NetworkUtils.isEnableEpollNative() ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
@@ -199,6 +238,9 @@ public class NettyChannelAcceptor implements AutoCloseable {
                         ch.pipeline().addLast(sslCtx.newHandler(ch.alloc()));
                     }
 
+                    if (flushConsolidation) {
+                        ch.pipeline().addLast("flushconsolidation", new FlushConsolidationHandler(flushConsolidationMaxFlushes, true));
+                    }
                     ch.pipeline().addLast("lengthprepender", new LengthFieldPrepender(4));
                     ch.pipeline().addLast("lengthbaseddecoder", new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0, 4, 0, 4));
 //
@@ -208,7 +250,10 @@ public class NettyChannelAcceptor implements AutoCloseable {
                 }
             })
             .option(ChannelOption.SO_BACKLOG, 128)
-            .childOption(ChannelOption.SO_KEEPALIVE, true);
+            .childOption(ChannelOption.SO_KEEPALIVE, true)
+            .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark);
+        LOGGER.log(Level.INFO, "flushConsolidation:" + flushConsolidation + " (max " + flushConsolidationMaxFlushes + " flushes)"
+            + ", write buffer watermarks " + writeBufferWaterMark.low() + "-" + writeBufferWaterMark.high());
 
         ChannelFuture f = b.bind(host, port).sync(); // (7)
         this.channel = f.channel();
@@ -33,6 +33,7 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.SslProvider;
@@ -59,6 +60,42 @@ public class NettyConnector implements AutoCloseable {
     private boolean sslUnsecure = true;
     private final ChannelEventListener receiver;
     private final ExecutorService callbackExecutor = Executors.newCachedThreadPool();
+    private boolean flushConsolidation = NetworkUtils.isFlushConsolidation();
+    private int flushConsolidationMaxFlushes = NetworkUtils.getFlushConsolidationMaxFlushes();
+    private int writeBufferLowWaterMark = NetworkUtils.getWriteBufferLowWaterMark();
+    private int writeBufferHighWaterMark = NetworkUtils.getWriteBufferHighWaterMark();
+
+    public boolean isFlushConsolidation() {
+        return flushConsolidation;
+    }
+
+    public void setFlushConsolidation(boolean flushConsolidation) {
+        this.flushConsolidation = flushConsolidation;
+    }
+
+    public int getFlushConsolidationMaxFlushes() {
+        return flushConsolidationMaxFlushes;
+    }
+
+    public void setFlushConsolidationMaxFlushes(int flushConsolidationMaxFlushes) {
+        this.flushConsolidationMaxFlushes = flushConsolidationMaxFlushes;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
 
     public boolean isSslUnsecure() {
         return sslUnsecure;
@@ -120,6 +157,7 @@ public class NettyConnector implements AutoCloseable {
         b.group(group)
             .channel(NetworkUtils.isEnableEpollNative() ? EpollSocketChannel.class : NioSocketChannel.class)
             .option(ChannelOption.TCP_NODELAY, true)
+            .option(ChannelOption.WRITE_BUFFER_WATER_MARK, NetworkUtils.newWriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark))
             .handler(new ChannelInitializer<SocketChannel>() {
                 @Override
                 public void initChannel(SocketChannel ch) throws Exception {
@@ -129,6 +167,9 @@ public class NettyConnector implements AutoCloseable {
                     if (ssl) {
                         ch.pipeline().addLast(sslCtx.newHandler(ch.alloc(), host, port));
                     }
+                    if (flushConsolidation) {
+                        ch.pipeline().addLast("flushconsolidation", new FlushConsolidationHandler(flushConsolidationMaxFlushes, true));
+                    }
                     ch.pipeline().addLast("lengthprepender", new LengthFieldPrepender(4));
                     ch.pipeline().addLast("lengthbaseddecoder", new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0, 4, 0, 4));
 //
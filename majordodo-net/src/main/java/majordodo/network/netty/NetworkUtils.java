@@ -19,6 +19,7 @@
  */
 package majordodo.network.netty;
 
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.handler.ssl.OpenSsl;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,6 +32,77 @@ public class NetworkUtils {
     private static final boolean ENABLE_OPENSSL
         = !Boolean.getBoolean("majordodo.network.disableopenssl");
 
+    private static final boolean FLUSH_CONSOLIDATION
+        = Boolean.getBoolean("majordodo.network.flushconsolidation");
+
+    private static final int FLUSH_CONSOLIDATION_MAX_FLUSHES
+        = Integer.getInteger("majordodo.network.flushconsolidation.maxflushes", 256);
+
+    private static final int WRITE_BUFFER_LOW_WATER_MARK
+        = Integer.getInteger("majordodo.network.writebuffer.lowwatermark", 32 * 1024);
+
+    private static final int WRITE_BUFFER_HIGH_WATER_MARK
+        = Integer.getInteger("majordodo.network.writebuffer.highwatermark", 64 * 1024);
+
+    /**
+     * Default for the consolidation of flushes: writes issued in the same event-loop iteration are sent to the socket
+     * with a single flush
+     *
+     * @return
+     */
+    public static boolean isFlushConsolidation() {
+        return FLUSH_CONSOLIDATION;
+    }
+
+    /**
+     * Default maximum number of flushes which can be consolidated before an explicit flush is forced
+     *
+     * @return
+     */
+    public static int getFlushConsolidationMaxFlushes() {
+        return FLUSH_CONSOLIDATION_MAX_FLUSHES;
+    }
+
+    /**
+     * Default amount of pending outbound bytes under which a channel which was not writable becomes writable again
+     *
+     * @return
+     */
+    public static int getWriteBufferLowWaterMark() {
+        return WRITE_BUFFER_LOW_WATER_MARK;
+    }
+
+    /**
+     * Default amount of pending outbound bytes over which a channel is not writable
+     *
+     * @return
+     */
+    public static int getWriteBufferHighWaterMark() {
+        return WRITE_BUFFER_HIGH_WATER_MARK;
+    }
+
+    /**
+     * Creates the watermarks of the write buffer of a channel. A low watermark greater than the high watermark (for
+     * instance when only the high watermark has been configured under the default low watermark) is lowered to the
+     * high watermark
+     *
+     * @param low
+     * @param high
+     * @return
+     * @throws IllegalArgumentException if a watermark is negative
+     */
+    public static WriteBufferWaterMark newWriteBufferWaterMark(int low, int high) {
+        if (low < 0 || high < 0) {
+            throw new IllegalArgumentException("invalid write buffer watermarks " + low + "-" + high);
+        }
+        if (low > high) {
+            LOG.log(Level.INFO, "write buffer low watermark {0} is greater than the high watermark, using {1}",
+                new Object[]{low, high});
+            low = high;
+        }
+        return new WriteBufferWaterMark(low, high);
+    }
+
     public static boolean isEnableEpollNative() {
         return ENABLE_EPOLL_NATIVE;
     }
@@ -0,0 +1,410 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.network.netty;
+
+import io.netty.buffer.ByteBuf;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import majordodo.network.Message;
+
+/**
+ * Compact encoding for the most frequent messages. Parameter names are replaced by numeric tags, numbers are written
+ * as varints and message ids as numbers. Messages which contain unknown parameters or values are written using the
+ * generic encoding of {@link DodoMessageUtils}
+ *
+ * @author enrico.olivelli
+ */
+final class TypedMessageCodec {
+
+    static final byte VERSION = 'b';
+
+    private static final byte KIND_NULL = 0;
+    private static final byte KIND_STRING = 1;
+    private static final byte KIND_INT = 2;
+    private static final byte KIND_LONG = 3;
+    private static final byte KIND_LIST = 4;
+    private static final byte KIND_SET = 5;
+    private static final byte KIND_MAP = 6;
+    /**
+     * Map whose keys are all known parameter names
+     */
+    private static final byte KIND_FIELDS = 7;
+
+    /**
+     * Names of parameters, the index is the tag written on the wire. Never change the position of existing entries
+     */
+    private static final String[] FIELDS = {
+        null,
+        "processId",
+        "groups",
+        "excludedGroups",
+        "maxThreadsByTaskType",
+        "maxThreads",
+        "resources",
+        "maxThreadPerUserPerTaskTypePercent",
+        "delta",
+        "taskid",
+        "tasktype",
+        "parameter",
+        "attempt",
+        "userid",
+        "mode",
+        "codepool",
+        "tasksData",
+        "status",
+        "result",
+        "error",
+        "tasks",
+        "releasedTasks"
+    };
+
+    private static final Map<String, Integer> TAGS = new HashMap<>();
+
+    static {
+        for (int i = 1; i < FIELDS.length; i++) {
+            TAGS.put(FIELDS[i], i);
+        }
+    }
+
+    private TypedMessageCodec() {
+    }
+
+    private static boolean isTypedMessage(int type) {
+        switch (type) {
+            case Message.TYPE_TASK_ASSIGNED:
+            case Message.TYPE_TASKS_ASSIGNED:
+            case Message.TYPE_TASK_FINISHED:
+            case Message.TYPE_WORKER_PING:
+            case Message.TYPE_WORKER_CREDITS:
+            case Message.TYPE_ACK:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Encodes the message
+     *
+     * @return false if the message cannot be represented with this encoding, in this case nothing is written to the
+     * buffer
+     */
+    static boolean encodeMessage(ByteBuf encoded, Message m) {
+        if (!isTypedMessage(m.type)) {
+            return false;
+        }
+        long messageId = parseMessageId(m.messageId);
+        long replyMessageId = m.replyMessageId != null ? parseMessageId(m.replyMessageId) : 0;
+        if (messageId <= 0 || replyMessageId < 0) {
+            return false;
+        }
+        int start = encoded.writerIndex();
+        encoded.writeByte(VERSION);
+        writeVarInt(encoded, m.type);
+        writeVarLong(encoded, messageId);
+        writeVarLong(encoded, replyMessageId);
+        writeString(encoded, m.workerProcessId);
+        if (m.parameters == null || m.parameters.isEmpty()) {
+            return true;
+        }
+        if (!writeFields(encoded, m.parameters)) {
+            encoded.writerIndex(start);
+            return false;
+        }
+        return true;
+    }
+
+    static Message decodeMessage(ByteBuf encoded) {
+        int type = readVarInt(encoded);
+        long messageId = readVarLong(encoded);
+        long replyMessageId = readVarLong(encoded);
+        String workerProcessId = readString(encoded);
+        Map<String, Object> params;
+        if (encoded.isReadable()) {
+            params = readFields(encoded);
+        } else {
+            params = new HashMap<>();
+        }
+        Message m = new Message(workerProcessId, type, params);
+        m.messageId = Long.toString(messageId);
+        if (replyMessageId > 0) {
+            m.replyMessageId = Long.toString(replyMessageId);
+        }
+        return m;
+    }
+
+    private static long parseMessageId(String messageId) {
+        if (messageId == null || messageId.isEmpty() || messageId.length() > 18) {
+            return -1;
+        }
+        long res = 0;
+        for (int i = 0; i < messageId.length(); i++) {
+            char c = messageId.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            res = res * 10 + (c - '0');
+        }
+        return res;
+    }
+
+    private static boolean writeFields(ByteBuf encoded, Map<?, ?> fields) {
+        writeVarInt(encoded, fields.size());
+        for (Map.Entry<?, ?> entry : fields.entrySet()) {
+            Integer tag = TAGS.get(entry.getKey());
+            if (tag == null) {
+                return false;
+            }
+            writeVarInt(encoded, tag);
+            if (!writeValue(encoded, entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, Object> readFields(ByteBuf encoded) {
+        int size = readVarInt(encoded);
+        Map<String, Object> res = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            int tag = readVarInt(encoded);
+            if (tag <= 0 || tag >= FIELDS.length) {
+                throw new RuntimeException("invalid field tag: " + tag);
+            }
+            res.put(FIELDS[tag], readValue(encoded));
+        }
+        return res;
+    }
+
+    private static boolean hasOnlyKnownKeys(Map<?, ?> map) {
+        for (Object key : map.keySet()) {
+            if (!(key instanceof String) || !TAGS.containsKey(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean writeValue(ByteBuf encoded, Object o) {
+        if (o == null) {
+            encoded.writeByte(KIND_NULL);
+        } else if (o instanceof String) {
+            encoded.writeByte(KIND_STRING);
+            writeString(encoded, (String) o);
+        } else if (o instanceof Integer) {
+            encoded.writeByte(KIND_INT);
+            writeVarInt(encoded, zigZag((Integer) o));
+        } else if (o instanceof Long) {
+            encoded.writeByte(KIND_LONG);
+            writeVarLong(encoded, zigZag((Long) o));
+        } else if (o instanceof List || o instanceof Set) {
+            Collection<?> collection = (Collection<?>) o;
+            encoded.writeByte(o instanceof List ? KIND_LIST : KIND_SET);
+            writeVarInt(encoded, collection.size());
+            for (Object element : collection) {
+                if (!writeValue(encoded, element)) {
+                    return false;
+                }
+            }
+        } else if (o instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) o;
+            if (hasOnlyKnownKeys(map)) {
+                encoded.writeByte(KIND_FIELDS);
+                return writeFields(encoded, map);
+            }
+            encoded.writeByte(KIND_MAP);
+            writeVarInt(encoded, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!writeValue(encoded, entry.getKey()) || !writeValue(encoded, entry.getValue())) {
+                    return false;
+                }
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static Object readValue(ByteBuf encoded) {
+        byte kind = encoded.readByte();
+        switch (kind) {
+            case KIND_NULL:
+                return null;
+            case KIND_STRING:
+                return readString(encoded);
+            case KIND_INT:
+                return unZigZag(readVarInt(encoded));
+            case KIND_LONG:
+                return unZigZag(readVarLong(encoded));
+            case KIND_LIST: {
+                int size = readVarInt(encoded);
+                List<Object> res = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    res.add(readValue(encoded));
+                }
+                return res;
+            }
+            case KIND_SET: {
+                int size = readVarInt(encoded);
+                Set<Object> res = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    res.add(readValue(encoded));
+                }
+                return res;
+            }
+            case KIND_MAP: {
+                int size = readVarInt(encoded);
+                Map<Object, Object> res = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    Object key = readValue(encoded);
+                    res.put(key, readValue(encoded));
+                }
+                return res;
+            }
+            case KIND_FIELDS:
+                return readFields(encoded);
+            default:
+                throw new RuntimeException("invalid value kind: " + kind);
+        }
+    }
+
+    /**
+     * Writes the length of the string, plus one (zero means null), and the UTF-8 bytes, without copying the string to
+     * a temporary byte array
+     */
+    private static void writeString(ByteBuf encoded, String s) {
+        if (s == null) {
+            writeVarInt(encoded, 0);
+            return;
+        }
+        int len = s.length();
+        int utf8Length = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, written as '?' like String.getBytes does
+                utf8Length++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+        writeVarInt(encoded, utf8Length + 1);
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                encoded.writeByte(c);
+            } else if (c < 0x800) {
+                encoded.writeByte(0xC0 | (c >> 6));
+                encoded.writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                encoded.writeByte(0xF0 | (codePoint >> 18));
+                encoded.writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                encoded.writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                encoded.writeByte(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                encoded.writeByte('?');
+            } else {
+                encoded.writeByte(0xE0 | (c >> 12));
+                encoded.writeByte(0x80 | ((c >> 6) & 0x3F));
+                encoded.writeByte(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static String readString(ByteBuf encoded) {
+        int len = readVarInt(encoded) - 1;
+        if (len < 0) {
+            return null;
+        }
+        String res = encoded.toString(encoded.readerIndex(), len, StandardCharsets.UTF_8);
+        encoded.skipBytes(len);
+        return res;
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(ByteBuf encoded, int value) {
+        while ((value & ~0x7F) != 0) {
+            encoded.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        encoded.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuf encoded) {
+        int res = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = encoded.readByte();
+            res |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return res;
+            }
+        }
+        throw new RuntimeException("malformed varint");
+    }
+
+    private static void writeVarLong(ByteBuf encoded, long value) {
+        while ((value & ~0x7FL) != 0) {
+            encoded.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        encoded.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuf encoded) {
+        long res = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = encoded.readByte();
+            res |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return res;
+            }
+        }
+        throw new RuntimeException("malformed varlong");
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package dodo.network;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import majordodo.network.Message;
+import majordodo.network.PendingReplies;
+import majordodo.network.ReplyCallback;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author enrico.olivelli
+ */
+public class PendingRepliesTest {
+
+    private static final ReplyCallback NOOP = (originalMessage, message, error) -> {
+    };
+
+    @Test
+    public void testReplyReceived() throws Exception {
+        List<Long> expired = new CopyOnWriteArrayList<>();
+        PendingReplies pendingReplies = new PendingReplies((p) -> expired.add(p.getId()));
+        Message message = Message.SNAPSHOT_DOWNLOAD_REQUEST();
+        pendingReplies.register(1, message, NOOP, 100);
+        assertEquals(1, pendingReplies.size());
+        PendingReplies.PendingReply pending = pendingReplies.remove(1);
+        assertSame(message, pending.getMessage());
+        assertSame(NOOP, pending.getCallback());
+        assertNull(pendingReplies.remove(1));
+        assertEquals(0, pendingReplies.size());
+        Thread.sleep(500);
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Long> expired = new CopyOnWriteArrayList<>();
+        PendingReplies pendingReplies = new PendingReplies((p) -> {
+            expired.add(p.getId());
+            latch.countDown();
+        });
+        long start = System.currentTimeMillis();
+        pendingReplies.register(1, Message.SNAPSHOT_DOWNLOAD_REQUEST(), NOOP, 200);
+        pendingReplies.register(2, Message.SNAPSHOT_DOWNLOAD_REQUEST(), NOOP, 60000);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        assertEquals(1, expired.size());
+        assertEquals(1L, expired.get(0).longValue());
+        assertNull(pendingReplies.remove(1));
+        assertEquals(1, pendingReplies.size());
+        assertEquals(1, pendingReplies.removeAll().size());
+        assertEquals(0, pendingReplies.size());
+    }
+
+    @Test
+    public void testManyTimeouts() throws Exception {
+        int count = 10000;
+        CountDownLatch latch = new CountDownLatch(count / 2);
+        PendingReplies pendingReplies = new PendingReplies((p) -> {
+            assertTrue(p.getId() % 2 == 0);
+            latch.countDown();
+        });
+        for (int i = 0; i < count; i++) {
+            pendingReplies.register(i, Message.SNAPSHOT_DOWNLOAD_REQUEST(), NOOP, i % 500);
+        }
+        for (int i = 1; i < count; i += 2) {
+            assertNotNull(pendingReplies.remove(i));
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(0, pendingReplies.size());
+    }
+
+    @Test
+    public void testParseMessageId() {
+        assertEquals(12, PendingReplies.parseMessageId("12"));
+        assertEquals(-1, PendingReplies.parseMessageId(null));
+        assertEquals(-1, PendingReplies.parseMessageId("9f1c2a6e-uuid"));
+    }
+}
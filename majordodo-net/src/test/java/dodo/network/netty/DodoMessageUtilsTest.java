@@ -23,8 +23,12 @@ import majordodo.network.netty.DodoMessageUtils;
 import majordodo.network.Message;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.junit.Test;
@@ -85,4 +89,79 @@ public class DodoMessageUtilsTest {
         assertEquals(read.parameters.get("pp_set"), m.parameters.get("pp_set"));
     }
 
+    @Test
+    public void testTypedEncoding() {
+        Map<String, Object> task = new HashMap<>();
+        task.put("taskid", 1234567890123L);
+        task.put("tasktype", "mytype");
+        task.put("parameter", "p\u00e8\u20ac\ud83d\ude00");
+        task.put("attempt", 1);
+        task.put("userid", "user");
+        task.put("resources", null);
+        List<Map<String, Object>> tasks = new ArrayList<>();
+        tasks.add(task);
+        tasks.add(new HashMap<>(task));
+        Message m = Message.TASKS_ASSIGNED("proc", tasks);
+        m.messageId = "12";
+        Message read = encodeAndDecode(m, true);
+        assertEquals(m.messageId, read.messageId);
+        assertNull(read.replyMessageId);
+        assertEquals(m.workerProcessId, read.workerProcessId);
+        assertEquals(m.parameters, read.parameters);
+
+        Map<String, Integer> maxThreadsByTaskType = new HashMap<>();
+        maxThreadsByTaskType.put("mytype", 10);
+        maxThreadsByTaskType.put("status", -1);
+        m = Message.WORKER_PING("proc", Arrays.asList(1, -2), new HashSet<>(Arrays.asList(3)), maxThreadsByTaskType, 100,
+            Collections.emptyMap(), 0);
+        m.messageId = "13";
+        read = encodeAndDecode(m, true);
+        assertEquals(m.parameters, read.parameters);
+
+        m = Message.ACK("proc");
+        m.messageId = "14";
+        m.replyMessageId = "99";
+        ByteBuf encoded = Unpooled.buffer();
+        DodoMessageUtils.encodeMessage(encoded, m, true);
+        int typedSize = encoded.readableBytes();
+        read = DodoMessageUtils.decodeMessage(encoded);
+        assertEquals("99", read.replyMessageId);
+        assertTrue(read.parameters.isEmpty());
+        encoded = Unpooled.buffer();
+        DodoMessageUtils.encodeMessage(encoded, m, false);
+        assertTrue(typedSize < encoded.readableBytes());
+    }
+
+    @Test
+    public void testTypedEncodingFallback() {
+        // unknown parameter
+        Message m = Message.ACK("proc");
+        m.setParameter("unknown", 1);
+        m.messageId = "1";
+        ByteBuf encoded = Unpooled.buffer();
+        DodoMessageUtils.encodeMessage(encoded, m, true);
+        assertEquals('a', encoded.getByte(0));
+        Message read = DodoMessageUtils.decodeMessage(encoded);
+        assertEquals(m.parameters, read.parameters);
+
+        // message id not generated by this version
+        m = Message.ACK("proc");
+        m.messageId = "0f6b1c8e-0d5b-4a43-9b2b-1bb4e3a9d7c2";
+        read = encodeAndDecode(m, true);
+        assertEquals(m.messageId, read.messageId);
+
+        // type not handled by the typed encoding
+        m = Message.KILL_WORKER("proc");
+        m.messageId = "2";
+        encoded = Unpooled.buffer();
+        DodoMessageUtils.encodeMessage(encoded, m, true);
+        assertEquals('a', encoded.getByte(0));
+    }
+
+    private static Message encodeAndDecode(Message m, boolean typedEncoding) {
+        ByteBuf encoded = Unpooled.buffer();
+        DodoMessageUtils.encodeMessage(encoded, m, typedEncoding);
+        return DodoMessageUtils.decodeMessage(encoded);
+    }
+
 }
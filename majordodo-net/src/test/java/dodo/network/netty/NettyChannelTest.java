@@ -22,6 +22,7 @@ package dodo.network.netty;
 import majordodo.network.netty.NettyConnector;
 import majordodo.network.netty.NettyChannelAcceptor;
 import majordodo.network.netty.NettyChannel;
+import majordodo.network.netty.NetworkUtils;
 import majordodo.network.Channel;
 import majordodo.network.ChannelEventListener;
 import majordodo.network.Message;
@@ -38,6 +39,7 @@ import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.SimpleFormatter;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -157,4 +159,48 @@ public class NettyChannelTest {
 
     }
 
+    @Test
+    public void testHighWaterMarkUnderDefaultLowWaterMark() throws Exception {
+        assertTrue(NetworkUtils.getWriteBufferLowWaterMark() > 16 * 1024);
+        ServerSideConnectionAcceptor acceptor = (Channel channel) -> {
+            channel.setMessagesReceiver(new ChannelEventListener() {
+
+                @Override
+                public void messageReceived(Message message) {
+                    channel.sendReplyMessage(message, Message.ACK("ok"));
+                }
+
+                @Override
+                public void channelClosed() {
+                }
+
+            });
+            return new SimpleServerSideConnection();
+        };
+        BlockingQueue<Message> replyReceivedFromClient = new ArrayBlockingQueue<>(100);
+        try (NettyChannelAcceptor server = new NettyChannelAcceptor(acceptor);) {
+            server.setHost("0.0.0.0");
+            server.setWriteBufferHighWaterMark(16 * 1024);
+            server.start();
+            try (NettyConnector connector = new NettyConnector(new ChannelEventListener() {
+
+                @Override
+                public void messageReceived(Message message) {
+                }
+
+                @Override
+                public void channelClosed() {
+                }
+            })) {
+                connector.setWriteBufferHighWaterMark(16 * 1024);
+                NettyChannel channel = connector.connect();
+                channel.sendMessageWithAsyncReply(Message.KILL_WORKER("testrequest"), 10000, (Message originalMessage, Message message, Throwable error) -> {
+                    replyReceivedFromClient.add(message);
+                });
+                Message response = replyReceivedFromClient.take();
+                assertEquals(Message.TYPE_ACK, response.type);
+            }
+        }
+    }
+
 }
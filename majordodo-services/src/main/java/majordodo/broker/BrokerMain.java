@@ -180,6 +180,10 @@ public class BrokerMain implements AutoCloseable {
         String sharedsecret = configuration.getProperty("sharedsecret", "dodo");
         String clusteringmode = configuration.getProperty("clustering.mode", "singleserver");
         int workerthreads = Integer.parseInt(configuration.getProperty("io.worker.threads", "16"));
+        boolean flushconsolidation = Boolean.parseBoolean(configuration.getProperty("io.flushconsolidation", "false"));
+        int flushconsolidationmaxflushes = Integer.parseInt(configuration.getProperty("io.flushconsolidation.maxflushes", "256"));
+        int writebufferlowwatermark = Integer.parseInt(configuration.getProperty("io.writebuffer.lowwatermark", "32768"));
+        int writebufferhighwatermark = Integer.parseInt(configuration.getProperty("io.writebuffer.highwatermark", "65536"));
 
         String adminuser = configuration.getProperty("admin.username", "admin");
         String adminpassword = configuration.getProperty("admin.password", "password");
@@ -205,7 +209,9 @@ public class BrokerMain implements AutoCloseable {
                 String logsdir = configuration.getProperty("logs.dir", "txlog");
                 String snapdir = configuration.getProperty("data.dir", "data");
                 long maxFileSize = Long.parseLong(configuration.getProperty("logs.maxfilesize", (1024 * 1024) + ""));
-                log = new FileCommitLog(Paths.get(snapdir), Paths.get(logsdir), maxFileSize);
+                FileCommitLog fileCommitLog = new FileCommitLog(Paths.get(snapdir), Paths.get(logsdir), maxFileSize);
+                fileCommitLog.setMemoryMappedFiles(Boolean.parseBoolean(configuration.getProperty("logs.mmap", "false")));
+                log = fileCommitLog;
                 break;
             }
             case "clustered": {
@@ -247,7 +253,7 @@ public class BrokerMain implements AutoCloseable {
         configuration.keySet().forEach(k -> props.put(k.toString(), configuration.get(k)));
         config.setSharedSecret(sharedsecret);
         config.read(props);
-        broker = new Broker(config, log, new TasksHeap(taskheapsize, mapper));
+        broker = new Broker(config, log, new TasksHeap(taskheapsize, mapper, config.getTasksHeapPartitioning()));
         broker.setAuthenticationManager(new SingleUserAuthenticationManager(adminuser, adminpassword));
         broker.setBrokerId(id);
         broker.setExternalProcessChecker(() -> {
@@ -259,6 +265,10 @@ public class BrokerMain implements AutoCloseable {
         System.out.println("Listening for workers connections on " + host + ":" + port + " ssl=" + ssl);
         this.server = new NettyChannelAcceptor(broker.getAcceptor());
         this.server.setWorkerThreads(workerthreads);
+        server.setFlushConsolidation(flushconsolidation);
+        server.setFlushConsolidationMaxFlushes(flushconsolidationmaxflushes);
+        server.setWriteBufferLowWaterMark(writebufferlowwatermark);
+        server.setWriteBufferHighWaterMark(writebufferhighwatermark);
         server.setHost(host);
         server.setPort(port);
         server.setSsl(ssl);